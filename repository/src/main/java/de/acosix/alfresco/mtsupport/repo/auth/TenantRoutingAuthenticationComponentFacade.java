@@ -17,6 +17,7 @@ package de.acosix.alfresco.mtsupport.repo.auth;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.alfresco.repo.management.subsystems.ActivateableBean;
@@ -36,12 +37,13 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
 import de.acosix.alfresco.mtsupport.repo.beans.TenantBeanUtils;
+import de.acosix.alfresco.mtsupport.repo.beans.TenantRoutingAware;
 
 /**
  * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
  */
 public class TenantRoutingAuthenticationComponentFacade extends AbstractAuthenticationComponent
-        implements InitializingBean, ApplicationContextAware, ActivateableBean, BeanNameAware
+        implements InitializingBean, ApplicationContextAware, ActivateableBean, BeanNameAware, TenantRoutingAware
 {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TenantRoutingAuthenticationComponentFacade.class);
@@ -106,7 +108,29 @@ public class TenantRoutingAuthenticationComponentFacade extends AbstractAuthenti
     public void setEnabledTenants(final String enabledTenants)
     {
         ParameterCheck.mandatoryString("enabledTenants", enabledTenants);
-        this.enabledTenants = Arrays.asList(enabledTenants.split(","));
+        // may be modified at runtime when tenants are added / removed
+        this.enabledTenants = new CopyOnWriteArrayList<>(Arrays.asList(enabledTenants.split(",")));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTenantAdded(final String tenantDomain)
+    {
+        if (!this.enabledTenants.contains(tenantDomain))
+        {
+            this.enabledTenants.add(tenantDomain);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTenantRemoved(final String tenantDomain)
+    {
+        this.enabledTenants.remove(tenantDomain);
     }
 
     /**
@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.alfresco.repo.management.subsystems.ActivateableBean;
@@ -40,15 +41,21 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
 import de.acosix.alfresco.mtsupport.repo.beans.TenantBeanUtils;
+import de.acosix.alfresco.mtsupport.repo.beans.TenantRoutingAware;
+import de.acosix.alfresco.mtsupport.repo.sync.ChangeListeningUserRegistry;
+import de.acosix.alfresco.mtsupport.repo.sync.ChangeTrackingUserRegistry;
 import de.acosix.alfresco.mtsupport.repo.sync.EnhancedUserRegistry;
 import de.acosix.alfresco.mtsupport.repo.sync.TenantAwareUserRegistry;
+import de.acosix.alfresco.mtsupport.repo.sync.TombstoneUserRegistry;
 import de.acosix.alfresco.mtsupport.repo.sync.UserAccountInterpreter;
+import de.acosix.alfresco.mtsupport.repo.sync.UserRegistryChangeListener;
 
 /**
  * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
  */
-public class TenantRoutingUserRegistryFacade
-        implements TenantAwareUserRegistry, EnhancedUserRegistry, InitializingBean, ApplicationContextAware, ActivateableBean, BeanNameAware
+public class TenantRoutingUserRegistryFacade implements TenantAwareUserRegistry, EnhancedUserRegistry, ChangeTrackingUserRegistry,
+        ChangeListeningUserRegistry, TombstoneUserRegistry, InitializingBean, ApplicationContextAware, ActivateableBean, BeanNameAware,
+        TenantRoutingAware
 {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TenantRoutingUserRegistryFacade.class);
@@ -101,7 +108,29 @@ public class TenantRoutingUserRegistryFacade
     public void setEnabledTenants(final String enabledTenants)
     {
         ParameterCheck.mandatoryString("enabledTenants", enabledTenants);
-        this.enabledTenants = Arrays.asList(enabledTenants.split(","));
+        // may be modified at runtime when tenants are added / removed
+        this.enabledTenants = new CopyOnWriteArrayList<>(Arrays.asList(enabledTenants.split(",")));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTenantAdded(final String tenantDomain)
+    {
+        if (!this.enabledTenants.contains(tenantDomain))
+        {
+            this.enabledTenants.add(tenantDomain);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTenantRemoved(final String tenantDomain)
+    {
+        this.enabledTenants.remove(tenantDomain);
     }
 
     /**
@@ -268,6 +297,196 @@ public class TenantRoutingUserRegistryFacade
         return result;
     }
 
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isChangeTrackingEnabled()
+    {
+        final ChangeTrackingUserRegistry userRegistry = this.getChangeTrackingUserRegistryForCurrentDomain();
+        final boolean result = userRegistry != null && userRegistry.isChangeTrackingEnabled();
+        return result;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCurrentChangeMarker()
+    {
+        final ChangeTrackingUserRegistry userRegistry = this.getChangeTrackingUserRegistryForCurrentDomain();
+        final String result = userRegistry != null ? userRegistry.getCurrentChangeMarker() : null;
+        return result;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isChangeMarkerValid(final String changeMarker)
+    {
+        final ChangeTrackingUserRegistry userRegistry = this.getChangeTrackingUserRegistryForCurrentDomain();
+        final boolean result = userRegistry != null && userRegistry.isChangeMarkerValid(changeMarker);
+        return result;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<NodeDescription> getPersonsChangedSince(final String changeMarker)
+    {
+        final ChangeTrackingUserRegistry userRegistry = this.getChangeTrackingUserRegistryForCurrentDomain();
+        final Collection<NodeDescription> results = userRegistry != null ? userRegistry.getPersonsChangedSince(changeMarker)
+                : Collections.emptyList();
+        return results;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<NodeDescription> getGroupsChangedSince(final String changeMarker)
+    {
+        final ChangeTrackingUserRegistry userRegistry = this.getChangeTrackingUserRegistryForCurrentDomain();
+        final Collection<NodeDescription> results = userRegistry != null ? userRegistry.getGroupsChangedSince(changeMarker)
+                : Collections.emptyList();
+        return results;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getPersonNamesDeletedSince(final String changeMarker)
+    {
+        final ChangeTrackingUserRegistry userRegistry = this.getChangeTrackingUserRegistryForCurrentDomain();
+        final Collection<String> results = userRegistry != null ? userRegistry.getPersonNamesDeletedSince(changeMarker)
+                : Collections.emptyList();
+        return results;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getGroupNamesDeletedSince(final String changeMarker)
+    {
+        final ChangeTrackingUserRegistry userRegistry = this.getChangeTrackingUserRegistryForCurrentDomain();
+        final Collection<String> results = userRegistry != null ? userRegistry.getGroupNamesDeletedSince(changeMarker)
+                : Collections.emptyList();
+        return results;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isChangeListenerEnabled()
+    {
+        final ChangeListeningUserRegistry userRegistry = this.getChangeListeningUserRegistryForCurrentDomain();
+        final boolean result = userRegistry != null && userRegistry.isChangeListenerEnabled();
+        return result;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void listenForPersonChanges(final UserRegistryChangeListener listener)
+    {
+        final ChangeListeningUserRegistry userRegistry = this.getChangeListeningUserRegistryForCurrentDomain();
+        if (userRegistry != null)
+        {
+            userRegistry.listenForPersonChanges(listener);
+        }
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void listenForGroupChanges(final UserRegistryChangeListener listener)
+    {
+        final ChangeListeningUserRegistry userRegistry = this.getChangeListeningUserRegistryForCurrentDomain();
+        if (userRegistry != null)
+        {
+            userRegistry.listenForGroupChanges(listener);
+        }
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isTombstoneQueryEnabled()
+    {
+        final TombstoneUserRegistry userRegistry = this.getTombstoneUserRegistryForCurrentDomain();
+        final boolean result = userRegistry != null && userRegistry.isTombstoneQueryEnabled();
+        return result;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getDeletedPersonNames(final Date deletedSince)
+    {
+        final TombstoneUserRegistry userRegistry = this.getTombstoneUserRegistryForCurrentDomain();
+        final Collection<String> results = userRegistry != null ? userRegistry.getDeletedPersonNames(deletedSince)
+                : Collections.emptyList();
+        return results;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getDeletedGroupNames(final Date deletedSince)
+    {
+        final TombstoneUserRegistry userRegistry = this.getTombstoneUserRegistryForCurrentDomain();
+        final Collection<String> results = userRegistry != null ? userRegistry.getDeletedGroupNames(deletedSince)
+                : Collections.emptyList();
+        return results;
+    }
+
+    protected ChangeTrackingUserRegistry getChangeTrackingUserRegistryForCurrentDomain()
+    {
+        final UserRegistry userRegistry = this.getUserRegistryForCurrentDomain();
+        final ChangeTrackingUserRegistry result = userRegistry instanceof ChangeTrackingUserRegistry
+                ? (ChangeTrackingUserRegistry) userRegistry : null;
+        return result;
+    }
+
+    protected ChangeListeningUserRegistry getChangeListeningUserRegistryForCurrentDomain()
+    {
+        final UserRegistry userRegistry = this.getUserRegistryForCurrentDomain();
+        final ChangeListeningUserRegistry result = userRegistry instanceof ChangeListeningUserRegistry
+                ? (ChangeListeningUserRegistry) userRegistry : null;
+        return result;
+    }
+
+    protected TombstoneUserRegistry getTombstoneUserRegistryForCurrentDomain()
+    {
+        final UserRegistry userRegistry = this.getUserRegistryForCurrentDomain();
+        final TombstoneUserRegistry result = userRegistry instanceof TombstoneUserRegistry ? (TombstoneUserRegistry) userRegistry
+                : null;
+        return result;
+    }
+
     protected UserRegistry getUserRegistryForCurrentDomain()
     {
         final String tenantDomain = TenantUtil.getCurrentDomain();
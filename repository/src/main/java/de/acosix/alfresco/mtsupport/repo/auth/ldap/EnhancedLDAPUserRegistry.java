@@ -15,6 +15,7 @@
  */
 package de.acosix.alfresco.mtsupport.repo.auth.ldap;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.MessageFormat;
@@ -33,7 +34,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
@@ -49,6 +52,9 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
 
 import org.alfresco.error.AlfrescoRuntimeException;
@@ -70,20 +76,44 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
+import de.acosix.alfresco.mtsupport.repo.sync.ChangeListeningUserRegistry;
+import de.acosix.alfresco.mtsupport.repo.sync.ChangeTrackingUserRegistry;
 import de.acosix.alfresco.mtsupport.repo.sync.EnhancedUserRegistry;
+import de.acosix.alfresco.mtsupport.repo.sync.TombstoneUserRegistry;
 import de.acosix.alfresco.mtsupport.repo.sync.UserAccountInterpreter;
+import de.acosix.alfresco.mtsupport.repo.sync.UserRegistryChangeListener;
 
 /**
  * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
  */
-public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameResolver, InitializingBean, ActivateableBean
+public class EnhancedLDAPUserRegistry
+        implements EnhancedUserRegistry, ChangeTrackingUserRegistry, ChangeListeningUserRegistry, TombstoneUserRegistry,
+        LDAPNameResolver, InitializingBean, ActivateableBean
 {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(EnhancedLDAPUserRegistry.class);
 
+    public static final String CHANGE_LISTENER_MODE_NONE = "none";
+
+    public static final String CHANGE_LISTENER_MODE_PERSISTENT_SEARCH = "persistentSearch";
+
+    public static final String CHANGE_LISTENER_MODE_POLLING = "polling";
+
     /** The regular expression that will match the attribute at the end of a range. */
     private static final Pattern PATTERN_RANGE_END = Pattern.compile(";range=[0-9]+-\\*");
 
+    /** The OID of the Active Directory control to include deleted objects (tombstones) in search results. */
+    private static final String SHOW_DELETED_CONTROL_OID = "1.2.840.113556.1.4.417";
+
+    /** The suffix Active Directory appends to the RDN attribute value of deleted objects. */
+    private static final String DELETED_OBJECT_NAME_SUFFIX = "\nDEL:";
+
+    /** The rootDSE attribute providing the highest update sequence number committed by the directory server. */
+    private static final String HIGHEST_COMMITTED_USN_ATTRIBUTE_NAME = "highestCommittedUSN";
+
+    /** The rootDSE attribute identifying the directory server service instance. */
+    private static final String DS_SERVICE_NAME_ATTRIBUTE_NAME = "dsServiceName";
+
     /** Is this bean active? I.e. should this part of the subsystem be used? */
     private boolean active = true;
 
@@ -102,6 +132,42 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
     /** The person differential query. */
     protected String personDifferentialQuery = "(&(objectclass=inetOrgPerson)(!(modifyTimestamp<={0})))";
 
+    /** Is change tracking via update sequence numbers enabled? */
+    protected boolean enableChangeTracking = false;
+
+    /** The group query for change tracking. */
+    protected String groupChangeTrackingQuery = "(&(objectclass=group)(uSNChanged>={0}))";
+
+    /** The person query for change tracking. */
+    protected String personChangeTrackingQuery = "(&(objectclass=user)(userAccountControl:1.2.840.113556.1.4.803:=512)(uSNChanged>={0}))";
+
+    /** The query for deleted groups for change tracking. */
+    protected String deletedGroupQuery = "(&(isDeleted=TRUE)(objectclass=group)(uSNChanged>={0}))";
+
+    /** The query for deleted persons for change tracking. */
+    protected String deletedPersonQuery = "(&(isDeleted=TRUE)(objectclass=user)(uSNChanged>={0}))";
+
+    /** The search base for deleted objects. */
+    protected String deletedObjectsSearchBase;
+
+    /** Are tombstone queries for deleted objects enabled? */
+    protected boolean enableTombstoneQueries = false;
+
+    /** The tombstone query for groups deleted since a specific time. */
+    protected String groupTombstoneQuery = "(&(isDeleted=TRUE)(objectclass=group)(!(whenChanged<={0})))";
+
+    /** The tombstone query for persons deleted since a specific time. */
+    protected String personTombstoneQuery = "(&(isDeleted=TRUE)(objectclass=user)(!(whenChanged<={0})))";
+
+    /** Should the show-deleted control be used for tombstone queries? */
+    protected boolean tombstoneShowDeleted = true;
+
+    /** The mode used to listen for changes in the directory. */
+    protected String changeListenerMode = CHANGE_LISTENER_MODE_NONE;
+
+    /** The interval in seconds between differential queries when listening for changes via polling. */
+    protected int changeListenerPollInterval = 30;
+
     /** The group search base. */
     protected String groupSearchBase;
 
@@ -114,6 +180,9 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
     /** The user id attribute name. */
     protected String userIdAttributeName = "uid";
 
+    /** The name of the attribute holding an immutable identifier of users, e.g. objectGUID - optional. */
+    protected String userStableIdAttributeName;
+
     /** The member attribute name. */
     protected String memberAttributeName = "member";
 
@@ -150,6 +219,12 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
      */
     protected int queryBatchSize;
 
+    /**
+     * The memory budget in MiB for tracking the uids of users retrieved in a single query, beyond which they are spilled to temporary
+     * files.
+     */
+    protected int uidMemoryBudgetMB = 16;
+
     /**
      * The attribute retrieval batch size. If positive, indicates that range retrieval should be used to fetch
      * multi-valued attributes (such as member) in batches of the specified size. Overcomes any size limits imposed by
@@ -266,6 +341,145 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
         this.personDifferentialQuery = personDifferentialQuery;
     }
 
+    /**
+     * Controls whether change tracking via update sequence numbers is enabled.
+     *
+     * @param enableChangeTracking
+     *            <code>true</code> if change tracking is enabled
+     */
+    public void setEnableChangeTracking(final boolean enableChangeTracking)
+    {
+        this.enableChangeTracking = enableChangeTracking;
+    }
+
+    /**
+     * Sets the group query for change tracking.
+     *
+     * @param groupChangeTrackingQuery
+     *            the group query for change tracking
+     */
+    public void setGroupChangeTrackingQuery(final String groupChangeTrackingQuery)
+    {
+        this.groupChangeTrackingQuery = groupChangeTrackingQuery;
+    }
+
+    /**
+     * Sets the person query for change tracking.
+     *
+     * @param personChangeTrackingQuery
+     *            the person query for change tracking
+     */
+    public void setPersonChangeTrackingQuery(final String personChangeTrackingQuery)
+    {
+        this.personChangeTrackingQuery = personChangeTrackingQuery;
+    }
+
+    /**
+     * Sets the query for deleted groups for change tracking.
+     *
+     * @param deletedGroupQuery
+     *            the query for deleted groups
+     */
+    public void setDeletedGroupQuery(final String deletedGroupQuery)
+    {
+        this.deletedGroupQuery = deletedGroupQuery;
+    }
+
+    /**
+     * Sets the query for deleted persons for change tracking.
+     *
+     * @param deletedPersonQuery
+     *            the query for deleted persons
+     */
+    public void setDeletedPersonQuery(final String deletedPersonQuery)
+    {
+        this.deletedPersonQuery = deletedPersonQuery;
+    }
+
+    /**
+     * Sets the search base for deleted objects.
+     *
+     * @param deletedObjectsSearchBase
+     *            the search base for deleted objects
+     */
+    public void setDeletedObjectsSearchBase(final String deletedObjectsSearchBase)
+    {
+        this.deletedObjectsSearchBase = deletedObjectsSearchBase;
+    }
+
+    /**
+     * Controls whether tombstone queries for deleted objects are enabled.
+     *
+     * @param enableTombstoneQueries
+     *            <code>true</code> if tombstone queries are enabled
+     */
+    public void setEnableTombstoneQueries(final boolean enableTombstoneQueries)
+    {
+        this.enableTombstoneQueries = enableTombstoneQueries;
+    }
+
+    /**
+     * Sets the tombstone query for groups deleted since a specific time.
+     *
+     * @param groupTombstoneQuery
+     *            the group tombstone query
+     */
+    public void setGroupTombstoneQuery(final String groupTombstoneQuery)
+    {
+        this.groupTombstoneQuery = groupTombstoneQuery;
+    }
+
+    /**
+     * Sets the tombstone query for persons deleted since a specific time.
+     *
+     * @param personTombstoneQuery
+     *            the person tombstone query
+     */
+    public void setPersonTombstoneQuery(final String personTombstoneQuery)
+    {
+        this.personTombstoneQuery = personTombstoneQuery;
+    }
+
+    /**
+     * Controls whether the show-deleted control is used for tombstone queries. This is required for tombstones in Active Directory, but
+     * needs to be disabled for directory servers that do not support this control, e.g. when deleted entries are moved to a regular
+     * container.
+     *
+     * @param tombstoneShowDeleted
+     *            <code>true</code> if the show-deleted control should be used
+     */
+    public void setTombstoneShowDeleted(final boolean tombstoneShowDeleted)
+    {
+        this.tombstoneShowDeleted = tombstoneShowDeleted;
+    }
+
+    /**
+     * Sets the mode used to listen for changes in the directory.
+     *
+     * @param changeListenerMode
+     *            the change listener mode
+     *            <ul>
+     *            <li>none: changes are only retrieved by regular synchronisations
+     *            <li>persistentSearch: changes are pushed by the directory server via a persistent search
+     *            <li>polling: changes are retrieved by frequent differential queries
+     *            </ul>
+     */
+    public void setChangeListenerMode(final String changeListenerMode)
+    {
+        this.changeListenerMode = changeListenerMode;
+    }
+
+    /**
+     * Sets the interval between differential queries when listening for changes via polling.
+     *
+     * @param changeListenerPollInterval
+     *            the poll interval in seconds
+     */
+    public void setChangeListenerPollInterval(final int changeListenerPollInterval)
+    {
+        this.changeListenerPollInterval = changeListenerPollInterval;
+    }
+
     /**
      * Sets the group type.
      *
@@ -332,6 +546,18 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
         this.userIdAttributeName = userIdAttributeName;
     }
 
+    /**
+     * Sets the user stable id attribute name.
+     *
+     * @param userStableIdAttributeName
+     *            the name of the attribute holding an immutable identifier of users - if set, renames of users in the directory can be
+     *            tracked as such instead of being treated as the deletion of one and creation of another user
+     */
+    public void setUserStableIdAttributeName(final String userStableIdAttributeName)
+    {
+        this.userStableIdAttributeName = userStableIdAttributeName;
+    }
+
     /**
      * Sets the modification timestamp attribute name.
      *
@@ -481,6 +707,21 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
         this.queryBatchSize = queryBatchSize;
     }
 
+    /**
+     * Sets the memory budget for tracking uids.
+     *
+     * @param uidMemoryBudgetMB
+     *            the memory budget in MiB for tracking the uids of users retrieved in a single query
+     */
+    public void setUidMemoryBudgetMB(final int uidMemoryBudgetMB)
+    {
+        if (uidMemoryBudgetMB <= 0)
+        {
+            throw new IllegalArgumentException("uidMemoryBudgetMB must be a positive integer");
+        }
+        this.uidMemoryBudgetMB = uidMemoryBudgetMB;
+    }
+
     /**
      * Sets the attribute batch size.
      *
@@ -539,12 +780,36 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
         PropertyCheck.mandatory(this, "namespaceService", this.namespaceService);
         PropertyCheck.mandatory(this, "ldapInitialContextFactory", this.ldapInitialContextFactory);
 
+        if (this.changeListenerMode == null || this.changeListenerMode.trim().isEmpty())
+        {
+            this.changeListenerMode = CHANGE_LISTENER_MODE_NONE;
+        }
+        else if (!Arrays.asList(CHANGE_LISTENER_MODE_NONE, CHANGE_LISTENER_MODE_PERSISTENT_SEARCH, CHANGE_LISTENER_MODE_POLLING)
+                .contains(this.changeListenerMode))
+        {
+            throw new IllegalStateException("Unsupported change listener mode: " + this.changeListenerMode);
+        }
+
+        if (CHANGE_LISTENER_MODE_POLLING.equals(this.changeListenerMode) && this.changeListenerPollInterval <= 0)
+        {
+            throw new IllegalStateException("changeListenerPollInterval must be a positive integer");
+        }
+
         if (this.personAttributeMapping == null)
         {
             this.personAttributeMapping = new HashMap<>(5);
         }
         this.personAttributeMapping.put(ContentModel.PROP_USERNAME.toPrefixString(this.namespaceService), this.userIdAttributeName);
-        this.userKeys = this.initKeys(this.personAttributeMapping);
+        if (this.userStableIdAttributeName != null && !this.userStableIdAttributeName.trim().isEmpty())
+        {
+            this.userStableIdAttributeName = this.userStableIdAttributeName.trim();
+            this.userKeys = this.initKeys(this.personAttributeMapping, this.userStableIdAttributeName);
+        }
+        else
+        {
+            this.userStableIdAttributeName = null;
+            this.userKeys = this.initKeys(this.personAttributeMapping);
+        }
 
         // Include a range restriction for the multi-valued member attribute if this is enabled
         if (this.groupAttributeMapping == null)
@@ -577,9 +842,359 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
         else
         {
             final MessageFormat mf = new MessageFormat(this.personDifferentialQuery, Locale.ENGLISH);
-            query = mf.format(new Object[] { this.timestampFormat.format(modifiedSince) });
+            query = mf.format(new Object[] { this.formatTimestamp(modifiedSince) });
+        }
+
+        return this.queryPersons(query);
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isChangeTrackingEnabled()
+    {
+        return this.enableChangeTracking;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCurrentChangeMarker()
+    {
+        final Pair<String, Long> changeState = this.readChangeState();
+        final String changeMarker = changeState != null ? changeState.getSecond() + "@" + changeState.getFirst() : null;
+        LOGGER.debug("Determined current change marker {}", changeMarker);
+        return changeMarker;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isChangeMarkerValid(final String changeMarker)
+    {
+        boolean valid = false;
+        final Pair<String, Long> markerState = this.parseChangeMarker(changeMarker);
+        if (markerState != null)
+        {
+            final Pair<String, Long> changeState = this.readChangeState();
+            if (changeState == null)
+            {
+                LOGGER.debug("Change marker {} cannot be validated as current change state is not available", changeMarker);
+            }
+            else if (!changeState.getFirst().equalsIgnoreCase(markerState.getFirst()))
+            {
+                // update sequence numbers are local to a specific directory server
+                LOGGER.info("Change marker {} was issued by a different directory server than the current one ({})", changeMarker,
+                        changeState.getFirst());
+            }
+            else if (changeState.getSecond().longValue() < markerState.getSecond().longValue())
+            {
+                // directory server may have been restored from backup
+                LOGGER.warn("Change marker {} is ahead of the current highest committed update sequence number {}", changeMarker,
+                        changeState.getSecond());
+            }
+            else
+            {
+                valid = true;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<NodeDescription> getPersonsChangedSince(final String changeMarker)
+    {
+        final String query = this.buildChangeTrackingQuery(this.personChangeTrackingQuery, changeMarker);
+        return this.queryPersons(query);
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<NodeDescription> getGroupsChangedSince(final String changeMarker)
+    {
+        final String query = this.buildChangeTrackingQuery(this.groupChangeTrackingQuery, changeMarker);
+
+        final AtomicInteger totalEstimatedSize = new AtomicInteger(-1);
+        if (this.enableProgressEstimation)
+        {
+            this.processQuery((result) -> {
+                totalEstimatedSize.getAndIncrement();
+            }, this.groupSearchBase, query, new String[0]);
+        }
+
+        return this.queryGroups(query, totalEstimatedSize.get());
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getPersonNamesDeletedSince(final String changeMarker)
+    {
+        final String query = this.buildChangeTrackingQuery(this.deletedPersonQuery, changeMarker);
+        final Collection<String> deletedPersonNames = this.queryDeletedPersonNames(query, true);
+
+        LOGGER.debug("Found deleted persons {} since change marker {}", deletedPersonNames, changeMarker);
+        return deletedPersonNames;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getGroupNamesDeletedSince(final String changeMarker)
+    {
+        final String query = this.buildChangeTrackingQuery(this.deletedGroupQuery, changeMarker);
+        final Collection<String> deletedGroupNames = this.queryDeletedGroupNames(query, true);
+
+        LOGGER.debug("Found deleted groups {} since change marker {}", deletedGroupNames, changeMarker);
+        return deletedGroupNames;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isTombstoneQueryEnabled()
+    {
+        return this.enableTombstoneQueries;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getDeletedPersonNames(final Date deletedSince)
+    {
+        final MessageFormat mf = new MessageFormat(this.personTombstoneQuery, Locale.ENGLISH);
+        final String query = mf.format(new Object[] { this.formatTimestamp(deletedSince) });
+        final Collection<String> deletedPersonNames = this.queryDeletedPersonNames(query, this.tombstoneShowDeleted);
+
+        LOGGER.debug("Found deleted persons {} since {}", deletedPersonNames, deletedSince);
+        return deletedPersonNames;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<String> getDeletedGroupNames(final Date deletedSince)
+    {
+        final MessageFormat mf = new MessageFormat(this.groupTombstoneQuery, Locale.ENGLISH);
+        final String query = mf.format(new Object[] { this.formatTimestamp(deletedSince) });
+        final Collection<String> deletedGroupNames = this.queryDeletedGroupNames(query, this.tombstoneShowDeleted);
+
+        LOGGER.debug("Found deleted groups {} since {}", deletedGroupNames, deletedSince);
+        return deletedGroupNames;
+    }
+
+    protected Collection<String> queryDeletedPersonNames(final String query, final boolean showDeleted)
+    {
+        final Collection<String> deletedPersonNames = this.queryDeletedNames(query, this.userIdAttributeName, showDeleted);
+
+        // a new entry may have been created with the same name
+        deletedPersonNames.removeIf(personName -> this.existsEntry(this.userSearchBase, this.personQuery, this.userIdAttributeName,
+                personName));
+        return deletedPersonNames;
+    }
+
+    protected Collection<String> queryDeletedGroupNames(final String query, final boolean showDeleted)
+    {
+        final Collection<String> deletedGroupIds = this.queryDeletedNames(query, this.groupIdAttributeName, showDeleted);
+
+        final Collection<String> deletedGroupNames = new ArrayList<>(deletedGroupIds.size());
+        for (final String groupId : deletedGroupIds)
+        {
+            // a new entry may have been created with the same name
+            if (!this.existsEntry(this.groupSearchBase, this.groupQuery, this.groupIdAttributeName, groupId))
+            {
+                deletedGroupNames.add(AuthorityType.GROUP.getPrefixString() + groupId);
+            }
+        }
+        return deletedGroupNames;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isChangeListenerEnabled()
+    {
+        return !CHANGE_LISTENER_MODE_NONE.equals(this.changeListenerMode);
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void listenForPersonChanges(final UserRegistryChangeListener listener)
+    {
+        this.listenForChanges(listener, this.userSearchBase, this.personQuery, this.personDifferentialQuery, this.userKeys.getFirst(),
+                this.buildUserMapper());
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void listenForGroupChanges(final UserRegistryChangeListener listener)
+    {
+        this.listenForChanges(listener, this.groupSearchBase, this.groupQuery, this.groupDifferentialQuery, this.groupKeys.getFirst(),
+                this.buildDefaultGroupMapper());
+    }
+
+    protected void listenForChanges(final UserRegistryChangeListener listener, final String searchBase, final String query,
+            final String differentialQuery, final String[] returningAttributes, final NodeMapper mapper)
+    {
+        switch (this.changeListenerMode)
+        {
+            case CHANGE_LISTENER_MODE_PERSISTENT_SEARCH:
+                this.listenWithPersistentSearch(listener, searchBase, query, returningAttributes, mapper);
+                break;
+            case CHANGE_LISTENER_MODE_POLLING:
+                this.listenWithPolling(listener, searchBase, differentialQuery, returningAttributes, mapper);
+                break;
+            default:
+                throw new IllegalStateException("Listening for changes has not been enabled");
+        }
+    }
+
+    protected void listenWithPersistentSearch(final UserRegistryChangeListener listener, final String searchBase, final String query,
+            final String[] returningAttributes, final NodeMapper mapper)
+    {
+        final SearchControls searchControls = new SearchControls();
+        searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        searchControls.setReturningAttributes(returningAttributes);
+
+        InitialDirContext ctx = null;
+        LdapContext listeningCtx = null;
+        NamingEnumeration<SearchResult> searchResults = null;
+        SearchResult result = null;
+        try
+        {
+            ctx = this.ldapInitialContextFactory.getDefaultIntialDirContext();
+            // default context is not an LDAP v3 context, but the provider context behind it always is
+            final Object providerCtx = ctx.lookup("");
+            if (!(providerCtx instanceof LdapContext))
+            {
+                throw new AlfrescoRuntimeException("Persistent search requires an LDAP v3 context");
+            }
+            listeningCtx = (LdapContext) providerCtx;
+            listeningCtx.setRequestControls(new Control[] { new PersistentSearchControl() });
+
+            LOGGER.debug("Starting persistent search for query {} on search base {}", query, searchBase);
+            searchResults = listeningCtx.search(searchBase, query, searchControls);
+
+            final NamingEnumeration<SearchResult> listeningResults = searchResults;
+            listener.onListening(() -> {
+                try
+                {
+                    // abandons the search and wakes up any thread waiting for the next entry
+                    listeningResults.close();
+                }
+                catch (final NamingException e)
+                {
+                    throw new IOException(e);
+                }
+            });
+
+            while (listener.isActive() && searchResults.hasMore())
+            {
+                result = searchResults.next();
+                final UidNodeDescription node = mapper.mapToNode(result);
+                LOGGER.debug("Persistent search returned changed entry {}", node.getSourceId());
+                listener.onChange(node);
+
+                this.commonCloseSearchResult(result);
+                result = null;
+            }
+        }
+        catch (final NamingException e)
+        {
+            if (listener.isActive())
+            {
+                final Object[] params = { e.getLocalizedMessage() };
+                throw new AlfrescoRuntimeException("synchronization.err.ldap.search", params, e);
+            }
+            LOGGER.debug("Persistent search for query {} ended after listener became inactive", query, e);
+        }
+        finally
+        {
+            if (listeningCtx != null)
+            {
+                try
+                {
+                    listeningCtx.close();
+                }
+                catch (final NamingException e)
+                {
+                    LOGGER.debug("Error when closing ldap context", e);
+                }
+            }
+            this.commonAfterQueryCleanup(searchResults, result, ctx);
         }
+    }
+
+    protected void listenWithPolling(final UserRegistryChangeListener listener, final String searchBase, final String differentialQuery,
+            final String[] returningAttributes, final NodeMapper mapper)
+    {
+        // only changes from now on are of interest - anything before is handled by regular synchronisations
+        long lastModified = System.currentTimeMillis();
+        while (listener.isActive())
+        {
+            try
+            {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(this.changeListenerPollInterval));
+            }
+            catch (final InterruptedException e)
+            {
+                LOGGER.debug("Polling for changes with query {} interrupted", differentialQuery);
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            // modification timestamps typically only have a precision of seconds, so re-check the last second
+            // listener is expected to cope with the occasional duplicate
+            final MessageFormat mf = new MessageFormat(differentialQuery, Locale.ENGLISH);
+            final String query = mf.format(new Object[] { this.formatTimestamp(new Date(lastModified - 1000)) });
 
+            final AtomicLong latestModified = new AtomicLong(lastModified);
+            this.processQuery((result) -> {
+                final UidNodeDescription node = mapper.mapToNode(result);
+                if (node.getLastModified() != null)
+                {
+                    latestModified.accumulateAndGet(node.getLastModified().getTime(), Math::max);
+                }
+                LOGGER.debug("Polling returned changed entry {}", node.getSourceId());
+                listener.onChange(node);
+            }, searchBase, query, returningAttributes);
+            lastModified = latestModified.get();
+        }
+    }
+
+    protected Collection<NodeDescription> queryPersons(final String query)
+    {
         final Supplier<InitialDirContext> contextSupplier = this.buildContextSupplier();
         final Function<InitialDirContext, Boolean> nextPageChecker = this.buildNextPageChecker();
         final Function<InitialDirContext, NamingEnumeration<SearchResult>> userSearcher = this.buildUserSearcher(query);
@@ -594,7 +1209,7 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
 
         final NodeMapper userMapper = this.buildUserMapper();
         return new PersonCollection(contextSupplier, nextPageChecker, userSearcher, userMapper, this.queryBatchSize,
-                totalEstimatedSize.get());
+                totalEstimatedSize.get(), this.uidMemoryBudgetMB * 1024L * 1024L);
     }
 
     /**
@@ -637,14 +1252,6 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
     @Override
     public Collection<NodeDescription> getGroups(final Date modifiedSince)
     {
-        // Work out whether the user and group trees are disjoint. This may allow us to optimize reverse DN
-        // resolution.
-        final LdapName groupDistinguishedNamePrefix = this.resolveDistinguishedNamePrefix(this.groupSearchBase);
-        final LdapName userDistinguishedNamePrefix = this.resolveDistinguishedNamePrefix(this.userSearchBase);
-
-        final boolean disjoint = !groupDistinguishedNamePrefix.startsWith(userDistinguishedNamePrefix)
-                && !userDistinguishedNamePrefix.startsWith(groupDistinguishedNamePrefix);
-
         final String query;
         if (modifiedSince == null)
         {
@@ -653,9 +1260,14 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
         else
         {
             final MessageFormat mf = new MessageFormat(this.groupDifferentialQuery, Locale.ENGLISH);
-            query = mf.format(new Object[] { this.timestampFormat.format(modifiedSince) });
+            query = mf.format(new Object[] { this.formatTimestamp(modifiedSince) });
         }
 
+        return this.queryGroups(query, this.countGroups());
+    }
+
+    protected int countGroups()
+    {
         // find duplicate gid in advance
         final Set<String> groupNames = new HashSet<>();
         final Map<String, AtomicInteger> groupNameCounts = new HashMap<>();
@@ -697,12 +1309,18 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
             }
         }, this.groupSearchBase, this.groupQuery, new String[] { this.groupIdAttributeName });
 
+        return groupNames.size();
+    }
+
+    protected Collection<NodeDescription> queryGroups(final String query, final int totalEstimatedSize)
+    {
         final Supplier<InitialDirContext> contextSupplier = this.buildContextSupplier();
         final Function<InitialDirContext, Boolean> nextPageChecker = this.buildNextPageChecker();
         final Function<InitialDirContext, NamingEnumeration<SearchResult>> groupSearcher = this.buildGroupSearcher(query);
 
-        final NodeMapper groupMapper = this.buildGroupMapper(disjoint, groupDistinguishedNamePrefix, userDistinguishedNamePrefix);
-        return new PersonCollection(contextSupplier, nextPageChecker, groupSearcher, groupMapper, this.queryBatchSize, groupNames.size());
+        final NodeMapper groupMapper = this.buildDefaultGroupMapper();
+        return new PersonCollection(contextSupplier, nextPageChecker, groupSearcher, groupMapper, this.queryBatchSize, totalEstimatedSize,
+                this.uidMemoryBudgetMB * 1024L * 1024L);
     }
 
     /**
@@ -870,6 +1488,23 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
         }
     }
 
+    protected String formatTimestamp(final Date timestamp)
+    {
+        // date formats are not thread-safe and change listeners may use this instance concurrently to regular synchronisations
+        synchronized (this.timestampFormat)
+        {
+            return this.timestampFormat.format(timestamp);
+        }
+    }
+
+    protected Date parseTimestamp(final String timestamp) throws ParseException
+    {
+        synchronized (this.timestampFormat)
+        {
+            return this.timestampFormat.parse(timestamp);
+        }
+    }
+
     protected Pair<String[], Set<QName>> initKeys(final Map<String, String> attributeMapping, final String... extraAttibutes)
     {
         // Compile a complete array of LDAP attribute names, including operational attributes
@@ -1002,6 +1637,27 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
      */
     protected void processQuery(final SearchCallback callback, final String searchBase, final String query,
             final String[] returningAttributes)
+    {
+        this.processQuery(callback, searchBase, query, returningAttributes, new Control[0]);
+    }
+
+    /**
+     * Invokes the given callback on each entry returned by the given query, using additional request controls on every result page.
+     *
+     * @param callback
+     *            the callback
+     * @param searchBase
+     *            the base DN for the search
+     * @param query
+     *            the query
+     * @param returningAttributes
+     *            the attributes to include in search results
+     * @param additionalControls
+     *            the additional request controls to use
+     * @throws AlfrescoRuntimeException
+     */
+    protected void processQuery(final SearchCallback callback, final String searchBase, final String query,
+            final String[] returningAttributes, final Control[] additionalControls)
     {
         final SearchControls searchControls = new SearchControls();
         searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
@@ -1024,6 +1680,7 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
             ctx = this.ldapInitialContextFactory.getDefaultIntialDirContext(this.queryBatchSize);
             do
             {
+                this.addRequestControls(ctx, additionalControls);
                 searchResults = ctx.search(searchBase, query, searchControls);
 
                 while (searchResults.hasMore())
@@ -1053,6 +1710,190 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
         }
     }
 
+    protected void addRequestControls(final InitialDirContext ctx, final Control[] additionalControls) throws NamingException
+    {
+        if (additionalControls.length > 0 && ctx instanceof LdapContext)
+        {
+            // paging replaces request controls for every page
+            final Control[] requestControls = ((LdapContext) ctx).getRequestControls();
+            final List<Control> controls = new ArrayList<>();
+            if (requestControls != null)
+            {
+                controls.addAll(Arrays.asList(requestControls));
+            }
+            for (final Control additionalControl : additionalControls)
+            {
+                final boolean alreadyPresent = controls.stream().anyMatch(control -> control.getID().equals(additionalControl.getID()));
+                if (!alreadyPresent)
+                {
+                    controls.add(additionalControl);
+                }
+            }
+            ((LdapContext) ctx).setRequestControls(controls.toArray(new Control[0]));
+        }
+    }
+
+    /**
+     * Reads the change state of the directory server from its rootDSE.
+     *
+     * @return the pair of the directory server service name and highest committed update sequence number, or {@code null} if the
+     *         directory server does not provide these attributes
+     */
+    protected Pair<String, Long> readChangeState()
+    {
+        Pair<String, Long> changeState = null;
+
+        InitialDirContext ctx = null;
+        try
+        {
+            ctx = this.ldapInitialContextFactory.getDefaultIntialDirContext();
+            final Attributes rootDSEAttributes = ctx.getAttributes("",
+                    new String[] { HIGHEST_COMMITTED_USN_ATTRIBUTE_NAME, DS_SERVICE_NAME_ATTRIBUTE_NAME });
+            final Attribute highestCommittedUSN = rootDSEAttributes.get(HIGHEST_COMMITTED_USN_ATTRIBUTE_NAME);
+            final Attribute dsServiceName = rootDSEAttributes.get(DS_SERVICE_NAME_ATTRIBUTE_NAME);
+
+            if (highestCommittedUSN != null && dsServiceName != null)
+            {
+                changeState = new Pair<>(String.valueOf(dsServiceName.get()), Long.valueOf(String.valueOf(highestCommittedUSN.get())));
+            }
+            else
+            {
+                LOGGER.warn("Directory server does not provide {} / {} - change tracking is not supported",
+                        HIGHEST_COMMITTED_USN_ATTRIBUTE_NAME, DS_SERVICE_NAME_ATTRIBUTE_NAME);
+            }
+        }
+        catch (final NamingException e)
+        {
+            final Object[] params = { e.getLocalizedMessage() };
+            throw new AlfrescoRuntimeException("synchronization.err.ldap.search", params, e);
+        }
+        catch (final NumberFormatException e)
+        {
+            LOGGER.warn("Directory server provided an invalid {} - change tracking is not supported", HIGHEST_COMMITTED_USN_ATTRIBUTE_NAME,
+                    e);
+        }
+        finally
+        {
+            this.commonAfterQueryCleanup(null, null, ctx);
+        }
+
+        return changeState;
+    }
+
+    /**
+     * Parses a change marker previously constructed by {@link #getCurrentChangeMarker()}.
+     *
+     * @param changeMarker
+     *            the change marker to parse
+     * @return the pair of the directory server service name and update sequence number, or {@code null} if the change marker is invalid
+     */
+    protected Pair<String, Long> parseChangeMarker(final String changeMarker)
+    {
+        Pair<String, Long> markerState = null;
+        final int separatorIdx = changeMarker != null ? changeMarker.indexOf('@') : -1;
+        if (separatorIdx > 0 && separatorIdx < changeMarker.length() - 1)
+        {
+            try
+            {
+                markerState = new Pair<>(changeMarker.substring(separatorIdx + 1),
+                        Long.valueOf(changeMarker.substring(0, separatorIdx)));
+            }
+            catch (final NumberFormatException e)
+            {
+                LOGGER.warn("Change marker {} does not contain a valid update sequence number", changeMarker);
+            }
+        }
+        else
+        {
+            LOGGER.warn("Change marker {} is not in a supported format", changeMarker);
+        }
+        return markerState;
+    }
+
+    protected String buildChangeTrackingQuery(final String queryPattern, final String changeMarker)
+    {
+        final Pair<String, Long> markerState = this.parseChangeMarker(changeMarker);
+        if (markerState == null)
+        {
+            throw new AlfrescoRuntimeException("Invalid change marker: " + changeMarker);
+        }
+
+        // highest committed USN is inclusive so we need to start with the next one
+        // value must be passed as string to avoid locale-specific number formatting
+        final MessageFormat mf = new MessageFormat(queryPattern, Locale.ENGLISH);
+        final String query = mf.format(new Object[] { String.valueOf(markerState.getSecond().longValue() + 1) });
+        return query;
+    }
+
+    protected Collection<String> queryDeletedNames(final String query, final String idAttributeName, final boolean showDeleted)
+    {
+        final Collection<String> names = new HashSet<>();
+        if (this.deletedObjectsSearchBase != null && !this.deletedObjectsSearchBase.trim().isEmpty())
+        {
+            this.processQuery((result) -> {
+                final Attribute nameAttribute = result.getAttributes().get(idAttributeName);
+                if (nameAttribute != null)
+                {
+                    final Collection<String> attributeValues = this.mapAttribute(nameAttribute, String.class);
+                    String name = attributeValues.iterator().next();
+
+                    // Active Directory mangles RDN attribute values on deletion
+                    final int suffixIdx = name.indexOf(DELETED_OBJECT_NAME_SUFFIX);
+                    if (suffixIdx != -1)
+                    {
+                        name = name.substring(0, suffixIdx);
+                    }
+
+                    LOGGER.debug("Deleted object DN recognized: {}", name);
+                    names.add(name);
+                }
+                else
+                {
+                    LOGGER.debug("Deleted object {} does not provide id attribute {}", result.getNameInNamespace(), idAttributeName);
+                }
+            }, this.deletedObjectsSearchBase, query, new String[] { idAttributeName },
+                    showDeleted ? new Control[] { new BasicControl(SHOW_DELETED_CONTROL_OID, true, null) } : new Control[0]);
+        }
+        else
+        {
+            LOGGER.debug("No search base for deleted objects has been configured");
+        }
+        return names;
+    }
+
+    protected boolean existsEntry(final String searchBase, final String query, final String idAttributeName, final String id)
+    {
+        final SearchControls searchControls = new SearchControls();
+        searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        searchControls.setReturningAttributes(new String[] { idAttributeName });
+        searchControls.setCountLimit(1);
+
+        InitialDirContext ctx = null;
+        NamingEnumeration<SearchResult> searchResults = null;
+        SearchResult result = null;
+        try
+        {
+            ctx = this.ldapInitialContextFactory.getDefaultIntialDirContext();
+            // Force RFC 2254 escaping of the ID in the filter to avoid any manipulation
+            searchResults = ctx.search(searchBase, "(&" + query + "(" + idAttributeName + "={0}))", new Object[] { id }, searchControls);
+            final boolean exists = searchResults.hasMore();
+            if (exists)
+            {
+                result = searchResults.next();
+            }
+            return exists;
+        }
+        catch (final NamingException e)
+        {
+            final Object[] params = { e.getLocalizedMessage() };
+            throw new AlfrescoRuntimeException("synchronization.err.ldap.search", params, e);
+        }
+        finally
+        {
+            this.commonAfterQueryCleanup(searchResults, result, ctx);
+        }
+    }
+
     /**
      * Does a case-insensitive search for the given value in an attribute.
      *
@@ -1156,7 +1997,25 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
     protected NodeMapper buildUserMapper()
     {
         return (searchResult) -> {
-            return this.mapToNode(searchResult, this.userIdAttributeName, this.personAttributeMapping, this.personAttributeDefaults);
+            final UidNodeDescription nodeDescription = this.mapToNode(searchResult, this.userIdAttributeName, this.personAttributeMapping,
+                    this.personAttributeDefaults);
+
+            if (this.userStableIdAttributeName != null)
+            {
+                final Attribute stableIdAttribute = searchResult.getAttributes().get(this.userStableIdAttributeName);
+                if (stableIdAttribute != null && stableIdAttribute.size() > 0)
+                {
+                    final Collection<String> stableIdValues = this.mapAttribute(stableIdAttribute, String.class);
+                    nodeDescription.getProperties().put(EnhancedUserRegistry.PROP_STABLE_ID, stableIdValues.iterator().next());
+                }
+                else
+                {
+                    LOGGER.debug("User {} does not provide stable id attribute {}", nodeDescription.getId(),
+                            this.userStableIdAttributeName);
+                }
+            }
+
+            return nodeDescription;
         };
     }
 
@@ -1183,6 +2042,20 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
         };
     }
 
+    protected NodeMapper buildDefaultGroupMapper()
+    {
+        // Work out whether the user and group trees are disjoint. This may allow us to optimize reverse DN
+        // resolution.
+        final LdapName groupDistinguishedNamePrefix = this.resolveDistinguishedNamePrefix(this.groupSearchBase);
+        final LdapName userDistinguishedNamePrefix = this.resolveDistinguishedNamePrefix(this.userSearchBase);
+
+        final boolean disjoint = !groupDistinguishedNamePrefix.startsWith(userDistinguishedNamePrefix)
+                && !userDistinguishedNamePrefix.startsWith(groupDistinguishedNamePrefix);
+
+        final NodeMapper groupMapper = this.buildGroupMapper(disjoint, groupDistinguishedNamePrefix, userDistinguishedNamePrefix);
+        return groupMapper;
+    }
+
     protected NodeMapper buildGroupMapper(final boolean disjoint, final LdapName groupDistinguishedNamePrefix,
             final LdapName userDistinguishedNamePrefix)
     {
@@ -1385,7 +2258,7 @@ public class EnhancedLDAPUserRegistry implements EnhancedUserRegistry, LDAPNameR
         {
             try
             {
-                nodeDescription.setLastModified(this.timestampFormat.parse(modifyTimestamp.get().toString()));
+                nodeDescription.setLastModified(this.parseTimestamp(modifyTimestamp.get().toString()));
                 LOGGER.debug("Setting last modified of node {} to {}", uid, nodeDescription.getLastModified());
             }
             catch (final ParseException e)
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.auth.ldap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+
+/**
+ * Instances of this class map the binary value of an Active Directory objectGUID attribute to its canonical string representation. In
+ * contrast to the binary value, the first three components of the canonical representation are stored in little-endian byte order.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class GuidAttributeValueMapper implements AttributeValueMapper
+{
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object mapAttributeValue(final String attributeId, final Object attributeValue)
+    {
+        Object result = attributeValue;
+        if (attributeValue instanceof byte[] && ((byte[]) attributeValue).length == 16)
+        {
+            final ByteBuffer buffer = ByteBuffer.wrap((byte[]) attributeValue);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            final long data1 = buffer.getInt() & 0xffffffffL;
+            final long data2 = buffer.getShort() & 0xffffL;
+            final long data3 = buffer.getShort() & 0xffffL;
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            final long data4 = buffer.getLong();
+
+            result = new UUID((data1 << 32) | (data2 << 16) | data3, data4).toString();
+        }
+        return result;
+    }
+
+}
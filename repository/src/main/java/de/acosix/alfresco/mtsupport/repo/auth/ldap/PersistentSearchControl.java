@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.auth.ldap;
+
+import javax.naming.ldap.BasicControl;
+
+/**
+ * This request control turns a regular search into a persistent search as defined in draft-ietf-ldapext-psearch, which causes the
+ * directory server to keep the search open and return entries as they are changed. JNDI does not provide an implementation of this
+ * control, so the (trivial) BER encoding of the control value is handled here.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class PersistentSearchControl extends BasicControl
+{
+
+    public static final String OID = "2.16.840.1.113730.3.4.3";
+
+    public static final int CHANGE_TYPE_ADD = 1;
+
+    public static final int CHANGE_TYPE_DELETE = 2;
+
+    public static final int CHANGE_TYPE_MODIFY = 4;
+
+    public static final int CHANGE_TYPE_MODDN = 8;
+
+    private static final long serialVersionUID = 4867223569211463557L;
+
+    /**
+     * Creates a critical persistent search control which only returns added, modified or renamed entries without any entry change
+     * notification controls.
+     */
+    public PersistentSearchControl()
+    {
+        this(CHANGE_TYPE_ADD | CHANGE_TYPE_MODIFY | CHANGE_TYPE_MODDN, true, false);
+    }
+
+    /**
+     * Creates a critical persistent search control.
+     *
+     * @param changeTypes
+     *            the bit mask of change types to be returned
+     * @param changesOnly
+     *            {@code true} if only changed entries should be returned, {@code false} if all entries matching the search should be
+     *            returned initially
+     * @param returnEntryChangeControls
+     *            {@code true} if the directory server should include entry change notification controls
+     */
+    public PersistentSearchControl(final int changeTypes, final boolean changesOnly, final boolean returnEntryChangeControls)
+    {
+        super(OID, true, encodeValue(changeTypes, changesOnly, returnEntryChangeControls));
+    }
+
+    protected static byte[] encodeValue(final int changeTypes, final boolean changesOnly, final boolean returnEntryChangeControls)
+    {
+        if (changeTypes <= 0 || changeTypes > (CHANGE_TYPE_ADD | CHANGE_TYPE_DELETE | CHANGE_TYPE_MODIFY | CHANGE_TYPE_MODDN))
+        {
+            throw new IllegalArgumentException("Invalid change types: " + changeTypes);
+        }
+
+        // SEQUENCE { changeTypes INTEGER, changesOnly BOOLEAN, returnECs BOOLEAN }
+        // all values fit into a single octet so the encoding has a fixed length
+        final byte[] value = { 0x30, 0x09, //
+                0x02, 0x01, (byte) changeTypes, //
+                0x01, 0x01, changesOnly ? (byte) 0xFF : 0x00, //
+                0x01, 0x01, returnEntryChangeControls ? (byte) 0xFF : 0x00 };
+        return value;
+    }
+}
@@ -16,7 +16,9 @@
 package de.acosix.alfresco.mtsupport.repo.auth.ldap;
 
 import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -27,9 +29,12 @@ import javax.naming.directory.SearchResult;
 import org.alfresco.repo.security.sync.NodeDescription;
 
 /**
+ * Instances of this class need to be {@link #close() closed} once they are no longer needed to release the resources of any
+ * {@link PersonIterator iterators} which have not been iterated to the end.
+ *
  * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
  */
-public class PersonCollection extends AbstractCollection<NodeDescription>
+public class PersonCollection extends AbstractCollection<NodeDescription> implements AutoCloseable
 {
 
     protected final Supplier<InitialDirContext> ctxSupplier;
@@ -45,9 +50,14 @@ public class PersonCollection extends AbstractCollection<NodeDescription>
     /** The total estimated size. */
     protected final int totalEstimatedSize;
 
+    /** The memory budget in bytes for tracking processed uids. */
+    protected final long uidMemoryBudget;
+
+    protected final List<PersonIterator> iterators = new ArrayList<>();
+
     public PersonCollection(final Supplier<InitialDirContext> ctxSupplier, final Function<InitialDirContext, Boolean> nextPageChecker,
             final Function<InitialDirContext, NamingEnumeration<SearchResult>> searcher,
-            final NodeMapper nodeMapper, final int batchSize, final int totalEstimatedSize)
+            final NodeMapper nodeMapper, final int batchSize, final int totalEstimatedSize, final long uidMemoryBudget)
     {
         this.ctxSupplier = ctxSupplier;
         this.nextPageChecker = nextPageChecker;
@@ -56,6 +66,7 @@ public class PersonCollection extends AbstractCollection<NodeDescription>
         this.batchSize = batchSize;
 
         this.totalEstimatedSize = totalEstimatedSize;
+        this.uidMemoryBudget = uidMemoryBudget;
     }
 
     /**
@@ -65,7 +76,26 @@ public class PersonCollection extends AbstractCollection<NodeDescription>
     @Override
     public Iterator<NodeDescription> iterator()
     {
-        return new PersonIterator(this.ctxSupplier, this.nextPageChecker, this.searcher, this.nodeMapper, this.batchSize);
+        final PersonIterator iterator = new PersonIterator(this.ctxSupplier, this.nextPageChecker, this.searcher, this.nodeMapper,
+                this.batchSize, this.uidMemoryBudget);
+        synchronized (this.iterators)
+        {
+            this.iterators.add(iterator);
+        }
+        return iterator;
+    }
+
+    /**
+     * Closes all iterators created by this instance.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this.iterators)
+        {
+            this.iterators.forEach(PersonIterator::close);
+            this.iterators.clear();
+        }
     }
 
     /**
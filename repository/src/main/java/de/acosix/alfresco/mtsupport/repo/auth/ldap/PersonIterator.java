@@ -16,9 +16,7 @@
 package de.acosix.alfresco.mtsupport.repo.auth.ldap;
 
 import java.io.IOException;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -38,10 +36,15 @@ import org.alfresco.repo.security.sync.NodeDescription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.acosix.alfresco.mtsupport.repo.sync.SpillingLongSet;
+
 /**
+ * Instances of this class hold an LDAP context and temporary files to track processed uids while iterating. These are released once the
+ * iteration has been completed or failed - iterators which are abandoned before that need to be {@link #close() closed} explicitly.
+ *
  * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
  */
-public class PersonIterator implements Iterator<NodeDescription>
+public class PersonIterator implements Iterator<NodeDescription>, AutoCloseable
 {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PersonIterator.class);
@@ -62,8 +65,8 @@ public class PersonIterator implements Iterator<NodeDescription>
     /** Paged result response control retrieved from ldap server */
     protected PagedResultsResponseControl pagedResultsResponseControl;
 
-    /** The uids. */
-    protected final Set<String> uids = new HashSet<>();
+    /** The hashes of processed uids, held within a memory budget and spilled to temporary files beyond it. */
+    protected final SpillingLongSet uids;
 
     /** The search results. */
     protected NamingEnumeration<SearchResult> searchResults;
@@ -82,13 +85,14 @@ public class PersonIterator implements Iterator<NodeDescription>
      */
     public PersonIterator(final Supplier<InitialDirContext> ctxSupplier, final Function<InitialDirContext, Boolean> nextPageChecker,
             final Function<InitialDirContext, NamingEnumeration<SearchResult>> searcher,
-            final NodeMapper nodeMapper, final int batchSize)
+            final NodeMapper nodeMapper, final int batchSize, final long uidMemoryBudget)
     {
         this.ctxSupplier = ctxSupplier;
         this.nextPageChecker = nextPageChecker;
         this.searcher = searcher;
         this.nodeMapper = nodeMapper;
         this.batchSize = batchSize;
+        this.uids = new SpillingLongSet("ldap-uids", uidMemoryBudget, 1);
 
         this.ctx = this.ctxSupplier.get();
 
@@ -96,16 +100,14 @@ public class PersonIterator implements Iterator<NodeDescription>
         {
             this.next = this.fetchNext();
         }
-        catch (final NamingException e)
-        {
-            throw new AlfrescoRuntimeException("Failed to import people.", e);
-        }
-        finally
+        catch (final NamingException | RuntimeException e)
         {
-            if (this.searchResults == null)
+            this.close();
+            if (e instanceof RuntimeException)
             {
-                this.closeContext();
+                throw (RuntimeException) e;
             }
+            throw new AlfrescoRuntimeException("Failed to import people.", e);
         }
     }
 
@@ -160,16 +162,40 @@ public class PersonIterator implements Iterator<NodeDescription>
             }
             catch (final IOException | NamingException ex)
             {
+                this.close();
                 throw new AlfrescoRuntimeException("Failed to import people. Also failed to restart sync process.", ex);
             }
+            catch (final RuntimeException ex)
+            {
+                this.close();
+                throw ex;
+            }
         }
         catch (final NamingException e)
         {
+            this.close();
             throw new AlfrescoRuntimeException("Failed to import people.", e);
         }
+        catch (final RuntimeException e)
+        {
+            this.close();
+            throw e;
+        }
         return current;
     }
 
+    /**
+     * Releases the LDAP context and any temporary files used to track processed uids. Iteration stops once this iterator has been closed.
+     */
+    @Override
+    public void close()
+    {
+        this.next = null;
+        this.closeResultSet();
+        this.closeContext();
+        this.uids.close();
+    }
+
     /**
      * Pre-fetches the next node description to be returned.
      *
@@ -196,7 +222,10 @@ public class PersonIterator implements Iterator<NodeDescription>
                     this.lastProcessedPerson = uid;
                 }
 
-                if (this.uids.contains(uid))
+                // uids are only tracked as hashes - a collision with an earlier uid causes a false duplicate warning, or, while skipping
+                // to the last processed person after a retry, silently skips a person which has not been processed yet
+                final long uidHash = SpillingLongSet.hash(uid);
+                if (this.uids.contains(uidHash))
                 {
                     if (this.skipToLastProcessedPerson)
                     {
@@ -215,7 +244,7 @@ public class PersonIterator implements Iterator<NodeDescription>
                     }
                 }
 
-                this.uids.add(uid);
+                this.uids.add(uidHash);
 
                 LOGGER.debug("Adding person for {}", uid);
 
@@ -261,8 +290,7 @@ public class PersonIterator implements Iterator<NodeDescription>
         }
         while (Boolean.TRUE.equals(readyForNextPage));
 
-        this.closeResultSet();
-        this.closeContext();
+        this.close();
 
         return null;
     }
@@ -15,7 +15,9 @@
  */
 package de.acosix.alfresco.mtsupport.repo.beans;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -41,6 +43,10 @@ import org.springframework.beans.factory.support.ManagedSet;
  * template and register them as a singleton bean under a unique name using {@link TenantBeanUtils#TENANT_BEAN_NAME_PATTERN a defined
  * pattern} for the name suffix.
  *
+ * Tenant-specific beans are instantiated eagerly by default. In lazy mode, their definitions are registered as lazy-init so that beans of a
+ * tenant are only instantiated on first use, e.g. when a request or synchronisation is routed to the tenant. Tenants listed for warm-up are
+ * still instantiated eagerly even in lazy mode.
+ *
  * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
  */
 public class TemplatedTenantBeanEmitter implements BeanDefinitionRegistryPostProcessor, InitializingBean
@@ -58,6 +64,12 @@ public class TemplatedTenantBeanEmitter implements BeanDefinitionRegistryPostPro
 
     protected List<String> beanNames;
 
+    protected boolean lazyInit;
+
+    protected String lazyInitPropertyKey;
+
+    protected String warmUpTenantsPropertyKey;
+
     /**
      *
      * {@inheritDoc}
@@ -115,6 +127,33 @@ public class TemplatedTenantBeanEmitter implements BeanDefinitionRegistryPostPro
         this.beanNames = beanNames;
     }
 
+    /**
+     * @param lazyInit
+     *            the lazyInit to set
+     */
+    public void setLazyInit(final boolean lazyInit)
+    {
+        this.lazyInit = lazyInit;
+    }
+
+    /**
+     * @param lazyInitPropertyKey
+     *            the lazyInitPropertyKey to set
+     */
+    public void setLazyInitPropertyKey(final String lazyInitPropertyKey)
+    {
+        this.lazyInitPropertyKey = lazyInitPropertyKey;
+    }
+
+    /**
+     * @param warmUpTenantsPropertyKey
+     *            the warmUpTenantsPropertyKey to set
+     */
+    public void setWarmUpTenantsPropertyKey(final String warmUpTenantsPropertyKey)
+    {
+        this.warmUpTenantsPropertyKey = warmUpTenantsPropertyKey;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -142,38 +181,82 @@ public class TemplatedTenantBeanEmitter implements BeanDefinitionRegistryPostPro
                 final List<String> enabledTenants = Arrays.asList(enabledTenantsProperty.trim().split("\\s*,\\s*"));
                 LOGGER.debug("Processing beans {} for enabled tenants {}", this.beanNames, enabledTenants);
 
-                for (final String beanName : this.beanNames)
+                final boolean lazyInit = this.isLazyInit();
+                final List<String> warmUpTenants = this.getWarmUpTenants();
+                if (lazyInit)
+                {
+                    LOGGER.debug("Beans will be instantiated lazily except for warm-up tenants {}", warmUpTenants);
+                }
+
+                for (final String tenant : enabledTenants)
+                {
+                    this.registerTenantBeanDefinitions(registry, tenant, lazyInit && !warmUpTenants.contains(tenant));
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers the bean definitions for a specific tenant based on the template bean definitions.
+     *
+     * @param registry
+     *            the registry in which to register the bean definitions
+     * @param tenant
+     *            the tenant for which to register the bean definitions
+     * @param lazyInit
+     *            {@code true} if the beans should only be instantiated on first use
+     * @return the names of the registered bean definitions in the order of their registration
+     */
+    protected List<String> registerTenantBeanDefinitions(final BeanDefinitionRegistry registry, final String tenant,
+            final boolean lazyInit)
+    {
+        final List<String> tenantBeanNames = new ArrayList<>();
+        for (final String beanName : this.beanNames)
+        {
+            LOGGER.debug("Processing {}", beanName);
+            final String templateBeanName = beanName + TenantBeanUtils.TENANT_BEAN_TEMPLATE_SUFFIX;
+            if (registry.containsBeanDefinition(templateBeanName))
+            {
+                final BeanDefinition beanDefinition = registry.getBeanDefinition(templateBeanName);
+
+                if (beanDefinition instanceof AbstractBeanDefinition)
                 {
-                    LOGGER.debug("Processing {}", beanName);
-                    final String templateBeanName = beanName + TenantBeanUtils.TENANT_BEAN_TEMPLATE_SUFFIX;
-                    if (registry.containsBeanDefinition(templateBeanName))
-                    {
-                        final BeanDefinition beanDefinition = registry.getBeanDefinition(templateBeanName);
-
-                        if (beanDefinition instanceof AbstractBeanDefinition)
-                        {
-                            for (final String tenant : enabledTenants)
-                            {
-                                final AbstractBeanDefinition cloneBeanDefinition = ((AbstractBeanDefinition) beanDefinition)
-                                        .cloneBeanDefinition();
-                                cloneBeanDefinition.setScope(AbstractBeanDefinition.SCOPE_DEFAULT);
-
-                                this.shallowCloneManagedCollections(cloneBeanDefinition);
-
-                                final String tenantBeanName = beanName + TenantBeanUtils.TENANT_BEAN_NAME_PATTERN + tenant;
-
-                                LOGGER.debug("Adding clone of {} for tenant {}", templateBeanName, tenant);
-                                registry.registerBeanDefinition(tenantBeanName, cloneBeanDefinition);
-                            }
-                        }
-                    }
-                    else
-                    {
-                        LOGGER.warn("No template bean defined for {}", beanName);
-                    }
+                    final AbstractBeanDefinition cloneBeanDefinition = ((AbstractBeanDefinition) beanDefinition).cloneBeanDefinition();
+                    cloneBeanDefinition.setScope(AbstractBeanDefinition.SCOPE_DEFAULT);
+                    cloneBeanDefinition.setLazyInit(lazyInit);
+
+                    this.shallowCloneManagedCollections(cloneBeanDefinition);
+
+                    final String tenantBeanName = beanName + TenantBeanUtils.TENANT_BEAN_NAME_PATTERN + tenant;
+
+                    LOGGER.debug("Adding clone of {} for tenant {}", templateBeanName, tenant);
+                    registry.registerBeanDefinition(tenantBeanName, cloneBeanDefinition);
+                    tenantBeanNames.add(tenantBeanName);
                 }
             }
+            else
+            {
+                LOGGER.warn("No template bean defined for {}", beanName);
+            }
         }
+        return tenantBeanNames;
+    }
+
+    /**
+     * Determines the names of the beans for a specific tenant.
+     *
+     * @param tenant
+     *            the tenant for which to determine the bean names
+     * @return the names of the beans in the order of their registration
+     */
+    protected List<String> getTenantBeanNames(final String tenant)
+    {
+        final List<String> tenantBeanNames = new ArrayList<>();
+        for (final String beanName : this.beanNames)
+        {
+            tenantBeanNames.add(beanName + TenantBeanUtils.TENANT_BEAN_NAME_PATTERN + tenant);
+        }
+        return tenantBeanNames;
     }
 
     protected void shallowCloneManagedCollections(final AbstractBeanDefinition cloneBeanDefinition)
@@ -223,4 +306,33 @@ public class TemplatedTenantBeanEmitter implements BeanDefinitionRegistryPostPro
 
         return result;
     }
+
+    protected boolean isLazyInit()
+    {
+        boolean result = this.lazyInit;
+
+        if (this.lazyInitPropertyKey != null)
+        {
+            final String lazyInitProperty = this.effectiveProperties.getProperty(this.lazyInitPropertyKey);
+            result |= Boolean.parseBoolean(lazyInitProperty);
+        }
+
+        return result;
+    }
+
+    protected List<String> getWarmUpTenants()
+    {
+        List<String> warmUpTenants = Collections.emptyList();
+
+        if (this.warmUpTenantsPropertyKey != null)
+        {
+            final String warmUpTenantsProperty = this.effectiveProperties.getProperty(this.warmUpTenantsPropertyKey);
+            if (warmUpTenantsProperty != null && !warmUpTenantsProperty.trim().isEmpty())
+            {
+                warmUpTenants = Arrays.asList(warmUpTenantsProperty.trim().split("\\s*,\\s*"));
+            }
+        }
+
+        return warmUpTenants;
+    }
 }
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.beans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.util.PropertyCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import de.acosix.alfresco.mtsupport.repo.subsystems.TenantAwareSubsystemPlaceholderConfigurer;
+
+/**
+ * Instances of this class allow tenants to be added to or removed from a running (subsystem) application context. Only the beans of the
+ * affected tenant are registered / destroyed, using the same {@link TemplatedTenantBeanEmitter templates},
+ * {@link TenantLDAPAttributeMappingPostProcessor mapping post processors} and {@link TenantPropertyMapEmitter tenant property maps} as
+ * on startup of the application context, so that the beans of all other tenants remain unaffected. Beans
+ * {@link TenantRoutingAware routing calls} to tenant-specific beans are notified about the change.
+ *
+ * A tenant which fails to be added leaves no trace - any beans registered and properties added for it are removed again. A tenant which
+ * fails to be removed remains enabled unless some of its beans have already been destroyed.
+ *
+ * Tenants added or removed via this class are not persisted - the enabled tenants property of the application context needs to be updated
+ * as well to retain the change on the next restart.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class TenantBeanRegistrar implements InitializingBean, ApplicationContextAware
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TenantBeanRegistrar.class);
+
+    protected ApplicationContext applicationContext;
+
+    protected Properties effectiveProperties;
+
+    protected String enabledTenantPropertyKey;
+
+    protected TenantAwareSubsystemPlaceholderConfigurer placeholderConfigurer;
+
+    protected final List<String> enabledTenants = new ArrayList<>();
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "applicationContext", this.applicationContext);
+        PropertyCheck.mandatory(this, "effectiveProperties", this.effectiveProperties);
+        PropertyCheck.mandatory(this, "enabledTenantPropertyKey", this.enabledTenantPropertyKey);
+        PropertyCheck.mandatory(this, "placeholderConfigurer", this.placeholderConfigurer);
+
+        final String enabledTenantsProperty = this.effectiveProperties.getProperty(this.enabledTenantPropertyKey);
+        if (enabledTenantsProperty != null && !enabledTenantsProperty.trim().isEmpty())
+        {
+            this.enabledTenants.addAll(Arrays.asList(enabledTenantsProperty.trim().split("\\s*,\\s*")));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setApplicationContext(final ApplicationContext applicationContext)
+    {
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * @param effectiveProperties
+     *            the effectiveProperties to set
+     */
+    public void setEffectiveProperties(final Properties effectiveProperties)
+    {
+        this.effectiveProperties = effectiveProperties;
+    }
+
+    /**
+     * @param enabledTenantPropertyKey
+     *            the enabledTenantPropertyKey to set
+     */
+    public void setEnabledTenantPropertyKey(final String enabledTenantPropertyKey)
+    {
+        this.enabledTenantPropertyKey = enabledTenantPropertyKey;
+    }
+
+    /**
+     * @param placeholderConfigurer
+     *            the placeholderConfigurer to set
+     */
+    public void setPlaceholderConfigurer(final TenantAwareSubsystemPlaceholderConfigurer placeholderConfigurer)
+    {
+        this.placeholderConfigurer = placeholderConfigurer;
+    }
+
+    /**
+     * Retrieves the tenants currently enabled in the application context.
+     *
+     * @return the enabled tenants
+     */
+    public synchronized List<String> getEnabledTenants()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(this.enabledTenants));
+    }
+
+    /**
+     * Adds a tenant to the application context using the configuration already available in the application context.
+     *
+     * @param tenantDomain
+     *            the tenant to add
+     */
+    public void addTenant(final String tenantDomain)
+    {
+        this.addTenant(tenantDomain, null);
+    }
+
+    /**
+     * Adds a tenant to the application context.
+     *
+     * @param tenantDomain
+     *            the tenant to add
+     * @param tenantProperties
+     *            the configuration properties of the tenant in addition to the configuration already available in the application context -
+     *            may be {@code null}
+     */
+    public synchronized void addTenant(final String tenantDomain, final Properties tenantProperties)
+    {
+        ParameterCheck.mandatoryString("tenantDomain", tenantDomain);
+        if (this.enabledTenants.contains(tenantDomain))
+        {
+            throw new IllegalArgumentException("Tenant " + tenantDomain + " has already been enabled");
+        }
+
+        LOGGER.info("Adding tenant {} to running application context", tenantDomain);
+
+        // properties need to be available to resolve placeholders of tenant beans, so they are added first and reverted on failure
+        final Properties previousEffectiveProperties;
+        final Properties previousPlaceholderProperties;
+        if (tenantProperties != null)
+        {
+            previousEffectiveProperties = this.addProperties(this.effectiveProperties, tenantProperties);
+            previousPlaceholderProperties = this.placeholderConfigurer.addProperties(tenantProperties);
+        }
+        else
+        {
+            previousEffectiveProperties = null;
+            previousPlaceholderProperties = null;
+        }
+
+        final ConfigurableListableBeanFactory beanFactory = this.getBeanFactory();
+        final BeanDefinitionRegistry registry = (BeanDefinitionRegistry) beanFactory;
+        final List<String> tenantBeanNames = new ArrayList<>();
+        try
+        {
+            for (final TemplatedTenantBeanEmitter emitter : this.getBeansOfType(TemplatedTenantBeanEmitter.class))
+            {
+                if (emitter.isEnabled())
+                {
+                    final boolean lazyInit = emitter.isLazyInit() && !emitter.getWarmUpTenants().contains(tenantDomain);
+                    tenantBeanNames.addAll(emitter.registerTenantBeanDefinitions(registry, tenantDomain, lazyInit));
+                }
+            }
+
+            for (final TenantLDAPAttributeMappingPostProcessor postProcessor : this
+                    .getBeansOfType(TenantLDAPAttributeMappingPostProcessor.class))
+            {
+                if (postProcessor.isEnabled())
+                {
+                    postProcessor.processTenant(registry, tenantDomain);
+                }
+            }
+
+            for (final String tenantBeanName : tenantBeanNames)
+            {
+                this.placeholderConfigurer.processTenantBeanDefinition(tenantBeanName, registry.getBeanDefinition(tenantBeanName));
+            }
+
+            this.enabledTenants.add(tenantDomain);
+            this.updateTenantPropertyMaps();
+
+            for (final String tenantBeanName : tenantBeanNames)
+            {
+                if (!registry.getBeanDefinition(tenantBeanName).isLazyInit())
+                {
+                    beanFactory.getBean(tenantBeanName);
+                }
+            }
+        }
+        catch (final RuntimeException e)
+        {
+            LOGGER.warn("Failed to add tenant {} - removing any beans registered and properties added for the tenant", tenantDomain, e);
+            try
+            {
+                if (tenantProperties != null)
+                {
+                    this.revertProperties(this.effectiveProperties, tenantProperties, previousEffectiveProperties);
+                    this.placeholderConfigurer.revertProperties(tenantProperties, previousPlaceholderProperties);
+                }
+                if (this.enabledTenants.remove(tenantDomain))
+                {
+                    this.updateTenantPropertyMaps();
+                }
+                this.removeBeanDefinitions(registry, tenantBeanNames);
+            }
+            catch (final RuntimeException re)
+            {
+                e.addSuppressed(re);
+            }
+            throw e;
+        }
+
+        for (final TenantRoutingAware routingAware : this.getBeansOfType(TenantRoutingAware.class))
+        {
+            routingAware.onTenantAdded(tenantDomain);
+        }
+
+        LOGGER.info("Added tenant {} with beans {}", tenantDomain, tenantBeanNames);
+    }
+
+    /**
+     * Removes a tenant from the application context, destroying all beans specific to the tenant.
+     *
+     * @param tenantDomain
+     *            the tenant to remove
+     */
+    public synchronized void removeTenant(final String tenantDomain)
+    {
+        ParameterCheck.mandatoryString("tenantDomain", tenantDomain);
+        if (!this.enabledTenants.contains(tenantDomain))
+        {
+            throw new IllegalArgumentException("Tenant " + tenantDomain + " has not been enabled");
+        }
+
+        LOGGER.info("Removing tenant {} from running application context", tenantDomain);
+
+        // stop routing before beans are destroyed
+        for (final TenantRoutingAware routingAware : this.getBeansOfType(TenantRoutingAware.class))
+        {
+            routingAware.onTenantRemoved(tenantDomain);
+        }
+
+        final int tenantIndex = this.enabledTenants.indexOf(tenantDomain);
+        this.enabledTenants.remove(tenantIndex);
+        try
+        {
+            this.updateTenantPropertyMaps();
+        }
+        catch (final RuntimeException e)
+        {
+            LOGGER.warn("Failed to remove tenant {} - restoring routing to the beans of the tenant", tenantDomain, e);
+            this.enabledTenants.add(tenantIndex, tenantDomain);
+            try
+            {
+                this.updateTenantPropertyMaps();
+                for (final TenantRoutingAware routingAware : this.getBeansOfType(TenantRoutingAware.class))
+                {
+                    routingAware.onTenantAdded(tenantDomain);
+                }
+            }
+            catch (final RuntimeException re)
+            {
+                e.addSuppressed(re);
+            }
+            throw e;
+        }
+
+        // no longer reachable, so beans are removed even if some of them fail to be destroyed
+        final BeanDefinitionRegistry registry = (BeanDefinitionRegistry) this.getBeanFactory();
+        final List<String> tenantBeanNames = new ArrayList<>();
+        for (final TemplatedTenantBeanEmitter emitter : this.getBeansOfType(TemplatedTenantBeanEmitter.class))
+        {
+            tenantBeanNames.addAll(emitter.getTenantBeanNames(tenantDomain));
+        }
+        this.removeBeanDefinitions(registry, tenantBeanNames);
+
+        LOGGER.info("Removed tenant {}", tenantDomain);
+    }
+
+    protected void removeBeanDefinitions(final BeanDefinitionRegistry registry, final List<String> tenantBeanNames)
+    {
+        // dependent beans (e.g. triggers) are registered after the beans they depend on
+        final List<String> reversedBeanNames = new ArrayList<>(tenantBeanNames);
+        Collections.reverse(reversedBeanNames);
+        RuntimeException failure = null;
+        for (final String tenantBeanName : reversedBeanNames)
+        {
+            if (registry.containsBeanDefinition(tenantBeanName))
+            {
+                LOGGER.debug("Removing bean {}", tenantBeanName);
+                try
+                {
+                    // also destroys the singleton instance if it has already been instantiated
+                    registry.removeBeanDefinition(tenantBeanName);
+                }
+                catch (final RuntimeException e)
+                {
+                    LOGGER.warn("Failed to remove bean {}", tenantBeanName, e);
+                    if (failure == null)
+                    {
+                        failure = e;
+                    }
+                    else
+                    {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    protected Properties addProperties(final Properties target, final Properties properties)
+    {
+        final Properties previousProperties = new Properties();
+        for (final String propertyName : properties.stringPropertyNames())
+        {
+            final String previousValue = target.getProperty(propertyName);
+            if (previousValue != null)
+            {
+                previousProperties.setProperty(propertyName, previousValue);
+            }
+        }
+        target.putAll(properties);
+        return previousProperties;
+    }
+
+    protected void revertProperties(final Properties target, final Properties addedProperties, final Properties previousProperties)
+    {
+        for (final String propertyName : addedProperties.stringPropertyNames())
+        {
+            final String previousValue = previousProperties.getProperty(propertyName);
+            if (previousValue != null)
+            {
+                target.setProperty(propertyName, previousValue);
+            }
+            else
+            {
+                target.remove(propertyName);
+            }
+        }
+    }
+
+    protected void updateTenantPropertyMaps()
+    {
+        final ConfigurableListableBeanFactory beanFactory = this.getBeanFactory();
+        for (final TenantPropertyMapEmitter emitter : this.getBeansOfType(TenantPropertyMapEmitter.class))
+        {
+            if (emitter.isEnabled() && beanFactory.containsBean(emitter.beanName))
+            {
+                final Map<String, String> values = new LinkedHashMap<>();
+                for (final String tenant : this.enabledTenants)
+                {
+                    values.put(tenant, this.placeholderConfigurer.resolveStringValue(emitter.buildTenantValue(tenant)));
+                }
+
+                LOGGER.debug("Updating map property {} on bean {} for enabled tenants {}", emitter.propertyName, emitter.beanName,
+                        this.enabledTenants);
+                // converted to the generic map type of the property by the bean wrapper
+                PropertyAccessorFactory.forBeanPropertyAccess(beanFactory.getBean(emitter.beanName)).setPropertyValue(emitter.propertyName,
+                        values);
+            }
+        }
+    }
+
+    protected ConfigurableListableBeanFactory getBeanFactory()
+    {
+        if (!(this.applicationContext instanceof ConfigurableApplicationContext))
+        {
+            throw new IllegalStateException("Application context does not support registration of beans at runtime");
+        }
+        return ((ConfigurableApplicationContext) this.applicationContext).getBeanFactory();
+    }
+
+    protected <T> Collection<T> getBeansOfType(final Class<T> type)
+    {
+        // post processors have already been instantiated - no need to allow eager init
+        return this.applicationContext.getBeansOfType(type, false, false).values();
+    }
+}
@@ -158,7 +158,6 @@ public class TenantLDAPAttributeMappingPostProcessor implements BeanDefinitionRe
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     @Override
     public void postProcessBeanDefinitionRegistry(final BeanDefinitionRegistry registry) throws BeansException
     {
@@ -177,77 +176,89 @@ public class TenantLDAPAttributeMappingPostProcessor implements BeanDefinitionRe
 
                 for (final String enabledTenant : enabledTenants)
                 {
-                    final String tenantBasePrefix = this.mappingPropertyPrefix + "." + enabledTenant + "." + this.propertyName + ".";
-                    final String globalBasePrefix = this.mappingPropertyPrefix + "." + this.propertyName + ".";
+                    this.processTenant(registry, enabledTenant);
+                }
+            }
+        }
+    }
 
-                    final String tenantMappingPropertiesKey = tenantBasePrefix + "customMappings";
-                    final String globalMappingPropertiesKey = globalBasePrefix + "customMappings";
+    /**
+     * Processes the custom LDAP attribute mappings for a specific tenant.
+     *
+     * @param registry
+     *            the registry containing the bean definitions for the tenant
+     * @param enabledTenant
+     *            the tenant for which to process the custom mappings
+     */
+    @SuppressWarnings("unchecked")
+    protected void processTenant(final BeanDefinitionRegistry registry, final String enabledTenant)
+    {
+        final String tenantBasePrefix = this.mappingPropertyPrefix + "." + enabledTenant + "." + this.propertyName + ".";
+        final String globalBasePrefix = this.mappingPropertyPrefix + "." + this.propertyName + ".";
 
-                    final String globalMappingsPropertyString = this.effectiveProperties.getProperty(globalMappingPropertiesKey);
-                    final String tenantMappingsPropertyString = this.effectiveProperties.getProperty(tenantMappingPropertiesKey,
-                            globalMappingsPropertyString);
+        final String tenantMappingPropertiesKey = tenantBasePrefix + "customMappings";
+        final String globalMappingPropertiesKey = globalBasePrefix + "customMappings";
 
-                    if (tenantMappingsPropertyString != null && !tenantMappingsPropertyString.trim().isEmpty())
-                    {
-                        final BeanDefinition beanDefinition = TenantBeanUtils.getBeanDefinitionForTenant(registry, this.beanName,
-                                enabledTenant);
+        final String globalMappingsPropertyString = this.effectiveProperties.getProperty(globalMappingPropertiesKey);
+        final String tenantMappingsPropertyString = this.effectiveProperties.getProperty(tenantMappingPropertiesKey,
+                globalMappingsPropertyString);
+
+        if (tenantMappingsPropertyString != null && !tenantMappingsPropertyString.trim().isEmpty())
+        {
+            final BeanDefinition beanDefinition = TenantBeanUtils.getBeanDefinitionForTenant(registry, this.beanName, enabledTenant);
+
+            Map<Object, Object> configuredMapping;
+            final PropertyValue propertyValue = beanDefinition.getPropertyValues().getPropertyValue(this.propertyName);
+            if (propertyValue == null)
+            {
+                configuredMapping = new ManagedMap<>();
+                beanDefinition.getPropertyValues().add(this.propertyName, configuredMapping);
+            }
+            else
+            {
+                final Object value = propertyValue.getValue();
+                if (value instanceof Map<?, ?>)
+                {
+                    configuredMapping = (Map<Object, Object>) value;
+                }
+                else
+                {
+                    throw new IllegalStateException("Configured property value is not a map");
+                }
+            }
+
+            final String[] mappingProperties = tenantMappingsPropertyString.trim().split("\\s*,\\s*");
+            for (final String mappingProperty : mappingProperties)
+            {
+                final String globalMappingValuePropertyKey = globalBasePrefix + mappingProperty;
+                final String tenantMappingValuePropertyKey = tenantBasePrefix + mappingProperty;
+
+                final String globalMappingValue = this.effectiveProperties.getProperty(globalMappingValuePropertyKey);
+                final String tenantMappingValue = this.effectiveProperties.getProperty(tenantMappingValuePropertyKey, globalMappingValue);
 
-                        Map<Object, Object> configuredMapping;
-                        final PropertyValue propertyValue = beanDefinition.getPropertyValues().getPropertyValue(this.propertyName);
-                        if (propertyValue == null)
+                final String trimmedMappingValue = tenantMappingValue != null ? tenantMappingValue.trim() : null;
+                if (trimmedMappingValue != null && !trimmedMappingValue.isEmpty())
+                {
+                    if (this.beanReferences)
+                    {
+                        if (VALUE_NULL.equals(trimmedMappingValue))
                         {
-                            configuredMapping = new ManagedMap<>();
-                            beanDefinition.getPropertyValues().add(this.propertyName, configuredMapping);
+                            configuredMapping.remove(mappingProperty);
                         }
                         else
                         {
-                            final Object value = propertyValue.getValue();
-                            if (value instanceof Map<?, ?>)
-                            {
-                                configuredMapping = (Map<Object, Object>) value;
-                            }
-                            else
-                            {
-                                throw new IllegalStateException("Configured property value is not a map");
-                            }
+                            configuredMapping.put(mappingProperty, new RuntimeBeanReference(trimmedMappingValue));
                         }
-
-                        final String[] mappingProperties = tenantMappingsPropertyString.trim().split("\\s*,\\s*");
-                        for (final String mappingProperty : mappingProperties)
+                    }
+                    else
+                    {
+                        if (VALUE_NULL.equals(trimmedMappingValue))
+                        {
+                            configuredMapping.put(mappingProperty, null);
+                        }
+                        else
                         {
-                            final String globalMappingValuePropertyKey = globalBasePrefix + mappingProperty;
-                            final String tenantMappingValuePropertyKey = tenantBasePrefix + mappingProperty;
-
-                            final String globalMappingValue = this.effectiveProperties.getProperty(globalMappingValuePropertyKey);
-                            final String tenantMappingValue = this.effectiveProperties.getProperty(tenantMappingValuePropertyKey,
-                                    globalMappingValue);
-
-                            final String trimmedMappingValue = tenantMappingValue != null ? tenantMappingValue.trim() : null;
-                            if (trimmedMappingValue != null && !trimmedMappingValue.isEmpty())
-                            {
-                                if (this.beanReferences)
-                                {
-                                    if (VALUE_NULL.equals(trimmedMappingValue))
-                                    {
-                                        configuredMapping.remove(mappingProperty);
-                                    }
-                                    else
-                                    {
-                                        configuredMapping.put(mappingProperty, new RuntimeBeanReference(trimmedMappingValue));
-                                    }
-                                }
-                                else
-                                {
-                                    if (VALUE_NULL.equals(trimmedMappingValue))
-                                    {
-                                        configuredMapping.put(mappingProperty, null);
-                                    }
-                                    else
-                                    {
-                                        configuredMapping.put(mappingProperty, trimmedMappingValue);
-                                    }
-                                }
-                            }
+                            configuredMapping.put(mappingProperty, trimmedMappingValue);
                         }
                     }
                 }
@@ -166,25 +166,9 @@ public class TenantPropertyMapEmitter implements BeanDefinitionRegistryPostProce
 
                 final Map<String, String> values = new ManagedMap<>();
 
-                final String[] fragments = this.propertyPattern.split(TenantBeanUtils.TENANT_PLACEHOLDER_IN_PLACEHOLDER);
-
                 for (final String tenant : enabledTenants)
                 {
-                    final StringBuilder valueBuilder = new StringBuilder();
-                    valueBuilder.append("${");
-                    valueBuilder.append(fragments[0]);
-                    valueBuilder.append('.');
-                    valueBuilder.append(tenant);
-                    valueBuilder.append('.');
-                    valueBuilder.append(fragments[1]);
-                    valueBuilder.append(':');
-                    valueBuilder.append("${");
-                    valueBuilder.append(fragments[0]);
-                    valueBuilder.append('.');
-                    valueBuilder.append(fragments[1]);
-                    valueBuilder.append("}}");
-
-                    values.put(tenant, valueBuilder.toString());
+                    values.put(tenant, this.buildTenantValue(tenant));
                 }
 
                 beanDefinition.getPropertyValues().add(this.propertyName, values);
@@ -196,6 +180,35 @@ public class TenantPropertyMapEmitter implements BeanDefinitionRegistryPostProce
         }
     }
 
+    /**
+     * Builds the value expression for a specific tenant, resolving the tenant-specific property with a fallback to the generic default
+     * property.
+     *
+     * @param tenant
+     *            the tenant for which to build the value expression
+     * @return the value expression
+     */
+    protected String buildTenantValue(final String tenant)
+    {
+        final String[] fragments = this.propertyPattern.split(TenantBeanUtils.TENANT_PLACEHOLDER_IN_PLACEHOLDER);
+
+        final StringBuilder valueBuilder = new StringBuilder();
+        valueBuilder.append("${");
+        valueBuilder.append(fragments[0]);
+        valueBuilder.append('.');
+        valueBuilder.append(tenant);
+        valueBuilder.append('.');
+        valueBuilder.append(fragments[1]);
+        valueBuilder.append(':');
+        valueBuilder.append("${");
+        valueBuilder.append(fragments[0]);
+        valueBuilder.append('.');
+        valueBuilder.append(fragments[1]);
+        valueBuilder.append("}}");
+
+        return valueBuilder.toString();
+    }
+
     protected boolean isEnabled()
     {
         boolean result = this.enabled;
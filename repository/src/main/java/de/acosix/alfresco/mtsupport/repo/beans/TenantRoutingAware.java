@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.beans;
+
+/**
+ * Instances of this interface route calls to tenant-specific beans and need to be notified when the beans for a tenant are
+ * {@link TenantBeanRegistrar registered or removed} while the application context is running.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public interface TenantRoutingAware
+{
+
+    /**
+     * Notifies this instance that the beans for a tenant have been registered and calls for the tenant may now be routed to them.
+     *
+     * @param tenantDomain
+     *            the tenant domain
+     */
+    void onTenantAdded(String tenantDomain);
+
+    /**
+     * Notifies this instance that the beans for a tenant are about to be removed and calls for the tenant must no longer be routed to
+     * them.
+     *
+     * @param tenantDomain
+     *            the tenant domain
+     */
+    void onTenantRemoved(String tenantDomain);
+}
@@ -15,8 +15,13 @@
  */
 package de.acosix.alfresco.mtsupport.repo.subsystems;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.alfresco.util.ParameterCheck;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanDefinitionStoreException;
@@ -31,6 +36,14 @@ import org.springframework.util.StringValueResolver;
 import de.acosix.alfresco.mtsupport.repo.beans.TenantBeanUtils;
 
 /**
+ * Instances of this class resolve placeholders in bean definitions of a subsystem, resolving placeholders for
+ * {@link TenantBeanUtils#TENANT_PLACEHOLDER_IN_PLACEHOLDER tenant-specific properties} against the tenant of the bean definition with a
+ * fallback to the generic default property. Bean definitions of tenants added after the subsystem has been started can be
+ * {@link #processTenantBeanDefinition(String, BeanDefinition) processed} on demand.
+ *
+ * Since subsystems may contain clones of the same bean definitions for hundreds of tenants, the effective properties are indexed once -
+ * including the system properties / environment variables according to the {@link #setSystemPropertiesMode(int) system properties mode}
+ * - and resolved tenant-specific placeholders are memoized per tenant, so that most placeholders are resolved by a single map lookup.
  *
  * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
  */
@@ -46,6 +59,18 @@ public class TenantAwareSubsystemPlaceholderConfigurer extends PropertyPlacehold
 
     protected BeanFactory beanFactory;
 
+    protected Properties mergedProperties;
+
+    protected StringValueResolver valueResolver;
+
+    protected int systemPropertiesMode = SYSTEM_PROPERTIES_MODE_FALLBACK;
+
+    protected boolean searchSystemEnvironment = true;
+
+    protected volatile Map<String, String> propertyIndex;
+
+    protected final Map<String, Map<String, Optional<String>>> tenantPlaceholderIndex = new ConcurrentHashMap<>();
+
     /**
      *
      * {@inheritDoc}
@@ -68,13 +93,203 @@ public class TenantAwareSubsystemPlaceholderConfigurer extends PropertyPlacehold
         this.beanFactory = beanFactory;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSystemPropertiesMode(final int systemPropertiesMode)
+    {
+        super.setSystemPropertiesMode(systemPropertiesMode);
+        this.systemPropertiesMode = systemPropertiesMode;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSearchSystemEnvironment(final boolean searchSystemEnvironment)
+    {
+        super.setSearchSystemEnvironment(searchSystemEnvironment);
+        this.searchSystemEnvironment = searchSystemEnvironment;
+    }
+
+    /**
+     * Adds properties for resolving placeholders in bean definitions processed after the subsystem has been started, e.g. the
+     * configuration of a newly added tenant.
+     *
+     * @param properties
+     *            the properties to add
+     * @return the values of the added properties before they were added, allowing them to be {@link #revertProperties(Properties,
+     *         Properties) reverted}
+     */
+    public Properties addProperties(final Properties properties)
+    {
+        ParameterCheck.mandatory("properties", properties);
+        if (this.mergedProperties == null)
+        {
+            throw new IllegalStateException("Placeholders have not been processed yet");
+        }
+
+        final Properties previousProperties = new Properties();
+        for (final String propertyName : properties.stringPropertyNames())
+        {
+            final String previousValue = this.mergedProperties.getProperty(propertyName);
+            if (previousValue != null)
+            {
+                previousProperties.setProperty(propertyName, previousValue);
+            }
+        }
+
+        this.mergedProperties.putAll(properties);
+        this.indexProperties();
+        return previousProperties;
+    }
+
+    /**
+     * Reverts properties previously {@link #addProperties(Properties) added}, e.g. when the tenant they have been added for could not be
+     * added.
+     *
+     * @param addedProperties
+     *            the properties that have been added
+     * @param previousProperties
+     *            the values of the properties before they were added - properties without a previous value are removed
+     */
+    public void revertProperties(final Properties addedProperties, final Properties previousProperties)
+    {
+        ParameterCheck.mandatory("addedProperties", addedProperties);
+        ParameterCheck.mandatory("previousProperties", previousProperties);
+        if (this.mergedProperties == null)
+        {
+            throw new IllegalStateException("Placeholders have not been processed yet");
+        }
+
+        for (final String propertyName : addedProperties.stringPropertyNames())
+        {
+            final String previousValue = previousProperties.getProperty(propertyName);
+            if (previousValue != null)
+            {
+                this.mergedProperties.setProperty(propertyName, previousValue);
+            }
+            else
+            {
+                this.mergedProperties.remove(propertyName);
+            }
+        }
+        this.indexProperties();
+    }
+
+    /**
+     * Resolves placeholders in a value without a tenant context.
+     *
+     * @param value
+     *            the value to resolve
+     * @return the resolved value
+     */
+    public String resolveStringValue(final String value)
+    {
+        if (this.valueResolver == null)
+        {
+            throw new IllegalStateException("Placeholders have not been processed yet");
+        }
+        return this.valueResolver.resolveStringValue(value);
+    }
+
+    /**
+     * Resolves placeholders in a bean definition registered after the subsystem has been started, e.g. the definition of a bean for a
+     * newly added tenant.
+     *
+     * @param beanName
+     *            the name of the bean
+     * @param beanDefinition
+     *            the bean definition
+     */
+    public void processTenantBeanDefinition(final String beanName, final BeanDefinition beanDefinition)
+    {
+        ParameterCheck.mandatoryString("beanName", beanName);
+        ParameterCheck.mandatory("beanDefinition", beanDefinition);
+        if (this.valueResolver == null)
+        {
+            throw new IllegalStateException("Placeholders have not been processed yet");
+        }
+        this.processBeanDefinition(this.createVisitor(this.valueResolver), beanName, beanDefinition);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void processProperties(final ConfigurableListableBeanFactory beanFactoryToProcess, final Properties props)
+    {
+        // the resolver keeps using this instance, allowing properties of tenants added later on to be resolved
+        this.mergedProperties = props;
+        this.indexProperties();
+        super.processProperties(beanFactoryToProcess, props);
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     protected void doProcessProperties(final ConfigurableListableBeanFactory beanFactoryToProcess, final StringValueResolver valueResolver)
     {
-        final BeanDefinitionVisitor visitor = new BeanDefinitionVisitor(valueResolver)
+        final long start = System.currentTimeMillis();
+        this.valueResolver = valueResolver;
+        final BeanDefinitionVisitor visitor = this.createVisitor(valueResolver);
+
+        final String[] beanNames = beanFactoryToProcess.getBeanDefinitionNames();
+        for (final String curName : beanNames)
+        {
+            // Check that we're not parsing our own bean definition,
+            // to avoid failing on unresolvable placeholders in properties file locations.
+            if (!(curName.equals(this.beanName) && beanFactoryToProcess.equals(this.beanFactory)))
+            {
+                this.processBeanDefinition(visitor, curName, beanFactoryToProcess.getBeanDefinition(curName));
+            }
+        }
+        LOGGER.debug("[{}] Completed processing all {} beans in {} ms", this.beanName, beanNames.length,
+                System.currentTimeMillis() - start);
+
+        // New in Spring 2.5: resolve placeholders in alias target names and aliases as well.
+        beanFactoryToProcess.resolveAliases(valueResolver);
+
+        // New in Spring 3.0: resolve placeholders in embedded values such as annotation attributes.
+        beanFactoryToProcess.addEmbeddedValueResolver(valueResolver);
+
+    }
+
+    protected void processBeanDefinition(final BeanDefinitionVisitor visitor, final String curName, final BeanDefinition bd)
+    {
+        final String tenantDomain;
+        if (curName.contains(TenantBeanUtils.TENANT_BEAN_NAME_PATTERN))
+        {
+            tenantDomain = curName.substring(
+                    curName.indexOf(TenantBeanUtils.TENANT_BEAN_NAME_PATTERN) + TenantBeanUtils.TENANT_BEAN_NAME_PATTERN.length());
+            LOGGER.debug("[{}] Processing bean {} for tenant domain {}", this.beanName, curName, tenantDomain);
+        }
+        else
+        {
+            LOGGER.debug("[{}] Processing bean {} without tenant domain", this.beanName, curName);
+            tenantDomain = null;
+        }
+
+        TENANT_CONTEXT.set(tenantDomain);
+        try
+        {
+            visitor.visitBeanDefinition(bd);
+        }
+        catch (final Exception ex)
+        {
+            throw new BeanDefinitionStoreException(bd.getResourceDescription(), curName, ex.getMessage());
+        }
+        finally
+        {
+            TENANT_CONTEXT.remove();
+        }
+    }
+
+    protected BeanDefinitionVisitor createVisitor(final StringValueResolver valueResolver)
+    {
+        return new BeanDefinitionVisitor(valueResolver)
         {
 
             /**
@@ -111,51 +326,6 @@ public class TenantAwareSubsystemPlaceholderConfigurer extends PropertyPlacehold
                 return result;
             }
         };
-
-        final String[] beanNames = beanFactoryToProcess.getBeanDefinitionNames();
-        for (final String curName : beanNames)
-        {
-            // Check that we're not parsing our own bean definition,
-            // to avoid failing on unresolvable placeholders in properties file locations.
-            if (!(curName.equals(this.beanName) && beanFactoryToProcess.equals(this.beanFactory)))
-            {
-                final String tenantDomain;
-                if (curName.contains(TenantBeanUtils.TENANT_BEAN_NAME_PATTERN))
-                {
-                    tenantDomain = curName.substring(
-                            curName.indexOf(TenantBeanUtils.TENANT_BEAN_NAME_PATTERN) + TenantBeanUtils.TENANT_BEAN_NAME_PATTERN.length());
-                    LOGGER.debug("[{}] Processing bean {} for tenant domain {}", this.beanName, curName, tenantDomain);
-                }
-                else
-                {
-                    LOGGER.debug("[{}] Processing bean {} without tenant domain", this.beanName, curName);
-                    tenantDomain = null;
-                }
-
-                final BeanDefinition bd = beanFactoryToProcess.getBeanDefinition(curName);
-                TENANT_CONTEXT.set(tenantDomain);
-                try
-                {
-                    visitor.visitBeanDefinition(bd);
-                }
-                catch (final Exception ex)
-                {
-                    throw new BeanDefinitionStoreException(bd.getResourceDescription(), curName, ex.getMessage());
-                }
-                finally
-                {
-                    TENANT_CONTEXT.remove();
-                }
-            }
-        }
-        LOGGER.debug("[{}] Completed processing all beans", this.beanName);
-
-        // New in Spring 2.5: resolve placeholders in alias target names and aliases as well.
-        beanFactoryToProcess.resolveAliases(valueResolver);
-
-        // New in Spring 3.0: resolve placeholders in embedded values such as annotation attributes.
-        beanFactoryToProcess.addEmbeddedValueResolver(valueResolver);
-
     }
 
     /**
@@ -165,60 +335,143 @@ public class TenantAwareSubsystemPlaceholderConfigurer extends PropertyPlacehold
     protected String resolvePlaceholder(final String placeholder, final Properties props, final int systemPropertiesMode)
     {
         String resolved = null;
+        final String tenantDomain = TENANT_CONTEXT.get();
         if (TenantBeanUtils.TENANT_PLACEHOLDER.equals(placeholder))
         {
-            resolved = TENANT_CONTEXT.get();
+            resolved = tenantDomain;
         }
 
         // placeholder contains the expected placeholder, perform resolution for tenant-specific and generic default variant of placeholder
-        else if (TENANT_CONTEXT.get() != null && placeholder.contains(TenantBeanUtils.TENANT_PLACEHOLDER_IN_PLACEHOLDER))
+        else if (tenantDomain != null && placeholder.contains(TenantBeanUtils.TENANT_PLACEHOLDER_IN_PLACEHOLDER))
+        {
+            if (this.isIndexed(props, systemPropertiesMode))
+            {
+                // memo is only valid for the properties / mode reflected in the index and cleared whenever these are re-indexed
+                final Map<String, Optional<String>> tenantPlaceholders = this.tenantPlaceholderIndex.computeIfAbsent(tenantDomain,
+                        domain -> new ConcurrentHashMap<>());
+                resolved = tenantPlaceholders.computeIfAbsent(placeholder,
+                        key -> Optional.ofNullable(this.resolveTenantPlaceholder(placeholder, tenantDomain, props, systemPropertiesMode)))
+                        .orElse(null);
+            }
+            else
+            {
+                resolved = this.resolveTenantPlaceholder(placeholder, tenantDomain, props, systemPropertiesMode);
+            }
+        }
+
+        // fall back
+        if (resolved == null)
         {
-            final String tenantDomain = TENANT_CONTEXT.get();
-            LOGGER.debug("[{}] Processing placeholder {} for tenant domain", this.beanName, placeholder, tenantDomain);
+            resolved = this.lookupProperty(placeholder, props, systemPropertiesMode);
+        }
+
+        return resolved;
+    }
+
+    protected String resolveTenantPlaceholder(final String placeholder, final String tenantDomain, final Properties props,
+            final int systemPropertiesMode)
+    {
+        LOGGER.debug("[{}] Processing placeholder {} for tenant domain {}", this.beanName, placeholder, tenantDomain);
+
+        final StringBuilder tenantReplacementBuilder = new StringBuilder();
+        tenantReplacementBuilder.append(".");
+        tenantReplacementBuilder.append(tenantDomain);
+        tenantReplacementBuilder.append(".");
 
-            final StringBuilder tenantReplacementBuilder = new StringBuilder();
-            tenantReplacementBuilder.append(".");
-            tenantReplacementBuilder.append(tenantDomain);
-            tenantReplacementBuilder.append(".");
+        final String placeholderWithSpecificTenant = placeholder.replace(TenantBeanUtils.TENANT_PLACEHOLDER_IN_PLACEHOLDER,
+                tenantReplacementBuilder.toString());
 
-            final String placeholderWithSpecificTenant = placeholder.replace(TenantBeanUtils.TENANT_PLACEHOLDER_IN_PLACEHOLDER,
+        String resolved = this.lookupProperty(placeholderWithSpecificTenant, props, systemPropertiesMode);
+
+        if (resolved == null)
+        {
+            tenantReplacementBuilder.delete(1, tenantReplacementBuilder.length());
+
+            final String placeholderForDefaultProperty = placeholder.replace(TenantBeanUtils.TENANT_PLACEHOLDER_IN_PLACEHOLDER,
                     tenantReplacementBuilder.toString());
 
-            resolved = super.resolvePlaceholder(placeholderWithSpecificTenant, props, systemPropertiesMode);
+            resolved = this.lookupProperty(placeholderForDefaultProperty, props, systemPropertiesMode);
 
-            if (resolved == null)
+            if (resolved != null)
+            {
+                LOGGER.debug("[{}] Placeholder {} resolved to value {} from default configuration", this.beanName, placeholder, resolved);
+            }
+            else
             {
-                tenantReplacementBuilder.delete(1, tenantReplacementBuilder.length());
+                LOGGER.debug("[{}] Placeholder {} could not be resolved against tenant or default configuration", this.beanName,
+                        placeholder);
+            }
+        }
+        else
+        {
+            LOGGER.debug("[{}] Placeholder {} resolved specific value {} from tenant configuration", this.beanName, placeholder, resolved);
+        }
 
-                final String placeholderForDefaultProperty = placeholder.replace(TenantBeanUtils.TENANT_PLACEHOLDER_IN_PLACEHOLDER,
-                        tenantReplacementBuilder.toString());
+        return resolved;
+    }
+
+    protected String lookupProperty(final String key, final Properties props, final int systemPropertiesMode)
+    {
+        final Map<String, String> propertyIndex = this.propertyIndex;
+        final String value;
+        if (propertyIndex != null && this.isIndexed(props, systemPropertiesMode))
+        {
+            value = propertyIndex.get(key);
+        }
+        else
+        {
+            value = super.resolvePlaceholder(key, props, systemPropertiesMode);
+        }
+        return value;
+    }
 
-                resolved = super.resolvePlaceholder(placeholderForDefaultProperty, props, systemPropertiesMode);
+    protected boolean isIndexed(final Properties props, final int systemPropertiesMode)
+    {
+        // index only reflects the properties merged by this instance
+        return this.propertyIndex != null && props == this.mergedProperties && systemPropertiesMode == this.systemPropertiesMode;
+    }
 
-                if (resolved != null)
+    protected void indexProperties()
+    {
+        final Map<String, String> systemValues = new HashMap<>();
+        if (this.systemPropertiesMode != SYSTEM_PROPERTIES_MODE_NEVER)
+        {
+            try
+            {
+                if (this.searchSystemEnvironment)
                 {
-                    LOGGER.debug("[{}] Placeholder {} resolved to value {} from default configuration", this.beanName, placeholder,
-                            resolved);
+                    systemValues.putAll(System.getenv());
                 }
-                else
+
+                final Properties systemProperties = System.getProperties();
+                for (final String systemPropertyName : systemProperties.stringPropertyNames())
                 {
-                    LOGGER.debug("[{}] Placeholder {} could not be resolved against tenant or default configuration", this.beanName,
-                            placeholder);
+                    systemValues.put(systemPropertyName, systemProperties.getProperty(systemPropertyName));
                 }
             }
-            else
+            catch (final SecurityException ex)
             {
-                LOGGER.debug("[{}] Placeholder {} resolved specific value {} from tenant configuration", this.beanName, placeholder,
-                        resolved);
+                LOGGER.debug("[{}] Not allowed to access system properties / environment for placeholder resolution", this.beanName,
+                        ex);
             }
         }
 
-        // fall back
-        if (resolved == null)
+        final Map<String, String> propertyIndex = new HashMap<>();
+        if (this.systemPropertiesMode == SYSTEM_PROPERTIES_MODE_FALLBACK)
         {
-            resolved = super.resolvePlaceholder(placeholder, props, systemPropertiesMode);
+            propertyIndex.putAll(systemValues);
+        }
+        for (final String propertyName : this.mergedProperties.stringPropertyNames())
+        {
+            propertyIndex.put(propertyName, this.mergedProperties.getProperty(propertyName));
+        }
+        if (this.systemPropertiesMode == SYSTEM_PROPERTIES_MODE_OVERRIDE)
+        {
+            propertyIndex.putAll(systemValues);
         }
 
-        return resolved;
+        this.propertyIndex = propertyIndex;
+        this.tenantPlaceholderIndex.clear();
+        LOGGER.debug("[{}] Indexed {} properties for placeholder resolution", this.beanName, propertyIndex.size());
     }
 }
@@ -17,9 +17,7 @@ package de.acosix.alfresco.mtsupport.repo.sync;
 
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorkerAdaptor;
@@ -99,9 +97,4 @@ public abstract class AbstractSyncBatchWorker<T> extends BatchProcessWorkerAdapt
     {
         return this.personService.getUserNamesAreCaseSensitive() ? new TreeSet<>() : new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
     }
-
-    protected Map<String, Set<String>> newPersonMap()
-    {
-        return this.personService.getUserNamesAreCaseSensitive() ? new TreeMap<>() : new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-    }
 }
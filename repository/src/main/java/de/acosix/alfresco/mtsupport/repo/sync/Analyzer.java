@@ -42,12 +42,12 @@ public interface Analyzer extends BatchProcessWorker<NodeDescription>
     /**
      * @return the personParentsToAdd
      */
-    Map<String, Set<String>> getUserParentsToAdd();
+    AuthorityRelationMap getUserParentsToAdd();
 
     /**
      * @return the personParentsToRemove
      */
-    Map<String, Set<String>> getUserParentsToRemove();
+    AuthorityRelationMap getUserParentsToRemove();
 
     /**
      * @return the groupParentsToAdd
@@ -58,4 +58,17 @@ public interface Analyzer extends BatchProcessWorker<NodeDescription>
      * @return the groupParentsToRemove
      */
     Map<String, Set<String>> getGroupParentsToRemove();
+
+    /**
+     * Retrieves the cache for the existence of authorities, seeded with all groups found to exist during analysis.
+     *
+     * @return the authority existence cache
+     */
+    AuthorityExistenceCache getAuthorityExistenceCache();
+
+    /**
+     * Releases any working state of this analyzer, e.g. temporary files holding planned mutations that exceeded the memory budget. None of
+     * the planned mutations may be used after this operation has been called.
+     */
+    void releaseWorkingState();
 }
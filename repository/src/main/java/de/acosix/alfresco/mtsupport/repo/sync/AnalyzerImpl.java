@@ -15,19 +15,22 @@
  */
 package de.acosix.alfresco.mtsupport.repo.sync;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.model.ContentModel;
 import org.alfresco.repo.security.sync.NodeDescription;
 import org.alfresco.service.cmr.security.AuthorityService;
 import org.alfresco.service.cmr.security.AuthorityType;
+import org.alfresco.util.EqualsHelper;
 import org.alfresco.util.PropertyMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +38,19 @@ import org.slf4j.LoggerFactory;
 import de.acosix.alfresco.mtsupport.repo.sync.TenantAwareChainingUserRegistrySynchronizer.ComponentLookupCallback;
 
 /**
+ * Instances of this class analyse the groups of a user registry and collect the resulting mutations of the group hierarchy. Since groups
+ * are analysed concurrently by multiple workers, all collected state is held in concurrent collections without any explicit locking.
+ *
+ * Relations between authorities - both the cached current members of groups and the mutations of parent groups - are held in
+ * {@link AuthorityRelationMap relation maps} backed by a shared {@link AuthorityDictionary dictionary}, so that each authority name is only
+ * referenced once regardless of the number of memberships it is part of. User names are treated according to the case sensitivity of the
+ * person service. If a memory budget for the working state is set, the mutations of parent groups of users - by far the largest part of the
+ * working state for registries with many users - are held within that budget and spilled to temporary files beyond it.
+ *
+ * All changes to the collected state resulting from the analysis of a group are only {@link SyncBatchProcessor#applyOnCommit(Runnable)
+ * applied on commit} of the transaction in which the group has been analysed, so that groups failing to be analysed leave no partial state
+ * behind, and groups that are analysed again after a failure of their batch are not recorded twice.
+ *
  * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
  */
 public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription> implements Analyzer
@@ -44,25 +60,50 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
 
     protected final AtomicLong latestModified = new AtomicLong(-1l);
 
-    protected final Map<String, Set<String>> membersCache = new TreeMap<>();
+    protected final AuthorityDictionary dictionary;
+
+    protected final AuthorityRelationMap membersCache;
+
+    protected final ConcurrentMap<String, String> groupsToCreate = new ConcurrentSkipListMap<>();
+
+    protected final AuthorityRelationMap userParentsToAdd;
 
-    protected final Map<String, String> groupsToCreate = new TreeMap<>();
+    protected final AuthorityRelationMap userParentsToRemove;
 
-    protected final Map<String, Set<String>> userParentsToAdd;
+    protected final AuthorityRelationMap groupParentsToAdd;
 
-    protected final Map<String, Set<String>> userParentsToRemove;
+    protected final AuthorityRelationMap groupParentsToRemove;
 
-    protected final Map<String, Set<String>> groupParentsToAdd = new TreeMap<>();
+    protected final AuthorityFingerprintStore fingerprintStore;
 
-    protected final Map<String, Set<String>> groupParentsToRemove = new TreeMap<>();
+    protected final AuthorityExistenceCache existenceCache;
 
     public AnalyzerImpl(final String id, final String zoneId, final Set<String> targetZoneIds, final Collection<String> visitedIds,
-            final Collection<String> allIds, final boolean allowDeletions, final ComponentLookupCallback componentLookup)
+            final Collection<String> allIds, final boolean allowDeletions, final AuthorityFingerprintStore fingerprintStore,
+            final long workingStateMemoryBudget, final int concurrency, final ComponentLookupCallback componentLookup)
     {
         super(id, zoneId, targetZoneIds, visitedIds, allIds, allowDeletions, componentLookup);
 
-        this.userParentsToAdd = this.newPersonMap();
-        this.userParentsToRemove = this.newPersonMap();
+        this.fingerprintStore = fingerprintStore;
+        this.existenceCache = new AuthorityExistenceCache(this.authorityService);
+        this.dictionary = new AuthorityDictionary(this.personService.getUserNamesAreCaseSensitive());
+        this.membersCache = new AuthorityRelationMap(this.dictionary);
+        if (workingStateMemoryBudget > 0)
+        {
+            // each map and its inverse get a quarter of the budget
+            final String namePrefix = "sync-" + id + "-";
+            this.userParentsToAdd = new AuthorityRelationMap(this.dictionary, namePrefix + "userParentsToAdd", workingStateMemoryBudget / 4,
+                    concurrency);
+            this.userParentsToRemove = new AuthorityRelationMap(this.dictionary, namePrefix + "userParentsToRemove",
+                    workingStateMemoryBudget / 4, concurrency);
+        }
+        else
+        {
+            this.userParentsToAdd = new AuthorityRelationMap(this.dictionary);
+            this.userParentsToRemove = new AuthorityRelationMap(this.dictionary);
+        }
+        this.groupParentsToAdd = new AuthorityRelationMap(this.dictionary);
+        this.groupParentsToRemove = new AuthorityRelationMap(this.dictionary);
     }
 
     /**
@@ -90,7 +131,7 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
      * {@inheritDoc}
      */
     @Override
-    public Map<String, Set<String>> getUserParentsToAdd()
+    public AuthorityRelationMap getUserParentsToAdd()
     {
         return this.userParentsToAdd;
     }
@@ -100,7 +141,7 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
      * {@inheritDoc}
      */
     @Override
-    public Map<String, Set<String>> getUserParentsToRemove()
+    public AuthorityRelationMap getUserParentsToRemove()
     {
         return this.userParentsToRemove;
     }
@@ -125,6 +166,27 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
         return this.groupParentsToRemove;
     }
 
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public AuthorityExistenceCache getAuthorityExistenceCache()
+    {
+        return this.existenceCache;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void releaseWorkingState()
+    {
+        this.userParentsToAdd.release();
+        this.userParentsToRemove.release();
+    }
+
     /**
      *
      * {@inheritDoc}
@@ -146,6 +208,9 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
         final String groupName = (String) groupProperties.get(ContentModel.PROP_AUTHORITY_NAME);
         final String groupShortName = this.authorityService.getShortName(groupName);
         final Set<String> groupZones = this.authorityService.getAuthorityZones(groupName);
+        final String fingerprint = this.fingerprintStore != null ? AuthorityFingerprintStore.computeFingerprint(group) : null;
+        boolean synced = true;
+        boolean recreated = false;
 
         // TODO Alfresco included update/creation in Analyzer, but we should aim to externalize this
         if (groupZones == null)
@@ -171,8 +236,16 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
 
             if (groupZones.contains(this.zoneId))
             {
-                // The group already existed in this zone: update the group
-                this.updateGroup(group, true);
+                if (fingerprint != null && this.fingerprintStore.isUnchanged(groupName, fingerprint))
+                {
+                    // neither attributes nor members have changed since last successful sync
+                    LOGGER.trace("Group {} has not changed", groupShortName);
+                }
+                else
+                {
+                    // The group already existed in this zone: update the group
+                    this.updateGroup(group, true);
+                }
             }
             else if (visited.isEmpty())
             {
@@ -194,25 +267,39 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
                             "Recreating occluded group {} - this group was previously created through synchronization with a lower priority user registry",
                             groupShortName);
                     this.authorityService.deleteAuthority(groupName);
+                    recreated = true;
 
                     // create the group
                     this.updateGroup(group, false);
                 }
             }
+            else
+            {
+                synced = false;
+            }
         }
 
+        final boolean markExisting = groupZones != null && !recreated;
+        final boolean deferFingerprint = fingerprint != null && synced;
         final Date lastModified = group.getLastModified();
-        if (lastModified != null)
-        {
-            this.latestModified.updateAndGet(oldLastModified -> {
-                long newValue = lastModified.getTime();
-                if (oldLastModified > newValue)
-                {
-                    newValue = oldLastModified;
-                }
-                return newValue;
-            });
-        }
+        SyncBatchProcessor.applyOnCommit(() -> {
+            if (markExisting)
+            {
+                // seed existence for association phases (groups to be created are only marked once creation has been committed)
+                this.existenceCache.markExisting(groupName);
+            }
+
+            if (deferFingerprint)
+            {
+                // memberships are only processed in later phases so fingerprint may only be stored once these have been completed
+                this.fingerprintStore.deferFingerprint(groupName, fingerprint);
+            }
+
+            if (lastModified != null)
+            {
+                this.latestModified.accumulateAndGet(lastModified.getTime(), Math::max);
+            }
+        });
     }
 
     protected void updateGroup(final NodeDescription group, final boolean existed)
@@ -240,10 +327,18 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
             }
         }
 
+        final List<String> removedMembers = new ArrayList<>();
         if (existed)
         {
-            this.authorityService.setAuthorityDisplayName(groupName, groupDisplayName);
+            // avoid no-op updates (and associated audit / index overhead) for unchanged groups
+            final String currentDisplayName = this.authorityService.getAuthorityDisplayName(groupName);
+            if (!EqualsHelper.nullSafeEquals(currentDisplayName, groupDisplayName))
+            {
+                LOGGER.debug("Updating display name of group {}", groupName);
+                this.authorityService.setAuthorityDisplayName(groupName, groupDisplayName);
+            }
 
+            // also ensures the members of the group are cached before any of them is removed from the cache on commit
             final Set<String> containedAuthorities = this.getContainedAuthorities(groupName);
             for (final String child : containedAuthorities)
             {
@@ -251,35 +346,41 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
                 {
                     if (!userMembers.remove(child))
                     {
-                        this.recordParentForRemoval(child, groupName);
+                        removedMembers.add(child);
                     }
                 }
                 else
                 {
                     if (!groupMembers.remove(child))
                     {
-                        this.recordParentForRemoval(child, groupName);
+                        removedMembers.add(child);
                     }
                 }
             }
         }
-        else
-        {
-            synchronized (this.groupsToCreate)
+
+        final String displayNameToCreate = existed ? null : groupDisplayName;
+        SyncBatchProcessor.applyOnCommit(() -> {
+            if (displayNameToCreate != null)
             {
-                this.groupsToCreate.put(groupName, groupDisplayName);
+                this.groupsToCreate.put(groupName, displayNameToCreate);
             }
-        }
 
-        for (final String child : userMembers)
-        {
-            this.recordParentForAddition(child, groupName);
-        }
+            for (final String child : removedMembers)
+            {
+                this.recordParentForRemoval(child, groupName);
+            }
 
-        for (final String child : groupMembers)
-        {
-            this.recordParentForAddition(child, groupName);
-        }
+            for (final String child : userMembers)
+            {
+                this.recordParentForAddition(child, groupName);
+            }
+
+            for (final String child : groupMembers)
+            {
+                this.recordParentForAddition(child, groupName);
+            }
+        });
     }
 
     protected Set<String> getContainedAuthorities(final String groupName)
@@ -303,22 +404,11 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
 
     protected Set<String> cacheContainedAuthorities(final String groupName)
     {
-        Set<String> children;
-
-        if (!this.membersCache.containsKey(groupName))
-        {
-            synchronized (this.membersCache)
-            {
-                children = this.membersCache.get(groupName);
-                if (children == null)
-                {
-                    children = this.authorityService.getContainedAuthorities(null, groupName, true);
-                    this.membersCache.put(groupName, Collections.synchronizedSet(children));
-                }
-            }
-        }
-        else
+        Set<String> children = this.membersCache.get(groupName);
+        if (children == null)
         {
+            // load outside of any lock - if another worker loaded the same group concurrently, its result wins
+            this.membersCache.putRelationsIfAbsent(groupName, this.authorityService.getContainedAuthorities(null, groupName, true));
             children = this.membersCache.get(groupName);
         }
         return children;
@@ -326,7 +416,7 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
 
     protected void recordParentForRemoval(final String child, final String parent)
     {
-        Map<String, Set<String>> parentsMutationCache;
+        AuthorityRelationMap parentsMutationCache;
         if (AuthorityType.getAuthorityType(child) == AuthorityType.USER)
         {
             parentsMutationCache = this.userParentsToRemove;
@@ -334,45 +424,19 @@ public class AnalyzerImpl extends AbstractZonedSyncBatchWorker<NodeDescription>
         else
         {
             // Reflect the change in the map of final group associations (for cycle detection later)
+            // (members of the parent have been cached while it was analysed)
             parentsMutationCache = this.groupParentsToRemove;
-
-            final Set<String> children = this.getContainedAuthorities(parent);
-            children.remove(child);
+            this.membersCache.removeRelation(parent, child);
         }
 
-        final Set<String> parents = this.getParentsFromMutationCache(child, parentsMutationCache);
-        parents.add(parent);
+        parentsMutationCache.addRelation(child, parent);
     }
 
     protected void recordParentForAddition(final String child, final String parent)
     {
-        final Map<String, Set<String>> parentsMutationCache = AuthorityType.getAuthorityType(child) == AuthorityType.USER
+        final AuthorityRelationMap parentsMutationCache = AuthorityType.getAuthorityType(child) == AuthorityType.USER
                 ? this.userParentsToAdd : this.groupParentsToAdd;
 
-        final Set<String> parents = this.getParentsFromMutationCache(child, parentsMutationCache);
-
-        parents.add(parent);
-    }
-
-    protected Set<String> getParentsFromMutationCache(final String child, final Map<String, Set<String>> parentsMutationCache)
-    {
-        Set<String> parents;
-        if (!parentsMutationCache.containsKey(child))
-        {
-            synchronized (parentsMutationCache)
-            {
-                parents = parentsMutationCache.get(child);
-                if (parents == null)
-                {
-                    parents = new TreeSet<>();
-                    parentsMutationCache.put(child, Collections.synchronizedSet(parents));
-                }
-            }
-        }
-        else
-        {
-            parents = parentsMutationCache.get(child);
-        }
-        return parents;
+        parentsMutationCache.addRelation(child, parent);
     }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.alfresco.service.cmr.security.AuthorityType;
+import org.alfresco.util.ParameterCheck;
+
+/**
+ * Instances of this class map the names of authorities handled during a single synchronisation run to dense integer identifiers, so that
+ * relations between authorities can be kept as primitive values instead of references to (frequently duplicated) name strings. Each name
+ * is only held once by the dictionary, no matter how many relations it is part of.
+ *
+ * User names are treated case-insensitively if the repository is configured for case-insensitive user names, with the identifier being
+ * associated with the spelling first encountered. Instances of this class are safe for concurrent use.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class AuthorityDictionary
+{
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    protected final boolean userNamesCaseSensitive;
+
+    protected final ConcurrentMap<String, Integer> idsByKey = new ConcurrentHashMap<>();
+
+    protected final Object namesLock = new Object();
+
+    protected volatile String[] names = new String[INITIAL_CAPACITY];
+
+    protected volatile int size = 0;
+
+    /**
+     * Creates a new dictionary.
+     *
+     * @param userNamesCaseSensitive
+     *            {@code true} if user names are to be treated case-sensitively, {@code false} otherwise
+     */
+    public AuthorityDictionary(final boolean userNamesCaseSensitive)
+    {
+        this.userNamesCaseSensitive = userNamesCaseSensitive;
+    }
+
+    /**
+     * Retrieves the identifier of an authority, assigning a new identifier if the authority has not been encountered before.
+     *
+     * @param authorityName
+     *            the name of the authority
+     * @return the identifier of the authority
+     */
+    public int getOrAssignId(final String authorityName)
+    {
+        ParameterCheck.mandatoryString("authorityName", authorityName);
+
+        final Integer id = this.idsByKey.computeIfAbsent(this.toKey(authorityName), key -> this.append(authorityName));
+        return id.intValue();
+    }
+
+    /**
+     * Retrieves the identifier of an authority without assigning a new identifier.
+     *
+     * @param authorityName
+     *            the name of the authority
+     * @return the identifier of the authority or {@code -1} if the authority has not been encountered before
+     */
+    public int getId(final String authorityName)
+    {
+        final Integer id = authorityName != null ? this.idsByKey.get(this.toKey(authorityName)) : null;
+        return id != null ? id.intValue() : -1;
+    }
+
+    /**
+     * Retrieves the name of an authority.
+     *
+     * @param id
+     *            the identifier of the authority
+     * @return the name of the authority as first encountered
+     */
+    public String getName(final int id)
+    {
+        if (id < 0 || id >= this.size)
+        {
+            throw new IllegalArgumentException("Unknown authority id " + id);
+        }
+        return this.names[id];
+    }
+
+    /**
+     * Retrieves the number of authorities in this dictionary.
+     *
+     * @return the number of authorities
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    protected String toKey(final String authorityName)
+    {
+        final String key;
+        if (!this.userNamesCaseSensitive && AuthorityType.getAuthorityType(authorityName) == AuthorityType.USER)
+        {
+            key = authorityName.toLowerCase(Locale.ENGLISH);
+        }
+        else
+        {
+            key = authorityName;
+        }
+        return key;
+    }
+
+    protected Integer append(final String authorityName)
+    {
+        // only called once per authority - readers never need to lock as an id is only published after its name has been stored
+        synchronized (this.namesLock)
+        {
+            final int id = this.size;
+            String[] names = this.names;
+            if (id == names.length)
+            {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[id] = authorityName;
+            this.names = names;
+            this.size = id + 1;
+            return Integer.valueOf(id);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.util.ParameterCheck;
+
+/**
+ * Instances of this class cache the existence of authorities for the duration of a single synchronisation run so that the various
+ * association phases do not need to check the existence of the same group once for every member.
+ *
+ * Only the existence of authorities is cached. Since authorities are not deleted during association phases, a positive result remains valid
+ * until the end of the synchronisation, while a negative result may become invalid as soon as a concurrently processed batch creating the
+ * authority has been committed.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class AuthorityExistenceCache
+{
+
+    protected final AuthorityService authorityService;
+
+    protected final Set<String> existingAuthorities = ConcurrentHashMap.newKeySet();
+
+    public AuthorityExistenceCache(final AuthorityService authorityService)
+    {
+        ParameterCheck.mandatory("authorityService", authorityService);
+
+        this.authorityService = authorityService;
+    }
+
+    /**
+     * Checks if an authority exists, using a previously cached result if available.
+     *
+     * @param authorityName
+     *            the name of the authority
+     * @return {@code true} if the authority exists, {@code false} otherwise
+     */
+    public boolean authorityExists(final String authorityName)
+    {
+        boolean exists = this.existingAuthorities.contains(authorityName);
+        if (!exists)
+        {
+            exists = this.authorityService.authorityExists(authorityName);
+            if (exists)
+            {
+                this.existingAuthorities.add(authorityName);
+            }
+        }
+        return exists;
+    }
+
+    /**
+     * Marks an authority as existing, e.g. because it has been found during analysis of the user registry.
+     *
+     * @param authorityName
+     *            the name of the authority
+     */
+    public void markExisting(final String authorityName)
+    {
+        this.existingAuthorities.add(authorityName);
+    }
+
+    /**
+     * Marks an authority as existing as soon as the current transaction has been committed.
+     *
+     * @param authorityName
+     *            the name of the authority that has been created in the current transaction
+     */
+    public void markExistingAfterCommit(final String authorityName)
+    {
+        AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+        {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void afterCommit()
+            {
+                AuthorityExistenceCache.this.markExisting(authorityName);
+            }
+        });
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.security.sync.NodeDescription;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.security.AuthorityType;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.EqualsHelper;
+import org.alfresco.util.ParameterCheck;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of this class manage the fingerprints of authorities synchronised from a specific user registry. A fingerprint is a digest of
+ * the mapped attributes and members of a registry entry as of the last successful synchronisation. Entries with an unchanged fingerprint
+ * do not need to be processed again in a full synchronisation, so that it costs little more than the time to read all entries from the
+ * user registry.
+ *
+ * Fingerprints are persisted via the {@link AttributeService attribute service}. All operations that read or write persisted fingerprints
+ * must be called within a transaction.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class AuthorityFingerprintStore
+{
+
+    public static final String ROOT_ATTRIBUTE_PATH = ".TenantAwareChainingUserRegistrySynchronizer.Fingerprints";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuthorityFingerprintStore.class);
+
+    protected final String storeKey;
+
+    protected final AttributeService attributeService;
+
+    protected final Map<String, String> knownFingerprints = new ConcurrentHashMap<>();
+
+    protected final Map<String, String> deferredFingerprints = new ConcurrentHashMap<>();
+
+    protected volatile boolean loaded = false;
+
+    /**
+     * Creates a new store for the fingerprints of a specific user registry.
+     *
+     * @param storeKey
+     *            the key of the store - must be qualified with the tenant if the user registry does not belong to the default tenant
+     * @param attributeService
+     *            the attribute service used to persist fingerprints
+     */
+    public AuthorityFingerprintStore(final String storeKey, final AttributeService attributeService)
+    {
+        ParameterCheck.mandatoryString("storeKey", storeKey);
+        ParameterCheck.mandatory("attributeService", attributeService);
+
+        this.storeKey = storeKey;
+        this.attributeService = attributeService;
+    }
+
+    /**
+     * Computes the fingerprint of a user registry entry.
+     *
+     * @param entry
+     *            the entry for which to compute the fingerprint
+     * @return the fingerprint of the entry
+     */
+    public static String computeFingerprint(final NodeDescription entry)
+    {
+        ParameterCheck.mandatory("entry", entry);
+
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+
+            // sort to be independent from order of attribute retrieval
+            final Map<String, Serializable> sortedProperties = new TreeMap<>();
+            for (final Entry<QName, Serializable> propertyEntry : entry.getProperties().entrySet())
+            {
+                sortedProperties.put(propertyEntry.getKey().toString(), propertyEntry.getValue());
+            }
+
+            for (final Entry<String, Serializable> propertyEntry : sortedProperties.entrySet())
+            {
+                digest.update(propertyEntry.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '=');
+
+                final Serializable value = propertyEntry.getValue();
+                if (value instanceof AvatarBlobWrapper)
+                {
+                    digest.update(((AvatarBlobWrapper) value).getData());
+                }
+                else if (value instanceof Date)
+                {
+                    digest.update(String.valueOf(((Date) value).getTime()).getBytes(StandardCharsets.UTF_8));
+                }
+                else if (value != null)
+                {
+                    digest.update(value.toString().getBytes(StandardCharsets.UTF_8));
+                }
+                digest.update((byte) '\n');
+            }
+
+            for (final String member : new TreeSet<>(entry.getChildAssociations()))
+            {
+                digest.update((byte) '+');
+                digest.update(member.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+
+            final String fingerprint = new String(Hex.encodeHex(digest.digest(), false));
+            return fingerprint;
+        }
+        catch (final NoSuchAlgorithmException nsaex)
+        {
+            throw new AlfrescoRuntimeException("Error creating fingerprint digest", nsaex);
+        }
+    }
+
+    /**
+     * Loads all persisted fingerprints of this store. Until fingerprints have been loaded, no authority will be considered
+     * {@link #isUnchanged(String, String) unchanged}.
+     */
+    public void load()
+    {
+        this.knownFingerprints.clear();
+        this.attributeService.getAttributes((id, value, keys) -> {
+            if (keys.length == 3 && keys[2] instanceof String && value instanceof String)
+            {
+                this.knownFingerprints.put((String) keys[2], (String) value);
+            }
+            return true;
+        }, ROOT_ATTRIBUTE_PATH, this.storeKey);
+        this.loaded = true;
+
+        LOGGER.debug("Loaded {} authority fingerprints for {}", this.knownFingerprints.size(), this.storeKey);
+    }
+
+    /**
+     * Checks if an authority has not changed since its fingerprint was last stored.
+     *
+     * @param authorityName
+     *            the name of the authority
+     * @param fingerprint
+     *            the current fingerprint of the authority
+     * @return {@code true} if the stored fingerprint matches the current fingerprint, {@code false} otherwise or if fingerprints have not
+     *         been {@link #load() loaded}
+     */
+    public boolean isUnchanged(final String authorityName, final String fingerprint)
+    {
+        final boolean unchanged = this.loaded && EqualsHelper.nullSafeEquals(this.knownFingerprints.get(authorityName), fingerprint);
+        return unchanged;
+    }
+
+    /**
+     * Stores the current fingerprint of an authority within the current transaction.
+     *
+     * @param authorityName
+     *            the name of the authority
+     * @param fingerprint
+     *            the current fingerprint of the authority
+     */
+    public void storeFingerprint(final String authorityName, final String fingerprint)
+    {
+        if (!this.isUnchanged(authorityName, fingerprint))
+        {
+            this.attributeService.setAttribute(fingerprint, ROOT_ATTRIBUTE_PATH, this.storeKey, authorityName);
+        }
+    }
+
+    /**
+     * Records the current fingerprint of an authority to be {@link #storeDeferredFingerprints() stored} once all processing related to the
+     * authority has completed successfully.
+     *
+     * @param authorityName
+     *            the name of the authority
+     * @param fingerprint
+     *            the current fingerprint of the authority
+     */
+    public void deferFingerprint(final String authorityName, final String fingerprint)
+    {
+        if (!this.isUnchanged(authorityName, fingerprint))
+        {
+            this.deferredFingerprints.put(authorityName, fingerprint);
+        }
+    }
+
+    /**
+     * Retrieves the names of authorities with deferred fingerprints.
+     *
+     * @return the names of authorities with deferred fingerprints
+     */
+    public Collection<String> getDeferredAuthorityNames()
+    {
+        return new ArrayList<>(this.deferredFingerprints.keySet());
+    }
+
+    /**
+     * Stores the deferred fingerprints of specific authorities within the current transaction.
+     *
+     * @param authorityNames
+     *            the names of the authorities for which to store deferred fingerprints
+     */
+    public void storeDeferredFingerprints(final Collection<String> authorityNames)
+    {
+        for (final String authorityName : authorityNames)
+        {
+            final String fingerprint = this.deferredFingerprints.get(authorityName);
+            if (fingerprint != null)
+            {
+                this.attributeService.setAttribute(fingerprint, ROOT_ATTRIBUTE_PATH, this.storeKey, authorityName);
+            }
+        }
+    }
+
+    /**
+     * Discards all deferred fingerprints, e.g. when processing of the related authorities failed.
+     */
+    public void discardDeferredFingerprints()
+    {
+        this.deferredFingerprints.clear();
+    }
+
+    /**
+     * Removes the stored fingerprints of specific authorities within the current transaction.
+     *
+     * @param authorityNames
+     *            the names of the authorities for which to remove fingerprints
+     */
+    public void removeFingerprints(final Collection<String> authorityNames)
+    {
+        for (final String authorityName : authorityNames)
+        {
+            this.attributeService.removeAttribute(ROOT_ATTRIBUTE_PATH, this.storeKey, authorityName);
+            this.knownFingerprints.remove(authorityName);
+        }
+    }
+
+    /**
+     * Removes the stored fingerprints of all groups within the current transaction. This is necessary whenever memberships may have been
+     * changed without a change to the groups themselves, e.g. when members have been deleted.
+     */
+    public void removeGroupFingerprints()
+    {
+        final List<String> groupNames = new ArrayList<>();
+        this.attributeService.getAttributes((id, value, keys) -> {
+            if (keys.length == 3 && keys[2] instanceof String && AuthorityType.getAuthorityType((String) keys[2]) == AuthorityType.GROUP)
+            {
+                groupNames.add((String) keys[2]);
+            }
+            return true;
+        }, ROOT_ATTRIBUTE_PATH, this.storeKey);
+
+        LOGGER.debug("Removing {} group fingerprints for {}", groupNames.size(), this.storeKey);
+        this.removeFingerprints(groupNames);
+    }
+}
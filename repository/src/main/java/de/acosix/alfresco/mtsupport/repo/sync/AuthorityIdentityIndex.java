@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.io.Serializable;
+
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.util.EqualsHelper;
+import org.alfresco.util.ParameterCheck;
+
+/**
+ * Instances of this class manage the association between the immutable identifiers of entries in a specific user registry and the names
+ * of the authorities synchronised from them. This allows renames in the user registry to be recognised as such, since the name of an
+ * authority is typically derived from a mutable attribute of the entry.
+ *
+ * Associations are persisted via the {@link AttributeService attribute service}. All operations must be called within a transaction.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class AuthorityIdentityIndex
+{
+
+    public static final String ROOT_ATTRIBUTE_PATH = ".TenantAwareChainingUserRegistrySynchronizer.Identities";
+
+    protected final String indexKey;
+
+    protected final AttributeService attributeService;
+
+    /**
+     * Creates a new index for the identifiers of a specific user registry.
+     *
+     * @param indexKey
+     *            the key of the index - must be qualified with the tenant if the user registry does not belong to the default tenant
+     * @param attributeService
+     *            the attribute service used to persist associations
+     */
+    public AuthorityIdentityIndex(final String indexKey, final AttributeService attributeService)
+    {
+        ParameterCheck.mandatoryString("indexKey", indexKey);
+        ParameterCheck.mandatory("attributeService", attributeService);
+
+        this.indexKey = indexKey;
+        this.attributeService = attributeService;
+    }
+
+    /**
+     * Retrieves the name of the authority last synchronised for a specific identifier.
+     *
+     * @param stableId
+     *            the immutable identifier of the user registry entry
+     * @return the name of the authority or {@code null} if no authority has been synchronised for the identifier yet
+     */
+    public String getAuthorityName(final String stableId)
+    {
+        ParameterCheck.mandatoryString("stableId", stableId);
+
+        final Serializable authorityName = this.attributeService.getAttribute(ROOT_ATTRIBUTE_PATH, this.indexKey, stableId);
+        return authorityName instanceof String ? (String) authorityName : null;
+    }
+
+    /**
+     * Registers the name of the authority synchronised for a specific identifier within the current transaction.
+     *
+     * @param stableId
+     *            the immutable identifier of the user registry entry
+     * @param authorityName
+     *            the name of the authority
+     */
+    public void registerAuthorityName(final String stableId, final String authorityName)
+    {
+        ParameterCheck.mandatoryString("authorityName", authorityName);
+
+        if (!EqualsHelper.nullSafeEquals(this.getAuthorityName(stableId), authorityName))
+        {
+            this.attributeService.setAttribute(authorityName, ROOT_ATTRIBUTE_PATH, this.indexKey, stableId);
+        }
+    }
+}
@@ -0,0 +1,725 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.alfresco.util.ParameterCheck;
+
+/**
+ * Instances of this class hold relations from one authority to a set of other authorities, e.g. from a child to its parent groups, in a
+ * compact form based on the identifiers of an {@link AuthorityDictionary authority dictionary}. The related authorities are stored as
+ * sorted arrays of primitive identifiers, which are replaced on modification so that readers always operate on a consistent snapshot.
+ *
+ * Instances of this class can be used as a read-only {@link Map map} of authority names to sets of authority names. Modifications are only
+ * supported via the dedicated operations of this class, which are safe for concurrent use.
+ *
+ * Instances created with a memory budget hold relations as edges in a {@link SpillingLongSet spilling set} instead, so that relations
+ * exceeding the budget are spilled to temporary files and read back in order of the authority from which they originate. In this mode, only
+ * the addition of relations is supported and instances need to be {@link #release() released} once they are no longer needed. Each lookup
+ * of a single authority via {@link #get(Object) get} / {@link #containsKey(Object) containsKey} needs to search all spilled runs, so
+ * relations should be read via {@link #groupIterator() grouped iteration} instead.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class AuthorityRelationMap extends AbstractMap<String, Set<String>>
+{
+
+    private static final int[] EMPTY = new int[0];
+
+    // each chunk tracks 2^16 source identifiers in 8 KiB
+    private static final int SOURCE_CHUNK_SHIFT = 16;
+
+    protected final AuthorityDictionary dictionary;
+
+    protected final ConcurrentMap<Integer, int[]> relations = new ConcurrentHashMap<>();
+
+    protected final String name;
+
+    protected final long memoryBudget;
+
+    protected final int concurrency;
+
+    protected final SpillingLongSet edges;
+
+    protected final List<AuthorityRelationMap> derivedMaps = new ArrayList<>();
+
+    protected final ConcurrentMap<Integer, AtomicLongArray> sourceChunks = new ConcurrentHashMap<>();
+
+    protected final AtomicInteger sourceCount = new AtomicInteger(0);
+
+    /**
+     * Creates a new relation map.
+     *
+     * @param dictionary
+     *            the dictionary of authorities
+     */
+    public AuthorityRelationMap(final AuthorityDictionary dictionary)
+    {
+        ParameterCheck.mandatory("dictionary", dictionary);
+        this.dictionary = dictionary;
+        this.name = null;
+        this.memoryBudget = -1;
+        this.concurrency = -1;
+        this.edges = null;
+    }
+
+    /**
+     * Creates a new relation map holding its relations within a limited memory budget.
+     *
+     * @param dictionary
+     *            the dictionary of authorities
+     * @param name
+     *            the name of the relation map, used to name temporary files
+     * @param memoryBudget
+     *            the memory budget in bytes
+     * @param concurrency
+     *            the expected number of threads concurrently adding relations
+     */
+    public AuthorityRelationMap(final AuthorityDictionary dictionary, final String name, final long memoryBudget, final int concurrency)
+    {
+        ParameterCheck.mandatory("dictionary", dictionary);
+        this.dictionary = dictionary;
+        this.name = name;
+        this.memoryBudget = memoryBudget;
+        this.concurrency = concurrency;
+        this.edges = new SpillingLongSet(name, memoryBudget, concurrency);
+    }
+
+    /**
+     * Adds a relation between two authorities.
+     *
+     * @param source
+     *            the name of the authority from which the relation originates
+     * @param target
+     *            the name of the related authority
+     */
+    public void addRelation(final String source, final String target)
+    {
+        final int sourceId = this.dictionary.getOrAssignId(source);
+        final int targetId = this.dictionary.getOrAssignId(target);
+        if (this.edges != null)
+        {
+            this.addEdge(sourceId, targetId);
+        }
+        else
+        {
+            this.relations.compute(Integer.valueOf(sourceId), (key, targets) -> insert(targets != null ? targets : EMPTY, targetId));
+        }
+    }
+
+    /**
+     * Removes a relation between two authorities.
+     *
+     * @param source
+     *            the name of the authority from which the relation originates
+     * @param target
+     *            the name of the related authority
+     */
+    public void removeRelation(final String source, final String target)
+    {
+        this.ensureInMemory();
+
+        final int sourceId = this.dictionary.getId(source);
+        final int targetId = this.dictionary.getId(target);
+        if (sourceId != -1 && targetId != -1)
+        {
+            this.relations.computeIfPresent(Integer.valueOf(sourceId), (key, targets) -> delete(targets, targetId));
+        }
+    }
+
+    /**
+     * Sets the relations of an authority unless relations have already been set or added for it.
+     *
+     * @param source
+     *            the name of the authority from which the relations originate
+     * @param targets
+     *            the names of the related authorities
+     */
+    public void putRelationsIfAbsent(final String source, final Collection<String> targets)
+    {
+        this.ensureInMemory();
+
+        final Integer sourceId = Integer.valueOf(this.dictionary.getOrAssignId(source));
+        if (!this.relations.containsKey(sourceId))
+        {
+            final int[] targetIds = new int[targets.size()];
+            int idx = 0;
+            for (final String target : targets)
+            {
+                targetIds[idx++] = this.dictionary.getOrAssignId(target);
+            }
+            Arrays.sort(targetIds);
+            this.relations.putIfAbsent(sourceId, distinct(targetIds));
+        }
+    }
+
+    /**
+     * Creates a new relation map with all relations of this instance inverted, e.g. to transform relations from children to their parents
+     * into relations from parents to their children. This operation should not be called while this instance is being modified. If this
+     * instance holds its relations within a memory budget, the inverted relations are subject to the same budget and are released together
+     * with this instance.
+     *
+     * @return the inverted relations
+     */
+    public AuthorityRelationMap invert()
+    {
+        if (this.edges != null)
+        {
+            final AuthorityRelationMap invertedMap = new AuthorityRelationMap(this.dictionary, this.name + "-inverted", this.memoryBudget,
+                    this.concurrency);
+            synchronized (this.derivedMaps)
+            {
+                this.derivedMaps.add(invertedMap);
+            }
+
+            final Iterator<Long> edgeIterator = this.edges.iterator();
+            while (edgeIterator.hasNext())
+            {
+                final long edge = edgeIterator.next().longValue();
+                invertedMap.addEdge(target(edge), source(edge));
+            }
+            return invertedMap;
+        }
+
+        final int[] counts = new int[this.dictionary.size()];
+        for (final int[] targets : this.relations.values())
+        {
+            for (final int target : targets)
+            {
+                counts[target]++;
+            }
+        }
+
+        final int[][] inverted = new int[counts.length][];
+        for (final Map.Entry<Integer, int[]> relation : this.relations.entrySet())
+        {
+            final int source = relation.getKey().intValue();
+            for (final int target : relation.getValue())
+            {
+                if (inverted[target] == null)
+                {
+                    inverted[target] = new int[counts[target]];
+                    counts[target] = 0;
+                }
+                inverted[target][counts[target]++] = source;
+            }
+        }
+
+        final AuthorityRelationMap invertedMap = new AuthorityRelationMap(this.dictionary);
+        for (int target = 0; target < inverted.length; target++)
+        {
+            if (inverted[target] != null)
+            {
+                Arrays.sort(inverted[target]);
+                invertedMap.relations.put(Integer.valueOf(target), inverted[target]);
+            }
+        }
+        return invertedMap;
+    }
+
+    /**
+     * Releases any temporary files used to hold the relations of this instance and of any relation maps derived from it. This instance must
+     * not be used after it has been released.
+     */
+    public void release()
+    {
+        if (this.edges != null)
+        {
+            synchronized (this.derivedMaps)
+            {
+                this.derivedMaps.forEach(AuthorityRelationMap::release);
+                this.derivedMaps.clear();
+            }
+            this.edges.close();
+        }
+    }
+
+    /**
+     * Retrieves the relations grouped by the authority from which they originate, in ascending order of the identifiers of these
+     * authorities. In contrast to lookups of individual authorities, this reads all spilled runs sequentially only once.
+     *
+     * @return the iterator over the relations grouped by the authority from which they originate
+     */
+    public Iterator<RelationGroup> groupIterator()
+    {
+        final Iterator<RelationGroup> groupIterator;
+        if (this.edges != null)
+        {
+            groupIterator = new EdgeGroupingIterator(this.edges.iterator());
+        }
+        else
+        {
+            final List<Integer> sourceIds = new ArrayList<>(this.relations.keySet());
+            Collections.sort(sourceIds);
+            final Iterator<Integer> sourceIdIterator = sourceIds.iterator();
+            groupIterator = new Iterator<RelationGroup>()
+            {
+
+                private RelationGroup next = this.advance();
+
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public boolean hasNext()
+                {
+                    return this.next != null;
+                }
+
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public RelationGroup next()
+                {
+                    if (this.next == null)
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    final RelationGroup next = this.next;
+                    this.next = this.advance();
+                    return next;
+                }
+
+                private RelationGroup advance()
+                {
+                    RelationGroup next = null;
+                    while (next == null && sourceIdIterator.hasNext())
+                    {
+                        final Integer sourceId = sourceIdIterator.next();
+                        // relations may have been removed concurrently
+                        final int[] targets = AuthorityRelationMap.this.relations.get(sourceId);
+                        if (targets != null)
+                        {
+                            next = AuthorityRelationMap.this.newRelationGroup(sourceId.intValue(), targets);
+                        }
+                    }
+                    return next;
+                }
+            };
+        }
+        return groupIterator;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If this instance holds its relations within a memory budget, this operation needs to search all spilled runs.
+     */
+    @Override
+    public Set<String> get(final Object key)
+    {
+        Set<String> result = null;
+        if (key instanceof String)
+        {
+            final int sourceId = this.dictionary.getId((String) key);
+            final int[] targets;
+            if (sourceId == -1)
+            {
+                targets = null;
+            }
+            else if (this.edges != null)
+            {
+                targets = this.readTargets(sourceId);
+            }
+            else
+            {
+                targets = this.relations.get(Integer.valueOf(sourceId));
+            }
+            result = targets != null ? new AuthoritySet(targets) : null;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If this instance holds its relations within a memory budget, this operation needs to search all spilled runs.
+     */
+    @Override
+    public boolean containsKey(final Object key)
+    {
+        return this.get(key) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return this.edges != null ? this.sourceCount.get() : this.relations.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty()
+    {
+        return this.edges != null ? this.edges.isEmpty() : this.relations.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Map.Entry<String, Set<String>>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<String, Set<String>>>()
+        {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public Iterator<Map.Entry<String, Set<String>>> iterator()
+            {
+                final Iterator<RelationGroup> groupIterator = AuthorityRelationMap.this.groupIterator();
+                return new Iterator<Map.Entry<String, Set<String>>>()
+                {
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return groupIterator.hasNext();
+                    }
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public Map.Entry<String, Set<String>> next()
+                    {
+                        final RelationGroup group = groupIterator.next();
+                        return new SimpleImmutableEntry<>(group.getSource(), group.getTargets());
+                    }
+                };
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public int size()
+            {
+                return AuthorityRelationMap.this.size();
+            }
+        };
+    }
+
+    protected void addEdge(final int sourceId, final int targetId)
+    {
+        this.edges.add(edge(sourceId, targetId));
+
+        // track distinct sources so the size is known without reading all edges
+        final AtomicLongArray sourceChunk = this.sourceChunks.computeIfAbsent(Integer.valueOf(sourceId >>> SOURCE_CHUNK_SHIFT),
+                key -> new AtomicLongArray(1 << (SOURCE_CHUNK_SHIFT - 6)));
+        final int bitIdx = sourceId & ((1 << SOURCE_CHUNK_SHIFT) - 1);
+        final long mask = 1L << bitIdx;
+        long word;
+        boolean newSource;
+        do
+        {
+            word = sourceChunk.get(bitIdx >>> 6);
+            newSource = (word & mask) == 0;
+        }
+        while (newSource && !sourceChunk.compareAndSet(bitIdx >>> 6, word, word | mask));
+
+        if (newSource)
+        {
+            this.sourceCount.incrementAndGet();
+        }
+    }
+
+    protected RelationGroup newRelationGroup(final int sourceId, final int[] targets)
+    {
+        return new RelationGroup(sourceId, this.dictionary.getName(sourceId), new AuthoritySet(targets));
+    }
+
+    protected void ensureInMemory()
+    {
+        if (this.edges != null)
+        {
+            throw new UnsupportedOperationException("Relation map " + this.name + " only supports adding relations");
+        }
+    }
+
+    protected int[] readTargets(final int sourceId)
+    {
+        final Iterator<Long> edgeIterator = this.edges.iterator(edge(sourceId, 0), edge(sourceId, Integer.MAX_VALUE));
+        int[] targets = EMPTY;
+        int count = 0;
+        while (edgeIterator.hasNext())
+        {
+            if (count == targets.length)
+            {
+                targets = Arrays.copyOf(targets, Math.max(8, count * 2));
+            }
+            targets[count++] = target(edgeIterator.next().longValue());
+        }
+        return count == 0 ? null : Arrays.copyOf(targets, count);
+    }
+
+    // identifiers are never negative so edges sort by source first and target second
+    protected static long edge(final int source, final int target)
+    {
+        return ((long) source << 32) | target;
+    }
+
+    protected static int source(final long edge)
+    {
+        return (int) (edge >>> 32);
+    }
+
+    protected static int target(final long edge)
+    {
+        return (int) edge;
+    }
+
+    protected static int[] insert(final int[] ids, final int id)
+    {
+        int[] result = ids;
+        final int idx = Arrays.binarySearch(ids, id);
+        if (idx < 0)
+        {
+            final int insertionPoint = -(idx + 1);
+            result = new int[ids.length + 1];
+            System.arraycopy(ids, 0, result, 0, insertionPoint);
+            result[insertionPoint] = id;
+            System.arraycopy(ids, insertionPoint, result, insertionPoint + 1, ids.length - insertionPoint);
+        }
+        return result;
+    }
+
+    protected static int[] delete(final int[] ids, final int id)
+    {
+        int[] result = ids;
+        final int idx = Arrays.binarySearch(ids, id);
+        if (idx >= 0)
+        {
+            result = new int[ids.length - 1];
+            System.arraycopy(ids, 0, result, 0, idx);
+            System.arraycopy(ids, idx + 1, result, idx, ids.length - idx - 1);
+        }
+        return result;
+    }
+
+    protected static int[] distinct(final int[] sortedIds)
+    {
+        int length = 0;
+        for (int idx = 0; idx < sortedIds.length; idx++)
+        {
+            if (length == 0 || sortedIds[length - 1] != sortedIds[idx])
+            {
+                sortedIds[length++] = sortedIds[idx];
+            }
+        }
+        return length == sortedIds.length ? sortedIds : Arrays.copyOf(sortedIds, length);
+    }
+
+    /**
+     * Instances of this class group the edges of a relation map read in ascending order into entries per source authority.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected class EdgeGroupingIterator implements Iterator<RelationGroup>
+    {
+
+        protected final Iterator<Long> edgeIterator;
+
+        protected long pendingEdge = -1;
+
+        protected EdgeGroupingIterator(final Iterator<Long> edgeIterator)
+        {
+            this.edgeIterator = edgeIterator;
+            if (edgeIterator.hasNext())
+            {
+                this.pendingEdge = edgeIterator.next().longValue();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext()
+        {
+            return this.pendingEdge != -1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public RelationGroup next()
+        {
+            if (!this.hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+
+            final int source = source(this.pendingEdge);
+            int[] targets = new int[8];
+            int count = 0;
+            while (this.pendingEdge != -1 && source(this.pendingEdge) == source)
+            {
+                if (count == targets.length)
+                {
+                    targets = Arrays.copyOf(targets, count * 2);
+                }
+                targets[count++] = target(this.pendingEdge);
+                this.pendingEdge = this.edgeIterator.hasNext() ? this.edgeIterator.next().longValue() : -1;
+            }
+
+            return AuthorityRelationMap.this.newRelationGroup(source, Arrays.copyOf(targets, count));
+        }
+    }
+
+    /**
+     * Instances of this class hold the relations originating from a single authority.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    public static class RelationGroup
+    {
+
+        protected final int sourceId;
+
+        protected final String source;
+
+        protected final Set<String> targets;
+
+        protected RelationGroup(final int sourceId, final String source, final Set<String> targets)
+        {
+            this.sourceId = sourceId;
+            this.source = source;
+            this.targets = targets;
+        }
+
+        /**
+         * @return the identifier of the authority from which the relations originate in the dictionary of the relation map
+         */
+        public int getSourceId()
+        {
+            return this.sourceId;
+        }
+
+        /**
+         * @return the name of the authority from which the relations originate
+         */
+        public String getSource()
+        {
+            return this.source;
+        }
+
+        /**
+         * @return the names of the related authorities
+         */
+        public Set<String> getTargets()
+        {
+            return this.targets;
+        }
+    }
+
+    /**
+     * Instances of this class provide a read-only view on a snapshot of the authorities related to a specific authority.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected class AuthoritySet extends AbstractSet<String>
+    {
+
+        protected final int[] ids;
+
+        protected AuthoritySet(final int[] ids)
+        {
+            this.ids = ids;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean contains(final Object o)
+        {
+            final int id = o instanceof String ? AuthorityRelationMap.this.dictionary.getId((String) o) : -1;
+            return id != -1 && Arrays.binarySearch(this.ids, id) >= 0;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int size()
+        {
+            return this.ids.length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new Iterator<String>()
+            {
+
+                private int idx = 0;
+
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public boolean hasNext()
+                {
+                    return this.idx < AuthoritySet.this.ids.length;
+                }
+
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public String next()
+                {
+                    if (!this.hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    return AuthorityRelationMap.this.dictionary.getName(AuthoritySet.this.ids[this.idx++]);
+                }
+            };
+        }
+    }
+}
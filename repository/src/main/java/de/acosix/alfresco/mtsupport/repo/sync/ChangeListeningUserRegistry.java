@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import org.alfresco.repo.security.sync.UserRegistry;
+
+/**
+ * Instances of this interface are capable of pushing changed entries of the backing directory to a listener in near-real-time (e.g. via a
+ * persistent search) instead of only providing them on request of a scheduled synchronisation. Listening operations block the calling
+ * thread until the listener is no longer {@link UserRegistryChangeListener#isActive() active}, the
+ * {@link UserRegistryChangeListener#onListening(java.io.Closeable) listening connection} has been closed or an error occurred.
+ *
+ * Deletions are not reported by listening operations and need to be handled by regular synchronisations.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public interface ChangeListeningUserRegistry extends UserRegistry
+{
+
+    /**
+     * Checks if listening for changes has been enabled for this user registry.
+     *
+     * @return {@code true} if listening for changes has been enabled, {@code false} otherwise
+     */
+    boolean isChangeListenerEnabled();
+
+    /**
+     * Listens for added or changed persons in the backing directory.
+     *
+     * @param listener
+     *            the listener to notify about changed persons
+     */
+    void listenForPersonChanges(UserRegistryChangeListener listener);
+
+    /**
+     * Listens for added or changed groups in the backing directory.
+     *
+     * @param listener
+     *            the listener to notify about changed groups
+     */
+    void listenForGroupChanges(UserRegistryChangeListener listener);
+}
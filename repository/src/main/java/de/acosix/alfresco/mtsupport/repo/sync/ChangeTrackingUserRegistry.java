@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.Collection;
+import java.util.Date;
+
+import org.alfresco.repo.security.sync.NodeDescription;
+import org.alfresco.repo.security.sync.UserRegistry;
+
+/**
+ * Instances of this interface are capable of tracking changes in the backing directory via an opaque change marker (e.g. an update sequence
+ * number high-water mark) instead of relying on modification timestamps as in {@link UserRegistry#getPersons(Date)} and
+ * {@link UserRegistry#getGroups(Date)}. Change markers are only meaningful to the registry that produced them, and may become invalid at any
+ * time, e.g. when the registry connects to a different directory server. Callers are expected to {@link #isChangeMarkerValid(String)
+ * validate} a previously stored marker before using it and to fall back to timestamp-based differential retrieval if the marker has become
+ * invalid.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public interface ChangeTrackingUserRegistry extends UserRegistry
+{
+
+    /**
+     * Checks if change tracking has been enabled for this user registry.
+     *
+     * @return {@code true} if change tracking has been enabled, {@code false} otherwise
+     */
+    boolean isChangeTrackingEnabled();
+
+    /**
+     * Retrieves the change marker representing the current state of the backing directory. This should be retrieved before any changed
+     * entries are retrieved so that changes that occur concurrently to a synchronisation are included in the next synchronisation.
+     *
+     * @return the current change marker or {@code null} if no marker could be determined
+     */
+    String getCurrentChangeMarker();
+
+    /**
+     * Checks if a previously retrieved change marker can still be used to retrieve changes from the backing directory.
+     *
+     * @param changeMarker
+     *            the change marker to check
+     * @return {@code true} if the change marker is still valid, {@code false} otherwise
+     */
+    boolean isChangeMarkerValid(String changeMarker);
+
+    /**
+     * Retrieves the persons that have been changed since a specific change marker.
+     *
+     * @param changeMarker
+     *            the change marker of the last synchronisation
+     * @return the changed persons
+     */
+    Collection<NodeDescription> getPersonsChangedSince(String changeMarker);
+
+    /**
+     * Retrieves the groups that have been changed since a specific change marker.
+     *
+     * @param changeMarker
+     *            the change marker of the last synchronisation
+     * @return the changed groups
+     */
+    Collection<NodeDescription> getGroupsChangedSince(String changeMarker);
+
+    /**
+     * Retrieves the names of persons that have been deleted since a specific change marker.
+     *
+     * @param changeMarker
+     *            the change marker of the last synchronisation
+     * @return the names of the deleted persons
+     */
+    Collection<String> getPersonNamesDeletedSince(String changeMarker);
+
+    /**
+     * Retrieves the names of groups that have been deleted since a specific change marker.
+     *
+     * @param changeMarker
+     *            the change marker of the last synchronisation
+     * @return the names of the deleted groups
+     */
+    Collection<String> getGroupNamesDeletedSince(String changeMarker);
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.PropertyCheck;
+import org.alfresco.util.TraceableThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.extensions.surf.util.AbstractLifecycleBean;
+
+/**
+ * Instances of this class coordinate which server of a cluster is responsible for running the scheduled synchronisations of a specific
+ * tenant. Each server regularly records a heartbeat via the {@link AttributeService attribute service} and tenants are assigned to the
+ * servers with a recent heartbeat via consistent hashing, so that the scheduled synchronisations of all tenants are spread evenly across
+ * the cluster and only a small share of tenants is reassigned when servers join or leave the cluster.
+ *
+ * Liveness of other servers is determined by observing changes of their heartbeat with the local clock, so that differences between the
+ * clocks of servers do not affect the assignment. Since servers may temporarily disagree about the set of live servers, the assignment is
+ * only meant to spread the load - the job lock of the synchronisation remains responsible for preventing concurrent synchronisations of the
+ * same tenant.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class ClusterSyncCoordinator extends AbstractLifecycleBean implements InitializingBean
+{
+
+    public static final String ROOT_ATTRIBUTE_PATH = ".TenantAwareChainingUserRegistrySynchronizer.ClusterNodes";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterSyncCoordinator.class);
+
+    protected AttributeService attributeService;
+
+    protected TransactionService transactionService;
+
+    protected boolean enabled = true;
+
+    protected String nodeId;
+
+    protected long heartbeatInterval = 30000;
+
+    protected long heartbeatTimeout = 120000;
+
+    protected int virtualNodes = 64;
+
+    protected final Map<String, Serializable> lastHeartbeatValues = new HashMap<>();
+
+    protected final Map<String, Long> lastHeartbeatChanges = new HashMap<>();
+
+    protected volatile Set<String> liveNodes = Collections.emptySet();
+
+    protected volatile NavigableMap<Long, String> ring = Collections.emptyNavigableMap();
+
+    protected ScheduledExecutorService heartbeatScheduler;
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        PropertyCheck.mandatory(this, "attributeService", this.attributeService);
+        PropertyCheck.mandatory(this, "transactionService", this.transactionService);
+
+        if (this.heartbeatTimeout <= this.heartbeatInterval)
+        {
+            throw new IllegalStateException("heartbeatTimeout must be greater than heartbeatInterval");
+        }
+
+        if (this.nodeId == null || this.nodeId.trim().isEmpty())
+        {
+            try
+            {
+                this.nodeId = InetAddress.getLocalHost().getHostName();
+            }
+            catch (final UnknownHostException uhe)
+            {
+                throw new IllegalStateException("nodeId has not been set and local host name cannot be determined", uhe);
+            }
+        }
+        else
+        {
+            this.nodeId = this.nodeId.trim();
+        }
+    }
+
+    /**
+     * @param attributeService
+     *            the attributeService to set
+     */
+    public void setAttributeService(final AttributeService attributeService)
+    {
+        this.attributeService = attributeService;
+    }
+
+    /**
+     * @param transactionService
+     *            the transactionService to set
+     */
+    public void setTransactionService(final TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    /**
+     * @param enabled
+     *            the enabled to set
+     */
+    public void setEnabled(final boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param nodeId
+     *            the nodeId to set - if not set, the name of the local host will be used
+     */
+    public void setNodeId(final String nodeId)
+    {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * @param heartbeatInterval
+     *            the heartbeatInterval to set
+     */
+    public void setHeartbeatInterval(final long heartbeatInterval)
+    {
+        if (heartbeatInterval <= 0)
+        {
+            throw new IllegalArgumentException("heartbeatInterval must be a positive integer");
+        }
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    /**
+     * @param heartbeatTimeout
+     *            the heartbeatTimeout to set
+     */
+    public void setHeartbeatTimeout(final long heartbeatTimeout)
+    {
+        if (heartbeatTimeout <= 0)
+        {
+            throw new IllegalArgumentException("heartbeatTimeout must be a positive integer");
+        }
+        this.heartbeatTimeout = heartbeatTimeout;
+    }
+
+    /**
+     * @param virtualNodes
+     *            the virtualNodes to set
+     */
+    public void setVirtualNodes(final int virtualNodes)
+    {
+        if (virtualNodes <= 0)
+        {
+            throw new IllegalArgumentException("virtualNodes must be a positive integer");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Retrieves the identifier of this server within the cluster.
+     *
+     * @return the identifier of this server
+     */
+    public String getNodeId()
+    {
+        return this.nodeId;
+    }
+
+    /**
+     * Retrieves the servers currently considered to be live.
+     *
+     * @return the identifiers of the live servers
+     */
+    public Set<String> getLiveNodes()
+    {
+        return Collections.unmodifiableSet(this.liveNodes);
+    }
+
+    /**
+     * Checks if this server is responsible for running the scheduled synchronisations of a specific tenant. This server is always
+     * considered responsible if coordination has been disabled or the set of live servers has not been determined yet.
+     *
+     * @param tenantDomain
+     *            the tenant domain
+     * @return {@code true} if this server is responsible for the tenant, {@code false} otherwise
+     */
+    public boolean isResponsibleFor(final String tenantDomain)
+    {
+        final boolean responsible;
+        final String responsibleNode = this.getResponsibleNode(tenantDomain);
+        if (!this.enabled || responsibleNode == null)
+        {
+            responsible = true;
+        }
+        else
+        {
+            responsible = this.nodeId.equals(responsibleNode);
+        }
+        return responsible;
+    }
+
+    /**
+     * Determines the server responsible for running the scheduled synchronisations of a specific tenant.
+     *
+     * @param tenantDomain
+     *            the tenant domain
+     * @return the identifier of the responsible server or {@code null} if the set of live servers has not been determined yet
+     */
+    public String getResponsibleNode(final String tenantDomain)
+    {
+        final NavigableMap<Long, String> ring = this.ring;
+        String responsibleNode = null;
+        if (!ring.isEmpty())
+        {
+            final String tenantKey = tenantDomain == null || tenantDomain.isEmpty() ? TenantUtil.DEFAULT_TENANT : tenantDomain;
+            Entry<Long, String> ringEntry = ring.ceilingEntry(Long.valueOf(SpillingLongSet.hash(tenantKey)));
+            if (ringEntry == null)
+            {
+                ringEntry = ring.firstEntry();
+            }
+            responsibleNode = ringEntry.getValue();
+        }
+        return responsibleNode;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onBootstrap(final ApplicationEvent event)
+    {
+        if (this.enabled)
+        {
+            LOGGER.info("Starting coordination of scheduled synchronisations in the cluster as {}", this.nodeId);
+
+            final TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+            threadFactory.setThreadDaemon(true);
+            threadFactory.setNamePrefix("ClusterSyncCoordinator");
+            this.heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            this.heartbeatScheduler.scheduleWithFixedDelay(this::heartbeat, 0, this.heartbeatInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onShutdown(final ApplicationEvent event)
+    {
+        if (this.heartbeatScheduler != null)
+        {
+            this.heartbeatScheduler.shutdownNow();
+            this.heartbeatScheduler = null;
+
+            // leaving the cluster explicitly allows other servers to take over immediately instead of waiting for the timeout
+            try
+            {
+                AuthenticationUtil.runAsSystem(() -> this.transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                    this.attributeService.removeAttribute(ROOT_ATTRIBUTE_PATH, this.nodeId);
+                    return null;
+                }, false, true));
+            }
+            catch (final RuntimeException e)
+            {
+                LOGGER.warn("Failed to remove heartbeat of {} on shutdown", this.nodeId, e);
+            }
+
+            this.liveNodes = Collections.emptySet();
+            this.ring = Collections.emptyNavigableMap();
+        }
+    }
+
+    protected void heartbeat()
+    {
+        try
+        {
+            final Map<String, Serializable> heartbeatValues = new HashMap<>();
+            AuthenticationUtil.runAsSystem(() -> this.transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                heartbeatValues.clear();
+                this.attributeService.setAttribute(Long.valueOf(System.currentTimeMillis()), ROOT_ATTRIBUTE_PATH, this.nodeId);
+                this.attributeService.getAttributes((id, value, keys) -> {
+                    if (keys.length == 2 && keys[1] instanceof String)
+                    {
+                        heartbeatValues.put((String) keys[1], value);
+                    }
+                    return true;
+                }, ROOT_ATTRIBUTE_PATH);
+                return null;
+            }, false, true));
+
+            this.updateLiveNodes(heartbeatValues);
+        }
+        catch (final RuntimeException e)
+        {
+            // keep the last known assignment - the job lock still prevents concurrent synchronisations
+            LOGGER.warn("Failed to record heartbeat of {} or to determine live servers in the cluster", this.nodeId, e);
+        }
+    }
+
+    protected void updateLiveNodes(final Map<String, Serializable> heartbeatValues)
+    {
+        final long now = System.currentTimeMillis();
+        final Set<String> liveNodes = new TreeSet<>();
+        liveNodes.add(this.nodeId);
+
+        this.lastHeartbeatValues.keySet().retainAll(heartbeatValues.keySet());
+        this.lastHeartbeatChanges.keySet().retainAll(heartbeatValues.keySet());
+        for (final Entry<String, Serializable> heartbeatEntry : heartbeatValues.entrySet())
+        {
+            final String node = heartbeatEntry.getKey();
+            final Serializable value = heartbeatEntry.getValue();
+            if (!value.equals(this.lastHeartbeatValues.put(node, value)))
+            {
+                this.lastHeartbeatChanges.put(node, Long.valueOf(now));
+            }
+
+            if (now - this.lastHeartbeatChanges.get(node).longValue() < this.heartbeatTimeout)
+            {
+                liveNodes.add(node);
+            }
+        }
+
+        if (!liveNodes.equals(this.liveNodes))
+        {
+            LOGGER.info("Live servers for scheduled synchronisations changed from {} to {} - rebalancing tenants", this.liveNodes,
+                    liveNodes);
+
+            final NavigableMap<Long, String> ring = new TreeMap<>();
+            for (final String node : liveNodes)
+            {
+                for (int idx = 0; idx < this.virtualNodes; idx++)
+                {
+                    ring.put(Long.valueOf(SpillingLongSet.hash(node + "#" + idx)), node);
+                }
+            }
+
+            this.ring = Collections.unmodifiableNavigableMap(ring);
+            this.liveNodes = Collections.unmodifiableSet(liveNodes);
+        }
+    }
+}
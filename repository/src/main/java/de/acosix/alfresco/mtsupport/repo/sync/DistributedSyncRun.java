@@ -0,0 +1,762 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.alfresco.repo.security.sync.NodeDescription;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.util.EqualsHelper;
+import org.alfresco.util.ParameterCheck;
+
+/**
+ * Instances of this class represent a phase of the synchronisation of a specific user registry distributed across the servers of a
+ * cluster. The server running the synchronisation publishes the run via the {@link AttributeService attribute service}, after which any
+ * server may claim and process partitions of the run.
+ *
+ * In a run of {@link #KIND_PERSONS persons}, persons are assigned to partitions by a hash of their identifier in the user registry, so each
+ * server can determine the persons of a partition from its own retrieval of the persons. The criteria used by the server running the
+ * synchronisation to retrieve persons are published with the run, so all servers retrieve the same persons. In a run of
+ * {@link #KIND_ASSOCIATIONS associations}, the changes to the user members of groups are only known to the server running the
+ * synchronisation, which {@link #publishAssociationWork(int, int, Collection) publishes} them per partition before publishing the run.
+ * Groups are assigned to partitions by a hash of their name, so the members of a group are only ever modified by one server.
+ *
+ * Completed partitions are recorded with their results so that the server running the synchronisation can determine when all persons have
+ * been processed and aggregate the results. Claims of partitions are not part of the state managed by this class - concurrent processing
+ * of a partition needs to be prevented by the caller, i.e. via a job lock.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class DistributedSyncRun
+{
+
+    public static final String ROOT_ATTRIBUTE_PATH = ".TenantAwareChainingUserRegistrySynchronizer.DistributedRuns";
+
+    public static final String PARTITIONS_ROOT_ATTRIBUTE_PATH = ".TenantAwareChainingUserRegistrySynchronizer.DistributedRunPartitions";
+
+    public static final String WORK_ROOT_ATTRIBUTE_PATH = ".TenantAwareChainingUserRegistrySynchronizer.DistributedRunWork";
+
+    public static final String KIND_PERSONS = "persons";
+
+    public static final String KIND_ASSOCIATIONS = "associations";
+
+    protected static final String RUN_ID = "runId";
+
+    protected static final String KIND = "kind";
+
+    protected static final String TENANT_DOMAIN = "tenantDomain";
+
+    protected static final String REGISTRY_ID = "registryId";
+
+    protected static final String PARTITIONS = "partitions";
+
+    protected static final String VISITED_IDS = "visitedIds";
+
+    protected static final String ALL_IDS = "allIds";
+
+    protected static final String PERSON_LAST_MODIFIED = "personLastModified";
+
+    protected static final String CHANGE_MARKER = "changeMarker";
+
+    protected static final String MEMBERS_TO_ADD = "membersToAdd";
+
+    protected static final String MEMBERS_TO_REMOVE = "membersToRemove";
+
+    protected static final String PROCESSED = "processed";
+
+    protected static final String ERRORS = "errors";
+
+    protected static final String LATEST_MODIFIED = "latestModified";
+
+    protected final String runId;
+
+    protected final String runKey;
+
+    protected final String tenantDomain;
+
+    protected final String id;
+
+    protected final String kind;
+
+    protected final int partitions;
+
+    protected final List<String> visitedIds;
+
+    protected final List<String> allIds;
+
+    protected final Date personLastModified;
+
+    protected final String changeMarker;
+
+    protected final AttributeService attributeService;
+
+    protected final RetryingTransactionHelper retryingTransactionHelper;
+
+    protected int processedCount = 0;
+
+    protected int errors = 0;
+
+    protected long latestModified = -1;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param runId
+     *            the unique ID of the run
+     * @param runKey
+     *            the key of the run - must be qualified with the tenant if the user registry does not belong to the default tenant
+     * @param tenantDomain
+     *            the tenant domain of the user registry
+     * @param id
+     *            the ID of the user registry
+     * @param kind
+     *            the kind of the run - either {@link #KIND_PERSONS} or {@link #KIND_ASSOCIATIONS}
+     * @param partitions
+     *            the number of partitions to process
+     * @param visitedIds
+     *            the IDs of the user registries with a higher priority
+     * @param allIds
+     *            the IDs of all user registries
+     * @param personLastModified
+     *            the time of the latest person modification from which persons are retrieved - may be {@code null} to retrieve all
+     *            persons
+     * @param changeMarker
+     *            the marker from which changed persons are retrieved - may be {@code null} to retrieve persons by modification time
+     * @param attributeService
+     *            the attribute service used to publish the run and record completed partitions
+     * @param retryingTransactionHelper
+     *            the helper used to access the attribute service in transactions of its own
+     */
+    public DistributedSyncRun(final String runId, final String runKey, final String tenantDomain, final String id, final String kind,
+            final int partitions, final Collection<String> visitedIds, final Collection<String> allIds, final Date personLastModified,
+            final String changeMarker, final AttributeService attributeService, final RetryingTransactionHelper retryingTransactionHelper)
+    {
+        ParameterCheck.mandatoryString("runId", runId);
+        ParameterCheck.mandatoryString("runKey", runKey);
+        ParameterCheck.mandatory("tenantDomain", tenantDomain);
+        ParameterCheck.mandatoryString("id", id);
+        ParameterCheck.mandatoryString("kind", kind);
+        ParameterCheck.mandatory("visitedIds", visitedIds);
+        ParameterCheck.mandatory("allIds", allIds);
+        ParameterCheck.mandatory("attributeService", attributeService);
+        ParameterCheck.mandatory("retryingTransactionHelper", retryingTransactionHelper);
+        if (partitions <= 0)
+        {
+            throw new IllegalArgumentException("partitions must be a positive integer");
+        }
+        if (!KIND_PERSONS.equals(kind) && !KIND_ASSOCIATIONS.equals(kind))
+        {
+            throw new IllegalArgumentException("kind must be either " + KIND_PERSONS + " or " + KIND_ASSOCIATIONS);
+        }
+
+        this.runId = runId;
+        this.runKey = runKey;
+        this.tenantDomain = tenantDomain;
+        this.id = id;
+        this.kind = kind;
+        this.partitions = partitions;
+        this.visitedIds = new ArrayList<>(visitedIds);
+        this.allIds = new ArrayList<>(allIds);
+        this.personLastModified = personLastModified != null ? new Date(personLastModified.getTime()) : null;
+        this.changeMarker = changeMarker;
+        this.attributeService = attributeService;
+        this.retryingTransactionHelper = retryingTransactionHelper;
+    }
+
+    /**
+     * Loads all runs currently published by any server of the cluster.
+     *
+     * @param attributeService
+     *            the attribute service used to publish runs
+     * @param retryingTransactionHelper
+     *            the helper used to access the attribute service in a transaction of its own
+     * @return the published runs
+     */
+    @SuppressWarnings("unchecked")
+    public static List<DistributedSyncRun> loadPublished(final AttributeService attributeService,
+            final RetryingTransactionHelper retryingTransactionHelper)
+    {
+        ParameterCheck.mandatory("attributeService", attributeService);
+        ParameterCheck.mandatory("retryingTransactionHelper", retryingTransactionHelper);
+
+        final List<DistributedSyncRun> runs = new ArrayList<>();
+        retryingTransactionHelper.doInTransaction(() -> {
+            runs.clear();
+            attributeService.getAttributes((attributeId, value, keys) -> {
+                if (keys.length == 2 && keys[1] instanceof String && value instanceof Map<?, ?>)
+                {
+                    final Map<?, ?> run = (Map<?, ?>) value;
+                    final Long personLastModified = (Long) run.get(PERSON_LAST_MODIFIED);
+                    runs.add(new DistributedSyncRun((String) run.get(RUN_ID), (String) keys[1], (String) run.get(TENANT_DOMAIN),
+                            (String) run.get(REGISTRY_ID), (String) run.get(KIND), ((Integer) run.get(PARTITIONS)).intValue(),
+                            (Collection<String>) run.get(VISITED_IDS), (Collection<String>) run.get(ALL_IDS),
+                            personLastModified != null ? new Date(personLastModified.longValue()) : null, (String) run.get(CHANGE_MARKER),
+                            attributeService, retryingTransactionHelper));
+                }
+                return true;
+            }, ROOT_ATTRIBUTE_PATH);
+            return null;
+        }, true, true);
+        return runs;
+    }
+
+    /**
+     * Determines the partition of a person.
+     *
+     * @param person
+     *            the person
+     * @param partitions
+     *            the number of partitions
+     * @return the index of the partition
+     */
+    public static int getPartition(final NodeDescription person, final int partitions)
+    {
+        return getPartition(person.getSourceId(), partitions);
+    }
+
+    /**
+     * Determines the partition of a key, i.e. the identifier of a person in the user registry or the name of a group.
+     *
+     * @param key
+     *            the key
+     * @param partitions
+     *            the number of partitions
+     * @return the index of the partition
+     */
+    public static int getPartition(final String key, final int partitions)
+    {
+        return (int) Math.floorMod(SpillingLongSet.hash(key), (long) partitions);
+    }
+
+    /**
+     * @return the runId
+     */
+    public String getRunId()
+    {
+        return this.runId;
+    }
+
+    /**
+     * @return the tenantDomain
+     */
+    public String getTenantDomain()
+    {
+        return this.tenantDomain;
+    }
+
+    /**
+     * @return the id
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * @return the kind
+     */
+    public String getKind()
+    {
+        return this.kind;
+    }
+
+    /**
+     * @return the partitions
+     */
+    public int getPartitions()
+    {
+        return this.partitions;
+    }
+
+    /**
+     * @return the visitedIds
+     */
+    public List<String> getVisitedIds()
+    {
+        return Collections.unmodifiableList(this.visitedIds);
+    }
+
+    /**
+     * @return the allIds
+     */
+    public List<String> getAllIds()
+    {
+        return Collections.unmodifiableList(this.allIds);
+    }
+
+    /**
+     * @return the personLastModified
+     */
+    public Date getPersonLastModified()
+    {
+        return this.personLastModified != null ? new Date(this.personLastModified.getTime()) : null;
+    }
+
+    /**
+     * @return the changeMarker
+     */
+    public String getChangeMarker()
+    {
+        return this.changeMarker;
+    }
+
+    /**
+     * Creates a run of {@link #KIND_ASSOCIATIONS associations} for the same user registry and with the same number of partitions as this
+     * run. The new run supersedes this run once it is published.
+     *
+     * @param runId
+     *            the unique ID of the new run
+     * @return the new run
+     */
+    public DistributedSyncRun createAssociationRun(final String runId)
+    {
+        return new DistributedSyncRun(runId, this.runKey, this.tenantDomain, this.id, KIND_ASSOCIATIONS, this.partitions, this.visitedIds,
+                this.allIds, null, null, this.attributeService, this.retryingTransactionHelper);
+    }
+
+    /**
+     * Publishes this run so that other servers may process its partitions. Partitions recorded as completed and work published by any
+     * previous run for the same user registry are discarded.
+     */
+    public void publish()
+    {
+        final HashMap<String, Serializable> run = new HashMap<>();
+        run.put(RUN_ID, this.runId);
+        run.put(KIND, this.kind);
+        run.put(TENANT_DOMAIN, this.tenantDomain);
+        run.put(REGISTRY_ID, this.id);
+        run.put(PARTITIONS, Integer.valueOf(this.partitions));
+        run.put(VISITED_IDS, new ArrayList<>(this.visitedIds));
+        run.put(ALL_IDS, new ArrayList<>(this.allIds));
+        if (this.personLastModified != null)
+        {
+            run.put(PERSON_LAST_MODIFIED, Long.valueOf(this.personLastModified.getTime()));
+        }
+        if (this.changeMarker != null)
+        {
+            run.put(CHANGE_MARKER, this.changeMarker);
+        }
+
+        this.retryingTransactionHelper.doInTransaction(() -> {
+            final Serializable previousRun = this.attributeService.getAttribute(ROOT_ATTRIBUTE_PATH, this.runKey);
+            if (previousRun instanceof Map<?, ?>)
+            {
+                // previous run may have been aborted without cleaning up
+                final String previousRunId = (String) ((Map<?, ?>) previousRun).get(RUN_ID);
+                this.attributeService.removeAttributes(PARTITIONS_ROOT_ATTRIBUTE_PATH, previousRunId);
+                if (!this.runId.equals(previousRunId))
+                {
+                    this.removeWork(previousRunId, ((Integer) ((Map<?, ?>) previousRun).get(PARTITIONS)).intValue());
+                }
+            }
+            this.attributeService.setAttribute(run, ROOT_ATTRIBUTE_PATH, this.runKey);
+            return null;
+        }, false, true);
+    }
+
+    /**
+     * Checks if this run is still published, i.e. has not yet been completed or superseded by another run.
+     *
+     * @return {@code true} if this run is still published, {@code false} otherwise
+     */
+    public boolean isPublished()
+    {
+        final Serializable run = this.retryingTransactionHelper
+                .doInTransaction(() -> this.attributeService.getAttribute(ROOT_ATTRIBUTE_PATH, this.runKey), true, true);
+        return run instanceof Map<?, ?> && EqualsHelper.nullSafeEquals(((Map<?, ?>) run).get(RUN_ID), this.runId);
+    }
+
+    /**
+     * Retrieves the partitions which have not yet been completed. The partitions are returned in an order starting at a random offset, so
+     * that servers processing partitions concurrently are unlikely to compete for the same partitions.
+     *
+     * @return the indices of the incomplete partitions
+     */
+    public List<Integer> getIncompletePartitions()
+    {
+        final Map<Integer, Map<?, ?>> completedPartitions = this.loadCompletedPartitions();
+        final int offset = ThreadLocalRandom.current().nextInt(this.partitions);
+
+        final List<Integer> incompletePartitions = new ArrayList<>();
+        for (int idx = 0; idx < this.partitions; idx++)
+        {
+            final Integer partition = Integer.valueOf((offset + idx) % this.partitions);
+            if (!completedPartitions.containsKey(partition))
+            {
+                incompletePartitions.add(partition);
+            }
+        }
+        return incompletePartitions;
+    }
+
+    /**
+     * Checks if a specific partition has been completed.
+     *
+     * @param partition
+     *            the index of the partition
+     * @return {@code true} if the partition has been completed, {@code false} otherwise
+     */
+    public boolean isPartitionCompleted(final int partition)
+    {
+        final Serializable result = this.retryingTransactionHelper.doInTransaction(
+                () -> this.attributeService.getAttribute(PARTITIONS_ROOT_ATTRIBUTE_PATH, this.runId, Integer.valueOf(partition)), true,
+                true);
+        return result != null;
+    }
+
+    /**
+     * Records the completion of partitions processed together. As the results cannot be attributed to individual partitions, they are
+     * recorded for the first partition only. Nothing is recorded if this run is no longer published, so results of a run that has already
+     * been cleared are not left behind.
+     *
+     * @param partitions
+     *            the indices of the partitions
+     * @param processed
+     *            the number of entries processed in the partitions
+     * @param errors
+     *            the number of errors processing entries of the partitions
+     * @param latestModified
+     *            the timestamp of the latest person to be modified
+     */
+    public void markPartitionsCompleted(final Collection<Integer> partitions, final int processed, final int errors,
+            final long latestModified)
+    {
+        ParameterCheck.mandatoryCollection("partitions", partitions);
+
+        this.retryingTransactionHelper.doInTransaction(() -> {
+            final Serializable run = this.attributeService.getAttribute(ROOT_ATTRIBUTE_PATH, this.runKey);
+            if (run instanceof Map<?, ?> && EqualsHelper.nullSafeEquals(((Map<?, ?>) run).get(RUN_ID), this.runId))
+            {
+                boolean first = true;
+                for (final Integer partition : partitions)
+                {
+                    final HashMap<String, Serializable> result = new HashMap<>();
+                    result.put(PROCESSED, Integer.valueOf(first ? processed : 0));
+                    result.put(ERRORS, Integer.valueOf(first ? errors : 0));
+                    result.put(LATEST_MODIFIED, Long.valueOf(latestModified));
+                    this.attributeService.setAttribute(result, PARTITIONS_ROOT_ATTRIBUTE_PATH, this.runId, partition);
+                    first = false;
+                }
+            }
+            return null;
+        }, false, true);
+    }
+
+    /**
+     * Aggregates the results of all completed partitions, making them available via the {@link #getProcessedCount() processed count},
+     * {@link #getErrors() errors} and {@link #getLatestModified() latest modification}.
+     *
+     * @return {@code true} if all partitions have been completed, {@code false} otherwise
+     */
+    public boolean aggregateResults()
+    {
+        final Map<Integer, Map<?, ?>> completedPartitions = this.loadCompletedPartitions();
+
+        int processedCount = 0;
+        int errors = 0;
+        long latestModified = -1;
+        for (final Map<?, ?> result : completedPartitions.values())
+        {
+            processedCount += ((Integer) result.get(PROCESSED)).intValue();
+            errors += ((Integer) result.get(ERRORS)).intValue();
+            latestModified = Math.max(latestModified, ((Long) result.get(LATEST_MODIFIED)).longValue());
+        }
+
+        this.processedCount = processedCount;
+        this.errors = errors;
+        this.latestModified = latestModified;
+
+        return completedPartitions.size() >= this.partitions;
+    }
+
+    /**
+     * @return the number of persons processed in all completed partitions as of the last {@link #aggregateResults() aggregation}
+     */
+    public int getProcessedCount()
+    {
+        return this.processedCount;
+    }
+
+    /**
+     * @return the number of errors in all completed partitions as of the last {@link #aggregateResults() aggregation}
+     */
+    public int getErrors()
+    {
+        return this.errors;
+    }
+
+    /**
+     * @return the timestamp of the latest person to be modified in all completed partitions as of the last {@link #aggregateResults()
+     *         aggregation}
+     */
+    public long getLatestModified()
+    {
+        return this.latestModified;
+    }
+
+    /**
+     * Removes this run, unless it has already been superseded by another run, as well as the results and work of its partitions.
+     */
+    public void clear()
+    {
+        this.retryingTransactionHelper.doInTransaction(() -> {
+            final Serializable run = this.attributeService.getAttribute(ROOT_ATTRIBUTE_PATH, this.runKey);
+            if (run instanceof Map<?, ?> && EqualsHelper.nullSafeEquals(((Map<?, ?>) run).get(RUN_ID), this.runId))
+            {
+                this.attributeService.removeAttribute(ROOT_ATTRIBUTE_PATH, this.runKey);
+            }
+            this.attributeService.removeAttributes(PARTITIONS_ROOT_ATTRIBUTE_PATH, this.runId);
+            this.removeWork(this.runId, this.partitions);
+            return null;
+        }, false, true);
+    }
+
+    /**
+     * Publishes a chunk of changes to the user members of groups of a partition, so that they can be processed by any server claiming the
+     * partition. All work needs to be published before this run is {@link #publish() published}.
+     *
+     * @param partition
+     *            the index of the partition
+     * @param chunk
+     *            the index of the chunk within the partition
+     * @param changes
+     *            the changes to the members of groups assigned to the partition
+     */
+    public void publishAssociationWork(final int partition, final int chunk, final Collection<GroupMemberChanges> changes)
+    {
+        ParameterCheck.mandatory("changes", changes);
+
+        final HashMap<String, ArrayList<String>> membersToAdd = new HashMap<>();
+        final HashMap<String, ArrayList<String>> membersToRemove = new HashMap<>();
+        for (final GroupMemberChanges groupChanges : changes)
+        {
+            if (!groupChanges.getMembersToAdd().isEmpty())
+            {
+                membersToAdd.computeIfAbsent(groupChanges.getParent(), parent -> new ArrayList<>()).addAll(groupChanges.getMembersToAdd());
+            }
+            if (!groupChanges.getMembersToRemove().isEmpty())
+            {
+                membersToRemove.computeIfAbsent(groupChanges.getParent(), parent -> new ArrayList<>())
+                        .addAll(groupChanges.getMembersToRemove());
+            }
+        }
+
+        final HashMap<String, Serializable> work = new HashMap<>();
+        work.put(MEMBERS_TO_ADD, membersToAdd);
+        work.put(MEMBERS_TO_REMOVE, membersToRemove);
+
+        this.retryingTransactionHelper.doInTransaction(() -> {
+            this.attributeService.setAttribute(work, WORK_ROOT_ATTRIBUTE_PATH, getWorkKey(this.runId, partition), Integer.valueOf(chunk));
+            return null;
+        }, false, true);
+    }
+
+    /**
+     * Loads the changes to the user members of groups published for specific partitions. Changes to the same group published in separate
+     * chunks are merged so that the members of a group are only modified by one worker.
+     *
+     * @param partitions
+     *            the indices of the partitions
+     * @return the changes to the members of groups assigned to the partitions, ordered by group name
+     */
+    public List<GroupMemberChanges> loadAssociationWork(final Collection<Integer> partitions)
+    {
+        ParameterCheck.mandatory("partitions", partitions);
+
+        final Map<String, Set<String>> membersToAdd = new TreeMap<>();
+        final Map<String, Set<String>> membersToRemove = new TreeMap<>();
+        this.retryingTransactionHelper.doInTransaction(() -> {
+            membersToAdd.clear();
+            membersToRemove.clear();
+            for (final Integer partition : partitions)
+            {
+                this.attributeService.getAttributes((attributeId, value, keys) -> {
+                    if (value instanceof Map<?, ?>)
+                    {
+                        mergeMembers((Map<?, ?>) ((Map<?, ?>) value).get(MEMBERS_TO_ADD), membersToAdd);
+                        mergeMembers((Map<?, ?>) ((Map<?, ?>) value).get(MEMBERS_TO_REMOVE), membersToRemove);
+                    }
+                    return true;
+                }, WORK_ROOT_ATTRIBUTE_PATH, getWorkKey(this.runId, partition.intValue()));
+            }
+            return null;
+        }, true, true);
+
+        final Set<String> parents = new HashSet<>(membersToAdd.keySet());
+        parents.addAll(membersToRemove.keySet());
+        final Map<String, GroupMemberChanges> changes = new TreeMap<>();
+        for (final String parent : parents)
+        {
+            changes.put(parent, new GroupMemberChanges(parent, membersToAdd.getOrDefault(parent, Collections.emptySet()),
+                    membersToRemove.getOrDefault(parent, Collections.emptySet())));
+        }
+        return new ArrayList<>(changes.values());
+    }
+
+    /**
+     * Wraps the persons retrieved from the user registry so that only the persons of specific partitions are processed, allowing multiple
+     * partitions to be processed with a single retrieval of the persons.
+     *
+     * @param persons
+     *            the persons retrieved from the user registry
+     * @param partitions
+     *            the indices of the partitions
+     * @return the persons of the partitions
+     */
+    public Collection<NodeDescription> filterPartitions(final Collection<NodeDescription> persons, final Collection<Integer> partitions)
+    {
+        ParameterCheck.mandatory("persons", persons);
+        ParameterCheck.mandatoryCollection("partitions", partitions);
+        return new PartitionCollection(persons, new HashSet<>(partitions));
+    }
+
+    protected static String getWorkKey(final String runId, final int partition)
+    {
+        // attributes support no more than three keys, so run and partition need to be combined
+        return runId + "." + partition;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static void mergeMembers(final Map<?, ?> members, final Map<String, Set<String>> mergedMembers)
+    {
+        if (members != null)
+        {
+            for (final Entry<?, ?> entry : members.entrySet())
+            {
+                mergedMembers.computeIfAbsent((String) entry.getKey(), parent -> new HashSet<>())
+                        .addAll((Collection<String>) entry.getValue());
+            }
+        }
+    }
+
+    protected void removeWork(final String runId, final int partitions)
+    {
+        for (int partition = 0; partition < partitions; partition++)
+        {
+            this.attributeService.removeAttributes(WORK_ROOT_ATTRIBUTE_PATH, getWorkKey(runId, partition));
+        }
+    }
+
+    protected Map<Integer, Map<?, ?>> loadCompletedPartitions()
+    {
+        final Map<Integer, Map<?, ?>> completedPartitions = new HashMap<>();
+        this.retryingTransactionHelper.doInTransaction(() -> {
+            completedPartitions.clear();
+            this.attributeService.getAttributes((attributeId, value, keys) -> {
+                if (keys.length == 3 && keys[2] instanceof Integer && value instanceof Map<?, ?>)
+                {
+                    completedPartitions.put((Integer) keys[2], (Map<?, ?>) value);
+                }
+                return true;
+            }, PARTITIONS_ROOT_ATTRIBUTE_PATH, this.runId);
+            return null;
+        }, true, true);
+        return completedPartitions;
+    }
+
+    /**
+     * Instances of this class lazily filter the persons retrieved from a user registry to those of specific partitions.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected class PartitionCollection extends AbstractCollection<NodeDescription>
+    {
+
+        protected final Collection<NodeDescription> persons;
+
+        protected final Set<Integer> partitions;
+
+        protected PartitionCollection(final Collection<NodeDescription> persons, final Set<Integer> partitions)
+        {
+            this.persons = persons;
+            this.partitions = partitions;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int size()
+        {
+            // only an estimate - exact size would require retrieving all persons
+            final int partitions = DistributedSyncRun.this.partitions;
+            return (int) (((long) this.persons.size() * this.partitions.size() + partitions - 1) / partitions);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Iterator<NodeDescription> iterator()
+        {
+            final Iterator<NodeDescription> personIterator = this.persons.iterator();
+            return new Iterator<NodeDescription>()
+            {
+
+                private NodeDescription next;
+
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public boolean hasNext()
+                {
+                    while (this.next == null && personIterator.hasNext())
+                    {
+                        final NodeDescription candidate = personIterator.next();
+                        final int partition = getPartition(candidate, DistributedSyncRun.this.partitions);
+                        if (PartitionCollection.this.partitions.contains(Integer.valueOf(partition)))
+                        {
+                            this.next = candidate;
+                        }
+                    }
+                    return this.next != null;
+                }
+
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public NodeDescription next()
+                {
+                    if (!this.hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    final NodeDescription next = this.next;
+                    this.next = null;
+                    return next;
+                }
+            };
+        }
+    }
+}
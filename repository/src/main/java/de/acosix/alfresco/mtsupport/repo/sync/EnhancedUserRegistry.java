@@ -16,6 +16,8 @@
 package de.acosix.alfresco.mtsupport.repo.sync;
 
 import org.alfresco.repo.security.sync.UserRegistry;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
 
 /**
  * Instances of this interface provide additional functionality over plain user registries. Such functionalities may be introduced in
@@ -27,6 +29,13 @@ import org.alfresco.repo.security.sync.UserRegistry;
 public interface EnhancedUserRegistry extends UserRegistry
 {
 
+    /**
+     * The non-model property under which a user registry may provide an immutable identifier of an entry, e.g. the objectGUID of an Active
+     * Directory user. Entries with such an identifier are tracked across renames in the user registry so that a renamed user can be
+     * renamed in place instead of being deleted and created anew.
+     */
+    QName PROP_STABLE_ID = QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "directoryStableId");
+
     /**
      * Retrieves the component responsible for interpreting specific details about an user account.
      *
@@ -39,18 +39,23 @@ public class GroupCreationAndParentRemovalWorker extends AbstractSyncBatchWorker
 
     protected final Map<String, Set<String>> groupParentsToRemove;
 
+    protected final AuthorityExistenceCache existenceCache;
+
     public GroupCreationAndParentRemovalWorker(final Set<String> targetZoneIds, final Map<String, String> groupsToCreate,
-            final Map<String, Set<String>> groupParentsToRemove, final ComponentLookupCallback componentLookup)
+            final Map<String, Set<String>> groupParentsToRemove, final AuthorityExistenceCache existenceCache,
+            final ComponentLookupCallback componentLookup)
     {
         super(componentLookup);
 
         ParameterCheck.mandatoryCollection("targetZoneIds", targetZoneIds);
         ParameterCheck.mandatory("groupsToCreate", groupsToCreate);
         ParameterCheck.mandatory("groupParentsToRemove", groupParentsToRemove);
+        ParameterCheck.mandatory("existenceCache", existenceCache);
 
         this.targetZoneIds = targetZoneIds;
         this.groupsToCreate = groupsToCreate;
         this.groupParentsToRemove = groupParentsToRemove;
+        this.existenceCache = existenceCache;
     }
 
     /**
@@ -67,6 +72,7 @@ public class GroupCreationAndParentRemovalWorker extends AbstractSyncBatchWorker
             LOGGER.debug("Creating group {}", groupShortName);
             this.authorityService.createAuthority(AuthorityType.getAuthorityType(group), groupShortName, groupDisplayName,
                     this.targetZoneIds);
+            this.existenceCache.markExistingAfterCommit(group);
         }
         else
         {
@@ -75,7 +81,7 @@ public class GroupCreationAndParentRemovalWorker extends AbstractSyncBatchWorker
             {
                 for (final String parent : parents)
                 {
-                    if (this.authorityService.authorityExists(parent))
+                    if (this.existenceCache.authorityExists(parent))
                     {
                         LOGGER.debug("Removing {} from group {}", groupShortName, parent);
                         this.authorityService.removeAuthority(parent, group);
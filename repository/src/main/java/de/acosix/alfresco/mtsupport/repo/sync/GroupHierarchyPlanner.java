@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.alfresco.util.Pair;
+import org.alfresco.util.ParameterCheck;
+
+/**
+ * Instances of this class plan the application of group associations determined during the analysis of a user registry. The planned
+ * associations are inverted into sets of children per parent group and ordered by the level of the parent within the planned hierarchy,
+ * starting with top-level groups. Associations that would close a cycle in the planned hierarchy are detected up front and excluded.
+ *
+ * Processing each level as a separate step with the parent group as the unit of work guarantees that concurrent transactions never add
+ * children to the same parent group, avoiding optimistic locking failures and the resulting retries.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class GroupHierarchyPlanner
+{
+
+    protected final Map<String, Set<String>> groupParentsToAdd;
+
+    protected final List<Pair<String, String>> cyclicAssociations = new ArrayList<>();
+
+    protected final List<Map<String, Set<String>>> levels = new ArrayList<>();
+
+    /**
+     * Creates a new planner for specific group associations.
+     *
+     * @param groupParentsToAdd
+     *            the parent groups to add keyed by the child group
+     */
+    public GroupHierarchyPlanner(final Map<String, Set<String>> groupParentsToAdd)
+    {
+        ParameterCheck.mandatory("groupParentsToAdd", groupParentsToAdd);
+
+        this.groupParentsToAdd = groupParentsToAdd;
+        this.plan();
+    }
+
+    /**
+     * Retrieves the planned levels of the group hierarchy in the order they should be processed.
+     *
+     * @return the list of levels, each containing the children to add keyed by the parent group
+     */
+    public List<Map<String, Set<String>>> getLevels()
+    {
+        return Collections.unmodifiableList(this.levels);
+    }
+
+    /**
+     * Retrieves the associations excluded from the plan due to closing a cycle in the group hierarchy.
+     *
+     * @return the list of cyclic associations as pairs of child and parent group
+     */
+    public List<Pair<String, String>> getCyclicAssociations()
+    {
+        return Collections.unmodifiableList(this.cyclicAssociations);
+    }
+
+    protected void plan()
+    {
+        final Map<String, Set<String>> acyclicParents = this.removeCycles();
+
+        final Map<String, Integer> levelByGroup = new HashMap<>();
+        final Map<Integer, Map<String, Set<String>>> childrenByLevel = new TreeMap<>();
+        for (final Entry<String, Set<String>> childEntry : acyclicParents.entrySet())
+        {
+            final String child = childEntry.getKey();
+            for (final String parent : childEntry.getValue())
+            {
+                final Integer level = this.determineLevel(parent, acyclicParents, levelByGroup);
+                final Map<String, Set<String>> childrenByParent = childrenByLevel.computeIfAbsent(level, x -> new TreeMap<>());
+                childrenByParent.computeIfAbsent(parent, x -> new TreeSet<>()).add(child);
+            }
+        }
+
+        this.levels.addAll(childrenByLevel.values());
+    }
+
+    /**
+     * Determines the groups and parents that can be added without creating a cycle. This uses an iterative depth-first traversal along the
+     * child-to-parent associations, treating any association leading back to a group on the current path as closing a cycle.
+     *
+     * @return the acyclic parent groups to add keyed by the child group
+     */
+    protected Map<String, Set<String>> removeCycles()
+    {
+        final Map<String, Set<String>> acyclicParents = new TreeMap<>();
+        for (final Entry<String, Set<String>> childEntry : this.groupParentsToAdd.entrySet())
+        {
+            acyclicParents.put(childEntry.getKey(), new TreeSet<>(childEntry.getValue()));
+        }
+
+        final Set<String> completed = new TreeSet<>();
+        final Set<String> onPath = new TreeSet<>();
+        for (final String start : acyclicParents.keySet())
+        {
+            if (completed.contains(start))
+            {
+                continue;
+            }
+
+            final Deque<Pair<String, Iterator<String>>> path = new ArrayDeque<>();
+            path.push(new Pair<>(start, acyclicParents.get(start).iterator()));
+            onPath.add(start);
+
+            while (!path.isEmpty())
+            {
+                final Pair<String, Iterator<String>> current = path.peek();
+                final Iterator<String> parents = current.getSecond();
+                if (parents.hasNext())
+                {
+                    final String parent = parents.next();
+                    if (onPath.contains(parent))
+                    {
+                        this.cyclicAssociations.add(new Pair<>(current.getFirst(), parent));
+                        parents.remove();
+                    }
+                    else if (!completed.contains(parent))
+                    {
+                        final Set<String> grandParents = acyclicParents.get(parent);
+                        if (grandParents != null)
+                        {
+                            path.push(new Pair<>(parent, grandParents.iterator()));
+                            onPath.add(parent);
+                        }
+                        else
+                        {
+                            completed.add(parent);
+                        }
+                    }
+                }
+                else
+                {
+                    path.pop();
+                    onPath.remove(current.getFirst());
+                    completed.add(current.getFirst());
+                }
+            }
+        }
+
+        return acyclicParents;
+    }
+
+    protected Integer determineLevel(final String group, final Map<String, Set<String>> acyclicParents,
+            final Map<String, Integer> levelByGroup)
+    {
+        Integer level = levelByGroup.get(group);
+        if (level == null)
+        {
+            // iterative post-order evaluation to avoid deep recursion in degenerate hierarchies
+            final Deque<String> pending = new ArrayDeque<>();
+            pending.push(group);
+            while (!pending.isEmpty())
+            {
+                final String current = pending.peek();
+                final Set<String> parents = acyclicParents.getOrDefault(current, Collections.emptySet());
+
+                int currentLevel = 0;
+                boolean resolved = true;
+                for (final String parent : parents)
+                {
+                    final Integer parentLevel = levelByGroup.get(parent);
+                    if (parentLevel == null)
+                    {
+                        pending.push(parent);
+                        resolved = false;
+                    }
+                    else
+                    {
+                        currentLevel = Math.max(currentLevel, parentLevel.intValue() + 1);
+                    }
+                }
+
+                if (resolved)
+                {
+                    pending.pop();
+                    levelByGroup.put(current, Integer.valueOf(currentLevel));
+                }
+            }
+            level = levelByGroup.get(group);
+        }
+        return level;
+    }
+}
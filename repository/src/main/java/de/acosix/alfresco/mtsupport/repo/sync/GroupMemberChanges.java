@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.Set;
+
+import org.alfresco.util.ParameterCheck;
+
+/**
+ * Instances of this class hold the changes to the user members of a single group.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class GroupMemberChanges
+{
+
+    protected final String parent;
+
+    protected final Set<String> membersToAdd;
+
+    protected final Set<String> membersToRemove;
+
+    public GroupMemberChanges(final String parent, final Set<String> membersToAdd, final Set<String> membersToRemove)
+    {
+        ParameterCheck.mandatoryString("parent", parent);
+        ParameterCheck.mandatory("membersToAdd", membersToAdd);
+        ParameterCheck.mandatory("membersToRemove", membersToRemove);
+
+        this.parent = parent;
+        this.membersToAdd = membersToAdd;
+        this.membersToRemove = membersToRemove;
+    }
+
+    /**
+     * @return the parent
+     */
+    public String getParent()
+    {
+        return this.parent;
+    }
+
+    /**
+     * @return the membersToAdd
+     */
+    public Set<String> getMembersToAdd()
+    {
+        return this.membersToAdd;
+    }
+
+    /**
+     * @return the membersToRemove
+     */
+    public Set<String> getMembersToRemove()
+    {
+        return this.membersToRemove;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return this.parent;
+    }
+}
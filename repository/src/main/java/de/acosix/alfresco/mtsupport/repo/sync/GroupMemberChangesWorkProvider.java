@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.util.ParameterCheck;
+
+import de.acosix.alfresco.mtsupport.repo.sync.AuthorityRelationMap.RelationGroup;
+
+/**
+ * Instances of this class provide the changes to the user members of groups as work, merging the members to add and to remove in a single
+ * pass over the {@link AuthorityRelationMap#groupIterator() grouped relations} of both maps. Both maps need to share the same
+ * {@link AuthorityDictionary dictionary} so that groups are provided in the same order.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class GroupMemberChangesWorkProvider implements BatchProcessWorkProvider<GroupMemberChanges>
+{
+
+    protected final int estimatedWorkSize;
+
+    protected final Iterator<RelationGroup> additionIterator;
+
+    protected final Iterator<RelationGroup> removalIterator;
+
+    protected RelationGroup nextAddition;
+
+    protected RelationGroup nextRemoval;
+
+    public GroupMemberChangesWorkProvider(final AuthorityRelationMap groupMembersToAdd, final AuthorityRelationMap groupMembersToRemove)
+    {
+        ParameterCheck.mandatory("groupMembersToAdd", groupMembersToAdd);
+        ParameterCheck.mandatory("groupMembersToRemove", groupMembersToRemove);
+
+        // groups with both additions and removals are counted twice, but both sizes are available without reading any relations
+        this.estimatedWorkSize = groupMembersToAdd.size() + groupMembersToRemove.size();
+        this.additionIterator = groupMembersToAdd.groupIterator();
+        this.removalIterator = groupMembersToRemove.groupIterator();
+        this.nextAddition = this.additionIterator.hasNext() ? this.additionIterator.next() : null;
+        this.nextRemoval = this.removalIterator.hasNext() ? this.removalIterator.next() : null;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTotalEstimatedWorkSize()
+    {
+        return this.estimatedWorkSize;
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Collection<GroupMemberChanges> getNextWork()
+    {
+        final Collection<GroupMemberChanges> nextWork = new ArrayList<>();
+        while ((this.nextAddition != null || this.nextRemoval != null)
+                && nextWork.size() < (2 * TenantAwareChainingUserRegistrySynchronizer.USER_REGISTRY_ENTITY_BATCH_SIZE))
+        {
+            final int comparison;
+            if (this.nextAddition == null)
+            {
+                comparison = 1;
+            }
+            else if (this.nextRemoval == null)
+            {
+                comparison = -1;
+            }
+            else
+            {
+                comparison = Integer.compare(this.nextAddition.getSourceId(), this.nextRemoval.getSourceId());
+            }
+
+            final String parent = comparison <= 0 ? this.nextAddition.getSource() : this.nextRemoval.getSource();
+            final Set<String> membersToAdd = comparison <= 0 ? this.nextAddition.getTargets() : Collections.emptySet();
+            final Set<String> membersToRemove = comparison >= 0 ? this.nextRemoval.getTargets() : Collections.emptySet();
+            nextWork.add(new GroupMemberChanges(parent, membersToAdd, membersToRemove));
+
+            if (comparison <= 0)
+            {
+                this.nextAddition = this.additionIterator.hasNext() ? this.additionIterator.next() : null;
+            }
+            if (comparison >= 0)
+            {
+                this.nextRemoval = this.removalIterator.hasNext() ? this.removalIterator.next() : null;
+            }
+        }
+        return nextWork;
+    }
+}
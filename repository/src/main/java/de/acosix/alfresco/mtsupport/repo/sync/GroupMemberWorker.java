@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.security.AuthorityType;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.EqualsHelper;
+import org.alfresco.util.ParameterCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.acosix.alfresco.mtsupport.repo.sync.TenantAwareChainingUserRegistrySynchronizer.ComponentLookupCallback;
+
+/**
+ * Instances of this class apply user memberships with the parent group as the unit of work, so that the child associations of a group are
+ * only ever modified by one worker at a time. Memberships of groups with more changes than the configured chunk size are applied in
+ * separate transactions per chunk to avoid excessively large transactions.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class GroupMemberWorker extends AbstractSyncBatchWorker<GroupMemberChanges>
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupMemberWorker.class);
+
+    protected final AuthorityExistenceCache existenceCache;
+
+    protected final int chunkSize;
+
+    protected final boolean splitTxns;
+
+    protected final RetryingTransactionHelper retryingTransactionHelper;
+
+    public GroupMemberWorker(final AuthorityExistenceCache existenceCache, final int chunkSize, final boolean splitTxns,
+            final ComponentLookupCallback componentLookup)
+    {
+        super(componentLookup);
+
+        ParameterCheck.mandatory("existenceCache", existenceCache);
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("chunkSize must be a positive integer");
+        }
+
+        this.existenceCache = existenceCache;
+        this.chunkSize = chunkSize;
+        this.splitTxns = splitTxns;
+        this.retryingTransactionHelper = componentLookup.getComponent("transactionService", TransactionService.class)
+                .getRetryingTransactionHelper();
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public String getIdentifier(final GroupMemberChanges changes)
+    {
+        return changes.getParent();
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void process(final GroupMemberChanges changes) throws Throwable
+    {
+        final String parent = changes.getParent();
+        final Set<String> membersToAdd = changes.getMembersToAdd();
+        final Set<String> membersToRemove = changes.getMembersToRemove();
+
+        if (this.existenceCache.authorityExists(parent))
+        {
+            final List<String> usersToAdd = new ArrayList<>(membersToAdd.size());
+            for (final String member : membersToAdd)
+            {
+                final String domainUser = this.asDomainUser(member);
+                if (this.existenceCache.authorityExists(domainUser))
+                {
+                    usersToAdd.add(domainUser);
+                }
+                else
+                {
+                    LOGGER.info("Cannot process non-existent user {}", domainUser);
+                }
+            }
+
+            final List<String> usersToRemove = new ArrayList<>(membersToRemove.size());
+            for (final String member : membersToRemove)
+            {
+                final String domainUser = this.asDomainUser(member);
+                if (this.existenceCache.authorityExists(domainUser))
+                {
+                    usersToRemove.add(domainUser);
+                }
+                // else: not a problem
+            }
+
+            if (usersToAdd.size() + usersToRemove.size() <= this.chunkSize)
+            {
+                this.applyMemberships(parent, usersToAdd, usersToRemove);
+            }
+            else
+            {
+                this.applyMembershipsInChunks(parent, usersToAdd, usersToRemove);
+            }
+        }
+        else if (!membersToAdd.isEmpty())
+        {
+            LOGGER.info("Cannot add {} to non-existent group {}", membersToAdd, parent);
+        }
+        // else: removal from non-existent group is not a problem
+    }
+
+    protected void applyMembershipsInChunks(final String parent, final List<String> usersToAdd, final List<String> usersToRemove)
+    {
+        // chunks are committed independently so a retry of the enclosing batch must not fail on memberships already applied
+        final Set<String> currentMembers = this.newPersonSet();
+        currentMembers.addAll(this.authorityService.getContainedAuthorities(AuthorityType.USER, parent, true));
+        usersToAdd.removeIf(currentMembers::contains);
+        usersToRemove.removeIf(user -> !currentMembers.contains(user));
+
+        LOGGER.debug("Applying {} additions and {} removals to members of group {} in chunks of {}", usersToAdd.size(),
+                usersToRemove.size(), parent, this.chunkSize);
+
+        for (int fromIdx = 0; fromIdx < usersToRemove.size(); fromIdx += this.chunkSize)
+        {
+            final List<String> chunk = usersToRemove.subList(fromIdx, Math.min(fromIdx + this.chunkSize, usersToRemove.size()));
+            this.inChunkTransaction(() -> this.applyMemberships(parent, Collections.emptyList(), chunk));
+        }
+
+        for (int fromIdx = 0; fromIdx < usersToAdd.size(); fromIdx += this.chunkSize)
+        {
+            final List<String> chunk = usersToAdd.subList(fromIdx, Math.min(fromIdx + this.chunkSize, usersToAdd.size()));
+            this.inChunkTransaction(() -> this.applyMemberships(parent, chunk, Collections.emptyList()));
+        }
+    }
+
+    protected void applyMemberships(final String parent, final List<String> usersToAdd, final List<String> usersToRemove)
+    {
+        for (final String domainUser : usersToRemove)
+        {
+            LOGGER.debug("Removing {} from group {}", domainUser, parent);
+            this.authorityService.removeAuthority(parent, domainUser);
+        }
+
+        for (final String domainUser : usersToAdd)
+        {
+            LOGGER.debug("Adding {} to group {}", domainUser, parent);
+            this.authorityService.addAuthority(parent, domainUser);
+        }
+    }
+
+    protected void inChunkTransaction(final Runnable chunkOperation)
+    {
+        if (this.splitTxns)
+        {
+            this.retryingTransactionHelper.doInTransaction(() -> {
+                chunkOperation.run();
+                return null;
+            }, false, true);
+        }
+        else
+        {
+            chunkOperation.run();
+        }
+    }
+
+    protected String asDomainUser(final String user)
+    {
+        final String domainUser;
+        final String primaryDomain = this.tenantService.getPrimaryDomain(user);
+        if (!EqualsHelper.nullSafeEquals(primaryDomain, this.tenantDomain))
+        {
+            domainUser = this.tenantService.getDomainUser(user, this.tenantDomain);
+        }
+        else
+        {
+            domainUser = user;
+        }
+        return domainUser;
+    }
+}
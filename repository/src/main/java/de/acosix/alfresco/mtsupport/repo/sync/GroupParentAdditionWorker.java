@@ -25,6 +25,9 @@ import org.slf4j.LoggerFactory;
 import de.acosix.alfresco.mtsupport.repo.sync.TenantAwareChainingUserRegistrySynchronizer.ComponentLookupCallback;
 
 /**
+ * Instances of this class add child groups to a specific level of parent groups as {@link GroupHierarchyPlanner planned}. Since each parent
+ * is processed as a single unit of work, concurrent transactions never modify the child associations of the same parent group.
+ *
  * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
  */
 public class GroupParentAdditionWorker extends AbstractSyncBatchWorker<String>
@@ -32,15 +35,20 @@ public class GroupParentAdditionWorker extends AbstractSyncBatchWorker<String>
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GroupParentAdditionWorker.class);
 
-    protected final Map<String, Set<String>> groupParentsToAdd;
+    protected final Map<String, Set<String>> groupChildrenToAdd;
+
+    protected final AuthorityExistenceCache existenceCache;
 
-    public GroupParentAdditionWorker(final Map<String, Set<String>> groupParentsToAdd, final ComponentLookupCallback componentLookup)
+    public GroupParentAdditionWorker(final Map<String, Set<String>> groupChildrenToAdd, final AuthorityExistenceCache existenceCache,
+            final ComponentLookupCallback componentLookup)
     {
         super(componentLookup);
 
-        ParameterCheck.mandatory("groupParentsToAdd", groupParentsToAdd);
+        ParameterCheck.mandatory("groupChildrenToAdd", groupChildrenToAdd);
+        ParameterCheck.mandatory("existenceCache", existenceCache);
 
-        this.groupParentsToAdd = groupParentsToAdd;
+        this.groupChildrenToAdd = groupChildrenToAdd;
+        this.existenceCache = existenceCache;
     }
 
     /**
@@ -48,31 +56,31 @@ public class GroupParentAdditionWorker extends AbstractSyncBatchWorker<String>
      * {@inheritDoc}
      */
     @Override
-    public void process(final String group) throws Throwable
+    public void process(final String parent) throws Throwable
     {
-        if (this.authorityService.authorityExists(group))
+        if (this.existenceCache.authorityExists(parent))
         {
-            final String groupShortName = this.authorityService.getShortName(group);
-            final Set<String> parents = this.groupParentsToAdd.get(group);
-            if (parents != null)
+            final Set<String> children = this.groupChildrenToAdd.get(parent);
+            if (children != null)
             {
-                for (final String parent : parents)
+                for (final String child : children)
                 {
-                    if (this.authorityService.authorityExists(parent))
+                    final String childShortName = this.authorityService.getShortName(child);
+                    if (this.existenceCache.authorityExists(child))
                     {
-                        LOGGER.debug("Adding {} to group {}", groupShortName, parent);
-                        this.authorityService.addAuthority(parent, group);
+                        LOGGER.debug("Adding {} to group {}", childShortName, parent);
+                        this.authorityService.addAuthority(parent, child);
                     }
                     else
                     {
-                        LOGGER.info("Cannot add {} to to non-existent parent group {}", groupShortName, parent);
+                        LOGGER.info("Cannot process non-existent group {}", child);
                     }
                 }
             }
         }
         else
         {
-            LOGGER.info("Cannot process non-existent group {}", group);
+            LOGGER.info("Cannot add {} to to non-existent parent group {}", this.groupChildrenToAdd.get(parent), parent);
         }
     }
 }
@@ -22,10 +22,12 @@ import java.io.Serializable;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicLong;
@@ -33,7 +35,9 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.alfresco.model.ContentModel;
 import org.alfresco.repo.content.MimetypeMap;
 import org.alfresco.repo.dictionary.constraint.NameChecker;
+import org.alfresco.repo.security.person.PersonServiceImpl;
 import org.alfresco.repo.security.sync.NodeDescription;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
 import org.alfresco.service.cmr.repository.AssociationRef;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.ContentData;
@@ -43,6 +47,7 @@ import org.alfresco.service.cmr.repository.ContentWriter;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.repository.datatype.DefaultTypeConverter;
+import org.alfresco.service.cmr.repository.datatype.TypeConversionException;
 import org.alfresco.service.cmr.security.AuthorityService;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
@@ -76,13 +81,20 @@ public class PersonWorkerImpl extends AbstractZonedSyncBatchWorker<NodeDescripti
 
     protected ContentService contentService;
 
+    protected AuthorityFingerprintStore fingerprintStore;
+
+    protected AuthorityIdentityIndex identityIndex;
+
     public PersonWorkerImpl(final String id, final String zoneId, final Set<String> targetZoneIds, final Collection<String> visitedIds,
             final Collection<String> allIds, final boolean allowDeletions, final UserAccountInterpreter accountInterpreter,
+            final AuthorityFingerprintStore fingerprintStore, final AuthorityIdentityIndex identityIndex,
             final ComponentLookupCallback componentLookup)
     {
         super(id, zoneId, targetZoneIds, visitedIds, allIds, allowDeletions, componentLookup);
 
         this.accountInterpreter = accountInterpreter;
+        this.fingerprintStore = fingerprintStore;
+        this.identityIndex = identityIndex;
         this.nameChecker = componentLookup.getComponent("nameChecker", NameChecker.class);
         this.nodeService = componentLookup.getComponent("nodeService", NodeService.class);
         this.contentService = componentLookup.getComponent("contentService", ContentService.class);
@@ -148,6 +160,16 @@ public class PersonWorkerImpl extends AbstractZonedSyncBatchWorker<NodeDescripti
         NodeRef personRef = null;
         Serializable avatarValue = personProperties.remove(ContentModel.ASSOC_AVATAR);
         Serializable avatarDefaultMimetype = personProperties.remove(PROP_AVATAR_DEFAULT_MIMETPYE);
+        final String stableId = DefaultTypeConverter.INSTANCE.convert(String.class,
+                personProperties.remove(EnhancedUserRegistry.PROP_STABLE_ID));
+
+        final String fingerprint = this.fingerprintStore != null ? AuthorityFingerprintStore.computeFingerprint(person) : null;
+        boolean synced = true;
+
+        if (stableId != null && this.identityIndex != null)
+        {
+            this.renameMovedPerson(stableId, domainUser);
+        }
 
         final Set<String> personZones = this.authorityService.getAuthorityZones(domainUser);
         if (personZones == null)
@@ -155,11 +177,23 @@ public class PersonWorkerImpl extends AbstractZonedSyncBatchWorker<NodeDescripti
             LOGGER.debug("Creating user {}", domainUser);
             personRef = this.personService.createPerson(personProperties, this.targetZoneIds);
         }
+        else if (fingerprint != null && personZones.contains(this.zoneId) && this.fingerprintStore.isUnchanged(domainUser, fingerprint))
+        {
+            // neither attributes nor avatar have changed since last successful sync
+            LOGGER.trace("User {} has not changed", domainUser);
+        }
         else if (personZones.contains(this.zoneId))
         {
-            LOGGER.debug("Updating user {}", domainUser);
             personRef = this.personService.getPerson(domainUser);
-            this.personService.setPersonProperties(domainUser, personProperties, false);
+            if (this.hasPropertyChanges(personRef, personProperties))
+            {
+                LOGGER.debug("Updating user {}", domainUser);
+                this.personService.setPersonProperties(domainUser, personProperties, false);
+            }
+            else
+            {
+                LOGGER.trace("User {} has not changed", domainUser);
+            }
         }
         else
         {
@@ -201,6 +235,10 @@ public class PersonWorkerImpl extends AbstractZonedSyncBatchWorker<NodeDescripti
                     personRef = this.personService.createPerson(personProperties, this.targetZoneIds);
                 }
             }
+            else
+            {
+                synced = false;
+            }
         }
 
         if (personRef != null && avatarValue != null)
@@ -208,18 +246,120 @@ public class PersonWorkerImpl extends AbstractZonedSyncBatchWorker<NodeDescripti
             this.handleAvatar(domainUser, personRef, avatarValue, avatarDefaultMimetype);
         }
 
+        if (fingerprint != null && synced)
+        {
+            this.fingerprintStore.storeFingerprint(domainUser, fingerprint);
+        }
+
+        if (stableId != null && this.identityIndex != null && synced)
+        {
+            this.identityIndex.registerAuthorityName(stableId, domainUser);
+        }
+
         final Date lastModified = person.getLastModified();
         if (lastModified != null)
         {
-            this.latestModified.updateAndGet(oldLastModified -> {
-                long newValue = lastModified.getTime();
-                if (oldLastModified > newValue)
+            // must not advance beyond persons whose transaction is rolled back
+            SyncBatchProcessor.applyOnCommit(() -> this.latestModified.accumulateAndGet(lastModified.getTime(), Math::max));
+        }
+    }
+
+    /**
+     * Renames the person previously synchronised for the same immutable identifier if it has been renamed in the user registry. Renaming
+     * the person in place preserves its home folder, memberships and permissions, all of which would otherwise be lost by deleting the
+     * person with the old name and creating a new person.
+     *
+     * @param stableId
+     *            the immutable identifier of the person in the user registry
+     * @param domainUser
+     *            the current name of the person
+     */
+    protected void renameMovedPerson(final String stableId, final String domainUser)
+    {
+        final String previousName = this.identityIndex.getAuthorityName(stableId);
+        if (previousName != null && !EqualsHelper.nullSafeEquals(previousName, domainUser)
+                && !this.authorityService.authorityExists(domainUser))
+        {
+            final Set<String> previousZones = this.authorityService.getAuthorityZones(previousName);
+            if (previousZones != null && previousZones.contains(this.zoneId))
+            {
+                LOGGER.info("Renaming user {} to {} - the user has been renamed in user registry {}", previousName, domainUser, this.id);
+                final NodeRef personRef = this.personService.getPerson(previousName);
+
+                // person service only allows changes of user name (and updates ACLs accordingly) when this flag is bound
+                AlfrescoTransactionSupport.bindResource(PersonServiceImpl.KEY_ALLOW_UID_UPDATE, Boolean.TRUE);
+                try
+                {
+                    this.nodeService.setProperty(personRef, ContentModel.PROP_USERNAME, domainUser);
+                }
+                finally
+                {
+                    AlfrescoTransactionSupport.unbindResource(PersonServiceImpl.KEY_ALLOW_UID_UPDATE);
+                }
+
+                if (this.fingerprintStore != null)
+                {
+                    this.fingerprintStore.removeFingerprints(Collections.singleton(previousName));
+                }
+            }
+            else
+            {
+                LOGGER.debug("Not renaming user {} to {} as it no longer exists or does not belong to user registry {}", previousName,
+                        domainUser, this.id);
+            }
+        }
+    }
+
+    /**
+     * Checks if any of the mapped properties of a person differ from the values currently stored in the repository. Unchanged persons
+     * should not be updated as each update generates a new node version in the database, an audit entry and an index event, which adds up
+     * to significant load on a full synchronisation of a large directory.
+     *
+     * @param personRef
+     *            the node of the person
+     * @param personProperties
+     *            the mapped properties of the person
+     * @return {@code true} if at least one property differs from the currently stored value, {@code false} otherwise
+     */
+    protected boolean hasPropertyChanges(final NodeRef personRef, final Map<QName, Serializable> personProperties)
+    {
+        final Map<QName, Serializable> currentProperties = this.nodeService.getProperties(personRef);
+
+        boolean changed = false;
+        for (final Entry<QName, Serializable> propertyEntry : personProperties.entrySet())
+        {
+            final QName propertyName = propertyEntry.getKey();
+            final Serializable newValue = propertyEntry.getValue();
+            final Serializable currentValue = currentProperties.get(propertyName);
+
+            boolean equal;
+            if (newValue == null || currentValue == null || newValue.getClass().equals(currentValue.getClass()))
+            {
+                equal = EqualsHelper.nullSafeEquals(newValue, currentValue);
+            }
+            else
+            {
+                // mapped values are frequently provided as text while the repository stores them in their actual data type
+                try
+                {
+                    final Object convertedValue = DefaultTypeConverter.INSTANCE.convert(currentValue.getClass(), newValue);
+                    equal = EqualsHelper.nullSafeEquals(convertedValue, currentValue);
+                }
+                catch (final TypeConversionException tcex)
                 {
-                    newValue = oldLastModified;
+                    equal = false;
                 }
-                return newValue;
-            });
+            }
+
+            if (!equal)
+            {
+                LOGGER.trace("Property {} of person {} changed from {} to {}", propertyName, personRef, currentValue, newValue);
+                changed = true;
+                break;
+            }
         }
+
+        return changed;
     }
 
     protected void handleAvatar(final String userName, final NodeRef person, final Serializable avatarValue,
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.sync.NodeDescription;
+import org.alfresco.repo.tenant.TenantContextHolder;
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.util.ParameterCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of this class retrieve entries from a user registry in the background into a bounded buffer, so that the latency of the user
+ * registry can overlap with other work, e.g. the processing of entries of another user registry. The entries can only be iterated once.
+ *
+ * Since the user registry may abort a retrieval which is not continued for some time, e.g. a paged search on a directory server, a failure
+ * of the background retrieval is not immediately propagated. Instead, the entries are retrieved again directly, skipping the entries that
+ * have already been provided from the buffer. This relies on the user registry returning entries in a stable order, just as resuming an
+ * interrupted synchronisation does.
+ *
+ * As the executor used for the background retrieval may be bounded, the background retrieval may not have been started by the time the
+ * entries are needed. In that case, the entries are retrieved directly in the thread needing them and the background retrieval is
+ * skipped, so that processing never waits on a retrieval queued behind the retrievals of other synchronisations.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class PrefetchingNodeCollection extends AbstractCollection<NodeDescription> implements AutoCloseable
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrefetchingNodeCollection.class);
+
+    private static final NodeDescription END_OF_ENTRIES = new NodeDescription("-end-of-entries-");
+
+    private static final long OFFER_TIMEOUT = 500;
+
+    protected final String label;
+
+    protected final Supplier<Collection<NodeDescription>> source;
+
+    protected final BlockingQueue<NodeDescription> buffer;
+
+    protected final CompletableFuture<Collection<NodeDescription>> sourceEntries = new CompletableFuture<>();
+
+    protected volatile boolean closed = false;
+
+    protected volatile RuntimeException failure;
+
+    protected volatile boolean prefetchCompleted = false;
+
+    protected final AtomicBoolean retrievalStarted = new AtomicBoolean(false);
+
+    protected volatile boolean retrievedDirectly = false;
+
+    protected boolean iterated = false;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param label
+     *            the label of the entries for logging
+     * @param source
+     *            the supplier retrieving the entries from the user registry
+     * @param bufferSize
+     *            the maximum number of entries to retrieve ahead of processing
+     */
+    public PrefetchingNodeCollection(final String label, final Supplier<Collection<NodeDescription>> source, final int bufferSize)
+    {
+        ParameterCheck.mandatoryString("label", label);
+        ParameterCheck.mandatory("source", source);
+        if (bufferSize <= 0)
+        {
+            throw new IllegalArgumentException("bufferSize must be a positive integer");
+        }
+
+        this.label = label;
+        this.source = source;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    /**
+     * Starts retrieving entries in the background. The run-as user and tenant of the calling thread are propagated to the retrieval.
+     *
+     * @param executor
+     *            the executor to retrieve entries with - the retrieval blocks while the buffer is full so this should not be the executor
+     *            used for processing batches
+     */
+    public void start(final Executor executor)
+    {
+        ParameterCheck.mandatory("executor", executor);
+
+        final String runAsUser = AuthenticationUtil.getRunAsUser();
+        final String tenantDomain = TenantUtil.getCurrentDomain();
+        executor.execute(() -> {
+            if (!this.retrievalStarted.compareAndSet(false, true))
+            {
+                LOGGER.debug("Skipping background retrieval of {} as they have already been retrieved directly", this.label);
+                return;
+            }
+
+            TenantContextHolder.setTenantDomain(tenantDomain);
+            try
+            {
+                if (runAsUser != null)
+                {
+                    AuthenticationUtil.runAs(() -> {
+                        this.prefetch();
+                        return null;
+                    }, runAsUser);
+                }
+                else
+                {
+                    this.prefetch();
+                }
+            }
+            finally
+            {
+                TenantContextHolder.clearTenantDomain();
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        this.retrieveIfNotStarted();
+        try
+        {
+            return this.sourceEntries.join().size();
+        }
+        catch (final CompletionException cex)
+        {
+            // estimate is not worth failing for - entries will be retrieved directly once iterated
+            LOGGER.debug("Failed to determine estimated number of {}", this.label, cex.getCause());
+            return 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Iterator<NodeDescription> iterator()
+    {
+        if (this.iterated)
+        {
+            throw new IllegalStateException("Prefetched " + this.label + " can only be iterated once");
+        }
+        this.iterated = true;
+        this.retrieveIfNotStarted();
+        return new PrefetchingIterator();
+    }
+
+    /**
+     * Stops retrieving entries in the background and discards any buffered entries.
+     */
+    @Override
+    public void close()
+    {
+        this.closed = true;
+        this.buffer.clear();
+    }
+
+    protected void retrieveIfNotStarted()
+    {
+        if (this.retrievalStarted.compareAndSet(false, true))
+        {
+            LOGGER.debug("Background retrieval of {} has not been started yet - retrieving them directly", this.label);
+            this.retrievedDirectly = true;
+            try
+            {
+                this.sourceEntries.complete(this.source.get());
+            }
+            catch (final RuntimeException e)
+            {
+                this.failure = e;
+                this.sourceEntries.completeExceptionally(e);
+            }
+            finally
+            {
+                this.prefetchCompleted = true;
+            }
+        }
+    }
+
+    protected void prefetch()
+    {
+        try
+        {
+            LOGGER.debug("Prefetching {}", this.label);
+            final Collection<NodeDescription> entries = this.source.get();
+            this.sourceEntries.complete(entries);
+
+            final Iterator<NodeDescription> entryIterator = entries.iterator();
+            boolean offered = true;
+            while (offered && entryIterator.hasNext())
+            {
+                offered = this.offer(entryIterator.next());
+            }
+        }
+        catch (final RuntimeException e)
+        {
+            this.failure = e;
+            this.sourceEntries.completeExceptionally(e);
+        }
+        finally
+        {
+            this.prefetchCompleted = true;
+        }
+    }
+
+    protected boolean offer(final NodeDescription entry)
+    {
+        boolean offered = false;
+        try
+        {
+            while (!this.closed && !offered)
+            {
+                offered = this.buffer.offer(entry, OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            LOGGER.debug("Prefetching {} interrupted", this.label);
+            Thread.currentThread().interrupt();
+            this.failure = new AlfrescoRuntimeException("Prefetching " + this.label + " was interrupted", e);
+        }
+        return offered;
+    }
+
+    /**
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected class PrefetchingIterator implements Iterator<NodeDescription>
+    {
+
+        private NodeDescription next;
+
+        private int provided = 0;
+
+        private Iterator<NodeDescription> directIterator;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext()
+        {
+            if (this.directIterator == null && PrefetchingNodeCollection.this.retrievedDirectly)
+            {
+                // a failed direct retrieval is simply repeated to propagate its failure
+                final Collection<NodeDescription> entries = PrefetchingNodeCollection.this.failure != null
+                        ? PrefetchingNodeCollection.this.source.get() : PrefetchingNodeCollection.this.sourceEntries.join();
+                this.directIterator = entries.iterator();
+            }
+
+            if (this.next == null && this.directIterator != null)
+            {
+                this.next = this.directIterator.hasNext() ? this.directIterator.next() : END_OF_ENTRIES;
+            }
+            else if (this.next == null)
+            {
+                this.next = this.take();
+                if (this.next == END_OF_ENTRIES && PrefetchingNodeCollection.this.failure != null)
+                {
+                    this.retrieveDirectly();
+                    this.next = this.directIterator.hasNext() ? this.directIterator.next() : END_OF_ENTRIES;
+                }
+            }
+            return this.next != END_OF_ENTRIES;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public NodeDescription next()
+        {
+            if (!this.hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            final NodeDescription next = this.next;
+            this.next = null;
+            this.provided++;
+            return next;
+        }
+
+        private NodeDescription take()
+        {
+            try
+            {
+                NodeDescription next = null;
+                while (next == null)
+                {
+                    // completion flag must be checked before polling to not miss entries offered in between
+                    final boolean prefetchCompleted = PrefetchingNodeCollection.this.prefetchCompleted;
+                    next = PrefetchingNodeCollection.this.buffer.poll(OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (next == null && prefetchCompleted)
+                    {
+                        next = END_OF_ENTRIES;
+                    }
+                }
+                return next;
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new AlfrescoRuntimeException("Interrupted while waiting for prefetched " + PrefetchingNodeCollection.this.label, e);
+            }
+        }
+
+        private void retrieveDirectly()
+        {
+            LOGGER.info("Prefetching {} failed after {} entries - retrieving remaining entries directly",
+                    PrefetchingNodeCollection.this.label, this.provided, PrefetchingNodeCollection.this.failure);
+
+            this.directIterator = PrefetchingNodeCollection.this.source.get().iterator();
+            for (int idx = 0; idx < this.provided && this.directIterator.hasNext(); idx++)
+            {
+                this.directIterator.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,582 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.util.ParameterCheck;
+import org.alfresco.util.TempFileProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of this class hold a set of primitive long values within a limited memory budget. Values are collected in memory until the
+ * budget is exhausted, at which point they are sorted and spilled as a run to a temporary file, which is memory-mapped for any subsequent
+ * read access. Values can be checked for containment and read back in ascending order, merging all in-memory and spilled runs on the fly.
+ *
+ * Values are distributed across multiple stripes, each with its own lock and share of the memory budget, so that concurrent use only
+ * contends for the same stripe. Once values have been read back via an {@link #iterator() iterator}, the values held in memory are kept as
+ * a sorted run instead and no further values can be added. Instances must be {@link #close() closed} once they are no longer needed to
+ * delete any temporary files.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class SpillingLongSet implements AutoCloseable
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillingLongSet.class);
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // open addressing table is kept at most half full
+    private static final int BYTES_PER_VALUE = 16;
+
+    private static final int MIN_STRIPE_CAPACITY = 64;
+
+    protected final String name;
+
+    protected final Stripe[] stripes;
+
+    protected volatile boolean closed = false;
+
+    /**
+     * Creates a new set.
+     *
+     * @param name
+     *            the name of the set, used to name temporary files
+     * @param memoryBudget
+     *            the memory budget in bytes
+     * @param concurrency
+     *            the expected number of threads concurrently adding to the set
+     */
+    public SpillingLongSet(final String name, final long memoryBudget, final int concurrency)
+    {
+        ParameterCheck.mandatoryString("name", name);
+        if (memoryBudget <= 0)
+        {
+            throw new IllegalArgumentException("memoryBudget must be a positive integer");
+        }
+        if (concurrency <= 0)
+        {
+            throw new IllegalArgumentException("concurrency must be a positive integer");
+        }
+
+        this.name = name;
+        this.stripes = new Stripe[Integer.highestOneBit(concurrency * 2 - 1)];
+        final int maxValuesPerStripe = (int) Math.max(MIN_STRIPE_CAPACITY,
+                Math.min(Integer.MAX_VALUE / 2, memoryBudget / BYTES_PER_VALUE / this.stripes.length));
+        for (int idx = 0; idx < this.stripes.length; idx++)
+        {
+            this.stripes[idx] = new Stripe(maxValuesPerStripe);
+        }
+    }
+
+    /**
+     * Computes a 64 bit hash of a text value suitable to track the value in a set of this type. The hash is not cryptographically secure,
+     * but collisions are unlikely enough for sets containing tens of millions of values.
+     *
+     * @param value
+     *            the value for which to compute the hash
+     * @return the hash of the value
+     */
+    public static long hash(final CharSequence value)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (int idx = 0, length = value.length(); idx < length; idx++)
+        {
+            hash ^= value.charAt(idx);
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Adds a value to this set.
+     *
+     * @param value
+     *            the value to add
+     * @throws IllegalStateException
+     *             if values have already been read back via an iterator
+     */
+    public void add(final long value)
+    {
+        this.ensureOpen();
+        this.stripeFor(value).add(value);
+    }
+
+    /**
+     * Checks if this set contains a value.
+     *
+     * @param value
+     *            the value to check
+     * @return {@code true} if the set contains the value, {@code false} otherwise
+     */
+    public boolean contains(final long value)
+    {
+        this.ensureOpen();
+        return this.stripeFor(value).contains(value);
+    }
+
+    /**
+     * Checks if this set is empty.
+     *
+     * @return {@code true} if the set does not contain any values, {@code false} otherwise
+     */
+    public boolean isEmpty()
+    {
+        this.ensureOpen();
+        boolean empty = true;
+        for (final Stripe stripe : this.stripes)
+        {
+            empty = empty && stripe.isEmpty();
+        }
+        return empty;
+    }
+
+    /**
+     * Retrieves an iterator over all values of this set in ascending order.
+     *
+     * @return the iterator
+     */
+    public Iterator<Long> iterator()
+    {
+        return this.iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Retrieves an iterator over the values of this set within a specific range in ascending order. No further values can be added to this
+     * set once an iterator has been retrieved.
+     *
+     * @param fromInclusive
+     *            the lower bound of the range
+     * @param toInclusive
+     *            the upper bound of the range
+     * @return the iterator
+     */
+    public Iterator<Long> iterator(final long fromInclusive, final long toInclusive)
+    {
+        this.ensureOpen();
+
+        final List<LongBuffer> runs = new ArrayList<>();
+        for (final Stripe stripe : this.stripes)
+        {
+            runs.addAll(stripe.seal());
+        }
+        return new MergingIterator(runs, fromInclusive, toInclusive);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+        if (!this.closed)
+        {
+            this.closed = true;
+            for (final Stripe stripe : this.stripes)
+            {
+                stripe.release();
+            }
+        }
+    }
+
+    protected void ensureOpen()
+    {
+        if (this.closed)
+        {
+            throw new IllegalStateException("Set " + this.name + " has already been closed");
+        }
+    }
+
+    protected Stripe stripeFor(final long value)
+    {
+        return this.stripes[(int) (mix(value) >>> 32) & (this.stripes.length - 1)];
+    }
+
+    protected static long mix(final long value)
+    {
+        // finaliser of MurmurHash3 to spread any bit patterns over all bits
+        long mixed = value;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xff51afd7ed558ccdL;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xc4ceb9fe1a85ec53L;
+        mixed ^= mixed >>> 33;
+        return mixed;
+    }
+
+    protected static int lowerBound(final LongBuffer run, final long value)
+    {
+        int low = 0;
+        int high = run.limit();
+        while (low < high)
+        {
+            final int middle = (low + high) >>> 1;
+            if (run.get(middle) < value)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Instances of this class hold the values of one stripe of a set.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected class Stripe
+    {
+
+        protected final int maxValues;
+
+        protected final List<LongBuffer> runs = new ArrayList<>();
+
+        protected final List<File> runFiles = new ArrayList<>();
+
+        protected long[] table = new long[MIN_STRIPE_CAPACITY];
+
+        protected int size = 0;
+
+        protected boolean containsZero = false;
+
+        protected boolean sealed = false;
+
+        protected Stripe(final int maxValues)
+        {
+            this.maxValues = maxValues;
+        }
+
+        protected synchronized void add(final long value)
+        {
+            if (this.sealed)
+            {
+                throw new IllegalStateException("Set " + SpillingLongSet.this.name + " does not accept values once they have been read");
+            }
+
+            if (value == 0)
+            {
+                // 0 marks free slots in table
+                this.containsZero = true;
+            }
+            else if (this.insert(value))
+            {
+                this.size++;
+                if (this.size >= this.maxValues)
+                {
+                    this.spill();
+                }
+                else if (this.size * 2 > this.table.length)
+                {
+                    this.rehash();
+                }
+            }
+        }
+
+        protected synchronized boolean contains(final long value)
+        {
+            boolean contained;
+            if (value == 0)
+            {
+                contained = this.containsZero;
+            }
+            else
+            {
+                final int mask = this.table.length - 1;
+                int idx = (int) mix(value) & mask;
+                while (this.table[idx] != 0 && this.table[idx] != value)
+                {
+                    idx = (idx + 1) & mask;
+                }
+                contained = this.table[idx] == value;
+            }
+
+            for (int runIdx = 0; !contained && runIdx < this.runs.size(); runIdx++)
+            {
+                final LongBuffer run = this.runs.get(runIdx);
+                final int idx = lowerBound(run, value);
+                contained = idx < run.limit() && run.get(idx) == value;
+            }
+            return contained;
+        }
+
+        protected synchronized boolean isEmpty()
+        {
+            return this.size == 0 && !this.containsZero && this.runs.isEmpty();
+        }
+
+        protected synchronized List<LongBuffer> seal()
+        {
+            if (this.size > 0 || this.containsZero)
+            {
+                // keep in memory as a sorted run so that reads do not need to sort again
+                // the run takes half the memory of the table it replaces, and as no values can be added anymore, stays within the budget
+                this.runs.add(LongBuffer.wrap(this.drainSorted()));
+            }
+            this.sealed = true;
+
+            final List<LongBuffer> sealedRuns = new ArrayList<>(this.runs.size());
+            for (final LongBuffer run : this.runs)
+            {
+                sealedRuns.add(run.duplicate());
+            }
+            return sealedRuns;
+        }
+
+        protected synchronized void release()
+        {
+            this.runs.clear();
+            this.table = new long[0];
+            this.size = 0;
+            for (final File runFile : this.runFiles)
+            {
+                if (!runFile.delete())
+                {
+                    // mapped files may not be deletable on some platforms until the mapping has been garbage collected
+                    runFile.deleteOnExit();
+                }
+            }
+            this.runFiles.clear();
+        }
+
+        protected boolean insert(final long value)
+        {
+            final int mask = this.table.length - 1;
+            int idx = (int) mix(value) & mask;
+            while (this.table[idx] != 0)
+            {
+                if (this.table[idx] == value)
+                {
+                    return false;
+                }
+                idx = (idx + 1) & mask;
+            }
+            this.table[idx] = value;
+            return true;
+        }
+
+        protected void rehash()
+        {
+            final long[] oldTable = this.table;
+            this.table = new long[oldTable.length * 2];
+            for (final long value : oldTable)
+            {
+                if (value != 0)
+                {
+                    this.insert(value);
+                }
+            }
+        }
+
+        protected long[] drainSorted()
+        {
+            final long[] values = new long[this.size + (this.containsZero ? 1 : 0)];
+            int valueIdx = 0;
+            if (this.containsZero)
+            {
+                values[valueIdx++] = 0;
+            }
+            for (final long value : this.table)
+            {
+                if (value != 0)
+                {
+                    values[valueIdx++] = value;
+                }
+            }
+            Arrays.sort(values);
+
+            this.table = new long[MIN_STRIPE_CAPACITY];
+            this.size = 0;
+            this.containsZero = false;
+            return values;
+        }
+
+        protected void spill()
+        {
+            final long[] values = this.drainSorted();
+            final File runFile = TempFileProvider.createTempFile(SpillingLongSet.this.name + "-", ".run");
+            try (RandomAccessFile file = new RandomAccessFile(runFile, "rw"); FileChannel channel = file.getChannel())
+            {
+                final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                for (final long value : values)
+                {
+                    if (!buffer.hasRemaining())
+                    {
+                        buffer.flip();
+                        channel.write(buffer);
+                        buffer.clear();
+                    }
+                    buffer.putLong(value);
+                }
+                buffer.flip();
+                channel.write(buffer);
+
+                // mapping remains valid after the channel has been closed
+                this.runs.add(channel.map(MapMode.READ_ONLY, 0, values.length * 8L).asLongBuffer());
+                this.runFiles.add(runFile);
+                LOGGER.debug("Spilled {} values of {} to {}", values.length, SpillingLongSet.this.name, runFile);
+            }
+            catch (final IOException ioex)
+            {
+                if (!runFile.delete())
+                {
+                    runFile.deleteOnExit();
+                }
+                throw new AlfrescoRuntimeException("Failed to spill values of " + SpillingLongSet.this.name + " to temporary file", ioex);
+            }
+        }
+    }
+
+    /**
+     * Instances of this class merge multiple sorted runs into a single ascending sequence without duplicates.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected static class MergingIterator implements Iterator<Long>
+    {
+
+        protected final PriorityQueue<RunCursor> cursors = new PriorityQueue<>();
+
+        protected final long toInclusive;
+
+        protected boolean hasLast = false;
+
+        protected long last;
+
+        protected MergingIterator(final List<LongBuffer> runs, final long fromInclusive, final long toInclusive)
+        {
+            this.toInclusive = toInclusive;
+            for (final LongBuffer run : runs)
+            {
+                final RunCursor cursor = new RunCursor(run, lowerBound(run, fromInclusive));
+                if (cursor.isValid(toInclusive))
+                {
+                    this.cursors.add(cursor);
+                }
+            }
+            this.skipDuplicates();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext()
+        {
+            return !this.cursors.isEmpty();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Long next()
+        {
+            if (this.cursors.isEmpty())
+            {
+                throw new NoSuchElementException();
+            }
+
+            final RunCursor cursor = this.cursors.poll();
+            this.last = cursor.current();
+            this.hasLast = true;
+            cursor.advance();
+            if (cursor.isValid(this.toInclusive))
+            {
+                this.cursors.add(cursor);
+            }
+            this.skipDuplicates();
+
+            return Long.valueOf(this.last);
+        }
+
+        protected void skipDuplicates()
+        {
+            while (this.hasLast && !this.cursors.isEmpty() && this.cursors.peek().current() == this.last)
+            {
+                final RunCursor cursor = this.cursors.poll();
+                cursor.advance();
+                if (cursor.isValid(this.toInclusive))
+                {
+                    this.cursors.add(cursor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Instances of this class track the read position within a sorted run.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected static class RunCursor implements Comparable<RunCursor>
+    {
+
+        protected final LongBuffer run;
+
+        protected int position;
+
+        protected RunCursor(final LongBuffer run, final int position)
+        {
+            this.run = run;
+            this.position = position;
+        }
+
+        protected long current()
+        {
+            return this.run.get(this.position);
+        }
+
+        protected void advance()
+        {
+            this.position++;
+        }
+
+        protected boolean isValid(final long toInclusive)
+        {
+            return this.position < this.run.limit() && this.run.get(this.position) <= toInclusive;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(final RunCursor other)
+        {
+            return Long.compare(this.current(), other.current());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.util.CronTriggerBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of this class schedule jobs for a specific tenant with a cron expression shifted by a deterministic offset derived from the
+ * tenant domain, so that jobs of different tenants configured with the same cron expression are spread across a window instead of all
+ * firing at the same time.
+ *
+ * The offset is applied to the seconds and minutes fields of the cron expression and never moves a firing of the job into another hour, so
+ * neither the frequency of the job nor the hours / days on which it fires are affected - the only exception being a fixed hour before
+ * {@code 23}, into which the shift of a fixed minute is carried. Offsets are only applied if the seconds field is a fixed value and the
+ * minutes field is either a fixed value, a wildcard or an increment - any other cron expression is used as configured. The effective window
+ * is limited to the interval of an increment in the minutes field or to one minute for a wildcard, and further to the time remaining in the
+ * hour after the last firing within the hour unless the shift can be carried into the hour.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class StaggeredCronTriggerBean extends CronTriggerBean
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StaggeredCronTriggerBean.class);
+
+    private static final int MAX_STAGGER_WINDOW_SECONDS = 3600;
+
+    private static final int LAST_HOUR_OF_DAY = 23;
+
+    protected String tenantDomain;
+
+    protected int staggerWindowSeconds = 0;
+
+    protected String configuredCronExpression;
+
+    /**
+     * Shifts a cron expression by a deterministic offset for a specific tenant.
+     *
+     * @param cronExpression
+     *            the cron expression to shift
+     * @param tenantDomain
+     *            the tenant domain from which to derive the offset
+     * @param staggerWindowSeconds
+     *            the size of the window (in seconds) in which to spread the offsets of all tenants
+     * @return the shifted cron expression or the unmodified cron expression if its seconds / minutes fields do not allow a shift
+     */
+    public static String staggerCronExpression(final String cronExpression, final String tenantDomain, final int staggerWindowSeconds)
+    {
+        String result = cronExpression;
+
+        final String[] fields = cronExpression.trim().split("\\s+");
+        if (staggerWindowSeconds > 0 && fields.length >= 6 && fields[0].matches("^\\d+$"))
+        {
+            final String tenantKey = tenantDomain == null || tenantDomain.isEmpty() ? TenantUtil.DEFAULT_TENANT : tenantDomain;
+            final int seconds = Integer.parseInt(fields[0]);
+            final String minutesField = fields[1];
+            final String hoursField = fields[2];
+
+            if (minutesField.matches("^\\d+$"))
+            {
+                final int firing = Integer.parseInt(minutesField) * 60 + seconds;
+                // a fixed hour can take a carry of the shift, unless the job would be moved into the next day
+                final boolean carryIntoHour = hoursField.matches("^\\d+$") && Integer.parseInt(hoursField) < LAST_HOUR_OF_DAY;
+                final int window = Math.min(staggerWindowSeconds, carryIntoHour ? MAX_STAGGER_WINDOW_SECONDS : 3600 - firing);
+                final int offset = getOffset(tenantKey, window);
+
+                final int total = firing + offset;
+                fields[0] = String.valueOf(total % 60);
+                fields[1] = String.valueOf((total / 60) % 60);
+                if (total >= 3600)
+                {
+                    fields[2] = String.valueOf(Integer.parseInt(hoursField) + 1);
+                }
+                result = String.join(" ", fields);
+            }
+            else if ("*".equals(minutesField))
+            {
+                // job fires every minute, so wrapping within the minute only shifts it
+                fields[0] = String.valueOf((seconds + getOffset(tenantKey, staggerWindowSeconds)) % 60);
+                result = String.join(" ", fields);
+            }
+            else if (minutesField.matches("^(\\*|\\d+)/\\d+$"))
+            {
+                final String[] incrementParts = minutesField.split("/");
+                final int start = "*".equals(incrementParts[0]) ? 0 : Integer.parseInt(incrementParts[0]);
+                final int increment = Integer.parseInt(incrementParts[1]);
+                if (increment > 0 && start < 60)
+                {
+                    // last firing within the hour must not be shifted past the end of the hour, or the job would fire less often
+                    final int lastFiring = (start + ((59 - start) / increment) * increment) * 60 + seconds;
+                    final int offset = getOffset(tenantKey, Math.min(Math.min(staggerWindowSeconds, increment * 60), 3600 - lastFiring));
+
+                    final int total = start * 60 + seconds + offset;
+                    fields[0] = String.valueOf(total % 60);
+                    fields[1] = (total / 60) + "/" + increment;
+                    result = String.join(" ", fields);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    protected static int getOffset(final String tenantKey, final int window)
+    {
+        return window > 0 ? (int) Math.floorMod(SpillingLongSet.hash(tenantKey), (long) window) : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCronExpression(final String cronExpression)
+    {
+        super.setCronExpression(cronExpression);
+        this.configuredCronExpression = cronExpression;
+    }
+
+    /**
+     * @param tenantDomain
+     *            the tenantDomain to set
+     */
+    public void setTenantDomain(final String tenantDomain)
+    {
+        this.tenantDomain = tenantDomain;
+    }
+
+    /**
+     * @param staggerWindowSeconds
+     *            the staggerWindowSeconds to set - {@code 0} to use the cron expression as configured
+     */
+    public void setStaggerWindowSeconds(final int staggerWindowSeconds)
+    {
+        if (staggerWindowSeconds < 0)
+        {
+            throw new IllegalArgumentException("staggerWindowSeconds must not be negative");
+        }
+        if (staggerWindowSeconds > MAX_STAGGER_WINDOW_SECONDS)
+        {
+            throw new IllegalArgumentException("staggerWindowSeconds must not exceed " + MAX_STAGGER_WINDOW_SECONDS);
+        }
+        this.staggerWindowSeconds = staggerWindowSeconds;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        if (this.staggerWindowSeconds > 0 && this.configuredCronExpression != null)
+        {
+            final String staggeredCronExpression = staggerCronExpression(this.configuredCronExpression, this.tenantDomain,
+                    this.staggerWindowSeconds);
+            if (staggeredCronExpression.equals(this.configuredCronExpression))
+            {
+                LOGGER.debug("Cron expression {} of tenant {} does not allow for staggering", this.configuredCronExpression,
+                        this.tenantDomain);
+            }
+            else
+            {
+                LOGGER.debug("Staggered cron expression {} of tenant {} to {}", this.configuredCronExpression, this.tenantDomain,
+                        staggeredCronExpression);
+                super.setCronExpression(staggeredCronExpression);
+            }
+        }
+
+        super.afterPropertiesSet();
+    }
+}
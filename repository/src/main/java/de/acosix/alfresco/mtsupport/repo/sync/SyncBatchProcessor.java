@@ -0,0 +1,788 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.batch.BatchMonitor;
+import org.alfresco.repo.batch.BatchMonitorEvent;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorker;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.tenant.TenantContextHolder;
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.util.Pair;
+import org.alfresco.util.ParameterCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+
+/**
+ * Instances of this class process the entries of a single synchronisation phase in batches, each batch in its own transaction, using a
+ * shared, long-lived executor instead of creating and tearing down a thread pool per phase as the default {@code BatchProcessor} does.
+ * Progress is reported to the same logging / JMX facilities by implementing {@link BatchMonitor} and publishing a {@link BatchMonitorEvent}
+ * at the start of processing.
+ *
+ * Failing entries are isolated so that a few broken entries do not prevent the rest of their batches from being committed. An entry failing
+ * while it is processed is excluded directly and the remaining entries of its batch are processed again, while failed batches that cannot
+ * be attributed to a single entry, e.g. due to a failure on commit, are split recursively. Since entries may be processed more than once
+ * this way, workers must only change their in-memory state via {@link #applyOnCommit(Runnable) changes applied on commit} of the
+ * transaction of a batch.
+ *
+ * The run-as user and tenant of the calling thread are propagated to all batches. If processing is not split into multiple transactions,
+ * all batches are processed sequentially within the transaction of the calling thread.
+ *
+ * When processing is split into multiple transactions, progress can be tracked via a {@link #setCheckpointListener(BiConsumer) checkpoint
+ * listener}, which is notified whenever a contiguous sequence of entries from the start of processing has been completed, and processing
+ * can be limited by a {@link #setDeadline(long) deadline} after which no further batches are started.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class SyncBatchProcessor<T> implements BatchMonitor
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncBatchProcessor.class);
+
+    private static final ThreadLocal<List<Runnable>> STAGED_STATE_CHANGES = new ThreadLocal<>();
+
+    protected final String processName;
+
+    protected final RetryingTransactionHelper retryingTransactionHelper;
+
+    protected final BatchProcessWorkProvider<T> workProvider;
+
+    protected final ExecutorService executor;
+
+    protected final int maxConcurrentBatches;
+
+    protected final int batchSize;
+
+    protected final ApplicationEventPublisher applicationEventPublisher;
+
+    protected final int loggingInterval;
+
+    protected final AtomicInteger successfullyProcessedEntries = new AtomicInteger(0);
+
+    protected final AtomicInteger totalErrors = new AtomicInteger(0);
+
+    protected volatile int totalResults;
+
+    protected volatile String currentEntryId;
+
+    protected volatile String lastError;
+
+    protected volatile String lastErrorEntryId;
+
+    protected volatile Date startTime;
+
+    protected volatile Date endTime;
+
+    protected BiConsumer<String, Throwable> failedEntryListener;
+
+    protected BiConsumer<String, Integer> checkpointListener;
+
+    protected long deadline = -1;
+
+    protected volatile boolean deadlineReached = false;
+
+    protected final SortedMap<Long, Pair<String, Integer>> completedBatches = new TreeMap<>();
+
+    protected long nextCheckpointBatch = 0;
+
+    protected int checkpointedEntries = 0;
+
+    /**
+     * Applies a change to the in-memory state of a worker once the transaction of the batch currently being processed by the calling thread
+     * has been committed. Changes of entries in transactions that are rolled back, e.g. because another entry of the same batch failed, are
+     * discarded, so that the state only reflects entries that have been processed successfully regardless of how often they had to be
+     * processed. If the calling thread is not processing a batch in its own transaction, the change is applied immediately.
+     *
+     * @param change
+     *            the change to apply
+     */
+    public static void applyOnCommit(final Runnable change)
+    {
+        ParameterCheck.mandatory("change", change);
+
+        final List<Runnable> stagedChanges = STAGED_STATE_CHANGES.get();
+        if (stagedChanges != null)
+        {
+            stagedChanges.add(change);
+        }
+        else
+        {
+            change.run();
+        }
+    }
+
+    /**
+     * Creates a new batch processor.
+     *
+     * @param processName
+     *            the name of the process as used for logging / JMX
+     * @param retryingTransactionHelper
+     *            the helper to run batches in transactions
+     * @param workProvider
+     *            the provider of entries to process
+     * @param executor
+     *            the executor to run batches with
+     * @param maxConcurrentBatches
+     *            the maximum number of batches to be processed concurrently
+     * @param batchSize
+     *            the number of entries to process in a single transaction
+     * @param applicationEventPublisher
+     *            the publisher for the {@link BatchMonitorEvent} - may be {@code null}
+     * @param loggingInterval
+     *            the number of processed entries after which progress should be logged
+     */
+    public SyncBatchProcessor(final String processName, final RetryingTransactionHelper retryingTransactionHelper,
+            final BatchProcessWorkProvider<T> workProvider, final ExecutorService executor, final int maxConcurrentBatches,
+            final int batchSize, final ApplicationEventPublisher applicationEventPublisher, final int loggingInterval)
+    {
+        ParameterCheck.mandatoryString("processName", processName);
+        ParameterCheck.mandatory("retryingTransactionHelper", retryingTransactionHelper);
+        ParameterCheck.mandatory("workProvider", workProvider);
+        ParameterCheck.mandatory("executor", executor);
+        if (maxConcurrentBatches <= 0)
+        {
+            throw new IllegalArgumentException("maxConcurrentBatches must be a positive integer");
+        }
+        if (batchSize <= 0)
+        {
+            throw new IllegalArgumentException("batchSize must be a positive integer");
+        }
+        if (loggingInterval <= 0)
+        {
+            throw new IllegalArgumentException("loggingInterval must be a positive integer");
+        }
+
+        this.processName = processName;
+        this.retryingTransactionHelper = retryingTransactionHelper;
+        this.workProvider = workProvider;
+        this.executor = executor;
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        this.batchSize = batchSize;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.loggingInterval = loggingInterval;
+    }
+
+    /**
+     * Creates a new batch processor for a pre-determined collection of entries.
+     *
+     * @param processName
+     *            the name of the process as used for logging / JMX
+     * @param retryingTransactionHelper
+     *            the helper to run batches in transactions
+     * @param entries
+     *            the entries to process
+     * @param executor
+     *            the executor to run batches with
+     * @param maxConcurrentBatches
+     *            the maximum number of batches to be processed concurrently
+     * @param batchSize
+     *            the number of entries to process in a single transaction
+     * @param applicationEventPublisher
+     *            the publisher for the {@link BatchMonitorEvent} - may be {@code null}
+     * @param loggingInterval
+     *            the number of processed entries after which progress should be logged
+     */
+    public SyncBatchProcessor(final String processName, final RetryingTransactionHelper retryingTransactionHelper,
+            final Collection<T> entries, final ExecutorService executor, final int maxConcurrentBatches, final int batchSize,
+            final ApplicationEventPublisher applicationEventPublisher, final int loggingInterval)
+    {
+        this(processName, retryingTransactionHelper, new CollectionWorkProvider<>(entries, batchSize), executor, maxConcurrentBatches,
+                batchSize, applicationEventPublisher, loggingInterval);
+    }
+
+    /**
+     * @param failedEntryListener
+     *            the listener to notify about the identifier and error of any entry that failed to be processed
+     */
+    public void setFailedEntryListener(final BiConsumer<String, Throwable> failedEntryListener)
+    {
+        this.failedEntryListener = failedEntryListener;
+    }
+
+    /**
+     * @param checkpointListener
+     *            the listener to notify about the identifier of the last entry and the total number of entries whenever all entries up to
+     *            and including that entry have been processed - failed entries count as processed
+     */
+    public void setCheckpointListener(final BiConsumer<String, Integer> checkpointListener)
+    {
+        this.checkpointListener = checkpointListener;
+    }
+
+    /**
+     * @param deadline
+     *            the time (in milliseconds since the epoch) after which no further batches should be started, or a non-positive value if
+     *            processing should not be limited
+     */
+    public void setDeadline(final long deadline)
+    {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Checks if processing was stopped before all entries had been processed because the {@link #setDeadline(long) deadline} was reached.
+     *
+     * @return {@code true} if the deadline was reached, {@code false} otherwise
+     */
+    public boolean isDeadlineReached()
+    {
+        return this.deadlineReached;
+    }
+
+    /**
+     * Processes all entries provided to this instance.
+     *
+     * @param worker
+     *            the worker to process individual entries
+     * @param splitTxns
+     *            {@code true} if processing should be split into one transaction per batch, {@code false} if all entries should be
+     *            processed in the transaction of the calling thread
+     * @return the number of processed entries
+     */
+    public int process(final BatchProcessWorker<T> worker, final boolean splitTxns)
+    {
+        ParameterCheck.mandatory("worker", worker);
+
+        this.startTime = new Date();
+        this.totalResults = this.workProvider.getTotalEstimatedWorkSize();
+        if (this.applicationEventPublisher != null)
+        {
+            this.applicationEventPublisher.publishEvent(new BatchMonitorEvent(this));
+        }
+
+        LOGGER.info("{}: Commencing batch of {} entries", this.processName, Integer.valueOf(this.totalResults));
+
+        try
+        {
+            if (splitTxns)
+            {
+                this.processConcurrently(worker);
+            }
+            else
+            {
+                this.processInline(worker);
+            }
+        }
+        finally
+        {
+            this.endTime = new Date();
+        }
+
+        this.logProgress(true);
+        return this.successfullyProcessedEntries.get() + this.totalErrors.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getProcessName()
+    {
+        return this.processName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Date getStartTime()
+    {
+        return this.startTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Date getEndTime()
+    {
+        return this.endTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getTotalResults()
+    {
+        return NumberFormat.getInstance().format(this.totalResults);
+    }
+
+    /**
+     * @return the number of entries to be processed
+     */
+    public long getTotalResultsLong()
+    {
+        return this.totalResults;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCurrentEntryId()
+    {
+        return this.currentEntryId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getLastError()
+    {
+        return this.lastError;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getLastErrorEntryId()
+    {
+        return this.lastErrorEntryId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSuccessfullyProcessedEntries()
+    {
+        return NumberFormat.getInstance().format(this.successfullyProcessedEntries.get());
+    }
+
+    /**
+     * @return the number of successfully processed entries
+     */
+    public long getSuccessfullyProcessedEntriesLong()
+    {
+        return this.successfullyProcessedEntries.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPercentComplete()
+    {
+        final int totalResults = this.totalResults;
+        final int processed = this.successfullyProcessedEntries.get() + this.totalErrors.get();
+        final int percentComplete = totalResults <= 0 ? 100 : Math.min(100, processed * 100 / totalResults);
+        return NumberFormat.getPercentInstance().format(percentComplete / 100d);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTotalErrors()
+    {
+        return this.totalErrors.get();
+    }
+
+    protected void processInline(final BatchProcessWorker<T> worker)
+    {
+        try
+        {
+            worker.beforeProcess();
+            Collection<T> work = this.workProvider.getNextWork();
+            while (!work.isEmpty())
+            {
+                for (final T entry : work)
+                {
+                    this.currentEntryId = worker.getIdentifier(entry);
+                    this.retryingTransactionHelper.doInTransaction(() -> {
+                        worker.process(entry);
+                        return null;
+                    }, false, false);
+                    this.onEntryProcessed();
+                }
+                work = this.workProvider.getNextWork();
+            }
+        }
+        catch (final Throwable t)
+        {
+            // without split transactions any failure needs to abort the enclosing transaction - no isolation possible
+            this.onEntryFailed(this.currentEntryId, t);
+            if (t instanceof RuntimeException)
+            {
+                throw (RuntimeException) t;
+            }
+            throw new AlfrescoRuntimeException("Error processing " + this.currentEntryId, t);
+        }
+        finally
+        {
+            this.afterProcess(worker);
+        }
+    }
+
+    protected void processConcurrently(final BatchProcessWorker<T> worker)
+    {
+        final String runAsUser = AuthenticationUtil.getRunAsUser();
+        final String tenantDomain = TenantUtil.getCurrentDomain();
+
+        // bounds the number of batches in memory / in progress so that lazily retrieved entries are not all loaded at once
+        final Semaphore batchPermits = new Semaphore(this.maxConcurrentBatches);
+        final Phaser pendingBatches = new Phaser(1);
+
+        try
+        {
+            long batchSequence = 0;
+            final List<T> batch = new ArrayList<>(this.batchSize);
+            Collection<T> work = this.workProvider.getNextWork();
+            while (!work.isEmpty() && !this.checkDeadline())
+            {
+                final Iterator<T> workIterator = work.iterator();
+                while (workIterator.hasNext() && !this.deadlineReached)
+                {
+                    batch.add(workIterator.next());
+                    if (batch.size() >= this.batchSize && !this.checkDeadline())
+                    {
+                        this.submitBatch(worker, new ArrayList<>(batch), batchSequence++, runAsUser, tenantDomain, batchPermits,
+                                pendingBatches);
+                        batch.clear();
+                    }
+                }
+                work = this.deadlineReached ? work : this.workProvider.getNextWork();
+            }
+
+            if (!batch.isEmpty() && !this.checkDeadline())
+            {
+                this.submitBatch(worker, batch, batchSequence, runAsUser, tenantDomain, batchPermits, pendingBatches);
+            }
+            else if (this.deadlineReached)
+            {
+                LOGGER.info("{}: Stopping processing as the time budget has been exhausted", this.processName);
+            }
+        }
+        finally
+        {
+            pendingBatches.arriveAndAwaitAdvance();
+        }
+    }
+
+    protected boolean checkDeadline()
+    {
+        if (!this.deadlineReached && this.deadline > 0 && System.currentTimeMillis() >= this.deadline)
+        {
+            this.deadlineReached = true;
+        }
+        return this.deadlineReached;
+    }
+
+    protected void submitBatch(final BatchProcessWorker<T> worker, final List<T> batch, final long batchSequence, final String runAsUser,
+            final String tenantDomain, final Semaphore batchPermits, final Phaser pendingBatches)
+    {
+        batchPermits.acquireUninterruptibly();
+        pendingBatches.register();
+        try
+        {
+            this.executor.execute(() -> {
+                try
+                {
+                    final RunAsWork<Void> batchWork = () -> {
+                        TenantContextHolder.setTenantDomain(tenantDomain);
+                        try
+                        {
+                            this.runBatch(worker, batch, batchSequence);
+                        }
+                        finally
+                        {
+                            TenantContextHolder.clearTenantDomain();
+                        }
+                        return null;
+                    };
+
+                    if (runAsUser != null)
+                    {
+                        AuthenticationUtil.runAs(batchWork, runAsUser);
+                    }
+                    else
+                    {
+                        batchWork.doWork();
+                    }
+                }
+                catch (final Throwable t)
+                {
+                    LOGGER.error("{}: Unexpected error processing batch", this.processName, t);
+                }
+                finally
+                {
+                    batchPermits.release();
+                    pendingBatches.arriveAndDeregister();
+                }
+            });
+        }
+        catch (final RuntimeException e)
+        {
+            batchPermits.release();
+            pendingBatches.arriveAndDeregister();
+            throw e;
+        }
+    }
+
+    protected void runBatch(final BatchProcessWorker<T> worker, final List<T> batch, final long batchSequence)
+    {
+        boolean prepared = false;
+        try
+        {
+            worker.beforeProcess();
+            prepared = true;
+        }
+        catch (final Throwable t)
+        {
+            // none of the entries can be processed - they must be accounted as failed so the run does not report success
+            LOGGER.error("{}: Error preparing batch {}", this.processName, batchSequence, t);
+            for (final T entry : batch)
+            {
+                this.onEntryFailed(worker.getIdentifier(entry), t);
+            }
+        }
+
+        try
+        {
+            if (prepared)
+            {
+                this.processBatch(worker, batch);
+            }
+        }
+        finally
+        {
+            try
+            {
+                // failed entries are recorded individually, so checkpoints must still advance past this batch
+                this.onBatchCompleted(batchSequence, worker.getIdentifier(batch.get(batch.size() - 1)), batch.size());
+            }
+            finally
+            {
+                if (prepared)
+                {
+                    this.afterProcess(worker);
+                }
+            }
+        }
+    }
+
+    protected void afterProcess(final BatchProcessWorker<T> worker)
+    {
+        try
+        {
+            worker.afterProcess();
+        }
+        catch (final Throwable t)
+        {
+            LOGGER.error("{}: Error cleaning up after batch", this.processName, t);
+        }
+    }
+
+    protected void processBatch(final BatchProcessWorker<T> worker, final List<T> batch)
+    {
+        final AtomicInteger currentEntryIndex = new AtomicInteger(-1);
+        List<Runnable> stateChanges = null;
+        try
+        {
+            stateChanges = this.retryingTransactionHelper.doInTransaction(() -> {
+                final List<Runnable> stagedChanges = new ArrayList<>();
+                STAGED_STATE_CHANGES.set(stagedChanges);
+                try
+                {
+                    for (int idx = 0; idx < batch.size(); idx++)
+                    {
+                        currentEntryIndex.set(idx);
+                        final T entry = batch.get(idx);
+                        this.currentEntryId = worker.getIdentifier(entry);
+                        worker.process(entry);
+                    }
+                    // any failure from here on occurs on commit and cannot be attributed to a single entry
+                    currentEntryIndex.set(batch.size());
+                }
+                finally
+                {
+                    STAGED_STATE_CHANGES.remove();
+                }
+                return stagedChanges;
+            }, false, true);
+        }
+        catch (final Throwable t)
+        {
+            this.onBatchFailed(worker, batch, currentEntryIndex.get(), t);
+        }
+
+        if (stateChanges != null)
+        {
+            stateChanges.forEach(Runnable::run);
+            for (int idx = 0; idx < batch.size(); idx++)
+            {
+                this.onEntryProcessed();
+            }
+        }
+    }
+
+    protected void onBatchFailed(final BatchProcessWorker<T> worker, final List<T> batch, final int failedEntryIndex, final Throwable t)
+    {
+        if (batch.size() == 1)
+        {
+            this.onEntryFailed(worker.getIdentifier(batch.get(0)), t);
+        }
+        else if (failedEntryIndex >= 0 && failedEntryIndex < batch.size())
+        {
+            // the entry being processed when the failure occurred is the culprit - the other entries only need to be processed again
+            this.onEntryFailed(worker.getIdentifier(batch.get(failedEntryIndex)), t);
+
+            final List<T> remainingEntries = new ArrayList<>(batch);
+            remainingEntries.remove(failedEntryIndex);
+            LOGGER.debug("{}: Batch of {} entries failed - processing remaining {} entries again", this.processName, batch.size(),
+                    remainingEntries.size());
+            this.processBatch(worker, remainingEntries);
+        }
+        else
+        {
+            // isolate the failing entries by recursive bisection so that the good entries of the batch are still committed with
+            // few additional transactions when only single entries are broken
+            LOGGER.debug("{}: Batch of {} entries failed on commit - splitting batch to isolate failing entries", this.processName,
+                    batch.size(), t);
+            final int middle = batch.size() / 2;
+            this.processBatch(worker, batch.subList(0, middle));
+            this.processBatch(worker, batch.subList(middle, batch.size()));
+        }
+    }
+
+    protected void onBatchCompleted(final long batchSequence, final String lastEntryId, final int entries)
+    {
+        if (this.checkpointListener != null)
+        {
+            // batches complete out of order - a checkpoint may only cover the contiguous sequence of completed batches from the start
+            synchronized (this.completedBatches)
+            {
+                this.completedBatches.put(Long.valueOf(batchSequence), new Pair<>(lastEntryId, Integer.valueOf(entries)));
+
+                String checkpointEntryId = null;
+                Pair<String, Integer> completedBatch;
+                while ((completedBatch = this.completedBatches.remove(Long.valueOf(this.nextCheckpointBatch))) != null)
+                {
+                    checkpointEntryId = completedBatch.getFirst();
+                    this.checkpointedEntries += completedBatch.getSecond().intValue();
+                    this.nextCheckpointBatch++;
+                }
+
+                if (checkpointEntryId != null)
+                {
+                    this.checkpointListener.accept(checkpointEntryId, Integer.valueOf(this.checkpointedEntries));
+                }
+            }
+        }
+    }
+
+    protected void onEntryProcessed()
+    {
+        final int processed = this.successfullyProcessedEntries.incrementAndGet();
+        if ((processed + this.totalErrors.get()) % this.loggingInterval == 0)
+        {
+            this.logProgress(false);
+        }
+    }
+
+    protected void onEntryFailed(final String entryId, final Throwable t)
+    {
+        this.totalErrors.incrementAndGet();
+        this.lastErrorEntryId = entryId;
+        this.lastError = t.toString();
+        LOGGER.warn("{}: Failed to process entry {}", this.processName, entryId, t);
+
+        if (this.failedEntryListener != null)
+        {
+            this.failedEntryListener.accept(entryId, t);
+        }
+    }
+
+    protected void logProgress(final boolean completed)
+    {
+        final Date endTime = this.endTime;
+        final long elapsed = Math.max(1, (endTime != null ? endTime.getTime() : System.currentTimeMillis()) - this.startTime.getTime());
+        final int processed = this.successfullyProcessedEntries.get() + this.totalErrors.get();
+        LOGGER.info("{}: {} {} entries out of {}. {} complete. Rate: {} per second. {} failures detected.", this.processName,
+                completed ? "Completed" : "Processed", processed, this.totalResults, this.getPercentComplete(),
+                String.format(Locale.ENGLISH, "%.2f", processed * 1000d / elapsed), this.totalErrors.get());
+    }
+
+    /**
+     * Simple work provider for pre-determined collections of entries.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected static class CollectionWorkProvider<T> implements BatchProcessWorkProvider<T>
+    {
+
+        protected final Collection<T> entries;
+
+        protected final Iterator<T> entryIterator;
+
+        protected final int chunkSize;
+
+        protected CollectionWorkProvider(final Collection<T> entries, final int chunkSize)
+        {
+            ParameterCheck.mandatory("entries", entries);
+
+            this.entries = entries;
+            this.entryIterator = entries.iterator();
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getTotalEstimatedWorkSize()
+        {
+            return this.entries.size();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Collection<T> getNextWork()
+        {
+            final List<T> nextWork = new ArrayList<>(this.chunkSize);
+            while (this.entryIterator.hasNext() && nextWork.size() < this.chunkSize)
+            {
+                nextWork.add(this.entryIterator.next());
+            }
+            return nextWork;
+        }
+    }
+}
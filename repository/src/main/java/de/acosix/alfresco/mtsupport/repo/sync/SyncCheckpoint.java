@@ -0,0 +1,360 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.alfresco.repo.security.sync.NodeDescription;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.util.EqualsHelper;
+import org.alfresco.util.ParameterCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of this class track the progress of a single phase in synchronising with a specific user registry, so that a full
+ * synchronisation that has been interrupted - by an error, a restart of the server or an exhausted time budget - can be resumed with the
+ * next run instead of starting from scratch. The progress is persisted via the {@link AttributeService attribute service} as the number
+ * of entries processed from the start of the phase and the identifier of the last of these entries.
+ *
+ * Resuming relies on the user registry returning entries in a stable order, which holds for the paged queries of directory servers when
+ * the result set has not changed. Paging positions of directory servers are not persisted as they are bound to the connection they were
+ * created on. Entries added to the user registry in between runs may be skipped in a resumed run and are picked up by the next full
+ * synchronisation.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class SyncCheckpoint
+{
+
+    public static final String ROOT_ATTRIBUTE_PATH = ".TenantAwareChainingUserRegistrySynchronizer.Checkpoints";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncCheckpoint.class);
+
+    protected static final String PHASE = "phase";
+
+    protected static final String PHASE_COMPLETED = "phaseCompleted";
+
+    protected static final String LAST_COMMITTED_ENTRY = "lastCommittedEntry";
+
+    protected static final String COMMITTED_ENTRIES = "committedEntries";
+
+    protected final String checkpointKey;
+
+    protected final SyncProcess phase;
+
+    protected final AttributeService attributeService;
+
+    protected final RetryingTransactionHelper retryingTransactionHelper;
+
+    protected final int checkpointInterval;
+
+    protected final long deadline;
+
+    protected boolean resumedPhaseCompleted = false;
+
+    protected String resumedLastEntry;
+
+    protected int resumedEntries = 0;
+
+    protected int savedEntries = 0;
+
+    protected String lastCommittedEntry;
+
+    protected int committedEntries = 0;
+
+    protected volatile boolean phaseInterrupted = false;
+
+    /**
+     * Creates a new checkpoint for a phase of the synchronisation with a specific user registry.
+     *
+     * @param checkpointKey
+     *            the key of the checkpoint - must be qualified with the tenant if the user registry does not belong to the default tenant
+     * @param phase
+     *            the phase for which to track progress
+     * @param attributeService
+     *            the attribute service used to persist progress
+     * @param retryingTransactionHelper
+     *            the helper used to persist progress in transactions of its own
+     * @param checkpointInterval
+     *            the minimum number of entries processed between two persisted checkpoints
+     * @param deadline
+     *            the time (in milliseconds since the epoch) at which the time budget of the synchronisation is exhausted, or a
+     *            non-positive value if the synchronisation is not limited
+     */
+    public SyncCheckpoint(final String checkpointKey, final SyncProcess phase, final AttributeService attributeService,
+            final RetryingTransactionHelper retryingTransactionHelper, final int checkpointInterval, final long deadline)
+    {
+        ParameterCheck.mandatoryString("checkpointKey", checkpointKey);
+        ParameterCheck.mandatory("phase", phase);
+        ParameterCheck.mandatory("attributeService", attributeService);
+        ParameterCheck.mandatory("retryingTransactionHelper", retryingTransactionHelper);
+        if (checkpointInterval <= 0)
+        {
+            throw new IllegalArgumentException("checkpointInterval must be a positive integer");
+        }
+
+        this.checkpointKey = checkpointKey;
+        this.phase = phase;
+        this.attributeService = attributeService;
+        this.retryingTransactionHelper = retryingTransactionHelper;
+        this.checkpointInterval = checkpointInterval;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Loads the progress persisted by a previous, interrupted run so that it can be resumed.
+     *
+     * @return {@code true} if a previous run can be resumed, {@code false} otherwise
+     */
+    public boolean load()
+    {
+        final Serializable checkpoint = this.retryingTransactionHelper.doInTransaction(
+                () -> this.attributeService.getAttribute(ROOT_ATTRIBUTE_PATH, this.checkpointKey), true, true);
+
+        boolean resumable = false;
+        if (checkpoint instanceof Map<?, ?> && EqualsHelper.nullSafeEquals(((Map<?, ?>) checkpoint).get(PHASE), this.phase.name()))
+        {
+            final Map<?, ?> checkpointMap = (Map<?, ?>) checkpoint;
+            this.resumedPhaseCompleted = Boolean.TRUE.equals(checkpointMap.get(PHASE_COMPLETED));
+            this.resumedLastEntry = (String) checkpointMap.get(LAST_COMMITTED_ENTRY);
+            final Object committedEntries = checkpointMap.get(COMMITTED_ENTRIES);
+            this.resumedEntries = committedEntries instanceof Integer ? ((Integer) committedEntries).intValue() : 0;
+            this.savedEntries = this.resumedEntries;
+            this.lastCommittedEntry = this.resumedLastEntry;
+            this.committedEntries = this.resumedEntries;
+            resumable = this.resumedPhaseCompleted || this.resumedEntries > 0;
+        }
+        return resumable;
+    }
+
+    /**
+     * Checks if the time budget of the synchronisation has been exhausted.
+     *
+     * @return {@code true} if the time budget has been exhausted, {@code false} otherwise
+     */
+    public boolean isDeadlineReached()
+    {
+        return this.deadline > 0 && System.currentTimeMillis() >= this.deadline;
+    }
+
+    /**
+     * @return the time (in milliseconds since the epoch) at which the time budget of the synchronisation is exhausted, or a non-positive
+     *         value if the synchronisation is not limited
+     */
+    public long getDeadline()
+    {
+        return this.deadline;
+    }
+
+    /**
+     * Wraps the entries to be processed in the phase so that any entries already processed in a resumed run are skipped.
+     *
+     * @param entries
+     *            the entries to be processed
+     * @return the entries still to be processed
+     */
+    public Collection<NodeDescription> skipCommittedEntries(final Collection<NodeDescription> entries)
+    {
+        final Collection<NodeDescription> remainingEntries;
+        if (this.resumedPhaseCompleted)
+        {
+            LOGGER.info("Skipping phase {} as it has been completed in a previous run", this.phase);
+            remainingEntries = Collections.emptyList();
+        }
+        else if (this.resumedEntries > 0)
+        {
+            LOGGER.info("Resuming phase {} after {} entries processed in a previous run", this.phase, this.resumedEntries);
+            remainingEntries = new SkippingCollection(entries);
+        }
+        else
+        {
+            remainingEntries = entries;
+        }
+        return remainingEntries;
+    }
+
+    /**
+     * Records the progress of the phase, persisting it if at least the configured interval of entries has been processed since the last
+     * persisted checkpoint.
+     *
+     * @param lastEntryId
+     *            the identifier of the last entry processed
+     * @param entries
+     *            the number of entries processed in the current run up to and including the last entry
+     */
+    public synchronized void onEntriesCommitted(final String lastEntryId, final Integer entries)
+    {
+        this.lastCommittedEntry = lastEntryId;
+        this.committedEntries = this.resumedEntries + entries.intValue();
+        if (this.committedEntries - this.savedEntries >= this.checkpointInterval)
+        {
+            this.save(false);
+        }
+    }
+
+    /**
+     * Persists the current progress of the phase as it has been interrupted before all entries were processed, e.g. because the time
+     * budget has been exhausted.
+     */
+    public synchronized void markPhaseInterrupted()
+    {
+        this.phaseInterrupted = true;
+        if (this.committedEntries > this.savedEntries)
+        {
+            this.save(false);
+        }
+    }
+
+    /**
+     * Checks if the phase has been interrupted in the current run.
+     *
+     * @return {@code true} if the phase has been interrupted, {@code false} otherwise
+     */
+    public boolean isPhaseInterrupted()
+    {
+        return this.phaseInterrupted;
+    }
+
+    /**
+     * Persists the completion of the phase so that a resumed run does not process any of its entries again.
+     */
+    public synchronized void markPhaseCompleted()
+    {
+        this.save(true);
+    }
+
+    /**
+     * Removes any persisted progress as the synchronisation has been completed.
+     */
+    public void clear()
+    {
+        this.retryingTransactionHelper.doInTransaction(() -> {
+            this.attributeService.removeAttribute(ROOT_ATTRIBUTE_PATH, this.checkpointKey);
+            return null;
+        }, false, true);
+    }
+
+    protected void save(final boolean phaseCompleted)
+    {
+        final HashMap<String, Serializable> checkpoint = new HashMap<>();
+        checkpoint.put(PHASE, this.phase.name());
+        checkpoint.put(PHASE_COMPLETED, Boolean.valueOf(phaseCompleted));
+        checkpoint.put(LAST_COMMITTED_ENTRY, this.lastCommittedEntry);
+        checkpoint.put(COMMITTED_ENTRIES, Integer.valueOf(this.committedEntries));
+
+        this.retryingTransactionHelper.doInTransaction(() -> {
+            this.attributeService.setAttribute(checkpoint, ROOT_ATTRIBUTE_PATH, this.checkpointKey);
+            return null;
+        }, false, true);
+        this.savedEntries = this.committedEntries;
+
+        LOGGER.debug("Saved checkpoint of phase {} for {} after {} entries", this.phase, this.checkpointKey, this.committedEntries);
+    }
+
+    /**
+     * Instances of this class skip the entries processed in a resumed run, verifying that the last skipped entry matches the last entry
+     * recorded in that run.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected class SkippingCollection extends AbstractCollection<NodeDescription>
+    {
+
+        protected final Collection<NodeDescription> entries;
+
+        protected SkippingCollection(final Collection<NodeDescription> entries)
+        {
+            this.entries = entries;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int size()
+        {
+            return Math.max(0, this.entries.size() - SyncCheckpoint.this.resumedEntries);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Iterator<NodeDescription> iterator()
+        {
+            final Iterator<NodeDescription> entryIterator = this.entries.iterator();
+            return new Iterator<NodeDescription>()
+            {
+
+                private boolean skipped = false;
+
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public boolean hasNext()
+                {
+                    this.skip();
+                    return entryIterator.hasNext();
+                }
+
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                public NodeDescription next()
+                {
+                    if (!this.hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    return entryIterator.next();
+                }
+
+                private void skip()
+                {
+                    if (!this.skipped)
+                    {
+                        this.skipped = true;
+
+                        NodeDescription lastSkipped = null;
+                        for (int idx = 0; idx < SyncCheckpoint.this.resumedEntries && entryIterator.hasNext(); idx++)
+                        {
+                            lastSkipped = entryIterator.next();
+                        }
+
+                        if (lastSkipped == null
+                                || !EqualsHelper.nullSafeEquals(lastSkipped.getSourceId(), SyncCheckpoint.this.resumedLastEntry))
+                        {
+                            LOGGER.warn("Entries of phase {} for {} are not in the order of the resumed run - "
+                                    + "skipped entries may only be synchronised by the next full synchronisation",
+                                    SyncCheckpoint.this.phase, SyncCheckpoint.this.checkpointKey);
+                        }
+                    }
+                }
+            };
+        }
+    }
+}
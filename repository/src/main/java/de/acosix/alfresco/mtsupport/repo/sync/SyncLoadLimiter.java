@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.util.TraceableThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Instances of this class limit the number of scheduled synchronisations running concurrently on this server. Limited synchronisations
+ * are run by threads of this instance, in the order in which their triggers fired, so that threads of the shared scheduler are not
+ * blocked by synchronisations waiting for others to complete. Synchronisations not started within the maximum delay are skipped.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class SyncLoadLimiter implements InitializingBean, DisposableBean
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncLoadLimiter.class);
+
+    protected int maxConcurrentSyncs = 0;
+
+    protected long maxDelay = 1800000;
+
+    protected ThreadPoolExecutor syncExecutor;
+
+    protected final Set<String> pendingTenants = ConcurrentHashMap.newKeySet();
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        if (this.maxConcurrentSyncs > 0)
+        {
+            final TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+            threadFactory.setThreadDaemon(true);
+            threadFactory.setNamePrefix("UserRegistryScheduledSync");
+
+            // queue of the executor is FIFO so delayed synchronisations run in the order in which they have been triggered
+            this.syncExecutor = new ThreadPoolExecutor(this.maxConcurrentSyncs, this.maxConcurrentSyncs, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), threadFactory);
+            this.syncExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy()
+    {
+        if (this.syncExecutor != null)
+        {
+            this.syncExecutor.shutdownNow();
+            this.syncExecutor = null;
+        }
+        this.pendingTenants.clear();
+    }
+
+    /**
+     * @param maxConcurrentSyncs
+     *            the maxConcurrentSyncs to set - {@code 0} to not limit the number of concurrent synchronisations
+     */
+    public void setMaxConcurrentSyncs(final int maxConcurrentSyncs)
+    {
+        if (maxConcurrentSyncs < 0)
+        {
+            throw new IllegalArgumentException("maxConcurrentSyncs must not be negative");
+        }
+        this.maxConcurrentSyncs = maxConcurrentSyncs;
+    }
+
+    /**
+     * @param maxDelay
+     *            the maxDelay to set
+     */
+    public void setMaxDelay(final long maxDelay)
+    {
+        if (maxDelay <= 0)
+        {
+            throw new IllegalArgumentException("maxDelay must be a positive integer");
+        }
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Runs a scheduled synchronisation as soon as the number of synchronisations running concurrently on this server allows. If the
+     * number of synchronisations is limited, this operation does not wait for the synchronisation to be run but returns immediately.
+     *
+     * @param tenantDomain
+     *            the tenant domain of the synchronisation
+     * @param synchronisation
+     *            the synchronisation to run - must set up its own authentication and tenant context if the number of synchronisations is
+     *            limited
+     * @return {@code true} if the synchronisation has been run or scheduled to be run, {@code false} if it has been skipped as a
+     *         synchronisation of the same tenant is still pending or running
+     */
+    public boolean runLimited(final String tenantDomain, final Runnable synchronisation)
+    {
+        boolean scheduled = false;
+        final ThreadPoolExecutor syncExecutor = this.syncExecutor;
+        if (syncExecutor == null)
+        {
+            synchronisation.run();
+            scheduled = true;
+        }
+        else if (!this.pendingTenants.add(tenantDomain))
+        {
+            LOGGER.info("Skipping synchronisation of {} tenant as its previous synchronisation is still pending or running", tenantDomain);
+        }
+        else
+        {
+            if (syncExecutor.getActiveCount() >= this.maxConcurrentSyncs)
+            {
+                LOGGER.debug("Delaying synchronisation of {} tenant as {} synchronisations are already running", tenantDomain,
+                        this.maxConcurrentSyncs);
+            }
+
+            final long queuedAt = System.currentTimeMillis();
+            try
+            {
+                syncExecutor.execute(() -> this.runDelayed(tenantDomain, synchronisation, queuedAt));
+                scheduled = true;
+            }
+            catch (final RejectedExecutionException e)
+            {
+                this.pendingTenants.remove(tenantDomain);
+                LOGGER.warn("Failed to schedule synchronisation of {} tenant", tenantDomain, e);
+            }
+        }
+        return scheduled;
+    }
+
+    protected void runDelayed(final String tenantDomain, final Runnable synchronisation, final long queuedAt)
+    {
+        try
+        {
+            final long delay = System.currentTimeMillis() - queuedAt;
+            if (delay > this.maxDelay)
+            {
+                LOGGER.info("Skipping synchronisation of {} tenant as it could not be run within {} ms - it will run on its next trigger",
+                        tenantDomain, this.maxDelay);
+            }
+            else
+            {
+                LOGGER.trace("Running synchronisation of {} tenant after a delay of {} ms", tenantDomain, delay);
+                synchronisation.run();
+            }
+        }
+        catch (final RuntimeException e)
+        {
+            LOGGER.error("Synchronisation of {} tenant failed", tenantDomain, e);
+        }
+        finally
+        {
+            this.pendingTenants.remove(tenantDomain);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.tenant.TenantContextHolder;
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.util.ParameterCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of this class execute the phases of a synchronisation according to their dependencies, allowing independent phases to run
+ * concurrently. Phases must be added after all the phases they depend on, which guarantees the dependency graph is free of cycles.
+ *
+ * A phase is only started once all its dependencies have completed successfully. If any phase fails, its dependent phases are not run and
+ * the failure is rethrown once all other running phases have completed. The run-as user and tenant of the thread calling
+ * {@link #execute(boolean) execute} are propagated to all phases.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class SyncPhaseScheduler
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncPhaseScheduler.class);
+
+    protected final Executor executor;
+
+    protected final Map<String, Runnable> phases = new LinkedHashMap<>();
+
+    protected final Map<String, String[]> phaseDependencies = new LinkedHashMap<>();
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param executor
+     *            the executor to run phases with - phases block while waiting for their batches so this should not be the executor used
+     *            for processing batches
+     */
+    public SyncPhaseScheduler(final Executor executor)
+    {
+        ParameterCheck.mandatory("executor", executor);
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a phase to this scheduler.
+     *
+     * @param name
+     *            the name of the phase
+     * @param operation
+     *            the operation of the phase
+     * @param dependencies
+     *            the names of the phases that need to be completed before this phase can be started
+     */
+    public void addPhase(final String name, final Runnable operation, final String... dependencies)
+    {
+        ParameterCheck.mandatoryString("name", name);
+        ParameterCheck.mandatory("operation", operation);
+
+        if (this.phases.containsKey(name))
+        {
+            throw new IllegalArgumentException("Phase " + name + " has already been added");
+        }
+
+        for (final String dependency : dependencies)
+        {
+            if (!this.phases.containsKey(dependency))
+            {
+                throw new IllegalArgumentException("Phase " + name + " depends on unknown phase " + dependency);
+            }
+        }
+
+        this.phases.put(name, operation);
+        this.phaseDependencies.put(name, dependencies);
+    }
+
+    /**
+     * Executes all phases of this scheduler.
+     *
+     * @param concurrent
+     *            {@code true} if independent phases should be run concurrently, {@code false} if all phases should be run sequentially in
+     *            the calling thread, e.g. because they need to share a single transaction
+     */
+    public void execute(final boolean concurrent)
+    {
+        if (concurrent)
+        {
+            this.executeConcurrently();
+        }
+        else
+        {
+            // insertion order is a valid topological order
+            this.phases.values().forEach(Runnable::run);
+        }
+    }
+
+    protected void executeConcurrently()
+    {
+        final String runAsUser = AuthenticationUtil.getRunAsUser();
+        final String tenantDomain = TenantUtil.getCurrentDomain();
+
+        final Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        for (final Map.Entry<String, Runnable> phaseEntry : this.phases.entrySet())
+        {
+            final String name = phaseEntry.getKey();
+            final Runnable operation = phaseEntry.getValue();
+
+            final List<CompletableFuture<Void>> dependencyFutures = new ArrayList<>();
+            for (final String dependency : this.phaseDependencies.get(name))
+            {
+                dependencyFutures.add(futures.get(dependency));
+            }
+
+            final CompletableFuture<Void> dependenciesCompleted = CompletableFuture
+                    .allOf(dependencyFutures.toArray(new CompletableFuture<?>[0]));
+            final CompletableFuture<Void> future = dependenciesCompleted.thenRunAsync(() -> {
+                LOGGER.debug("Starting synchronisation phase {}", name);
+                this.runPhase(operation, runAsUser, tenantDomain);
+                LOGGER.debug("Completed synchronisation phase {}", name);
+            }, this.executor);
+            futures.put(name, future);
+        }
+
+        Throwable failure = null;
+        for (final CompletableFuture<Void> future : futures.values())
+        {
+            try
+            {
+                future.join();
+            }
+            catch (final CompletionException cex)
+            {
+                // dependent phases fail with the same cause, so only report the first one
+                if (failure == null)
+                {
+                    failure = cex.getCause();
+                }
+            }
+        }
+
+        if (failure instanceof RuntimeException)
+        {
+            throw (RuntimeException) failure;
+        }
+        else if (failure instanceof Error)
+        {
+            throw (Error) failure;
+        }
+        else if (failure != null)
+        {
+            throw new AlfrescoRuntimeException("Synchronisation phase failed", failure);
+        }
+    }
+
+    protected void runPhase(final Runnable operation, final String runAsUser, final String tenantDomain)
+    {
+        TenantContextHolder.setTenantDomain(tenantDomain);
+        try
+        {
+            if (runAsUser != null)
+            {
+                AuthenticationUtil.runAs(() -> {
+                    operation.run();
+                    return null;
+                }, runAsUser);
+            }
+            else
+            {
+                operation.run();
+            }
+        }
+        finally
+        {
+            TenantContextHolder.clearTenantDomain();
+        }
+    }
+}
@@ -19,17 +19,35 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.net.URLDecoder;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
@@ -42,8 +60,9 @@ import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 import javax.management.ReflectionException;
 
+import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.repo.admin.SysAdminParams;
-import org.alfresco.repo.batch.BatchProcessor;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
 import org.alfresco.repo.dictionary.constraint.NameChecker;
 import org.alfresco.repo.lock.JobLockService;
 import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
@@ -83,10 +102,11 @@ import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.service.transaction.TransactionService;
 import org.alfresco.util.EqualsHelper;
+import org.alfresco.util.GUID;
 import org.alfresco.util.Pair;
 import org.alfresco.util.ParameterCheck;
 import org.alfresco.util.PropertyCheck;
-import org.apache.commons.logging.LogFactory;
+import org.alfresco.util.TraceableThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -97,6 +117,8 @@ import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.extensions.surf.util.AbstractLifecycleBean;
 import org.springframework.extensions.surf.util.I18NUtil;
 
+import de.acosix.alfresco.mtsupport.repo.beans.TenantRoutingAware;
+
 /**
  * This class completely re-implements the user and groups synchronization logic provided by {@link ChainingUserRegistrySynchronizer} and
  * enhances it to support multi-tenancy use cases. The default component in out-of-the-box Alfresco is impossible to customise or in any way
@@ -118,7 +140,7 @@ import org.springframework.extensions.surf.util.I18NUtil;
  */
 public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecycleBean
         implements UserRegistrySynchronizer, ChainingUserRegistrySynchronizerStatus, TestableChainingUserRegistrySynchronizer,
-        InitializingBean, ApplicationEventPublisherAware, TenantDeployer
+        InitializingBean, ApplicationEventPublisherAware, TenantDeployer, TenantRoutingAware
 {
 
     private static final String ALFRESCO_M_BEAN_SERVER = "alfrescoMBeanServer";
@@ -166,11 +188,21 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
 
     private static final long LOCK_TTL = 1000 * 60 * 2;
 
+    private static final long TOMBSTONE_QUERY_OVERLAP = 1000 * 60 * 5;
+
     private static final QName DEFAULT_LOCK_QNAME = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI,
             "ChainingUserRegistrySynchronizer");
 
     public static final int USER_REGISTRY_ENTITY_BATCH_SIZE = 20;
 
+    private static final int FINGERPRINT_STORE_BATCH_SIZE = 500;
+
+    private static final int MAX_RECORDED_FAILED_ENTRIES = 1000;
+
+    private static final int MAX_RECORDED_ERROR_LENGTH = 500;
+
+    private static final int DISTRIBUTED_WORK_CHUNK_SIZE = 1000;
+
     public static final String ROOT_ATTRIBUTE_PATH = ".ChainingUserRegistrySynchronizer";
 
     public static final String ROOT_MT_ATTRIBUTE_PATH = ".TenantAwareChainingUserRegistrySynchronizer";
@@ -179,6 +211,10 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
 
     public static final String PERSON_LAST_MODIFIED_ATTRIBUTE = "PERSON";
 
+    public static final String CHANGE_MARKER_ATTRIBUTE = "CHANGE_MARKER";
+
+    public static final String DELETION_CHECK_ATTRIBUTE = "DELETION_CHECK";
+
     public static final String STATUS_ATTRIBUTE = "STATUS";
 
     public static final String LAST_ERROR_ATTRIBUTE = "LAST_ERROR";
@@ -191,6 +227,14 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
 
     public static final String SUMMARY_ATTRIBUTE = "SUMMARY";
 
+    public static final String FAILED_ENTRIES_ATTRIBUTE = "FAILED_ENTRIES";
+
+    public static final String ZONE_END_TIME_ATTRIBUTE = "ZONE_END_TIME";
+
+    public static final String LOCK_GRANULARITY_TENANT = "tenant";
+
+    public static final String LOCK_GRANULARITY_ZONE = "zone";
+
     protected ApplicationContext applicationContext;
 
     protected ChildApplicationContextManager applicationContextManager;
@@ -229,6 +273,14 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
 
     protected Map<String, Boolean> allowDeletions;
 
+    protected Map<String, Integer> syncTimeBudgetMinutes;
+
+    protected Map<String, String> lockGranularity;
+
+    protected Map<String, Integer> distributedSyncPartitions;
+
+    protected ClusterSyncCoordinator clusterSyncCoordinator;
+
     protected NameChecker nameChecker;
 
     protected SysAdminParams sysAdminParams;
@@ -242,6 +294,56 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
 
     protected TenantAdminService tenantAdminService;
 
+    protected int changeListenerBatchSize = 50;
+
+    protected long changeListenerFlushDelay = 5000;
+
+    protected long changeListenerReconnectDelay = 60000;
+
+    protected boolean authorityFingerprintsEnabled = true;
+
+    protected int userAssociationChunkSize = 500;
+
+    protected int workingStateMemoryBudgetMB = 256;
+
+    protected int checkpointInterval = 1000;
+
+    protected long distributedSyncPollInterval = 10000;
+
+    protected int prefetchBufferSize = 1000;
+
+    protected int phaseThreads = 4;
+
+    protected int prefetchThreads = 2;
+
+    protected int startupSyncThreads = 1;
+
+    protected long startupSyncStagger = 10000;
+
+    protected ThreadFactory changeListenerThreadFactory;
+
+    protected ScheduledExecutorService changeListenerScheduler;
+
+    protected final Map<Pair<String, String>, UserRegistryChangeMonitor> changeMonitors = new ConcurrentHashMap<>();
+
+    protected final Map<String, Map<String, String>> failedEntriesByBatchId = new ConcurrentHashMap<>();
+
+    protected ForkJoinPool syncExecutor;
+
+    protected ExecutorService syncPhaseExecutor;
+
+    protected ExecutorService syncPrefetchExecutor;
+
+    protected ScheduledExecutorService distributedSyncScheduler;
+
+    protected final Set<String> localDistributedRunIds = ConcurrentHashMap.newKeySet();
+
+    protected ScheduledExecutorService startupSyncScheduler;
+
+    protected final Set<String> pendingStartupSyncs = ConcurrentHashMap.newKeySet();
+
+    protected final AtomicLong nextStartupSyncTime = new AtomicLong();
+
     @Override
     public void init()
     {
@@ -270,15 +372,10 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
         LOGGER.debug("Tenant {} enabled - syncOnStartup is {}", currentDomain, syncOnStartup);
         if (syncOnStartup)
         {
-            try
-            {
-                this.synchronize(false, false, true);
-            }
-            catch (final RuntimeException e)
-            {
-                LOGGER.warn("Failed startup synchronisation with user registries in {} tenant", currentDomain, e);
-            }
+            this.scheduleStartupSync();
         }
+
+        this.startChangeMonitors();
     }
 
     /**
@@ -287,7 +384,40 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
     @Override
     public void onDisableTenant()
     {
-        // NO-OP
+        this.stopChangeMonitors(TenantUtil.getCurrentDomain());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTenantAdded(final String tenantDomain)
+    {
+        // tenant-specific settings and sync triggers have already been provided by the tenant bean registrar
+        // change monitors would otherwise only be started once the tenant is (re-)enabled
+        if (TenantUtil.DEFAULT_TENANT.equals(tenantDomain))
+        {
+            AuthenticationUtil.runAsSystem(() -> {
+                this.startChangeMonitors();
+                return null;
+            });
+        }
+        else if (this.tenantAdminService.existsTenant(tenantDomain) && this.tenantAdminService.isEnabledTenant(tenantDomain))
+        {
+            TenantUtil.runAsSystemTenant(() -> {
+                this.startChangeMonitors();
+                return null;
+            }, tenantDomain);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTenantRemoved(final String tenantDomain)
+    {
+        this.stopChangeMonitors(TenantUtil.DEFAULT_TENANT.equals(tenantDomain) ? TenantService.DEFAULT_DOMAIN : tenantDomain);
     }
 
     /**
@@ -327,6 +457,37 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
             }
         }
 
+        final TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("UserRegistryChangeListener");
+        this.changeListenerThreadFactory = threadFactory;
+        this.changeListenerScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+        // shared across all phases, user registries and tenants to avoid thread churn of per-phase thread pools
+        this.syncExecutor = new ForkJoinPool(this.workerThreads, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("UserRegistrySynchronizer-" + thread.getPoolIndex());
+            return thread;
+        }, null, true);
+
+        // phases / prefetches of concurrent synchronisations queue up instead of each adding threads
+        this.syncPhaseExecutor = this.createBoundedExecutor(this.phaseThreads, "UserRegistrySynchronizerPhase");
+        // separate from phases as prefetches block until their entries are processed by (potentially queued) phases
+        this.syncPrefetchExecutor = this.createBoundedExecutor(this.prefetchThreads, "UserRegistryPrefetch");
+
+        final TraceableThreadFactory distributedSyncThreadFactory = new TraceableThreadFactory();
+        distributedSyncThreadFactory.setThreadDaemon(true);
+        distributedSyncThreadFactory.setNamePrefix("UserRegistryDistributedSync");
+        this.distributedSyncScheduler = Executors.newSingleThreadScheduledExecutor(distributedSyncThreadFactory);
+
+        if (this.startupSyncThreads > 0)
+        {
+            final TraceableThreadFactory startupSyncThreadFactory = new TraceableThreadFactory();
+            startupSyncThreadFactory.setThreadDaemon(true);
+            startupSyncThreadFactory.setNamePrefix("UserRegistryStartupSync");
+            this.startupSyncScheduler = Executors.newScheduledThreadPool(this.startupSyncThreads, startupSyncThreadFactory);
+        }
+
         this.tenantAdminService.register(this);
     }
 
@@ -499,6 +660,42 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
         this.allowDeletions = allowDeletions;
     }
 
+    /**
+     * @param syncTimeBudgetMinutes
+     *            the syncTimeBudgetMinutes to set
+     */
+    public void setSyncTimeBudgetMinutes(final Map<String, Integer> syncTimeBudgetMinutes)
+    {
+        this.syncTimeBudgetMinutes = syncTimeBudgetMinutes;
+    }
+
+    /**
+     * @param lockGranularity
+     *            the lockGranularity to set
+     */
+    public void setLockGranularity(final Map<String, String> lockGranularity)
+    {
+        this.lockGranularity = lockGranularity;
+    }
+
+    /**
+     * @param distributedSyncPartitions
+     *            the distributedSyncPartitions to set
+     */
+    public void setDistributedSyncPartitions(final Map<String, Integer> distributedSyncPartitions)
+    {
+        this.distributedSyncPartitions = distributedSyncPartitions;
+    }
+
+    /**
+     * @param clusterSyncCoordinator
+     *            the clusterSyncCoordinator to set
+     */
+    public void setClusterSyncCoordinator(final ClusterSyncCoordinator clusterSyncCoordinator)
+    {
+        this.clusterSyncCoordinator = clusterSyncCoordinator;
+    }
+
     /**
      * @param syncDelete
      *            the syncDelete to set
@@ -562,6 +759,172 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
         this.tenantAdminService = tenantAdminService;
     }
 
+    /**
+     * @param changeListenerBatchSize
+     *            the changeListenerBatchSize to set
+     */
+    public void setChangeListenerBatchSize(final int changeListenerBatchSize)
+    {
+        if (changeListenerBatchSize <= 0)
+        {
+            throw new IllegalArgumentException("changeListenerBatchSize must be a positive integer");
+        }
+        this.changeListenerBatchSize = changeListenerBatchSize;
+    }
+
+    /**
+     * @param changeListenerFlushDelay
+     *            the changeListenerFlushDelay to set
+     */
+    public void setChangeListenerFlushDelay(final long changeListenerFlushDelay)
+    {
+        if (changeListenerFlushDelay <= 0)
+        {
+            throw new IllegalArgumentException("changeListenerFlushDelay must be a positive integer");
+        }
+        this.changeListenerFlushDelay = changeListenerFlushDelay;
+    }
+
+    /**
+     * @param changeListenerReconnectDelay
+     *            the changeListenerReconnectDelay to set
+     */
+    public void setChangeListenerReconnectDelay(final long changeListenerReconnectDelay)
+    {
+        if (changeListenerReconnectDelay <= 0)
+        {
+            throw new IllegalArgumentException("changeListenerReconnectDelay must be a positive integer");
+        }
+        this.changeListenerReconnectDelay = changeListenerReconnectDelay;
+    }
+
+    /**
+     * @param authorityFingerprintsEnabled
+     *            the authorityFingerprintsEnabled to set
+     */
+    public void setAuthorityFingerprintsEnabled(final boolean authorityFingerprintsEnabled)
+    {
+        this.authorityFingerprintsEnabled = authorityFingerprintsEnabled;
+    }
+
+    /**
+     * @param userAssociationChunkSize
+     *            the userAssociationChunkSize to set
+     */
+    public void setUserAssociationChunkSize(final int userAssociationChunkSize)
+    {
+        if (userAssociationChunkSize <= 0)
+        {
+            throw new IllegalArgumentException("userAssociationChunkSize must be a positive integer");
+        }
+        this.userAssociationChunkSize = userAssociationChunkSize;
+    }
+
+    /**
+     * @param workingStateMemoryBudgetMB
+     *            the workingStateMemoryBudgetMB to set - {@code 0} to keep all working state in memory
+     */
+    public void setWorkingStateMemoryBudgetMB(final int workingStateMemoryBudgetMB)
+    {
+        if (workingStateMemoryBudgetMB < 0)
+        {
+            throw new IllegalArgumentException("workingStateMemoryBudgetMB must not be negative");
+        }
+        this.workingStateMemoryBudgetMB = workingStateMemoryBudgetMB;
+    }
+
+    /**
+     * @param checkpointInterval
+     *            the checkpointInterval to set
+     */
+    public void setCheckpointInterval(final int checkpointInterval)
+    {
+        if (checkpointInterval <= 0)
+        {
+            throw new IllegalArgumentException("checkpointInterval must be a positive integer");
+        }
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @param prefetchBufferSize
+     *            the prefetchBufferSize to set - {@code 0} to disable prefetching of entries of the next user registry
+     */
+    public void setPrefetchBufferSize(final int prefetchBufferSize)
+    {
+        if (prefetchBufferSize < 0)
+        {
+            throw new IllegalArgumentException("prefetchBufferSize must not be negative");
+        }
+        this.prefetchBufferSize = prefetchBufferSize;
+    }
+
+    /**
+     * @param phaseThreads
+     *            the phaseThreads to set
+     */
+    public void setPhaseThreads(final int phaseThreads)
+    {
+        if (phaseThreads <= 0)
+        {
+            throw new IllegalArgumentException("phaseThreads must be a positive integer");
+        }
+        this.phaseThreads = phaseThreads;
+    }
+
+    /**
+     * @param prefetchThreads
+     *            the prefetchThreads to set
+     */
+    public void setPrefetchThreads(final int prefetchThreads)
+    {
+        if (prefetchThreads <= 0)
+        {
+            throw new IllegalArgumentException("prefetchThreads must be a positive integer");
+        }
+        this.prefetchThreads = prefetchThreads;
+    }
+
+    /**
+     * @param startupSyncThreads
+     *            the startupSyncThreads to set - {@code 0} to run startup synchronisations synchronously when the server is started / a
+     *            tenant is enabled
+     */
+    public void setStartupSyncThreads(final int startupSyncThreads)
+    {
+        if (startupSyncThreads < 0)
+        {
+            throw new IllegalArgumentException("startupSyncThreads must not be negative");
+        }
+        this.startupSyncThreads = startupSyncThreads;
+    }
+
+    /**
+     * @param startupSyncStagger
+     *            the startupSyncStagger to set
+     */
+    public void setStartupSyncStagger(final long startupSyncStagger)
+    {
+        if (startupSyncStagger < 0)
+        {
+            throw new IllegalArgumentException("startupSyncStagger must not be negative");
+        }
+        this.startupSyncStagger = startupSyncStagger;
+    }
+
+    /**
+     * @param distributedSyncPollInterval
+     *            the distributedSyncPollInterval to set
+     */
+    public void setDistributedSyncPollInterval(final long distributedSyncPollInterval)
+    {
+        if (distributedSyncPollInterval <= 0)
+        {
+            throw new IllegalArgumentException("distributedSyncPollInterval must be a positive integer");
+        }
+        this.distributedSyncPollInterval = distributedSyncPollInterval;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -835,18 +1198,18 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
         {
             // we only trigger the same sync for default tenant as default Alfresco does
             AuthenticationUtil.runAsSystem(() -> {
-                try
-                {
-                    this.synchronize(false, false, true);
-                }
-                catch (final RuntimeException e)
-                {
-                    LOGGER.warn("Failed startup synchronisation with user registries", e);
-                }
-
+                this.scheduleStartupSync();
                 return null;
             });
         }
+
+        AuthenticationUtil.runAsSystem(() -> {
+            this.startChangeMonitors();
+            return null;
+        });
+
+        this.distributedSyncScheduler.scheduleWithFixedDelay(this::joinDistributedRuns, this.distributedSyncPollInterval,
+                this.distributedSyncPollInterval, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -855,52 +1218,401 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
     @Override
     protected void onShutdown(final ApplicationEvent event)
     {
-        // NO-OP
+        this.changeMonitors.values().forEach(UserRegistryChangeMonitor::stop);
+        this.changeMonitors.clear();
+        this.changeListenerScheduler.shutdownNow();
+        this.distributedSyncScheduler.shutdownNow();
+        if (this.startupSyncScheduler != null)
+        {
+            this.startupSyncScheduler.shutdownNow();
+        }
+        this.pendingStartupSyncs.clear();
+        this.syncPhaseExecutor.shutdownNow();
+        this.syncPrefetchExecutor.shutdownNow();
+        this.syncExecutor.shutdownNow();
     }
 
-    protected boolean checkPluginIsActive(final UserRegistry plugin)
+    protected ExecutorService createBoundedExecutor(final int threads, final String namePrefix)
     {
-        final String currentDomain = TenantUtil.getCurrentDomain();
-        boolean active;
-        if (plugin instanceof TenantAwareUserRegistry)
+        final TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix(namePrefix);
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Schedules the startup synchronisation of the current tenant to be run in the background, so that neither the startup of the server
+     * nor the enabling of a tenant are blocked until a potentially long-running synchronisation completes. The number of startup
+     * synchronisations running concurrently is limited by the number of {@link #setStartupSyncThreads(int) threads} and their starts are
+     * {@link #setStartupSyncStagger(long) staggered} so that enabling many tenants at once does not overload the user registries.
+     */
+    protected void scheduleStartupSync()
+    {
+        final String tenantDomain = TenantUtil.getCurrentDomain();
+        if (this.startupSyncScheduler == null)
         {
-            active = ((TenantAwareUserRegistry) plugin).isActiveForTenant(currentDomain);
+            this.runStartupSync(tenantDomain);
         }
-        else if (TenantService.DEFAULT_DOMAIN.equals(currentDomain))
+        // tenants may be disabled and enabled again before their startup synchronisation has run
+        else if (this.pendingStartupSyncs.add(tenantDomain))
         {
-            if (plugin instanceof ActivateableBean)
-            {
-                active = ((ActivateableBean) plugin).isActive();
-            }
-            else
-            {
-                active = false;
-            }
+            final long now = System.currentTimeMillis();
+            final long startTime = Math.max(now,
+                    this.nextStartupSyncTime.getAndUpdate(nextTime -> Math.max(nextTime, now) + this.startupSyncStagger));
+            LOGGER.debug("Scheduling startup synchronisation with user registries in {} tenant to start in {} ms",
+                    TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? TenantUtil.DEFAULT_TENANT : tenantDomain, startTime - now);
+
+            this.startupSyncScheduler.schedule(() -> {
+                this.pendingStartupSyncs.remove(tenantDomain);
+                if (TenantService.DEFAULT_DOMAIN.equals(tenantDomain))
+                {
+                    AuthenticationUtil.runAsSystem(() -> {
+                        this.runStartupSync(tenantDomain);
+                        return null;
+                    });
+                }
+                else if (this.tenantAdminService.existsTenant(tenantDomain) && this.tenantAdminService.isEnabledTenant(tenantDomain))
+                {
+                    TenantUtil.runAsSystemTenant(() -> {
+                        this.runStartupSync(tenantDomain);
+                        return null;
+                    }, tenantDomain);
+                }
+                else
+                {
+                    LOGGER.debug("Skipping startup synchronisation with user registries in {} tenant as it is no longer enabled",
+                            tenantDomain);
+                }
+            }, startTime - now, TimeUnit.MILLISECONDS);
         }
         else
         {
-            active = false;
+            LOGGER.debug("Startup synchronisation with user registries in {} tenant is already pending",
+                    TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? TenantUtil.DEFAULT_TENANT : tenantDomain);
         }
-        return active;
     }
 
-    protected Date getMostRecentUpdateTime(final String label, final String zoneId, final boolean splitTxns)
+    protected void runStartupSync(final String tenantDomain)
     {
-        final Long result = this.inReadOnlyTransaction(() -> {
-            final Long updateTime = (Long) this.doGetAttribute(1, label, zoneId);
-            return updateTime;
-        }, splitTxns);
-
-        final Date time = result != null ? new Date(result.longValue()) : null;
-        return time;
+        try
+        {
+            this.synchronize(false, false, true);
+        }
+        catch (final RuntimeException e)
+        {
+            LOGGER.warn("Failed startup synchronisation with user registries in {} tenant",
+                    TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? TenantUtil.DEFAULT_TENANT : tenantDomain, e);
+        }
     }
 
-    protected void setMostRecentUpdateTime(final String label, final String zoneId, final long time, final boolean splitTxns)
+    /**
+     * Starts to listen for changes in all active user registries of the current tenant that support and have enabled
+     * {@link ChangeListeningUserRegistry listening for changes}.
+     */
+    protected void startChangeMonitors()
     {
-        this.inTransaction(() -> {
-            this.doSetAttribute(Long.valueOf(time), 1, label, zoneId);
-            return null;
-        }, splitTxns);
+        final String tenantDomain = TenantUtil.getCurrentDomain();
+        try
+        {
+            final Map<String, UserRegistry> plugins = this.getPluginsToSync();
+            for (final Entry<String, UserRegistry> pluginEntry : plugins.entrySet())
+            {
+                final String id = pluginEntry.getKey();
+                final UserRegistry plugin = pluginEntry.getValue();
+                if (plugin instanceof ChangeListeningUserRegistry && ((ChangeListeningUserRegistry) plugin).isChangeListenerEnabled())
+                {
+                    final UserRegistryChangeMonitor monitor = this.changeMonitors.computeIfAbsent(new Pair<>(tenantDomain, id),
+                            key -> new UserRegistryChangeMonitor(tenantDomain, id, (ChangeListeningUserRegistry) plugin,
+                                    (groups, persons) -> this.synchronizeChanges(id, groups, persons), this.changeListenerScheduler,
+                                    this.changeListenerThreadFactory, this.changeListenerBatchSize, this.changeListenerFlushDelay,
+                                    this.changeListenerReconnectDelay));
+                    monitor.start();
+                }
+            }
+        }
+        catch (final RuntimeException e)
+        {
+            LOGGER.warn("Failed to start listening for changes in user registries of tenant {}",
+                    TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? TenantUtil.DEFAULT_TENANT : tenantDomain, e);
+        }
+    }
+
+    /**
+     * Stops to listen for changes in any user registries of a specific tenant.
+     *
+     * @param tenantDomain
+     *            the tenant domain
+     */
+    protected void stopChangeMonitors(final String tenantDomain)
+    {
+        final Iterator<Entry<Pair<String, String>, UserRegistryChangeMonitor>> monitorIterator = this.changeMonitors.entrySet().iterator();
+        while (monitorIterator.hasNext())
+        {
+            final Entry<Pair<String, String>, UserRegistryChangeMonitor> monitorEntry = monitorIterator.next();
+            if (EqualsHelper.nullSafeEquals(tenantDomain, monitorEntry.getKey().getFirst()))
+            {
+                monitorEntry.getValue().stop();
+                monitorIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Synchronises a micro-batch of changed groups and persons reported by a {@link ChangeListeningUserRegistry user registry} of the
+     * current tenant. Deletions and most recent modification timestamps are not handled by this operation and remain the responsibility
+     * of regular synchronisations.
+     *
+     * @param id
+     *            the ID of the user registry
+     * @param groups
+     *            the changed groups
+     * @param persons
+     *            the changed persons
+     * @throws LockAcquisitionException
+     *             if a synchronisation is already running for the current tenant
+     */
+    protected void synchronizeChanges(final String id, final Collection<NodeDescription> groups, final Collection<NodeDescription> persons)
+    {
+        if (this.transactionService.isReadOnly())
+        {
+            LOGGER.debug("Unable to process changes from user registry {} - repository is read only", id);
+        }
+        else
+        {
+            final String tenantDomain = TenantUtil.getCurrentDomain();
+            final QName lockQName = LOCK_GRANULARITY_ZONE.equals(this.getLockGranularity()) ? this.getLockQNameForZone(id)
+                    : this.getLockQNameForCurrentTenant();
+            // don't wait for the lock - changes will be retried with the next micro-batch
+            final String lockToken = this.jobLockService.getLock(lockQName, LOCK_TTL);
+
+            final AtomicBoolean synchRunning = new AtomicBoolean(true);
+            try
+            {
+                this.jobLockService.refreshLock(lockToken, lockQName, LOCK_TTL, new JobLockRefreshCallback()
+                {
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public void lockReleased()
+                    {
+                        // NO-OP
+                    }
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public boolean isActive()
+                    {
+                        return synchRunning.get();
+                    }
+                });
+
+                final Map<String, UserRegistry> plugins = this.getPluginsToSync();
+                final UserRegistry userRegistry = plugins.get(id);
+                if (userRegistry != null)
+                {
+                    // user registries with higher priority are treated as already visited, just as in a regular synchronisation
+                    final Set<String> visitedIds = new TreeSet<>();
+                    for (final String pluginId : plugins.keySet())
+                    {
+                        if (pluginId.equals(id))
+                        {
+                            break;
+                        }
+                        visitedIds.add(pluginId);
+                    }
+
+                    final String batchId = TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? id : this.tenantService.getName(id);
+                    LOGGER.info("Synchronizing {} changed groups and {} changed users from user registry {} in tenant {}",
+                            groups.size(), persons.size(), id,
+                            TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? TenantUtil.DEFAULT_TENANT : tenantDomain);
+
+                    // fingerprints are not loaded as changed entries need to be processed anyway, but need to be kept up-to-date
+                    final AuthorityFingerprintStore fingerprintStore = this.createFingerprintStore(id);
+                    final Analyzer groupAnalyzer = this.createAnalyzer(id, visitedIds, plugins.keySet(), fingerprintStore);
+                    final PersonWorker userWorker = this.createPersonWorker(id, visitedIds, plugins.keySet(),
+                            this.getUserAccountInterpreter(id, userRegistry), fingerprintStore);
+                    this.processRegistryEntries(id, batchId, groupAnalyzer, () -> groups, userWorker, () -> persons, fingerprintStore,
+                            null, null, 0, true);
+                }
+                else
+                {
+                    LOGGER.debug("User registry {} is no longer active - ignoring changes", id);
+                }
+            }
+            finally
+            {
+                synchRunning.set(false);
+                this.jobLockService.releaseLock(lockToken, lockQName);
+            }
+        }
+    }
+
+    protected boolean checkPluginIsActive(final UserRegistry plugin)
+    {
+        final String currentDomain = TenantUtil.getCurrentDomain();
+        boolean active;
+        if (plugin instanceof TenantAwareUserRegistry)
+        {
+            active = ((TenantAwareUserRegistry) plugin).isActiveForTenant(currentDomain);
+        }
+        else if (TenantService.DEFAULT_DOMAIN.equals(currentDomain))
+        {
+            if (plugin instanceof ActivateableBean)
+            {
+                active = ((ActivateableBean) plugin).isActive();
+            }
+            else
+            {
+                active = false;
+            }
+        }
+        else
+        {
+            active = false;
+        }
+        return active;
+    }
+
+    protected String getValidChangeMarker(final String zoneId, final ChangeTrackingUserRegistry changeTrackingUserRegistry,
+            final boolean forceUpdate, final boolean splitTxns)
+    {
+        String changeMarker = null;
+        if (!forceUpdate && changeTrackingUserRegistry != null)
+        {
+            final String lastChangeMarker = this.inReadOnlyTransaction(() -> {
+                final String marker = (String) this.doGetAttribute(1, CHANGE_MARKER_ATTRIBUTE, zoneId);
+                return marker;
+            }, splitTxns);
+
+            if (lastChangeMarker != null)
+            {
+                if (changeTrackingUserRegistry.isChangeMarkerValid(lastChangeMarker))
+                {
+                    changeMarker = lastChangeMarker;
+                }
+                else
+                {
+                    LOGGER.info("Change marker {} of user registry {} is no longer valid - falling back to modification timestamps",
+                            lastChangeMarker, zoneId);
+                }
+            }
+        }
+        return changeMarker;
+    }
+
+    protected UserRegistryRetrieval createRetrieval(final String id, final UserRegistry userRegistry, final boolean forceUpdate,
+            final boolean splitTxns)
+    {
+        final Date groupLastModified = forceUpdate ? null : this.getMostRecentUpdateTime(GROUP_LAST_MODIFIED_ATTRIBUTE, id, splitTxns);
+        final Date personLastModified = forceUpdate ? null : this.getMostRecentUpdateTime(PERSON_LAST_MODIFIED_ATTRIBUTE, id, splitTxns);
+
+        final ChangeTrackingUserRegistry changeTrackingUserRegistry = this.getChangeTrackingUserRegistry(userRegistry);
+        // current marker needs to be determined before any retrieval so concurrent changes are picked up by next sync
+        final String newChangeMarker = changeTrackingUserRegistry != null ? changeTrackingUserRegistry.getCurrentChangeMarker() : null;
+        final String changeMarker = this.getValidChangeMarker(id, changeTrackingUserRegistry, forceUpdate, splitTxns);
+
+        return new UserRegistryRetrieval(id, userRegistry, changeTrackingUserRegistry, groupLastModified, personLastModified,
+                changeMarker, newChangeMarker);
+    }
+
+    protected ChangeTrackingUserRegistry getChangeTrackingUserRegistry(final UserRegistry userRegistry)
+    {
+        return userRegistry instanceof ChangeTrackingUserRegistry && ((ChangeTrackingUserRegistry) userRegistry).isChangeTrackingEnabled()
+                ? (ChangeTrackingUserRegistry) userRegistry : null;
+    }
+
+    /**
+     * Starts retrieving the entries of a user registry in the background while the previous user registry in the chain is being
+     * processed. Retrieval only depends on the state recorded for the user registry itself, so the precedence of user registries is not
+     * affected as long as the entries are only processed after the previous user registry has been completed.
+     *
+     * @param id
+     *            the ID of the user registry
+     * @param userRegistry
+     *            the user registry
+     * @param forceUpdate
+     *            {@code true} if all entries should be retrieved from the user registry
+     * @param splitTxns
+     *            {@code true} if processing is split into multiple transactions
+     * @return the retrieval with prefetching started, or {@code null} if the retrieval could not be prepared
+     */
+    protected UserRegistryRetrieval prefetchRetrieval(final String id, final UserRegistry userRegistry, final boolean forceUpdate,
+            final boolean splitTxns)
+    {
+        UserRegistryRetrieval retrieval;
+        try
+        {
+            retrieval = this.createRetrieval(id, userRegistry, forceUpdate, splitTxns);
+            retrieval.prefetch(this.syncPrefetchExecutor, this.prefetchBufferSize);
+        }
+        catch (final RuntimeException e)
+        {
+            // must not affect the user registry currently being processed - retrieval is prepared again when its turn comes
+            LOGGER.debug("Failed to prefetch entries of user registry {}", id, e);
+            retrieval = null;
+        }
+        return retrieval;
+    }
+
+    protected void setChangeMarker(final String zoneId, final String changeMarker, final boolean splitTxns)
+    {
+        this.inTransaction(() -> {
+            this.doSetAttribute(changeMarker, 1, CHANGE_MARKER_ATTRIBUTE, zoneId);
+            return null;
+        }, splitTxns);
+    }
+
+    protected boolean isAuthorityInZone(final String authorityName, final String zoneId)
+    {
+        boolean inZone = false;
+        if (this.authorityService.authorityExists(authorityName))
+        {
+            final Set<String> zones = this.authorityService.getAuthorityZones(authorityName);
+            inZone = zones != null && zones.contains(zoneId);
+        }
+        return inZone;
+    }
+
+    protected String asDomainUser(final String userName, final String tenantDomain)
+    {
+        final String domainUser;
+        final String primaryDomain = this.tenantService.getPrimaryDomain(userName);
+        if (!EqualsHelper.nullSafeEquals(primaryDomain, tenantDomain))
+        {
+            domainUser = this.tenantService.getDomainUser(userName, tenantDomain);
+        }
+        else
+        {
+            domainUser = userName;
+        }
+        return domainUser;
+    }
+
+    protected Date getMostRecentUpdateTime(final String label, final String zoneId, final boolean splitTxns)
+    {
+        final Long result = this.inReadOnlyTransaction(() -> {
+            final Long updateTime = (Long) this.doGetAttribute(1, label, zoneId);
+            return updateTime;
+        }, splitTxns);
+
+        final Date time = result != null ? new Date(result.longValue()) : null;
+        return time;
+    }
+
+    protected void setMostRecentUpdateTime(final String label, final String zoneId, final long time, final boolean splitTxns)
+    {
+        this.inTransaction(() -> {
+            this.doSetAttribute(Long.valueOf(time), 1, label, zoneId);
+            return null;
+        }, splitTxns);
     }
 
     protected <T> T inReadOnlyTransaction(final RetryingTransactionCallback<T> cb, final boolean splitTxn)
@@ -948,6 +1660,28 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
                 allowDeletions ? "" : "not ",
                 TenantService.DEFAULT_DOMAIN.equals(currentDomain) ? TenantUtil.DEFAULT_TENANT : currentDomain);
 
+        // only full retrievals can be resumed, so only these are limited by the time budget
+        final String tenantKey = TenantService.DEFAULT_DOMAIN.equals(currentDomain) ? TenantUtil.DEFAULT_TENANT : currentDomain;
+        final Integer timeBudgetMinutes = this.syncTimeBudgetMinutes != null ? this.syncTimeBudgetMinutes.get(tenantKey) : null;
+        final long deadline = forceUpdate && splitTxns && timeBudgetMinutes != null && timeBudgetMinutes.intValue() > 0
+                ? System.currentTimeMillis() + timeBudgetMinutes.intValue() * 60000L
+                : -1;
+
+        if (LOCK_GRANULARITY_ZONE.equals(this.getLockGranularity()))
+        {
+            this.synchronizeByZone(forceUpdate, isFullSync, splitTxns, deadline);
+        }
+        else
+        {
+            this.synchronizeByTenant(forceUpdate, isFullSync, splitTxns, deadline);
+        }
+    }
+
+    protected void synchronizeByTenant(final boolean forceUpdate, final boolean isFullSync, final boolean splitTxns, final long deadline)
+    {
+        final String currentDomain = TenantUtil.getCurrentDomain();
+        final String tenantKey = TenantService.DEFAULT_DOMAIN.equals(currentDomain) ? TenantUtil.DEFAULT_TENANT : currentDomain;
+
         final QName lockQName = this.getLockQNameForCurrentTenant();
         String lockToken;
         try
@@ -991,34 +1725,74 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
                 });
 
                 final Map<String, UserRegistry> plugins = this.getPluginsToSync();
+                final List<Entry<String, UserRegistry>> pluginEntries = new ArrayList<>(plugins.entrySet());
                 final Set<String> visitedIds = new TreeSet<>();
                 this.notifySyncStart(plugins.keySet());
 
-                for (final Entry<String, UserRegistry> pluginEntry : plugins.entrySet())
+                UserRegistryRetrieval nextRetrieval = null;
+                try
                 {
-                    final String id = pluginEntry.getKey();
-                    final UserRegistry plugin = pluginEntry.getValue();
-
-                    if (LOGGER.isDebugEnabled() && this.mbeanServer != null)
+                    for (int idx = 0; idx < pluginEntries.size(); idx++)
                     {
-                        this.logPluginConfig(id);
+                        final String id = pluginEntries.get(idx).getKey();
+                        final UserRegistry plugin = pluginEntries.get(idx).getValue();
+
+                        if (LOGGER.isDebugEnabled() && this.mbeanServer != null)
+                        {
+                            this.logPluginConfig(id);
+                        }
+
+                        LOGGER.info("Synchronizing users and groups with user registry {} in tenant {}", id,
+                                TenantService.DEFAULT_DOMAIN.equals(currentDomain) ? "-default-" : currentDomain);
+                        if (isFullSync)
+                        {
+                            LOGGER.info(
+                                    "Full synchronisation with user registry {} in tenant {} - deletions enabled: {} (if true, some users and groups previously created by synchronization with this user registry may be removed, otherwise users / groups removed from this registry will be logged only and remain in the repository while users previously found in a different registry will be moved in the repository rather than recreated)",
+                                    id, TenantService.DEFAULT_DOMAIN.equals(currentDomain) ? "-default-" : currentDomain,
+                                    this.allowDeletions);
+                        }
+
+                        final boolean requiresNew = splitTxns
+                                || AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_READ_ONLY;
+
+                        final UserRegistryRetrieval retrieval = nextRetrieval;
+                        nextRetrieval = null;
+                        if (requiresNew && this.prefetchBufferSize > 0 && idx + 1 < pluginEntries.size())
+                        {
+                            nextRetrieval = this.prefetchRetrieval(pluginEntries.get(idx + 1).getKey(),
+                                    pluginEntries.get(idx + 1).getValue(), forceUpdate, requiresNew);
+                        }
+
+                        final boolean completed;
+                        try
+                        {
+                            completed = this.syncWithPlugin(id, plugin, forceUpdate, isFullSync, requiresNew, visitedIds,
+                                    plugins.keySet(), deadline, retrieval);
+                        }
+                        finally
+                        {
+                            if (retrieval != null)
+                            {
+                                retrieval.close();
+                            }
+                        }
+
+                        this.applicationEventPublisher.publishEvent(new SynchronizeDirectoryEndEvent(this, id));
+
+                        if (!completed || (deadline > 0 && System.currentTimeMillis() >= deadline))
+                        {
+                            LOGGER.info("Time budget for synchronisation in tenant {} has been exhausted - resuming with next run",
+                                    tenantKey);
+                            break;
+                        }
                     }
-
-                    LOGGER.info("Synchronizing users and groups with user registry {} in tenant {}", id,
-                            TenantService.DEFAULT_DOMAIN.equals(currentDomain) ? "-default-" : currentDomain);
-                    if (isFullSync)
+                }
+                finally
+                {
+                    if (nextRetrieval != null)
                     {
-                        LOGGER.info(
-                                "Full synchronisation with user registry {} in tenant {} - deletions enabled: {} (if true, some users and groups previously created by synchronization with this user registry may be removed, otherwise users / groups removed from this registry will be logged only and remain in the repository while users previously found in a different registry will be moved in the repository rather than recreated)",
-                                id, TenantService.DEFAULT_DOMAIN.equals(currentDomain) ? "-default-" : currentDomain, this.allowDeletions);
+                        nextRetrieval.close();
                     }
-
-                    final boolean requiresNew = splitTxns
-                            || AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_READ_ONLY;
-
-                    this.syncWithPlugin(id, plugin, forceUpdate, isFullSync, requiresNew, visitedIds, plugins.keySet());
-
-                    this.applicationEventPublisher.publishEvent(new SynchronizeDirectoryEndEvent(this, id));
                 }
 
                 this.notifySyncEnd();
@@ -1037,136 +1811,829 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
         }
     }
 
-    protected void syncWithPlugin(final String id, final UserRegistry userRegistry, final boolean forceUpdate, final boolean isFullSync,
-            final boolean splitTxns, final Set<String> visitedIds, final Set<String> allIds)
+    /**
+     * Synchronises the user registries of the current tenant with a separate lock for each user registry instead of a single lock for the
+     * tenant, so that different cluster nodes can synchronise different user registries of the same tenant concurrently. Each user
+     * registry treats all user registries with a higher priority in the chain as visited - just as the synchronisation of pushed changes
+     * does - so that the precedence of user registries for authorities contained in multiple registries does not depend on the order in
+     * which the registries are processed.
+     *
+     * @param forceUpdate
+     *            {@code true} if all entries should be retrieved from the user registries
+     * @param isFullSync
+     *            {@code true} if deletions should be determined by comparing all entries
+     * @param splitTxns
+     *            {@code true} if processing should be split into multiple transactions
+     * @param deadline
+     *            the time (in milliseconds since the epoch) after which synchronisation should be interrupted, or a non-positive value
+     */
+    protected void synchronizeByZone(final boolean forceUpdate, final boolean isFullSync, final boolean splitTxns, final long deadline)
+    {
+        final String currentDomain = TenantUtil.getCurrentDomain();
+        final String tenantKey = TenantService.DEFAULT_DOMAIN.equals(currentDomain) ? TenantUtil.DEFAULT_TENANT : currentDomain;
+        // user registries completed by another node after this run has started do not need to be synchronised again
+        final long runStartTime = System.currentTimeMillis();
+
+        final Map<String, UserRegistry> plugins = this.getPluginsToSync();
+        this.notifySyncStart(plugins.keySet());
+        try
+        {
+            final Set<String> higherPriorityIds = new TreeSet<>();
+            for (final Entry<String, UserRegistry> pluginEntry : plugins.entrySet())
+            {
+                if (deadline > 0 && System.currentTimeMillis() >= deadline)
+                {
+                    LOGGER.info("Time budget for synchronisation in tenant {} has been exhausted - resuming with next run", tenantKey);
+                    break;
+                }
+
+                final String id = pluginEntry.getKey();
+                final UserRegistry plugin = pluginEntry.getValue();
+                final Set<String> visitedIds = new TreeSet<>(higherPriorityIds);
+                higherPriorityIds.add(id);
+
+                final boolean locked = this.doWithSyncLock(this.getLockQNameForZone(id), splitTxns, () -> {
+                    final Long zoneEndTime = this.inReadOnlyTransaction(() -> (Long) this.doGetAttribute(0, ZONE_END_TIME_ATTRIBUTE, id),
+                            splitTxns);
+                    if (zoneEndTime != null && zoneEndTime.longValue() >= runStartTime)
+                    {
+                        LOGGER.debug("User registry {} in tenant {} has already been synchronised by another cluster node", id, tenantKey);
+                    }
+                    else
+                    {
+                        if (LOGGER.isDebugEnabled() && this.mbeanServer != null)
+                        {
+                            this.logPluginConfig(id);
+                        }
+
+                        LOGGER.info("Synchronizing users and groups with user registry {} in tenant {}", id, tenantKey);
+                        final boolean requiresNew = splitTxns
+                                || AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_READ_ONLY;
+                        this.syncWithPlugin(id, plugin, forceUpdate, isFullSync, requiresNew, visitedIds, plugins.keySet(), deadline,
+                                null);
+
+                        this.applicationEventPublisher.publishEvent(new SynchronizeDirectoryEndEvent(this, id));
+                    }
+                });
+
+                if (!locked)
+                {
+                    LOGGER.info("User registry {} in tenant {} is already being synchronised by another thread / cluster node - skipping",
+                            id, tenantKey);
+                }
+            }
+
+            this.notifySyncEnd();
+        }
+        catch (final RuntimeException re)
+        {
+            this.notifySyncEnd(re);
+            LOGGER.error("Synchronization aborted due to error", re);
+            throw re;
+        }
+    }
+
+    protected boolean doWithSyncLock(final QName lockQName, final boolean splitTxns, final Runnable work)
+    {
+        String lockToken;
+        try
+        {
+            // same wait semantics as for the lock of the tenant
+            lockToken = this.jobLockService.getLock(lockQName, LOCK_TTL, splitTxns ? 0 : LOCK_TTL, splitTxns ? 1 : 10);
+        }
+        catch (final LockAcquisitionException laex)
+        {
+            lockToken = null;
+        }
+
+        if (lockToken != null)
+        {
+            final AtomicBoolean synchRunning = new AtomicBoolean(true);
+            try
+            {
+                this.jobLockService.refreshLock(lockToken, lockQName, LOCK_TTL, new JobLockRefreshCallback()
+                {
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public void lockReleased()
+                    {
+                        // NO-OP
+                    }
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public boolean isActive()
+                    {
+                        return synchRunning.get();
+                    }
+                });
+
+                work.run();
+            }
+            finally
+            {
+                synchRunning.set(false);
+                this.jobLockService.releaseLock(lockToken, lockQName);
+            }
+        }
+        return lockToken != null;
+    }
+
+    protected boolean syncWithPlugin(final String id, final UserRegistry userRegistry, final boolean forceUpdate, final boolean isFullSync,
+            final boolean splitTxns, final Set<String> visitedIds, final Set<String> allIds, final long deadline,
+            final UserRegistryRetrieval prefetchedRetrieval)
+    {
+        final String tenantDomain = TenantUtil.getCurrentDomain();
+        final String batchId;
+        final String technicalTenantIdentifier;
+        if (TenantService.DEFAULT_DOMAIN.equals(tenantDomain))
+        {
+            batchId = id;
+            technicalTenantIdentifier = TenantUtil.DEFAULT_TENANT;
+        }
+        else
+        {
+            batchId = this.tenantService.getName(id);
+            technicalTenantIdentifier = tenantDomain;
+        }
+
+        final String reservedBatchProcessNames[] = { SyncProcess.GROUP_ANALYSIS.getTitle(batchId),
+                SyncProcess.USER_UPDATE_AND_CREATION.getTitle(batchId),
+                SyncProcess.GROUP_CREATION_AND_ASSOCIATION_DELETION.getTitle(batchId),
+                SyncProcess.GROUP_ASSOCIATION_CREATION.getTitle(batchId), SyncProcess.USER_ASSOCIATION.getTitle(batchId),
+                SyncProcess.AUTHORITY_DELETION.getTitle(batchId) };
+
+        this.notifySyncDirectoryStart(id, reservedBatchProcessNames);
+        this.failedEntriesByBatchId.put(batchId, new ConcurrentHashMap<>());
+        // a prefetched retrieval is closed by the caller
+        UserRegistryRetrieval createdRetrieval = null;
+        try
+        {
+            final UserRegistryRetrieval retrieval;
+            if (prefetchedRetrieval != null)
+            {
+                retrieval = prefetchedRetrieval;
+            }
+            else
+            {
+                createdRetrieval = this.createRetrieval(id, userRegistry, forceUpdate, splitTxns);
+                retrieval = createdRetrieval;
+            }
+            final String newChangeMarker = retrieval.getNewChangeMarker();
+            final String changeMarker = retrieval.getChangeMarker();
+
+            final AuthorityFingerprintStore fingerprintStore = this.createFingerprintStore(id);
+            if (fingerprintStore != null && forceUpdate)
+            {
+                // only a full retrieval of all entries benefits from skipping unchanged entries
+                this.inReadOnlyTransaction(() -> {
+                    fingerprintStore.load();
+                    return null;
+                }, splitTxns);
+            }
+
+            // only a full retrieval of persons can be partitioned across the servers of a cluster
+            final DistributedSyncRun distributedRun = forceUpdate && splitTxns
+                    ? this.createDistributedRun(id, visitedIds, allIds, retrieval.getPersonLastModified(), changeMarker) : null;
+
+            // only a full retrieval of persons has a stable sequence of entries that can be resumed
+            final SyncCheckpoint checkpoint = forceUpdate && splitTxns ? this.createCheckpoint(id, deadline) : null;
+            if (checkpoint != null && distributedRun != null)
+            {
+                // a distributed run tracks progress per partition, so any progress of a previous run cannot be resumed
+                checkpoint.clear();
+            }
+            else if (checkpoint != null && checkpoint.load())
+            {
+                LOGGER.info("Resuming interrupted synchronisation with user registry {} of tenant {}", id, technicalTenantIdentifier);
+            }
+
+            final Analyzer groupAnalyzer = this.createAnalyzer(id, visitedIds, allIds, fingerprintStore);
+            final PersonWorker userWorker = this.createPersonWorker(id, visitedIds, allIds,
+                    this.getUserAccountInterpreter(id, userRegistry), fingerprintStore);
+
+            final Pair<Integer, Integer> processedCounts = this.processRegistryEntries(id, batchId, groupAnalyzer, () -> {
+                this.logRetrieval("groups", id, technicalTenantIdentifier, changeMarker, retrieval.getGroupLastModified());
+                return retrieval.getGroups();
+            }, userWorker, () -> {
+                this.logRetrieval("users", id, technicalTenantIdentifier, changeMarker, retrieval.getPersonLastModified());
+                final Collection<NodeDescription> persons = retrieval.getPersons();
+                return checkpoint != null && distributedRun == null ? checkpoint.skipCommittedEntries(persons) : persons;
+            }, fingerprintStore, distributedRun == null ? checkpoint : null, distributedRun, deadline, splitTxns);
+            int userProcessedCount = processedCounts.getFirst().intValue();
+            int groupProcessedCount = processedCounts.getSecond().intValue();
+
+            if (checkpoint != null && checkpoint.isPhaseInterrupted())
+            {
+                // neither modification timestamps nor deletions may be recorded until all entries have been processed
+                final Object statusParams[] = { Integer.valueOf(userProcessedCount), Integer.valueOf(groupProcessedCount) };
+                final String statusMessage = I18NUtil.getMessage("synchronization.summary.status", statusParams);
+                LOGGER.info("Interrupted synchronizing users and groups with user registry {} of tenant {} due to exhausted time budget",
+                        id, technicalTenantIdentifier);
+                LOGGER.info(statusMessage);
+
+                this.notifySyncDirectoryEnd(id, statusMessage);
+                return false;
+            }
+
+            final long newLatestGroupModified = groupAnalyzer.getLatestModified();
+            if (newLatestGroupModified > 0)
+            {
+                this.setMostRecentUpdateTime(GROUP_LAST_MODIFIED_ATTRIBUTE, id, newLatestGroupModified, splitTxns);
+            }
+
+            final long newLatestUserModified = Math.max(userWorker.getLatestModified(),
+                    distributedRun != null ? distributedRun.getLatestModified() : -1);
+            if (newLatestUserModified > 0)
+            {
+                this.setMostRecentUpdateTime(PERSON_LAST_MODIFIED_ATTRIBUTE, id, newLatestUserModified, splitTxns);
+            }
+
+            final Pair<Integer, Integer> deletionCounts = this.processAuthorityDeletions(id, batchId, userRegistry, isFullSync,
+                    changeMarker, fingerprintStore, splitTxns);
+
+            if (newChangeMarker != null)
+            {
+                this.setChangeMarker(id, newChangeMarker, splitTxns);
+            }
+            userProcessedCount += deletionCounts.getFirst().intValue();
+            groupProcessedCount += deletionCounts.getSecond().intValue();
+
+            if (checkpoint != null)
+            {
+                checkpoint.clear();
+            }
+
+            visitedIds.add(id);
+
+            final Object statusParams[] = { Integer.valueOf(userProcessedCount), Integer.valueOf(groupProcessedCount) };
+            final String statusMessage = I18NUtil.getMessage("synchronization.summary.status", statusParams);
+
+            LOGGER.info("Finished synchronizing users and groups with user registry {} of tenant {}", id, technicalTenantIdentifier);
+            LOGGER.info(statusMessage);
+
+            this.notifySyncDirectoryEnd(id, statusMessage);
+            return true;
+        }
+        catch (final RuntimeException e)
+        {
+            this.notifySyncDirectoryEnd(id, e);
+            throw e;
+        }
+        finally
+        {
+            if (createdRetrieval != null)
+            {
+                createdRetrieval.close();
+            }
+            this.storeFailedEntries(id, batchId);
+        }
+    }
+
+    /**
+     * Processes groups and persons retrieved from a user registry, creating / updating them in the repository and synchronising their
+     * associations.
+     *
+     * @param id
+     *            the ID of the user registry
+     * @param batchId
+     *            the base ID for batch processes
+     * @param groupAnalyzer
+     *            the analyzer for groups
+     * @param groupSupplier
+     *            the supplier of the groups to process
+     * @param userWorker
+     *            the worker for persons
+     * @param personSupplier
+     *            the supplier of the persons to process - may be called concurrently with processing of groups
+     * @param fingerprintStore
+     *            the store for fingerprints of processed authorities - may be {@code null}
+     * @param checkpoint
+     *            the checkpoint to track the progress of processing persons - may be {@code null}
+     * @param distributedRun
+     *            the run in which to distribute processing of persons and their memberships across the servers of the cluster - may be
+     *            {@code null}
+     * @param deadline
+     *            the time (in milliseconds since the epoch) by which distributed processing needs to be completed, or a non-positive value
+     *            if processing should not be limited
+     * @param splitTxns
+     *            {@code true} if processing should be split into multiple transactions
+     * @return the pair of the number of processed persons and groups
+     */
+    protected Pair<Integer, Integer> processRegistryEntries(final String id, final String batchId, final Analyzer groupAnalyzer,
+            final Supplier<Collection<NodeDescription>> groupSupplier, final PersonWorker userWorker,
+            final Supplier<Collection<NodeDescription>> personSupplier, final AuthorityFingerprintStore fingerprintStore,
+            final SyncCheckpoint checkpoint, final DistributedSyncRun distributedRun, final long deadline, final boolean splitTxns)
+    {
+        final AtomicInteger groupProcessedCount = new AtomicInteger(0);
+        final AtomicInteger userProcessedCount = new AtomicInteger(0);
+        final AtomicInteger errors = new AtomicInteger(0);
+
+        // creation / update of users does not depend on any of the group phases and can overlap with them
+        final SyncPhaseScheduler scheduler = new SyncPhaseScheduler(this.syncPhaseExecutor);
+        scheduler.addPhase(SyncProcess.GROUP_ANALYSIS.name(), () -> {
+            final SyncBatchProcessor<NodeDescription> groupAnalysisProcessor = this.createBatchProcessor(SyncProcess.GROUP_ANALYSIS,
+                    batchId, new UserRegistryNodeCollectionWorkProvider(groupSupplier.get()));
+            groupProcessedCount.set(groupAnalysisProcessor.process(groupAnalyzer, splitTxns));
+            errors.addAndGet(groupAnalysisProcessor.getTotalErrors());
+        });
+        scheduler.addPhase(SyncProcess.GROUP_CREATION_AND_ASSOCIATION_DELETION.name(), () -> {
+            errors.addAndGet(this.processGroupCreationAndAssociationDeletion(id, batchId, groupAnalyzer, splitTxns));
+        }, SyncProcess.GROUP_ANALYSIS.name());
+        scheduler.addPhase(SyncProcess.GROUP_ASSOCIATION_CREATION.name(), () -> {
+            errors.addAndGet(this.processGroupAssociationCreation(batchId, groupAnalyzer, splitTxns));
+        }, SyncProcess.GROUP_CREATION_AND_ASSOCIATION_DELETION.name());
+        scheduler.addPhase(SyncProcess.USER_UPDATE_AND_CREATION.name(), () -> {
+            if (distributedRun != null)
+            {
+                this.processDistributedRun(distributedRun, partitions -> this.processDistributedPersons(batchId, distributedRun, userWorker,
+                        personSupplier, partitions, deadline), deadline);
+                userProcessedCount.set(distributedRun.getProcessedCount());
+                errors.addAndGet(distributedRun.getErrors());
+            }
+            else
+            {
+                final SyncBatchProcessor<NodeDescription> userProcessor = this
+                        .createBatchProcessor(SyncProcess.USER_UPDATE_AND_CREATION, batchId,
+                                new UserRegistryNodeCollectionWorkProvider(personSupplier.get()));
+                if (checkpoint != null)
+                {
+                    userProcessor.setCheckpointListener(checkpoint::onEntriesCommitted);
+                    userProcessor.setDeadline(checkpoint.getDeadline());
+                }
+                userProcessedCount.set(userProcessor.process(userWorker, splitTxns));
+                errors.addAndGet(userProcessor.getTotalErrors());
+
+                if (checkpoint != null && userProcessor.isDeadlineReached())
+                {
+                    checkpoint.markPhaseInterrupted();
+                }
+                else if (checkpoint != null)
+                {
+                    checkpoint.markPhaseCompleted();
+                }
+            }
+        });
+        scheduler.addPhase(SyncProcess.USER_ASSOCIATION.name(), () -> {
+            // memberships of users not yet processed are planned again by the analysis of the resumed run
+            if (distributedRun != null)
+            {
+                errors.addAndGet(this.processDistributedUserAssociation(batchId, groupAnalyzer, distributedRun, deadline));
+            }
+            else if (checkpoint == null || !checkpoint.isPhaseInterrupted())
+            {
+                errors.addAndGet(this.processUserAssociation(batchId, groupAnalyzer, splitTxns));
+            }
+        }, SyncProcess.GROUP_ASSOCIATION_CREATION.name(), SyncProcess.USER_UPDATE_AND_CREATION.name());
+        try
+        {
+            scheduler.execute(splitTxns);
+        }
+        finally
+        {
+            groupAnalyzer.releaseWorkingState();
+        }
+
+        if (fingerprintStore != null && checkpoint != null && checkpoint.isPhaseInterrupted())
+        {
+            // group fingerprints would prevent the resumed run from planning the memberships that have been skipped
+            fingerprintStore.discardDeferredFingerprints();
+        }
+        else if (fingerprintStore != null)
+        {
+            this.storeGroupFingerprints(id, fingerprintStore, errors.get(), splitTxns);
+        }
+
+        return new Pair<>(Integer.valueOf(userProcessedCount.get()), Integer.valueOf(groupProcessedCount.get()));
+    }
+
+    /**
+     * Processes a phase of the synchronisation of a user registry distributed across the servers of the cluster, publishing the run so
+     * other servers can join it and processing partitions on this server until all partitions have been completed. Partitions claimed by a
+     * server which fails are reclaimed by any server once the lock of the partition has expired.
+     *
+     * @param distributedRun
+     *            the run in which to distribute processing
+     * @param partitionProcessor
+     *            the processor for partitions claimed by this server - needs to record any partitions it completes
+     * @param deadline
+     *            the time (in milliseconds since the epoch) after which the run fails if partitions have not been completed, or a
+     *            non-positive value if waiting for partitions should not be limited
+     */
+    protected void processDistributedRun(final DistributedSyncRun distributedRun, final Consumer<List<Integer>> partitionProcessor,
+            final long deadline)
+    {
+        this.localDistributedRunIds.add(distributedRun.getRunId());
+        try
+        {
+            distributedRun.publish();
+            LOGGER.info("Distributing synchronisation of {} of user registry {} across {} partitions", distributedRun.getKind(),
+                    distributedRun.getId(), distributedRun.getPartitions());
+
+            boolean completed = false;
+            while (!completed)
+            {
+                this.processDistributedPartitions(distributedRun, partitionProcessor, deadline);
+
+                completed = distributedRun.aggregateResults();
+                if (!completed)
+                {
+                    final long remainingTime = deadline > 0 ? deadline - System.currentTimeMillis() : this.distributedSyncPollInterval;
+                    if (remainingTime <= 0)
+                    {
+                        throw new AlfrescoRuntimeException("Distributed synchronisation of " + distributedRun.getKind()
+                                + " of user registry " + distributedRun.getId() + " has not been completed within the time budget - "
+                                + distributedRun.getIncompletePartitions().size() + " partitions remain incomplete");
+                    }
+
+                    // remaining partitions are being processed by other servers or still locked by a server that failed
+                    try
+                    {
+                        Thread.sleep(Math.min(remainingTime, this.distributedSyncPollInterval));
+                    }
+                    catch (final InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new AlfrescoRuntimeException("Interrupted while waiting for partitions of distributed synchronisation", e);
+                    }
+                }
+            }
+
+            LOGGER.info("Completed distributed synchronisation of {} of user registry {} with {} processed entries",
+                    distributedRun.getKind(), distributedRun.getId(), distributedRun.getProcessedCount());
+        }
+        finally
+        {
+            this.localDistributedRunIds.remove(distributedRun.getRunId());
+            distributedRun.clear();
+        }
+    }
+
+    /**
+     * Processes partitions of a distributed run which have not yet been completed and can be claimed by this server. Partitions are claimed
+     * in shares sized to spread them evenly across the live servers of the cluster, and all partitions of a share are processed together,
+     * so that e.g. persons only need to be retrieved from the user registry once per share.
+     *
+     * @param distributedRun
+     *            the run in which processing is distributed
+     * @param partitionProcessor
+     *            the processor for partitions claimed by this server
+     * @param deadline
+     *            the time (in milliseconds since the epoch) after which no further partitions should be claimed, or a non-positive value if
+     *            claiming partitions should not be limited
+     */
+    protected void processDistributedPartitions(final DistributedSyncRun distributedRun, final Consumer<List<Integer>> partitionProcessor,
+            final long deadline)
+    {
+        final int shareSize = this.getDistributedShareSize(distributedRun);
+        boolean claimed = true;
+        while (claimed && (deadline <= 0 || System.currentTimeMillis() < deadline))
+        {
+            final List<Integer> claimedPartitions = new ArrayList<>();
+            this.claimDistributedPartitions(distributedRun, distributedRun.getIncompletePartitions().iterator(), shareSize,
+                    claimedPartitions, () -> partitionProcessor.accept(claimedPartitions));
+            claimed = !claimedPartitions.isEmpty();
+        }
+    }
+
+    /**
+     * Claims partitions of a distributed run by acquiring their locks in nested scopes, running the work for the claimed partitions within
+     * the innermost scope so that the locks of all claimed partitions are held while they are processed.
+     *
+     * @param distributedRun
+     *            the run in which processing is distributed
+     * @param candidates
+     *            the partitions which may be claimed
+     * @param shareSize
+     *            the maximum number of partitions to claim
+     * @param claimedPartitions
+     *            the list to which claimed partitions are added
+     * @param work
+     *            the work to run once partitions have been claimed
+     */
+    protected void claimDistributedPartitions(final DistributedSyncRun distributedRun, final Iterator<Integer> candidates,
+            final int shareSize, final List<Integer> claimedPartitions, final Runnable work)
     {
-        final String tenantDomain = TenantUtil.getCurrentDomain();
-        final String batchId;
-        final String technicalTenantIdentifier;
-        if (TenantService.DEFAULT_DOMAIN.equals(tenantDomain))
+        boolean locked = false;
+        while (!locked && claimedPartitions.size() < shareSize && candidates.hasNext())
         {
-            batchId = id;
-            technicalTenantIdentifier = TenantUtil.DEFAULT_TENANT;
+            final Integer partition = candidates.next();
+            locked = this.doWithSyncLock(this.getLockQNameForPartition(distributedRun, partition.intValue()), true, () -> {
+                // another server may have completed the partition (or the whole run) since incomplete partitions were determined
+                if (distributedRun.isPublished() && !distributedRun.isPartitionCompleted(partition.intValue()))
+                {
+                    claimedPartitions.add(partition);
+                }
+                this.claimDistributedPartitions(distributedRun, candidates, shareSize, claimedPartitions, work);
+            });
         }
-        else
+
+        if (!locked && !claimedPartitions.isEmpty())
         {
-            batchId = this.tenantService.getName(id);
-            technicalTenantIdentifier = tenantDomain;
+            work.run();
         }
+    }
 
-        final String reservedBatchProcessNames[] = { SyncProcess.GROUP_ANALYSIS.getTitle(batchId),
-                SyncProcess.USER_UPDATE_AND_CREATION.getTitle(batchId),
-                SyncProcess.GROUP_CREATION_AND_ASSOCIATION_DELETION.getTitle(batchId),
-                SyncProcess.GROUP_ASSOCIATION_CREATION.getTitle(batchId), SyncProcess.USER_ASSOCIATION.getTitle(batchId),
-                SyncProcess.AUTHORITY_DELETION.getTitle(batchId) };
+    protected int getDistributedShareSize(final DistributedSyncRun distributedRun)
+    {
+        final int liveNodes = this.clusterSyncCoordinator != null ? this.clusterSyncCoordinator.getLiveNodes().size() : 0;
+        // without knowing the number of live servers, a single server must not claim all partitions before others can join
+        return liveNodes > 0 ? (distributedRun.getPartitions() + liveNodes - 1) / liveNodes : 1;
+    }
 
-        this.notifySyncDirectoryStart(id, reservedBatchProcessNames);
-        try
+    /**
+     * Processes the creation / update of persons of claimed partitions of a distributed run.
+     *
+     * @param batchId
+     *            the base ID for batch processes
+     * @param distributedRun
+     *            the run in which processing of persons is distributed
+     * @param userWorker
+     *            the worker for persons
+     * @param personSupplier
+     *            the supplier of the persons to process - will be called once for all claimed partitions
+     * @param partitions
+     *            the claimed partitions
+     * @param deadline
+     *            the time (in milliseconds since the epoch) after which no further batches should be started, or a non-positive value if
+     *            processing should not be limited
+     */
+    protected void processDistributedPersons(final String batchId, final DistributedSyncRun distributedRun, final PersonWorker userWorker,
+            final Supplier<Collection<NodeDescription>> personSupplier, final List<Integer> partitions, final long deadline)
+    {
+        LOGGER.debug("Processing partitions {} of distributed synchronisation of persons of user registry {}", partitions,
+                distributedRun.getId());
+        final SyncBatchProcessor<NodeDescription> userProcessor = this.createBatchProcessor(SyncProcess.USER_UPDATE_AND_CREATION, batchId,
+                new UserRegistryNodeCollectionWorkProvider(distributedRun.filterPartitions(personSupplier.get(), partitions)));
+        userProcessor.setDeadline(deadline);
+        final int processed = userProcessor.process(userWorker, true);
+        // partitions interrupted by the deadline remain incomplete
+        if (!userProcessor.isDeadlineReached())
         {
-            final Date groupLastModified = forceUpdate ? null : this.getMostRecentUpdateTime(GROUP_LAST_MODIFIED_ATTRIBUTE, id, splitTxns);
-            final Date personLastModified = forceUpdate ? null
-                    : this.getMostRecentUpdateTime(PERSON_LAST_MODIFIED_ATTRIBUTE, id, splitTxns);
+            distributedRun.markPartitionsCompleted(partitions, processed, userProcessor.getTotalErrors(), userWorker.getLatestModified());
+        }
+    }
 
-            if (groupLastModified != null)
-            {
-                LOGGER.info(
-                        "Retrieving groups changed since {} from user registry {} of tenant {}", DateFormat
-                                .getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.getDefault()).format(groupLastModified),
-                        id, technicalTenantIdentifier);
-            }
-            else
-            {
-                LOGGER.info("Retrieving all groups from user registry {} of tenant {}", id, technicalTenantIdentifier);
-            }
+    /**
+     * Processes the changes to the user members of groups distributed across the servers of the cluster. As other servers do not have the
+     * results of the analysis of groups, the changes are published per partition before the run is published.
+     *
+     * @param batchId
+     *            the base ID for batch processes
+     * @param groupAnalyzer
+     *            the analyzer for groups
+     * @param personRun
+     *            the run in which processing of persons has been distributed
+     * @param deadline
+     *            the time (in milliseconds since the epoch) after which the run fails if partitions have not been completed, or a
+     *            non-positive value if waiting for partitions should not be limited
+     * @return the number of errors
+     */
+    protected int processDistributedUserAssociation(final String batchId, final Analyzer groupAnalyzer, final DistributedSyncRun personRun,
+            final long deadline)
+    {
+        int errors = 0;
+        final AuthorityRelationMap groupMembersToAdd = groupAnalyzer.getUserParentsToAdd().invert();
+        final AuthorityRelationMap groupMembersToRemove = groupAnalyzer.getUserParentsToRemove().invert();
 
-            final BatchProcessor<NodeDescription> groupAnalysisProcessor = new BatchProcessor<>(
-                    SyncProcess.GROUP_ANALYSIS.getTitle(batchId), this.transactionService.getRetryingTransactionHelper(),
-                    new UserRegistryNodeCollectionWorkProvider(userRegistry.getGroups(groupLastModified)), this.workerThreads,
-                    USER_REGISTRY_ENTITY_BATCH_SIZE, this.applicationEventPublisher,
-                    LogFactory.getLog(TenantAwareChainingUserRegistrySynchronizer.class), this.loggingInterval);
-            final Analyzer groupAnalyzer = this.createAnalyzer(id, visitedIds, allIds);
-            int groupProcessedCount = groupAnalysisProcessor.process(groupAnalyzer, splitTxns);
+        if (!groupMembersToAdd.isEmpty() || !groupMembersToRemove.isEmpty())
+        {
+            final DistributedSyncRun associationRun = personRun.createAssociationRun(GUID.generate());
+            this.publishDistributedAssociationWork(associationRun,
+                    new GroupMemberChangesWorkProvider(groupMembersToAdd, groupMembersToRemove));
+
+            final AuthorityExistenceCache existenceCache = groupAnalyzer.getAuthorityExistenceCache();
+            this.processDistributedRun(associationRun,
+                    partitions -> this.processDistributedAssociations(batchId, associationRun, existenceCache, partitions), deadline);
+            errors = associationRun.getErrors();
+        }
+        return errors;
+    }
 
-            this.processGroupCreationAndAssociationDeletion(id, batchId, groupAnalyzer, splitTxns);
-            this.processGroupAssociationCreation(batchId, groupAnalyzer, splitTxns);
+    protected void publishDistributedAssociationWork(final DistributedSyncRun distributedRun,
+            final GroupMemberChangesWorkProvider workProvider)
+    {
+        final int partitions = distributedRun.getPartitions();
+        final List<List<GroupMemberChanges>> pendingChanges = new ArrayList<>();
+        final int[] pendingMembers = new int[partitions];
+        final int[] publishedChunks = new int[partitions];
+        for (int partition = 0; partition < partitions; partition++)
+        {
+            pendingChanges.add(new ArrayList<>());
+        }
 
-            if (personLastModified != null)
+        // changes are buffered per partition so that each published chunk holds a reasonable number of members
+        Collection<GroupMemberChanges> work = workProvider.getNextWork();
+        while (!work.isEmpty())
+        {
+            for (final GroupMemberChanges changes : work)
             {
-                LOGGER.info("Retrieving users changed since {} from user registry {} of tenant {}", DateFormat
-                        .getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.getDefault()).format(personLastModified), id,
-                        technicalTenantIdentifier);
+                final int partition = DistributedSyncRun.getPartition(changes.getParent(), partitions);
+                pendingChanges.get(partition).add(changes);
+                pendingMembers[partition] += changes.getMembersToAdd().size() + changes.getMembersToRemove().size();
+                if (pendingMembers[partition] >= DISTRIBUTED_WORK_CHUNK_SIZE)
+                {
+                    distributedRun.publishAssociationWork(partition, publishedChunks[partition]++, pendingChanges.get(partition));
+                    pendingChanges.get(partition).clear();
+                    pendingMembers[partition] = 0;
+                }
             }
-            else
+            work = workProvider.getNextWork();
+        }
+
+        for (int partition = 0; partition < partitions; partition++)
+        {
+            if (!pendingChanges.get(partition).isEmpty())
             {
-                LOGGER.info("Retrieving all users from user registry {} of tenant {}", id, technicalTenantIdentifier);
+                distributedRun.publishAssociationWork(partition, publishedChunks[partition]++, pendingChanges.get(partition));
             }
+        }
+    }
+
+    /**
+     * Processes the changes to the user members of groups of claimed partitions of a distributed run.
+     *
+     * @param batchId
+     *            the base ID for batch processes
+     * @param distributedRun
+     *            the run in which processing of memberships is distributed
+     * @param existenceCache
+     *            the cache for the existence of authorities
+     * @param partitions
+     *            the claimed partitions
+     */
+    protected void processDistributedAssociations(final String batchId, final DistributedSyncRun distributedRun,
+            final AuthorityExistenceCache existenceCache, final List<Integer> partitions)
+    {
+        LOGGER.debug("Processing partitions {} of distributed synchronisation of associations of user registry {}", partitions,
+                distributedRun.getId());
+        final List<GroupMemberChanges> changes = distributedRun.loadAssociationWork(partitions);
 
-            final BatchProcessor<NodeDescription> userProcessor = new BatchProcessor<>(
-                    SyncProcess.USER_UPDATE_AND_CREATION.getTitle(batchId), this.transactionService.getRetryingTransactionHelper(),
-                    new UserRegistryNodeCollectionWorkProvider(userRegistry.getPersons(personLastModified)), this.workerThreads,
-                    USER_REGISTRY_ENTITY_BATCH_SIZE, this.applicationEventPublisher,
-                    LogFactory.getLog(TenantAwareChainingUserRegistrySynchronizer.class), this.loggingInterval);
+        int processed = 0;
+        int errors = 0;
+        if (!changes.isEmpty())
+        {
+            final SyncBatchProcessor<GroupMemberChanges> groupProcessor = this.createBatchProcessor(SyncProcess.USER_ASSOCIATION, batchId,
+                    changes);
+            final GroupMemberWorker worker = new GroupMemberWorker(existenceCache, this.userAssociationChunkSize, true,
+                    this.createComponentLookupCallback());
+            processed = groupProcessor.process(worker, true);
+            errors = groupProcessor.getTotalErrors();
+        }
+        distributedRun.markPartitionsCompleted(partitions, processed, errors, -1);
+    }
 
-            UserAccountInterpreter accountInterpreter;
-            if (userRegistry instanceof EnhancedUserRegistry)
+    /**
+     * Joins any distributed runs published by other servers of the cluster, processing partitions which can be claimed by this server.
+     */
+    protected void joinDistributedRuns()
+    {
+        try
+        {
+            final List<DistributedSyncRun> distributedRuns = AuthenticationUtil.runAsSystem(
+                    () -> DistributedSyncRun.loadPublished(this.attributeService, this.transactionService.getRetryingTransactionHelper()));
+            for (final DistributedSyncRun distributedRun : distributedRuns)
             {
-                final String externalUserControl = this.externalUserControl.get(technicalTenantIdentifier);
-                final String externalUserControlSubsystemName = this.externalUserControlSubsystemName.get(technicalTenantIdentifier);
-                if (Boolean.parseBoolean(externalUserControl) && id.equals(externalUserControlSubsystemName))
+                final String tenantDomain = distributedRun.getTenantDomain();
+                if (this.localDistributedRunIds.contains(distributedRun.getRunId()))
                 {
-                    accountInterpreter = ((EnhancedUserRegistry) userRegistry).getUserAccountInterpreter();
+                    LOGGER.trace("Distributed run {} has been published by this server", distributedRun.getRunId());
                 }
-                else
+                else if (TenantService.DEFAULT_DOMAIN.equals(tenantDomain))
                 {
-                    accountInterpreter = null;
+                    AuthenticationUtil.runAsSystem(() -> {
+                        this.joinDistributedRun(distributedRun);
+                        return null;
+                    });
+                }
+                else if (this.tenantAdminService.isEnabled() && this.tenantAdminService.existsTenant(tenantDomain)
+                        && this.tenantAdminService.isEnabledTenant(tenantDomain))
+                {
+                    TenantUtil.runAsSystemTenant(() -> {
+                        this.joinDistributedRun(distributedRun);
+                        return null;
+                    }, tenantDomain);
                 }
             }
-            else
-            {
-                accountInterpreter = null;
-            }
-
-            final PersonWorker userWorker = this.createPersonWorker(id, visitedIds, allIds, accountInterpreter);
-            int userProcessedCount = userProcessor.process(userWorker, splitTxns);
+        }
+        catch (final RuntimeException e)
+        {
+            // must not escape or the scheduled executor would stop polling for distributed runs
+            LOGGER.warn("Failed to process partitions of distributed synchronisations", e);
+        }
+    }
 
-            this.processUserAssociation(batchId, groupAnalyzer, splitTxns);
+    protected void joinDistributedRun(final DistributedSyncRun distributedRun)
+    {
+        final String id = distributedRun.getId();
+        final UserRegistry userRegistry = this.getPluginsToSync().get(id);
+        if (userRegistry != null)
+        {
+            final String tenantDomain = TenantUtil.getCurrentDomain();
+            final String batchId = TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? id : this.tenantService.getName(id);
+            LOGGER.debug("Joining distributed synchronisation of {} of user registry {} in tenant {}", distributedRun.getKind(), id,
+                    TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? TenantUtil.DEFAULT_TENANT : tenantDomain);
 
-            final long newLatestGroupModified = groupAnalyzer.getLatestModified();
-            if (newLatestGroupModified > 0)
+            if (DistributedSyncRun.KIND_ASSOCIATIONS.equals(distributedRun.getKind()))
             {
-                this.setMostRecentUpdateTime(GROUP_LAST_MODIFIED_ATTRIBUTE, id, newLatestGroupModified, splitTxns);
+                // groups have only been analysed on the server running the synchronisation, so existence is checked from scratch
+                final AuthorityExistenceCache existenceCache = new AuthorityExistenceCache(this.authorityService);
+                this.processDistributedPartitions(distributedRun,
+                        partitions -> this.processDistributedAssociations(batchId, distributedRun, existenceCache, partitions), 0);
             }
-
-            final long newLatestUserModified = userWorker.getLatestModified();
-            if (newLatestUserModified > 0)
+            else
             {
-                this.setMostRecentUpdateTime(PERSON_LAST_MODIFIED_ATTRIBUTE, id, newLatestUserModified, splitTxns);
+                this.joinDistributedPersonRun(id, batchId, userRegistry, distributedRun);
             }
+        }
+        else
+        {
+            LOGGER.debug("User registry {} of distributed run {} is not active on this server", id, distributedRun.getRunId());
+        }
+    }
 
-            final Pair<Integer, Integer> deletionCounts = this.processAuthorityDeletions(id, batchId, userRegistry, isFullSync, splitTxns);
-            userProcessedCount += deletionCounts.getFirst().intValue();
-            groupProcessedCount += deletionCounts.getSecond().intValue();
+    protected void joinDistributedPersonRun(final String id, final String batchId, final UserRegistry userRegistry,
+            final DistributedSyncRun distributedRun)
+    {
+        final AuthorityFingerprintStore fingerprintStore = this.createFingerprintStore(id);
+        if (fingerprintStore != null)
+        {
+            this.inReadOnlyTransaction(() -> {
+                fingerprintStore.load();
+                return null;
+            }, true);
+        }
 
-            visitedIds.add(id);
+        final PersonWorker userWorker = this.createPersonWorker(id, distributedRun.getVisitedIds(), distributedRun.getAllIds(),
+                this.getUserAccountInterpreter(id, userRegistry), fingerprintStore);
 
-            final Object statusParams[] = { Integer.valueOf(userProcessedCount), Integer.valueOf(groupProcessedCount) };
-            final String statusMessage = I18NUtil.getMessage("synchronization.summary.status", statusParams);
+        // persons must be retrieved with the criteria of the server running the synchronisation so partitions contain the same persons
+        try (final UserRegistryRetrieval retrieval = new UserRegistryRetrieval(id, userRegistry,
+                this.getChangeTrackingUserRegistry(userRegistry), null, distributedRun.getPersonLastModified(),
+                distributedRun.getChangeMarker(), null))
+        {
+            this.processDistributedPartitions(distributedRun,
+                    partitions -> this.processDistributedPersons(batchId, distributedRun, userWorker, retrieval::getPersons, partitions, 0),
+                    0);
+        }
+    }
 
-            LOGGER.info("Finished synchronizing users and groups with user registry {} of tenant {}", id, technicalTenantIdentifier);
-            LOGGER.info(statusMessage);
+    protected void logRetrieval(final String entityLabel, final String id, final String technicalTenantIdentifier,
+            final String changeMarker, final Date lastModified)
+    {
+        if (changeMarker != null)
+        {
+            LOGGER.info("Retrieving {} changed since change marker {} from user registry {} of tenant {}", entityLabel, changeMarker, id,
+                    technicalTenantIdentifier);
+        }
+        else if (lastModified != null)
+        {
+            LOGGER.info("Retrieving {} changed since {} from user registry {} of tenant {}", entityLabel,
+                    DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.getDefault()).format(lastModified), id,
+                    technicalTenantIdentifier);
+        }
+        else
+        {
+            LOGGER.info("Retrieving all {} from user registry {} of tenant {}", entityLabel, id, technicalTenantIdentifier);
+        }
+    }
 
-            this.notifySyncDirectoryEnd(id, statusMessage);
+    protected UserAccountInterpreter getUserAccountInterpreter(final String id, final UserRegistry userRegistry)
+    {
+        final String tenantDomain = TenantUtil.getCurrentDomain();
+        final String technicalTenantIdentifier = TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? TenantUtil.DEFAULT_TENANT
+                : tenantDomain;
+
+        UserAccountInterpreter accountInterpreter;
+        if (userRegistry instanceof EnhancedUserRegistry)
+        {
+            final String externalUserControl = this.externalUserControl.get(technicalTenantIdentifier);
+            final String externalUserControlSubsystemName = this.externalUserControlSubsystemName.get(technicalTenantIdentifier);
+            if (Boolean.parseBoolean(externalUserControl) && id.equals(externalUserControlSubsystemName))
+            {
+                accountInterpreter = ((EnhancedUserRegistry) userRegistry).getUserAccountInterpreter();
+            }
+            else
+            {
+                accountInterpreter = null;
+            }
         }
-        catch (final RuntimeException e)
+        else
         {
-            this.notifySyncDirectoryEnd(id, e);
-            throw e;
+            accountInterpreter = null;
         }
+        return accountInterpreter;
     }
 
-    protected void processGroupCreationAndAssociationDeletion(final String id, final String batchId, final Analyzer groupAnalyzer,
+    protected int processGroupCreationAndAssociationDeletion(final String id, final String batchId, final Analyzer groupAnalyzer,
             final boolean splitTxns)
     {
+        int errors = 0;
         final Map<String, String> groupsToCreate = groupAnalyzer.getGroupsToCreate();
         final Map<String, Set<String>> groupParentsToRemove = groupAnalyzer.getGroupParentsToRemove();
 
@@ -1175,66 +2642,154 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
 
         if (!groupsToProcess.isEmpty())
         {
-            @SuppressWarnings("deprecation")
-            final BatchProcessor<String> groupProcessor = new BatchProcessor<>(
-                    SyncProcess.GROUP_CREATION_AND_ASSOCIATION_DELETION.getTitle(batchId),
-                    this.transactionService.getRetryingTransactionHelper(), groupsToProcess, this.workerThreads,
-                    USER_REGISTRY_ENTITY_BATCH_SIZE, this.applicationEventPublisher,
-                    LogFactory.getLog(TenantAwareChainingUserRegistrySynchronizer.class), this.loggingInterval);
+            final SyncBatchProcessor<String> groupProcessor = this
+                    .createBatchProcessor(SyncProcess.GROUP_CREATION_AND_ASSOCIATION_DELETION, batchId, groupsToProcess);
 
             final String zoneId = asZoneId(id);
             final Set<String> zones = new HashSet<>();
             zones.add(AuthorityService.ZONE_APP_DEFAULT);
             zones.add(zoneId);
             final GroupCreationAndParentRemovalWorker worker = new GroupCreationAndParentRemovalWorker(zones, groupsToCreate,
-                    groupParentsToRemove, this.createComponentLookupCallback());
+                    groupParentsToRemove, groupAnalyzer.getAuthorityExistenceCache(), this.createComponentLookupCallback());
             groupProcessor.process(worker, splitTxns);
+            errors = groupProcessor.getTotalErrors();
         }
+        return errors;
     }
 
-    protected void processGroupAssociationCreation(final String batchId, final Analyzer groupAnalyzer, final boolean splitTxns)
+    protected int processGroupAssociationCreation(final String batchId, final Analyzer groupAnalyzer, final boolean splitTxns)
     {
+        int errors = 0;
         final Map<String, Set<String>> groupParentsToAdd = groupAnalyzer.getGroupParentsToAdd();
 
-        final Collection<String> groupsToProcess = new HashSet<>(groupParentsToAdd.keySet());
+        if (!groupParentsToAdd.isEmpty())
+        {
+            final GroupHierarchyPlanner planner = new GroupHierarchyPlanner(groupParentsToAdd);
+            for (final Pair<String, String> cyclicAssociation : planner.getCyclicAssociations())
+            {
+                LOGGER.warn("Not adding group {} to group {} as this would create a cyclic group hierarchy", cyclicAssociation.getFirst(),
+                        cyclicAssociation.getSecond());
+            }
+
+            // process each level separately - parents within a level are distinct units of work so no two transactions modify the same
+            final List<Map<String, Set<String>>> levels = planner.getLevels();
+            LOGGER.debug("Processing group associations in {} levels of the group hierarchy", levels.size());
+            for (final Map<String, Set<String>> groupChildrenToAdd : levels)
+            {
+                final SyncBatchProcessor<String> groupProcessor = this.createBatchProcessor(SyncProcess.GROUP_ASSOCIATION_CREATION,
+                        batchId, groupChildrenToAdd.keySet());
 
-        if (!groupsToProcess.isEmpty())
+                final GroupParentAdditionWorker worker = new GroupParentAdditionWorker(groupChildrenToAdd,
+                        groupAnalyzer.getAuthorityExistenceCache(), this.createComponentLookupCallback());
+                groupProcessor.process(worker, splitTxns);
+                errors += groupProcessor.getTotalErrors();
+            }
+        }
+        return errors;
+    }
+
+    protected int processUserAssociation(final String batchId, final Analyzer groupAnalyzer, final boolean splitTxns)
+    {
+        int errors = 0;
+        // invert work into units per parent group so that the members of a group are only ever modified by one worker at a time
+        final AuthorityRelationMap groupMembersToAdd = groupAnalyzer.getUserParentsToAdd().invert();
+        final AuthorityRelationMap groupMembersToRemove = groupAnalyzer.getUserParentsToRemove().invert();
+
+        if (!groupMembersToAdd.isEmpty() || !groupMembersToRemove.isEmpty())
         {
-            @SuppressWarnings("deprecation")
-            final BatchProcessor<String> groupProcessor = new BatchProcessor<>(SyncProcess.GROUP_ASSOCIATION_CREATION.getTitle(batchId),
-                    this.transactionService.getRetryingTransactionHelper(), groupsToProcess, this.workerThreads,
-                    USER_REGISTRY_ENTITY_BATCH_SIZE, this.applicationEventPublisher,
-                    LogFactory.getLog(TenantAwareChainingUserRegistrySynchronizer.class), this.loggingInterval);
+            // groups are read in order from both (potentially spilled) relation maps in a single pass
+            final SyncBatchProcessor<GroupMemberChanges> groupProcessor = this.createBatchProcessor(SyncProcess.USER_ASSOCIATION, batchId,
+                    new GroupMemberChangesWorkProvider(groupMembersToAdd, groupMembersToRemove));
 
-            final GroupParentAdditionWorker worker = new GroupParentAdditionWorker(groupParentsToAdd, this.createComponentLookupCallback());
+            final GroupMemberWorker worker = new GroupMemberWorker(groupAnalyzer.getAuthorityExistenceCache(),
+                    this.userAssociationChunkSize, splitTxns, this.createComponentLookupCallback());
             groupProcessor.process(worker, splitTxns);
+            errors = groupProcessor.getTotalErrors();
         }
+        return errors;
+    }
+
+    protected SpillingLongSet createWorkingStateSet(final String name)
+    {
+        final long memoryBudget = this.workingStateMemoryBudgetMB > 0 ? this.workingStateMemoryBudgetMB * 1024L * 1024L : Long.MAX_VALUE;
+        return new SpillingLongSet(name, memoryBudget, 1);
+    }
+
+    protected <T> SyncBatchProcessor<T> createBatchProcessor(final SyncProcess process, final String batchId,
+            final BatchProcessWorkProvider<T> workProvider)
+    {
+        final SyncBatchProcessor<T> batchProcessor = new SyncBatchProcessor<>(process.getTitle(batchId),
+                this.transactionService.getRetryingTransactionHelper(), workProvider, this.syncExecutor, this.workerThreads * 2,
+                USER_REGISTRY_ENTITY_BATCH_SIZE, this.applicationEventPublisher, this.loggingInterval);
+        batchProcessor.setFailedEntryListener((entryId, error) -> this.recordFailedEntry(batchId, entryId, error));
+        return batchProcessor;
     }
 
-    protected void processUserAssociation(final String batchId, final Analyzer groupAnalyzer, final boolean splitTxns)
+    protected <T> SyncBatchProcessor<T> createBatchProcessor(final SyncProcess process, final String batchId, final Collection<T> entries)
     {
-        final Map<String, Set<String>> userParentsToAdd = groupAnalyzer.getUserParentsToAdd();
-        final Map<String, Set<String>> userParentsToRemove = groupAnalyzer.getUserParentsToRemove();
+        final SyncBatchProcessor<T> batchProcessor = new SyncBatchProcessor<>(process.getTitle(batchId),
+                this.transactionService.getRetryingTransactionHelper(), entries, this.syncExecutor, this.workerThreads * 2,
+                USER_REGISTRY_ENTITY_BATCH_SIZE, this.applicationEventPublisher, this.loggingInterval);
+        batchProcessor.setFailedEntryListener((entryId, error) -> this.recordFailedEntry(batchId, entryId, error));
+        return batchProcessor;
+    }
 
-        final Collection<String> usersToProcess = new HashSet<>(userParentsToRemove.keySet());
-        usersToProcess.addAll(userParentsToAdd.keySet());
+    protected void recordFailedEntry(final String batchId, final String entryId, final Throwable error)
+    {
+        // only recorded for regular synchronisation runs which register the collection for their batch ID
+        this.failedEntriesByBatchId.computeIfPresent(batchId, (key, failedEntries) -> {
+            if (failedEntries.size() < MAX_RECORDED_FAILED_ENTRIES)
+            {
+                String message = String.valueOf(error.getMessage());
+                if (message.length() > MAX_RECORDED_ERROR_LENGTH)
+                {
+                    message = message.substring(0, MAX_RECORDED_ERROR_LENGTH);
+                }
+                failedEntries.put(String.valueOf(entryId), message);
+            }
+            return failedEntries;
+        });
+    }
 
-        if (!usersToProcess.isEmpty())
+    protected void storeFailedEntries(final String id, final String batchId)
+    {
+        final Map<String, String> failedEntries = this.failedEntriesByBatchId.remove(batchId);
+        if (failedEntries != null && !failedEntries.isEmpty())
         {
-            @SuppressWarnings("deprecation")
-            final BatchProcessor<String> userProcessor = new BatchProcessor<>(SyncProcess.USER_ASSOCIATION.getTitle(batchId),
-                    this.transactionService.getRetryingTransactionHelper(), usersToProcess, this.workerThreads,
-                    USER_REGISTRY_ENTITY_BATCH_SIZE, this.applicationEventPublisher,
-                    LogFactory.getLog(TenantAwareChainingUserRegistrySynchronizer.class), this.loggingInterval);
+            LOGGER.warn("{} entries of user registry {} failed to be synchronised: {}", failedEntries.size(), id, failedEntries.keySet());
+            this.inTransaction(() -> {
+                this.doSetAttribute(new HashMap<>(failedEntries), 0, FAILED_ENTRIES_ATTRIBUTE, id);
+                return null;
+            }, true);
+        }
+    }
 
-            final UserParentWorker worker = new UserParentWorker(userParentsToAdd, userParentsToRemove,
-                    this.createComponentLookupCallback());
-            userProcessor.process(worker, splitTxns);
+    protected void storeGroupFingerprints(final String id, final AuthorityFingerprintStore fingerprintStore, final int errors,
+            final boolean splitTxns)
+    {
+        if (errors == 0)
+        {
+            final List<String> groupNames = new ArrayList<>(fingerprintStore.getDeferredAuthorityNames());
+            LOGGER.debug("Storing fingerprints of {} groups from user registry {}", groupNames.size(), id);
+            for (int fromIdx = 0; fromIdx < groupNames.size(); fromIdx += FINGERPRINT_STORE_BATCH_SIZE)
+            {
+                final List<String> batch = groupNames.subList(fromIdx, Math.min(fromIdx + FINGERPRINT_STORE_BATCH_SIZE, groupNames.size()));
+                this.inTransaction(() -> {
+                    fingerprintStore.storeDeferredFingerprints(batch);
+                    return null;
+                }, splitTxns);
+            }
+        }
+        else
+        {
+            // failed memberships would not be retried in a full sync if group fingerprints were stored
+            LOGGER.info("Not storing group fingerprints for user registry {} due to {} errors during synchronisation", id, errors);
         }
+        fingerprintStore.discardDeferredFingerprints();
     }
 
     protected Pair<Integer, Integer> processAuthorityDeletions(final String id, final String batchId, final UserRegistry userRegistry,
-            final boolean isFullSync, final boolean splitTxns)
+            final boolean isFullSync, final String changeMarker, final AuthorityFingerprintStore fingerprintStore, final boolean splitTxns)
     {
         final String currentDomain = TenantUtil.getCurrentDomain();
         final boolean allowDeletions = Boolean.TRUE.equals(
@@ -1246,58 +2801,143 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
         final Set<String> groupsToDelete = new HashSet<>();
         final Set<String> usersToDelete = new HashSet<>();
 
+        final TombstoneUserRegistry tombstoneUserRegistry = userRegistry instanceof TombstoneUserRegistry
+                && ((TombstoneUserRegistry) userRegistry).isTombstoneQueryEnabled() ? (TombstoneUserRegistry) userRegistry : null;
+        // check time needs to be determined before any retrieval so concurrent deletions are picked up by next sync
+        final long deletionCheckTime = System.currentTimeMillis();
+
         final Pair<Integer, Integer> counts = new Pair<>(Integer.valueOf(0), Integer.valueOf(0));
         if (isFullSync)
         {
-            final Set<String> allZoneGroups = new TreeSet<>();
-            final Set<String> allZoneUsers = this.personService.getUserNamesAreCaseSensitive() ? new TreeSet<>()
-                    : new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-
-            this.inReadOnlyTransaction(() -> {
-                allZoneGroups.addAll(this.authorityService.getAllAuthoritiesInZone(zoneId, AuthorityType.GROUP));
-                allZoneUsers.addAll(this.authorityService.getAllAuthoritiesInZone(zoneId, AuthorityType.USER));
-                return null;
-            }, splitTxns);
+            final boolean userNamesCaseSensitive = this.personService.getUserNamesAreCaseSensitive();
 
-            groupsToDelete.addAll(allZoneGroups);
-            groupsToDelete.removeAll(userRegistry.getGroupNames());
+            // authorities in the registry are only tracked by their hash within the memory budget - a collision can only prevent a deletion
+            try (final SpillingLongSet registryAuthorities = this.createWorkingStateSet("sync-" + id + "-registryAuthorities"))
+            {
+                for (final String groupName : userRegistry.getGroupNames())
+                {
+                    registryAuthorities.add(SpillingLongSet.hash(groupName));
+                }
+                for (final String userName : userRegistry.getPersonNames())
+                {
+                    final String domainUser = this.asDomainUser(userName, currentDomain);
+                    final String normalisedUser = userNamesCaseSensitive ? domainUser : domainUser.toLowerCase(Locale.ENGLISH);
+                    registryAuthorities.add(SpillingLongSet.hash(normalisedUser));
+                }
 
-            usersToDelete.addAll(allZoneUsers);
-            for (final String userName : userRegistry.getPersonNames())
+                this.inReadOnlyTransaction(() -> {
+                    for (final String groupName : this.authorityService.getAllAuthoritiesInZone(zoneId, AuthorityType.GROUP))
+                    {
+                        if (!registryAuthorities.contains(SpillingLongSet.hash(groupName)))
+                        {
+                            groupsToDelete.add(groupName);
+                        }
+                    }
+                    for (final String userName : this.authorityService.getAllAuthoritiesInZone(zoneId, AuthorityType.USER))
+                    {
+                        if (!registryAuthorities
+                                .contains(SpillingLongSet.hash(userNamesCaseSensitive ? userName : userName.toLowerCase(Locale.ENGLISH))))
+                        {
+                            usersToDelete.add(userName);
+                        }
+                    }
+                    return null;
+                }, splitTxns);
+            }
+        }
+        else
+        {
+            final Collection<String> deletedGroups;
+            final Collection<String> deletedUsers;
+            if (changeMarker != null && userRegistry instanceof ChangeTrackingUserRegistry)
+            {
+                deletedGroups = ((ChangeTrackingUserRegistry) userRegistry).getGroupNamesDeletedSince(changeMarker);
+                deletedUsers = ((ChangeTrackingUserRegistry) userRegistry).getPersonNamesDeletedSince(changeMarker);
+            }
+            else if (tombstoneUserRegistry != null)
             {
-                final String domainUser;
-                final String primaryDomain = this.tenantService.getPrimaryDomain(userName);
-                if (!EqualsHelper.nullSafeEquals(primaryDomain, currentDomain))
+                final Date lastDeletionCheck = this.getMostRecentUpdateTime(DELETION_CHECK_ATTRIBUTE, id, splitTxns);
+                if (lastDeletionCheck != null)
                 {
-                    domainUser = this.tenantService.getDomainUser(userName, currentDomain);
+                    // overlap tolerates clock differences between repository and directory server
+                    // authorities that are reported again have already been deleted and are filtered below
+                    final Date deletedSince = new Date(lastDeletionCheck.getTime() - TOMBSTONE_QUERY_OVERLAP);
+                    deletedGroups = tombstoneUserRegistry.getDeletedGroupNames(deletedSince);
+                    deletedUsers = tombstoneUserRegistry.getDeletedPersonNames(deletedSince);
                 }
                 else
                 {
-                    domainUser = userName;
+                    LOGGER.info("No previous check for deleted authorities in user registry {} - tombstones checked from next sync",
+                            id);
+                    deletedGroups = Collections.emptyList();
+                    deletedUsers = Collections.emptyList();
                 }
-                usersToDelete.remove(domainUser);
             }
+            else
+            {
+                deletedGroups = Collections.emptyList();
+                deletedUsers = Collections.emptyList();
+            }
+
+            if (!deletedGroups.isEmpty() || !deletedUsers.isEmpty())
+            {
+                // only consider authorities actually synchronised from this registry
+                this.inReadOnlyTransaction(() -> {
+                    for (final String groupName : deletedGroups)
+                    {
+                        if (this.isAuthorityInZone(groupName, zoneId))
+                        {
+                            groupsToDelete.add(groupName);
+                        }
+                    }
+
+                    for (final String userName : deletedUsers)
+                    {
+                        final String domainUser = this.asDomainUser(userName, currentDomain);
+                        if (this.isAuthorityInZone(domainUser, zoneId))
+                        {
+                            usersToDelete.add(domainUser);
+                        }
+                    }
+                    return null;
+                }, splitTxns);
+            }
+        }
 
+        if (!groupsToDelete.isEmpty() || !usersToDelete.isEmpty())
+        {
             final Set<String> authoritiesToDelete = new TreeSet<>();
             authoritiesToDelete.addAll(groupsToDelete);
             authoritiesToDelete.addAll(usersToDelete);
 
-            if (!authoritiesToDelete.isEmpty() && (allowDeletions || syncDelete))
+            if (allowDeletions || syncDelete)
             {
-                @SuppressWarnings("deprecation")
-                final BatchProcessor<String> deletionProcessor = new BatchProcessor<>(SyncProcess.AUTHORITY_DELETION.getTitle(batchId),
-                        this.transactionService.getRetryingTransactionHelper(), authoritiesToDelete, this.workerThreads,
-                        USER_REGISTRY_ENTITY_BATCH_SIZE, this.applicationEventPublisher,
-                        LogFactory.getLog(TenantAwareChainingUserRegistrySynchronizer.class), this.loggingInterval);
+                final SyncBatchProcessor<String> deletionProcessor = this.createBatchProcessor(SyncProcess.AUTHORITY_DELETION, batchId,
+                        authoritiesToDelete);
 
                 final AuthorityDeleter deleter = new AuthorityDeleter(zoneId, groupsToDelete, usersToDelete, allowDeletions,
                         this.createComponentLookupCallback());
                 deletionProcessor.process(deleter, splitTxns);
 
+                if (fingerprintStore != null)
+                {
+                    // memberships of deleted authorities have been removed without any change to the fingerprints of their groups
+                    this.inTransaction(() -> {
+                        fingerprintStore.removeFingerprints(authoritiesToDelete);
+                        fingerprintStore.removeGroupFingerprints();
+                        return null;
+                    }, splitTxns);
+                }
+
                 counts.setFirst(Integer.valueOf(usersToDelete.size()));
                 counts.setSecond(Integer.valueOf(groupsToDelete.size()));
             }
         }
+
+        if (tombstoneUserRegistry != null)
+        {
+            this.setMostRecentUpdateTime(DELETION_CHECK_ATTRIBUTE, id, deletionCheckTime, splitTxns);
+        }
         return counts;
     }
 
@@ -1344,6 +2984,29 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
         return plugins;
     }
 
+    protected String getLockGranularity()
+    {
+        final String currentDomain = TenantUtil.getCurrentDomain();
+        final String tenantKey = TenantService.DEFAULT_DOMAIN.equals(currentDomain) ? TenantUtil.DEFAULT_TENANT : currentDomain;
+        final String granularity = this.lockGranularity != null ? this.lockGranularity.get(tenantKey) : null;
+        return granularity != null && !granularity.trim().isEmpty() ? granularity.trim().toLowerCase(Locale.ENGLISH)
+                : LOCK_GRANULARITY_TENANT;
+    }
+
+    protected QName getLockQNameForZone(final String id)
+    {
+        // dot-separated local names form a lock hierarchy - the lock of a zone conflicts with the lock of its tenant but not other zones
+        final QName tenantLockQName = this.getLockQNameForCurrentTenant();
+        return QName.createQName(tenantLockQName.getNamespaceURI(), tenantLockQName.getLocalName() + "." + id.replace('.', '_'));
+    }
+
+    protected QName getLockQNameForPartition(final DistributedSyncRun distributedRun, final int partition)
+    {
+        // must not be part of the lock hierarchy of the tenant as that lock is held by the server running the synchronisation
+        return QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI,
+                DEFAULT_LOCK_QNAME.getLocalName() + "Partition." + distributedRun.getRunId() + "." + partition);
+    }
+
     protected QName getLockQNameForCurrentTenant()
     {
         final String tenantDomain = TenantUtil.getCurrentDomain();
@@ -1355,8 +3018,10 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
         }
         else
         {
+            // dots of the tenant domain would place the lock in the hierarchy of other tenants / zones, e.g. zone "au" of tenant
+            // "acme.com" would use the same lock as tenant "acme.com.au" - tenant domains cannot contain underscores so escaping is safe
             lockQName = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI,
-                    "TenantAwareChainingUserRegistrySynchronizer@" + tenantDomain);
+                    "TenantAwareChainingUserRegistrySynchronizer@" + tenantDomain.replace('.', '_'));
         }
 
         return lockQName;
@@ -1444,6 +3109,7 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
 
             this.doSetAttribute(SyncStatus.IN_PROGRESS.toString(), 0, STATUS_ATTRIBUTE, zoneId);
             this.doRemoveAttributes(0, SUMMARY_ATTRIBUTE, zoneId);
+            this.doRemoveAttributes(0, FAILED_ENTRIES_ATTRIBUTE, zoneId);
 
             return null;
         }, true);
@@ -1457,6 +3123,7 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
             this.doSetAttribute(SyncStatus.COMPLETE.toString(), 0, STATUS_ATTRIBUTE, zoneId);
             this.doRemoveAttributes(0, LAST_ERROR_ATTRIBUTE, zoneId);
             this.doSetAttribute(statusMessage, 0, SUMMARY_ATTRIBUTE, zoneId);
+            this.doSetAttribute(new Date().getTime(), 0, ZONE_END_TIME_ATTRIBUTE, zoneId);
 
             return null;
         }, true);
@@ -1580,7 +3247,8 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
 
     // most logic for actual synchronisation is externalised - these methods may be overriden to provide alternative components
 
-    protected Analyzer createAnalyzer(final String id, final Collection<String> visitedIds, final Collection<String> allIds)
+    protected Analyzer createAnalyzer(final String id, final Collection<String> visitedIds, final Collection<String> allIds,
+            final AuthorityFingerprintStore fingerprintStore)
     {
         final String currentDomain = TenantUtil.getCurrentDomain();
         final boolean allowDeletions = Boolean.TRUE.equals(
@@ -1591,13 +3259,13 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
         zones.add(AuthorityService.ZONE_APP_DEFAULT);
         zones.add(zoneId);
 
-        final Analyzer groupAnalyzer = new AnalyzerImpl(id, zoneId, zones, visitedIds, allIds, allowDeletions,
-                this.createComponentLookupCallback());
+        final Analyzer groupAnalyzer = new AnalyzerImpl(id, zoneId, zones, visitedIds, allIds, allowDeletions, fingerprintStore,
+                this.workingStateMemoryBudgetMB * 1024L * 1024L, this.workerThreads, this.createComponentLookupCallback());
         return groupAnalyzer;
     }
 
     protected PersonWorker createPersonWorker(final String id, final Collection<String> visitedIds, final Collection<String> allIds,
-            final UserAccountInterpreter accountInterpreter)
+            final UserAccountInterpreter accountInterpreter, final AuthorityFingerprintStore fingerprintStore)
     {
         final String currentDomain = TenantUtil.getCurrentDomain();
         final boolean allowDeletions = Boolean.TRUE.equals(
@@ -1609,10 +3277,65 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
         zones.add(zoneId);
 
         final PersonWorker personWorker = new PersonWorkerImpl(id, zoneId, zones, visitedIds, allIds, allowDeletions, accountInterpreter,
-                this.createComponentLookupCallback());
+                fingerprintStore, this.createIdentityIndex(id), this.createComponentLookupCallback());
         return personWorker;
     }
 
+    protected SyncCheckpoint createCheckpoint(final String id, final long deadline)
+    {
+        final String tenantDomain = TenantUtil.getCurrentDomain();
+        final String checkpointKey = TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? id : this.tenantService.getName(id);
+        return new SyncCheckpoint(checkpointKey, SyncProcess.USER_UPDATE_AND_CREATION, this.attributeService,
+                this.transactionService.getRetryingTransactionHelper(), this.checkpointInterval, deadline);
+    }
+
+    protected DistributedSyncRun createDistributedRun(final String id, final Collection<String> visitedIds, final Collection<String> allIds,
+            final Date personLastModified, final String changeMarker)
+    {
+        final String tenantDomain = TenantUtil.getCurrentDomain();
+        final String tenantKey = TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? TenantUtil.DEFAULT_TENANT : tenantDomain;
+        final Integer partitions = this.distributedSyncPartitions != null ? this.distributedSyncPartitions.get(tenantKey) : null;
+
+        final DistributedSyncRun distributedRun;
+        if (partitions != null && partitions.intValue() > 1)
+        {
+            final String runKey = TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? id : this.tenantService.getName(id);
+            distributedRun = new DistributedSyncRun(GUID.generate(), runKey, tenantDomain, id, DistributedSyncRun.KIND_PERSONS,
+                    partitions.intValue(), visitedIds, allIds, personLastModified, changeMarker, this.attributeService,
+                    this.transactionService.getRetryingTransactionHelper());
+        }
+        else
+        {
+            distributedRun = null;
+        }
+        return distributedRun;
+    }
+
+    protected AuthorityFingerprintStore createFingerprintStore(final String id)
+    {
+        final AuthorityFingerprintStore fingerprintStore;
+        if (this.authorityFingerprintsEnabled)
+        {
+            final String tenantDomain = TenantUtil.getCurrentDomain();
+            final String storeKey = TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? id : this.tenantService.getName(id);
+            fingerprintStore = new AuthorityFingerprintStore(storeKey, this.attributeService);
+        }
+        else
+        {
+            fingerprintStore = null;
+        }
+        return fingerprintStore;
+    }
+
+    protected AuthorityIdentityIndex createIdentityIndex(final String id)
+    {
+        // index is only ever used for entries for which the user registry provides immutable identifiers
+        final String tenantDomain = TenantUtil.getCurrentDomain();
+        final String indexKey = TenantService.DEFAULT_DOMAIN.equals(tenantDomain) ? id : this.tenantService.getName(id);
+        final AuthorityIdentityIndex identityIndex = new AuthorityIdentityIndex(indexKey, this.attributeService);
+        return identityIndex;
+    }
+
     protected ComponentLookupCallback createComponentLookupCallback()
     {
         final ComponentLookupCallback callback = x -> {
@@ -1637,6 +3360,9 @@ public class TenantAwareChainingUserRegistrySynchronizer extends AbstractLifecyc
                 case "contentService":
                     result = this.contentService;
                     break;
+                case "transactionService":
+                    result = this.transactionService;
+                    break;
                 default:
                     throw new IllegalStateException(x + " is not available");
             }
@@ -47,23 +47,31 @@ public class TenantAwareUserRegistrySynchronizerJob implements Job
         final String synchronizeChangesOnly = (String) executionContext.getJobDetail().getJobDataMap().get("synchronizeChangesOnly");
         final boolean forceUpdate = synchronizeChangesOnly == null || !Boolean.parseBoolean(synchronizeChangesOnly);
         final String tenantDomain = (String) executionContext.getJobDetail().getJobDataMap().get("tenantDomain");
+        final ClusterSyncCoordinator clusterSyncCoordinator = (ClusterSyncCoordinator) executionContext.getJobDetail().getJobDataMap()
+                .get("clusterSyncCoordinator");
+        final SyncLoadLimiter syncLoadLimiter = (SyncLoadLimiter) executionContext.getJobDetail().getJobDataMap().get("syncLoadLimiter");
 
-        if (TenantUtil.DEFAULT_TENANT.equals(tenantDomain))
+        if (clusterSyncCoordinator != null && !clusterSyncCoordinator.isResponsibleFor(tenantDomain))
+        {
+            LOGGER.debug("Not triggering synchronization for {} tenant as it is assigned to server {}", tenantDomain,
+                    clusterSyncCoordinator.getResponsibleNode(tenantDomain));
+        }
+        else if (TenantUtil.DEFAULT_TENANT.equals(tenantDomain))
         {
             LOGGER.debug("Triggering synchronization for default tenant");
-            AuthenticationUtil.runAs(() -> {
+            this.runLimited(syncLoadLimiter, tenantDomain, () -> AuthenticationUtil.runAs(() -> {
                 userRegistrySynchronizer.synchronize(forceUpdate, true);
                 return null;
-            }, AuthenticationUtil.getSystemUserName());
+            }, AuthenticationUtil.getSystemUserName()));
         }
         else if (tenantAdminService.isEnabled() && tenantAdminService.existsTenant(tenantDomain)
                 && tenantAdminService.isEnabledTenant(tenantDomain))
         {
             LOGGER.debug("Triggering synchronization for {} tenant", tenantDomain);
-            TenantUtil.runAsSystemTenant(() -> {
+            this.runLimited(syncLoadLimiter, tenantDomain, () -> TenantUtil.runAsSystemTenant(() -> {
                 userRegistrySynchronizer.synchronize(forceUpdate, true);
                 return null;
-            }, tenantDomain);
+            }, tenantDomain));
         }
         else
         {
@@ -71,4 +79,16 @@ public class TenantAwareUserRegistrySynchronizerJob implements Job
                     tenantDomain);
         }
     }
+
+    protected void runLimited(final SyncLoadLimiter syncLoadLimiter, final String tenantDomain, final Runnable synchronisation)
+    {
+        if (syncLoadLimiter != null)
+        {
+            syncLoadLimiter.runLimited(tenantDomain, synchronisation);
+        }
+        else
+        {
+            synchronisation.run();
+        }
+    }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.Collection;
+import java.util.Date;
+
+import org.alfresco.repo.security.sync.UserRegistry;
+
+/**
+ * Instances of this interface are capable of reporting entries that have been deleted from the backing directory since a specific point
+ * in time, e.g. by querying tombstones retained by the directory server. This allows deletions to be handled in differential
+ * synchronisations without comparing the full set of {@link UserRegistry#getPersonNames() person} and {@link UserRegistry#getGroupNames()
+ * group} names with the repository.
+ *
+ * Implementations may report names of entries that have already been deleted in the repository or that were never synchronised from the
+ * registry in the first place. Callers are expected to filter reported names accordingly.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public interface TombstoneUserRegistry extends UserRegistry
+{
+
+    /**
+     * Checks if tombstone queries have been enabled for this user registry.
+     *
+     * @return {@code true} if tombstone queries have been enabled, {@code false} otherwise
+     */
+    boolean isTombstoneQueryEnabled();
+
+    /**
+     * Retrieves the names of persons that have been deleted since a specific point in time.
+     *
+     * @param deletedSince
+     *            the point in time of the last check for deleted entries
+     * @return the names of the deleted persons
+     */
+    Collection<String> getDeletedPersonNames(Date deletedSince);
+
+    /**
+     * Retrieves the names of groups that have been deleted since a specific point in time.
+     *
+     * @param deletedSince
+     *            the point in time of the last check for deleted entries
+     * @return the names of the deleted groups
+     */
+    Collection<String> getDeletedGroupNames(Date deletedSince);
+}
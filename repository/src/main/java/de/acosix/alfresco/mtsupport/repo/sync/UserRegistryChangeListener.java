@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.io.Closeable;
+
+import org.alfresco.repo.security.sync.NodeDescription;
+
+/**
+ * Instances of this interface receive entries from a {@link ChangeListeningUserRegistry} as they are changed in the backing directory.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public interface UserRegistryChangeListener
+{
+
+    /**
+     * Checks if this listener is still interested in receiving changes. A user registry will stop listening for changes as soon as this
+     * operation returns {@code false}.
+     *
+     * @return {@code true} if this listener is still active, {@code false} otherwise
+     */
+    boolean isActive();
+
+    /**
+     * Notifies this listener that the user registry has established a connection to listen for changes. The provided handle may be used
+     * to close the connection in order to abort a blocking listen operation.
+     *
+     * @param connection
+     *            the handle to the listening connection
+     */
+    void onListening(Closeable connection);
+
+    /**
+     * Notifies this listener about an entry that has been added or changed in the backing directory.
+     *
+     * @param entry
+     *            the changed entry
+     */
+    void onChange(NodeDescription entry);
+}
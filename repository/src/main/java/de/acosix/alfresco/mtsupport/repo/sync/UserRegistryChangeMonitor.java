@@ -0,0 +1,421 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.security.sync.NodeDescription;
+import org.alfresco.repo.tenant.TenantService;
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.util.ParameterCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of this class listen for changes in a single {@link ChangeListeningUserRegistry user registry} of a single tenant and
+ * collect changed entries into micro-batches which are regularly handed off for processing. Changes to the same entry within one
+ * micro-batch are merged, so that only the latest state of the entry is processed.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class UserRegistryChangeMonitor
+{
+
+    /**
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    @FunctionalInterface
+    public static interface ChangeProcessor
+    {
+
+        /**
+         * Processes a micro-batch of changed entries. This operation will always be called in the context of the tenant of the monitored
+         * user registry.
+         *
+         * @param groups
+         *            the changed groups
+         * @param persons
+         *            the changed persons
+         * @throws LockAcquisitionException
+         *             if the changes cannot be processed at this time and should be retried with the next micro-batch
+         */
+        void processChanges(Collection<NodeDescription> groups, Collection<NodeDescription> persons);
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserRegistryChangeMonitor.class);
+
+    protected final String tenantDomain;
+
+    protected final String id;
+
+    protected final ChangeListeningUserRegistry userRegistry;
+
+    protected final ChangeProcessor changeProcessor;
+
+    protected final ScheduledExecutorService scheduler;
+
+    protected final ThreadFactory threadFactory;
+
+    protected final int batchSize;
+
+    protected final long flushDelay;
+
+    protected final long reconnectDelay;
+
+    protected final AtomicBoolean active = new AtomicBoolean(false);
+
+    protected final ReentrantLock flushLock = new ReentrantLock();
+
+    protected final Map<String, NodeDescription> pendingGroups = new LinkedHashMap<>();
+
+    protected final Map<String, NodeDescription> pendingPersons = new LinkedHashMap<>();
+
+    protected final List<ChangeStream> changeStreams = new ArrayList<>(2);
+
+    protected ScheduledFuture<?> flushFuture;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param tenantDomain
+     *            the tenant domain of the monitored user registry
+     * @param id
+     *            the ID of the monitored user registry
+     * @param userRegistry
+     *            the monitored user registry
+     * @param changeProcessor
+     *            the processor for micro-batches of changed entries
+     * @param scheduler
+     *            the scheduler for processing micro-batches
+     * @param threadFactory
+     *            the factory for the (long-lived) listener threads
+     * @param batchSize
+     *            the number of changed entries that immediately triggers processing of a micro-batch
+     * @param flushDelay
+     *            the delay in milliseconds between regular processing of micro-batches
+     * @param reconnectDelay
+     *            the delay in milliseconds before listening for changes is resumed after an error
+     */
+    public UserRegistryChangeMonitor(final String tenantDomain, final String id, final ChangeListeningUserRegistry userRegistry,
+            final ChangeProcessor changeProcessor, final ScheduledExecutorService scheduler, final ThreadFactory threadFactory,
+            final int batchSize, final long flushDelay, final long reconnectDelay)
+    {
+        ParameterCheck.mandatory("tenantDomain", tenantDomain);
+        ParameterCheck.mandatoryString("id", id);
+        ParameterCheck.mandatory("userRegistry", userRegistry);
+        ParameterCheck.mandatory("changeProcessor", changeProcessor);
+        ParameterCheck.mandatory("scheduler", scheduler);
+        ParameterCheck.mandatory("threadFactory", threadFactory);
+
+        this.tenantDomain = tenantDomain;
+        this.id = id;
+        this.userRegistry = userRegistry;
+        this.changeProcessor = changeProcessor;
+        this.scheduler = scheduler;
+        this.threadFactory = threadFactory;
+        this.batchSize = batchSize;
+        this.flushDelay = flushDelay;
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    /**
+     * Starts listening for changes unless this instance has already been started.
+     */
+    public synchronized void start()
+    {
+        if (this.active.compareAndSet(false, true))
+        {
+            LOGGER.info("Starting to listen for changes in user registry {} of tenant {}", this.id, this.getTenantLabel());
+
+            this.changeStreams.add(new ChangeStream(true));
+            this.changeStreams.add(new ChangeStream(false));
+            for (final ChangeStream changeStream : this.changeStreams)
+            {
+                final Thread thread = this.threadFactory.newThread(changeStream);
+                changeStream.thread = thread;
+                thread.start();
+            }
+
+            this.flushFuture = this.scheduler.scheduleWithFixedDelay(this::flush, this.flushDelay, this.flushDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops listening for changes. Any changed entries that have not yet been processed are discarded and will be processed by the next
+     * regular synchronisation.
+     */
+    public synchronized void stop()
+    {
+        if (this.active.compareAndSet(true, false))
+        {
+            LOGGER.info("Stopping to listen for changes in user registry {} of tenant {}", this.id, this.getTenantLabel());
+
+            this.flushFuture.cancel(false);
+            this.flushFuture = null;
+
+            this.changeStreams.forEach(ChangeStream::stop);
+            this.changeStreams.clear();
+
+            synchronized (this.pendingGroups)
+            {
+                LOGGER.debug("Discarding {} changed groups and {} changed persons", this.pendingGroups.size(), this.pendingPersons.size());
+                this.pendingGroups.clear();
+                this.pendingPersons.clear();
+            }
+        }
+    }
+
+    /**
+     * Checks if this instance is currently listening for changes.
+     *
+     * @return {@code true} if this instance is listening for changes, {@code false} otherwise
+     */
+    public boolean isActive()
+    {
+        return this.active.get();
+    }
+
+    protected void enqueue(final boolean group, final NodeDescription entry)
+    {
+        final boolean flushImmediately;
+        // pendingGroups also guards pendingPersons
+        synchronized (this.pendingGroups)
+        {
+            final Map<String, NodeDescription> pending = group ? this.pendingGroups : this.pendingPersons;
+            // remove first so that a changed entry moves to the end of the micro-batch
+            pending.remove(entry.getSourceId());
+            pending.put(entry.getSourceId(), entry);
+
+            flushImmediately = this.pendingGroups.size() + this.pendingPersons.size() >= this.batchSize;
+        }
+
+        if (flushImmediately && this.active.get())
+        {
+            this.scheduler.execute(this::flush);
+        }
+    }
+
+    protected void requeue(final Collection<NodeDescription> groups, final Collection<NodeDescription> persons)
+    {
+        synchronized (this.pendingGroups)
+        {
+            // any entry received in the meantime represents a more recent state
+            groups.forEach(group -> this.pendingGroups.putIfAbsent(group.getSourceId(), group));
+            persons.forEach(person -> this.pendingPersons.putIfAbsent(person.getSourceId(), person));
+        }
+    }
+
+    protected void flush()
+    {
+        // a flush that is already in progress will be followed by a regular flush for any changes it did not pick up
+        if (this.flushLock.tryLock())
+        {
+            try
+            {
+                final List<NodeDescription> groups;
+                final List<NodeDescription> persons;
+                synchronized (this.pendingGroups)
+                {
+                    groups = new ArrayList<>(this.pendingGroups.values());
+                    persons = new ArrayList<>(this.pendingPersons.values());
+                    this.pendingGroups.clear();
+                    this.pendingPersons.clear();
+                }
+
+                if (this.active.get() && (!groups.isEmpty() || !persons.isEmpty()))
+                {
+                    LOGGER.debug("Processing micro-batch of {} changed groups and {} changed persons from user registry {} of tenant {}",
+                            groups.size(), persons.size(), this.id, this.getTenantLabel());
+                    try
+                    {
+                        TenantUtil.runAsSystemTenant(() -> {
+                            this.changeProcessor.processChanges(groups, persons);
+                            return null;
+                        }, this.tenantDomain);
+                    }
+                    catch (final LockAcquisitionException laex)
+                    {
+                        LOGGER.debug("Synchronisation of tenant {} is currently running - retrying changes with next micro-batch",
+                                this.getTenantLabel());
+                        this.requeue(groups, persons);
+                    }
+                    catch (final RuntimeException e)
+                    {
+                        // regular synchronisation will pick up these changes eventually
+                        LOGGER.warn("Failed to process changes from user registry {} of tenant {}", this.id, this.getTenantLabel(), e);
+                    }
+                }
+            }
+            finally
+            {
+                this.flushLock.unlock();
+            }
+        }
+    }
+
+    protected String getTenantLabel()
+    {
+        return TenantService.DEFAULT_DOMAIN.equals(this.tenantDomain) ? TenantUtil.DEFAULT_TENANT : this.tenantDomain;
+    }
+
+    /**
+     * Instances of this class listen for changes of either groups or persons in the monitored user registry, each in a dedicated thread.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected class ChangeStream implements UserRegistryChangeListener, Runnable
+    {
+
+        protected final boolean groups;
+
+        protected volatile Thread thread;
+
+        protected volatile Closeable connection;
+
+        protected ChangeStream(final boolean groups)
+        {
+            this.groups = groups;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isActive()
+        {
+            return UserRegistryChangeMonitor.this.active.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onListening(final Closeable connection)
+        {
+            this.connection = connection;
+            // monitor may have been stopped while the connection was being established
+            if (!this.isActive())
+            {
+                this.closeConnection();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onChange(final NodeDescription entry)
+        {
+            UserRegistryChangeMonitor.this.enqueue(this.groups, entry);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run()
+        {
+            TenantUtil.runAsSystemTenant(() -> {
+                this.listen();
+                return null;
+            }, UserRegistryChangeMonitor.this.tenantDomain);
+        }
+
+        protected void listen()
+        {
+            while (this.isActive())
+            {
+                try
+                {
+                    if (this.groups)
+                    {
+                        UserRegistryChangeMonitor.this.userRegistry.listenForGroupChanges(this);
+                    }
+                    else
+                    {
+                        UserRegistryChangeMonitor.this.userRegistry.listenForPersonChanges(this);
+                    }
+                }
+                catch (final RuntimeException e)
+                {
+                    if (this.isActive())
+                    {
+                        LOGGER.warn("Failed to listen for {} changes in user registry {} of tenant {} - retrying in {} ms",
+                                this.groups ? "group" : "person", UserRegistryChangeMonitor.this.id,
+                                UserRegistryChangeMonitor.this.getTenantLabel(), UserRegistryChangeMonitor.this.reconnectDelay, e);
+                    }
+                }
+                finally
+                {
+                    this.connection = null;
+                }
+
+                if (this.isActive())
+                {
+                    try
+                    {
+                        Thread.sleep(UserRegistryChangeMonitor.this.reconnectDelay);
+                    }
+                    catch (final InterruptedException e)
+                    {
+                        LOGGER.debug("Listener thread interrupted while waiting to reconnect");
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+
+        protected void stop()
+        {
+            this.closeConnection();
+            final Thread thread = this.thread;
+            if (thread != null)
+            {
+                thread.interrupt();
+            }
+        }
+
+        protected void closeConnection()
+        {
+            final Closeable connection = this.connection;
+            if (connection != null)
+            {
+                try
+                {
+                    connection.close();
+                }
+                catch (final IOException e)
+                {
+                    LOGGER.debug("Error when closing listening connection", e);
+                }
+            }
+        }
+    }
+}
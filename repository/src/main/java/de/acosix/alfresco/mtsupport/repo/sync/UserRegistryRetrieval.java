@@ -0,0 +1,261 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.alfresco.repo.security.sync.NodeDescription;
+import org.alfresco.repo.security.sync.UserRegistry;
+import org.alfresco.util.ParameterCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of this class hold the parameters for retrieving the groups and persons of a single user registry in one synchronisation run.
+ * Since these parameters only depend on the state recorded for the user registry itself, they can be determined - and the entries can be
+ * {@link #prefetch(Executor, int) prefetched} - while another user registry is still being processed. Instances need to be
+ * {@link #close() closed} once the user registry has been processed, so that any resources held by entries which have not been iterated to
+ * the end are released.
+ *
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class UserRegistryRetrieval implements AutoCloseable
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserRegistryRetrieval.class);
+
+    protected final String id;
+
+    protected final UserRegistry userRegistry;
+
+    protected final ChangeTrackingUserRegistry changeTrackingUserRegistry;
+
+    protected final Date groupLastModified;
+
+    protected final Date personLastModified;
+
+    protected final String changeMarker;
+
+    protected final String newChangeMarker;
+
+    protected PrefetchingNodeCollection prefetchedGroups;
+
+    protected PrefetchingNodeCollection prefetchedPersons;
+
+    protected boolean prefetchedGroupsProvided = false;
+
+    protected boolean prefetchedPersonsProvided = false;
+
+    protected final List<Collection<NodeDescription>> retrievedCollections = new ArrayList<>();
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param id
+     *            the ID of the user registry
+     * @param userRegistry
+     *            the user registry
+     * @param changeTrackingUserRegistry
+     *            the user registry if it tracks changes and change tracking is enabled - may be {@code null}
+     * @param groupLastModified
+     *            the time of the latest group modification already processed - may be {@code null} to retrieve all groups
+     * @param personLastModified
+     *            the time of the latest person modification already processed - may be {@code null} to retrieve all persons
+     * @param changeMarker
+     *            the marker from which to retrieve changed entries - may be {@code null} to retrieve entries by modification time
+     * @param newChangeMarker
+     *            the marker to record once all entries have been processed - may be {@code null}
+     */
+    public UserRegistryRetrieval(final String id, final UserRegistry userRegistry,
+            final ChangeTrackingUserRegistry changeTrackingUserRegistry, final Date groupLastModified, final Date personLastModified,
+            final String changeMarker, final String newChangeMarker)
+    {
+        ParameterCheck.mandatoryString("id", id);
+        ParameterCheck.mandatory("userRegistry", userRegistry);
+        if (changeMarker != null)
+        {
+            ParameterCheck.mandatory("changeTrackingUserRegistry", changeTrackingUserRegistry);
+        }
+
+        this.id = id;
+        this.userRegistry = userRegistry;
+        this.changeTrackingUserRegistry = changeTrackingUserRegistry;
+        this.groupLastModified = groupLastModified;
+        this.personLastModified = personLastModified;
+        this.changeMarker = changeMarker;
+        this.newChangeMarker = newChangeMarker;
+    }
+
+    /**
+     * @return the id
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * @return the groupLastModified
+     */
+    public Date getGroupLastModified()
+    {
+        return this.groupLastModified;
+    }
+
+    /**
+     * @return the personLastModified
+     */
+    public Date getPersonLastModified()
+    {
+        return this.personLastModified;
+    }
+
+    /**
+     * @return the changeMarker
+     */
+    public String getChangeMarker()
+    {
+        return this.changeMarker;
+    }
+
+    /**
+     * @return the newChangeMarker
+     */
+    public String getNewChangeMarker()
+    {
+        return this.newChangeMarker;
+    }
+
+    /**
+     * Starts retrieving the groups and persons of the user registry in the background.
+     *
+     * @param executor
+     *            the executor to retrieve entries with
+     * @param bufferSize
+     *            the maximum number of groups and persons each to retrieve ahead of processing
+     */
+    public synchronized void prefetch(final Executor executor, final int bufferSize)
+    {
+        if (this.prefetchedGroups == null)
+        {
+            this.prefetchedGroups = new PrefetchingNodeCollection("groups of user registry " + this.id, this::retrieveGroups, bufferSize);
+            this.prefetchedPersons = new PrefetchingNodeCollection("persons of user registry " + this.id, this::retrievePersons,
+                    bufferSize);
+            this.prefetchedGroups.start(executor);
+            this.prefetchedPersons.start(executor);
+        }
+    }
+
+    /**
+     * Retrieves the groups of the user registry, using prefetched groups if available. As prefetched groups can only be iterated once, they
+     * are only provided on the first call, and any further call retrieves the groups again.
+     *
+     * @return the groups
+     */
+    public synchronized Collection<NodeDescription> getGroups()
+    {
+        final Collection<NodeDescription> groups;
+        if (this.prefetchedGroups != null && !this.prefetchedGroupsProvided)
+        {
+            this.prefetchedGroupsProvided = true;
+            groups = this.prefetchedGroups;
+        }
+        else
+        {
+            groups = this.retrieveGroups();
+        }
+        return groups;
+    }
+
+    /**
+     * Retrieves the persons of the user registry, using prefetched persons if available. As prefetched persons can only be iterated once,
+     * they are only provided on the first call, and any further call retrieves the persons again.
+     *
+     * @return the persons
+     */
+    public synchronized Collection<NodeDescription> getPersons()
+    {
+        final Collection<NodeDescription> persons;
+        if (this.prefetchedPersons != null && !this.prefetchedPersonsProvided)
+        {
+            this.prefetchedPersonsProvided = true;
+            persons = this.prefetchedPersons;
+        }
+        else
+        {
+            persons = this.retrievePersons();
+        }
+        return persons;
+    }
+
+    /**
+     * Stops any retrieval of entries in the background and closes any retrieved entries holding resources.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (this.prefetchedGroups != null)
+        {
+            this.prefetchedGroups.close();
+            this.prefetchedPersons.close();
+        }
+
+        synchronized (this.retrievedCollections)
+        {
+            for (final Collection<NodeDescription> retrievedCollection : this.retrievedCollections)
+            {
+                try
+                {
+                    ((AutoCloseable) retrievedCollection).close();
+                }
+                catch (final Exception e)
+                {
+                    LOGGER.warn("Failed to close entries retrieved from user registry {}", this.id, e);
+                }
+            }
+            this.retrievedCollections.clear();
+        }
+    }
+
+    protected Collection<NodeDescription> retrieveGroups()
+    {
+        return this.track(this.changeMarker != null ? this.changeTrackingUserRegistry.getGroupsChangedSince(this.changeMarker)
+                : this.userRegistry.getGroups(this.groupLastModified));
+    }
+
+    protected Collection<NodeDescription> retrievePersons()
+    {
+        return this.track(this.changeMarker != null ? this.changeTrackingUserRegistry.getPersonsChangedSince(this.changeMarker)
+                : this.userRegistry.getPersons(this.personLastModified));
+    }
+
+    protected Collection<NodeDescription> track(final Collection<NodeDescription> retrievedCollection)
+    {
+        // entries may be retrieved in the background, so tracking must not synchronise on this instance
+        if (retrievedCollection instanceof AutoCloseable)
+        {
+            synchronized (this.retrievedCollections)
+            {
+                this.retrievedCollections.add(retrievedCollection);
+            }
+        }
+        return retrievedCollection;
+    }
+}
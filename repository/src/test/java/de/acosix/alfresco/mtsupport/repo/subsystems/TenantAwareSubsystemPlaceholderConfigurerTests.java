@@ -0,0 +1,350 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.subsystems;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.config.PropertyPlaceholderConfigurer;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+
+import de.acosix.alfresco.mtsupport.repo.beans.TenantBeanUtils;
+
+/**
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class TenantAwareSubsystemPlaceholderConfigurerTests
+{
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TenantAwareSubsystemPlaceholderConfigurerTests.class);
+
+    private static final int BENCHMARK_TENANTS = 200;
+
+    private static final int BENCHMARK_BEANS_PER_TENANT = 20;
+
+    private static final int BENCHMARK_ROUNDS = 5;
+
+    private static final String PROPERTY_ONLY_KEY = "acosix.test.propertyOnly";
+
+    private static final String SYSTEM_ONLY_KEY = "acosix.test.systemOnly";
+
+    private static final String SHARED_KEY = "acosix.test.shared";
+
+    private static final String MISSING_KEY = "acosix.test.missing";
+
+    private static final String CRON_PLACEHOLDER = "synchronization" + TenantBeanUtils.TENANT_PLACEHOLDER_IN_PLACEHOLDER + "import.cron";
+
+    private final List<String> environmentKeys = new ArrayList<>();
+
+    @Before
+    public void setUp()
+    {
+        System.setProperty(SYSTEM_ONLY_KEY, "system");
+        System.setProperty(SHARED_KEY, "system");
+
+        // environment variables cannot be set, so any existing ones not shadowed by system properties are used
+        for (final String environmentKey : System.getenv().keySet())
+        {
+            if (this.environmentKeys.size() < 2 && System.getProperty(environmentKey) == null)
+            {
+                this.environmentKeys.add(environmentKey);
+            }
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        System.clearProperty(SYSTEM_ONLY_KEY);
+        System.clearProperty(SHARED_KEY);
+        TenantAwareSubsystemPlaceholderConfigurer.TENANT_CONTEXT.remove();
+    }
+
+    @Test
+    public void indexMatchesDefaultResolutionWithFallbackMode()
+    {
+        for (final boolean searchSystemEnvironment : Arrays.asList(true, false))
+        {
+            final TenantAwareSubsystemPlaceholderConfigurer configurer = this.assertIndexMatchesDefaultResolution(
+                    PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_FALLBACK, searchSystemEnvironment);
+            Assert.assertEquals("property", this.lookup(configurer, SHARED_KEY));
+            Assert.assertEquals("system", this.lookup(configurer, SYSTEM_ONLY_KEY));
+        }
+    }
+
+    @Test
+    public void indexMatchesDefaultResolutionWithOverrideMode()
+    {
+        for (final boolean searchSystemEnvironment : Arrays.asList(true, false))
+        {
+            final TenantAwareSubsystemPlaceholderConfigurer configurer = this.assertIndexMatchesDefaultResolution(
+                    PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_OVERRIDE, searchSystemEnvironment);
+            Assert.assertEquals("system", this.lookup(configurer, SHARED_KEY));
+        }
+    }
+
+    @Test
+    public void indexMatchesDefaultResolutionWithNeverMode()
+    {
+        for (final boolean searchSystemEnvironment : Arrays.asList(true, false))
+        {
+            final TenantAwareSubsystemPlaceholderConfigurer configurer = this.assertIndexMatchesDefaultResolution(
+                    PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_NEVER, searchSystemEnvironment);
+            Assert.assertEquals("property", this.lookup(configurer, SHARED_KEY));
+            Assert.assertNull(this.lookup(configurer, SYSTEM_ONLY_KEY));
+        }
+    }
+
+    @Test
+    public void addedPropertiesInvalidateTenantPlaceholders()
+    {
+        final Properties properties = new Properties();
+        properties.setProperty("synchronization.import.cron", "0 0 2 * * ?");
+        final TenantAwareSubsystemPlaceholderConfigurer configurer = createConfigurer(properties,
+                PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_FALLBACK, true);
+
+        TenantAwareSubsystemPlaceholderConfigurer.TENANT_CONTEXT.set("tenanta");
+        Assert.assertEquals("0 0 2 * * ?",
+                configurer.resolvePlaceholder(CRON_PLACEHOLDER, properties, PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_FALLBACK));
+
+        final Properties tenantProperties = new Properties();
+        tenantProperties.setProperty("synchronization.tenanta.import.cron", "0 30 3 * * ?");
+        final Properties previousProperties = configurer.addProperties(tenantProperties);
+        Assert.assertTrue(previousProperties.isEmpty());
+        Assert.assertEquals("0 30 3 * * ?",
+                configurer.resolvePlaceholder(CRON_PLACEHOLDER, properties, PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_FALLBACK));
+
+        configurer.revertProperties(tenantProperties, previousProperties);
+        Assert.assertEquals("0 0 2 * * ?",
+                configurer.resolvePlaceholder(CRON_PLACEHOLDER, properties, PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_FALLBACK));
+    }
+
+    @Test
+    public void revertRestoresOverwrittenProperties()
+    {
+        final Properties properties = new Properties();
+        properties.setProperty("a", "1");
+        final TenantAwareSubsystemPlaceholderConfigurer configurer = createConfigurer(properties,
+                PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_NEVER, false);
+
+        final Properties addedProperties = new Properties();
+        addedProperties.setProperty("a", "2");
+        addedProperties.setProperty("b", "3");
+        final Properties previousProperties = configurer.addProperties(addedProperties);
+        Assert.assertEquals(1, previousProperties.size());
+        Assert.assertEquals("1", previousProperties.getProperty("a"));
+        Assert.assertEquals("2", configurer.lookupProperty("a", properties, PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_NEVER));
+        Assert.assertEquals("3", configurer.lookupProperty("b", properties, PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_NEVER));
+
+        configurer.revertProperties(addedProperties, previousProperties);
+        Assert.assertEquals("1", configurer.lookupProperty("a", properties, PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_NEVER));
+        Assert.assertNull(configurer.lookupProperty("b", properties, PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_NEVER));
+    }
+
+    @Test
+    public void tenantPlaceholdersOfOtherPropertiesNotMemoized()
+    {
+        final int fallbackMode = PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_FALLBACK;
+        final Properties properties = new Properties();
+        properties.setProperty("synchronization.import.cron", "0 0 2 * * ?");
+        final TenantAwareSubsystemPlaceholderConfigurer configurer = createConfigurer(properties, fallbackMode, true);
+
+        final Properties otherProperties = new Properties();
+        otherProperties.putAll(properties);
+        otherProperties.setProperty("synchronization.tenanta.import.cron", "0 30 3 * * ?");
+
+        TenantAwareSubsystemPlaceholderConfigurer.TENANT_CONTEXT.set("tenanta");
+        Assert.assertEquals("0 30 3 * * ?", configurer.resolvePlaceholder(CRON_PLACEHOLDER, otherProperties, fallbackMode));
+        Assert.assertEquals("0 0 2 * * ?",
+                configurer.resolvePlaceholder(CRON_PLACEHOLDER, properties, PropertyPlaceholderConfigurer.SYSTEM_PROPERTIES_MODE_NEVER));
+        Assert.assertTrue(configurer.tenantPlaceholderIndex.isEmpty());
+
+        // memoized value of the indexed properties must not leak into the resolution against other properties
+        Assert.assertEquals("0 0 2 * * ?", configurer.resolvePlaceholder(CRON_PLACEHOLDER, properties, fallbackMode));
+        Assert.assertEquals("0 30 3 * * ?", configurer.resolvePlaceholder(CRON_PLACEHOLDER, otherProperties, fallbackMode));
+    }
+
+    @Test
+    public void indexedResolutionOfTenantBeansMatchesUnindexedResolution()
+    {
+        final Properties properties = createBenchmarkProperties();
+
+        long unindexedDuration = Long.MAX_VALUE;
+        long indexedDuration = Long.MAX_VALUE;
+        Map<String, String> unindexedValues = null;
+        Map<String, String> indexedValues = null;
+        // best of several rounds to reduce the impact of JIT compilation and garbage collection on the reported times
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++)
+        {
+            final DefaultListableBeanFactory unindexedBeanFactory = createBenchmarkBeanFactory();
+            final TenantAwareSubsystemPlaceholderConfigurer unindexedConfigurer = new UnindexedPlaceholderConfigurer();
+            unindexedConfigurer.setProperties(properties);
+            long start = System.nanoTime();
+            unindexedConfigurer.postProcessBeanFactory(unindexedBeanFactory);
+            unindexedDuration = Math.min(unindexedDuration, System.nanoTime() - start);
+            unindexedValues = collectValues(unindexedBeanFactory);
+
+            final DefaultListableBeanFactory indexedBeanFactory = createBenchmarkBeanFactory();
+            final TenantAwareSubsystemPlaceholderConfigurer indexedConfigurer = new TenantAwareSubsystemPlaceholderConfigurer();
+            indexedConfigurer.setProperties(properties);
+            start = System.nanoTime();
+            indexedConfigurer.postProcessBeanFactory(indexedBeanFactory);
+            indexedDuration = Math.min(indexedDuration, System.nanoTime() - start);
+            indexedValues = collectValues(indexedBeanFactory);
+        }
+
+        LOGGER.info("Resolved placeholders of {} tenants x {} beans in {} ms without and {} ms with index", BENCHMARK_TENANTS,
+                BENCHMARK_BEANS_PER_TENANT, unindexedDuration / 1000000d, indexedDuration / 1000000d);
+
+        Assert.assertEquals(unindexedValues, indexedValues);
+        Assert.assertEquals("0 30 3 * * ?", indexedValues.get("bean0.tenant-tenant0.cron"));
+        Assert.assertEquals("0 0 2 * * ?", indexedValues.get("bean0.tenant-tenant1.cron"));
+        Assert.assertEquals("tenant1", indexedValues.get("bean0.tenant-tenant1.tenantDomain"));
+    }
+
+    private TenantAwareSubsystemPlaceholderConfigurer assertIndexMatchesDefaultResolution(final int systemPropertiesMode,
+            final boolean searchSystemEnvironment)
+    {
+        final Properties properties = new Properties();
+        properties.setProperty(PROPERTY_ONLY_KEY, "property");
+        properties.setProperty(SHARED_KEY, "property");
+        if (this.environmentKeys.size() > 1)
+        {
+            properties.setProperty(this.environmentKeys.get(1), "property");
+        }
+        final TenantAwareSubsystemPlaceholderConfigurer configurer = createConfigurer(properties, systemPropertiesMode,
+                searchSystemEnvironment);
+
+        // properties other than the merged properties bypass the index
+        final Properties unindexedProperties = new Properties();
+        unindexedProperties.putAll(properties);
+
+        final List<String> keys = new ArrayList<>(Arrays.asList(PROPERTY_ONLY_KEY, SYSTEM_ONLY_KEY, SHARED_KEY, MISSING_KEY));
+        keys.addAll(this.environmentKeys);
+        for (final String key : keys)
+        {
+            Assert.assertEquals(key + " in mode " + systemPropertiesMode + " with environment " + searchSystemEnvironment,
+                    configurer.lookupProperty(key, unindexedProperties, systemPropertiesMode),
+                    configurer.lookupProperty(key, properties, systemPropertiesMode));
+        }
+        return configurer;
+    }
+
+    private String lookup(final TenantAwareSubsystemPlaceholderConfigurer configurer, final String key)
+    {
+        return configurer.lookupProperty(key, configurer.mergedProperties, configurer.systemPropertiesMode);
+    }
+
+    private static Properties createBenchmarkProperties()
+    {
+        final Properties properties = new Properties();
+        properties.setProperty("synchronization.import.cron", "0 0 2 * * ?");
+        properties.setProperty("synchronization.import.cronStaggerWindow", "600");
+        properties.setProperty("synchronization.synchronizeChangesOnly", "true");
+        properties.setProperty("synchronization.workerThreads", "2");
+        for (int tenant = 0; tenant < BENCHMARK_TENANTS; tenant++)
+        {
+            // typical configuration overrides only few properties for few tenants
+            if (tenant % 10 == 0)
+            {
+                properties.setProperty("synchronization.tenant" + tenant + ".import.cron", "0 30 3 * * ?");
+            }
+            properties.setProperty("ldap.authentication.tenant" + tenant + ".java.naming.provider.url", "ldap://ldap" + tenant + ":389");
+        }
+        return properties;
+    }
+
+    private static DefaultListableBeanFactory createBenchmarkBeanFactory()
+    {
+        final DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        for (int tenant = 0; tenant < BENCHMARK_TENANTS; tenant++)
+        {
+            for (int bean = 0; bean < BENCHMARK_BEANS_PER_TENANT; bean++)
+            {
+                final MutablePropertyValues propertyValues = new MutablePropertyValues();
+                propertyValues.add("cron", new TypedStringValue("${synchronization.thisTenant.import.cron}"));
+                propertyValues.add("staggerWindow", new TypedStringValue("${synchronization.thisTenant.import.cronStaggerWindow}"));
+                propertyValues.add("changesOnly", new TypedStringValue("${synchronization.thisTenant.synchronizeChangesOnly}"));
+                propertyValues.add("workerThreads", new TypedStringValue("${synchronization.thisTenant.workerThreads}"));
+                propertyValues.add("providerUrl", new TypedStringValue("${ldap.authentication.thisTenant.java.naming.provider.url}"));
+                propertyValues.add("tenantDomain", new TypedStringValue("${tenant}"));
+
+                final GenericBeanDefinition beanDefinition = new GenericBeanDefinition();
+                beanDefinition.setPropertyValues(propertyValues);
+                beanFactory.registerBeanDefinition("bean" + bean + TenantBeanUtils.TENANT_BEAN_NAME_PATTERN + "tenant" + tenant,
+                        beanDefinition);
+            }
+        }
+        return beanFactory;
+    }
+
+    private static Map<String, String> collectValues(final DefaultListableBeanFactory beanFactory)
+    {
+        final Map<String, String> values = new HashMap<>();
+        for (final String beanName : beanFactory.getBeanDefinitionNames())
+        {
+            final MutablePropertyValues propertyValues = beanFactory.getBeanDefinition(beanName).getPropertyValues();
+            for (final PropertyValue propertyValue : propertyValues.getPropertyValues())
+            {
+                values.put(beanName + "." + propertyValue.getName(), ((TypedStringValue) propertyValue.getValue()).getValue());
+            }
+        }
+        return values;
+    }
+
+    private static TenantAwareSubsystemPlaceholderConfigurer createConfigurer(final Properties properties, final int systemPropertiesMode,
+            final boolean searchSystemEnvironment)
+    {
+        final TenantAwareSubsystemPlaceholderConfigurer configurer = new TenantAwareSubsystemPlaceholderConfigurer();
+        configurer.setSystemPropertiesMode(systemPropertiesMode);
+        configurer.setSearchSystemEnvironment(searchSystemEnvironment);
+        configurer.processProperties(new DefaultListableBeanFactory(), properties);
+        return configurer;
+    }
+
+    /**
+     * Resolves placeholders without the index / memo, as they were resolved before the properties were indexed.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    private static class UnindexedPlaceholderConfigurer extends TenantAwareSubsystemPlaceholderConfigurer
+    {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void indexProperties()
+        {
+            this.propertyIndex = null;
+            this.tenantPlaceholderIndex.clear();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class AuthorityDictionaryTests
+{
+
+    @Test
+    public void idsAreDenseAndStable()
+    {
+        final AuthorityDictionary dictionary = new AuthorityDictionary(true);
+        Assert.assertEquals(0, dictionary.size());
+
+        Assert.assertEquals(0, dictionary.getOrAssignId("GROUP_a"));
+        Assert.assertEquals(1, dictionary.getOrAssignId("userA"));
+        Assert.assertEquals(0, dictionary.getOrAssignId("GROUP_a"));
+        Assert.assertEquals(2, dictionary.size());
+
+        Assert.assertEquals(1, dictionary.getId("userA"));
+        Assert.assertEquals(-1, dictionary.getId("userB"));
+        Assert.assertEquals(-1, dictionary.getId(null));
+        Assert.assertEquals(2, dictionary.size());
+
+        Assert.assertEquals("GROUP_a", dictionary.getName(0));
+        Assert.assertEquals("userA", dictionary.getName(1));
+    }
+
+    @Test
+    public void capacityGrowsBeyondInitialSize()
+    {
+        final AuthorityDictionary dictionary = new AuthorityDictionary(true);
+        for (int idx = 0; idx < 5000; idx++)
+        {
+            Assert.assertEquals(idx, dictionary.getOrAssignId("user" + idx));
+        }
+        Assert.assertEquals(5000, dictionary.size());
+        Assert.assertEquals("user4321", dictionary.getName(4321));
+    }
+
+    @Test
+    public void caseInsensitiveUserNames()
+    {
+        final AuthorityDictionary dictionary = new AuthorityDictionary(false);
+        final int userId = dictionary.getOrAssignId("UserA");
+        Assert.assertEquals(userId, dictionary.getOrAssignId("usera"));
+        Assert.assertEquals(userId, dictionary.getId("USERA"));
+        Assert.assertEquals("UserA", dictionary.getName(userId));
+
+        // group names are always case-sensitive
+        final int groupId = dictionary.getOrAssignId("GROUP_A");
+        Assert.assertNotEquals(groupId, dictionary.getOrAssignId("GROUP_a"));
+    }
+
+    @Test
+    public void caseSensitiveUserNames()
+    {
+        final AuthorityDictionary dictionary = new AuthorityDictionary(true);
+        Assert.assertNotEquals(dictionary.getOrAssignId("UserA"), dictionary.getOrAssignId("usera"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownIdRejected()
+    {
+        new AuthorityDictionary(true).getName(0);
+    }
+}
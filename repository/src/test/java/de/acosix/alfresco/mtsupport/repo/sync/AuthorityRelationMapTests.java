@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.acosix.alfresco.mtsupport.repo.sync.AuthorityRelationMap.RelationGroup;
+
+/**
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class AuthorityRelationMapTests
+{
+
+    // small enough for relations of a few hundred users to be spilled
+    private static final long SMALL_BUDGET = 1024;
+
+    @Test
+    public void inMemoryRelations()
+    {
+        final AuthorityRelationMap map = new AuthorityRelationMap(new AuthorityDictionary(true));
+        map.addRelation("userA", "GROUP_a");
+        map.addRelation("userA", "GROUP_b");
+        map.addRelation("userB", "GROUP_a");
+        map.addRelation("userA", "GROUP_a");
+
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("GROUP_a", "GROUP_b")), map.get("userA"));
+        Assert.assertTrue(map.containsKey("userB"));
+        Assert.assertFalse(map.containsKey("userC"));
+        Assert.assertNull(map.get("GROUP_a"));
+
+        // an authority without any remaining relations is still known, e.g. as a group without members
+        map.removeRelation("userB", "GROUP_a");
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals(Collections.emptySet(), map.get("userB"));
+
+        map.putRelationsIfAbsent("userA", Collections.singleton("GROUP_c"));
+        map.putRelationsIfAbsent("userC", Collections.singleton("GROUP_c"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("GROUP_a", "GROUP_b")), map.get("userA"));
+        Assert.assertEquals(Collections.singleton("GROUP_c"), map.get("userC"));
+    }
+
+    @Test
+    public void spilledRelationsMatchInMemoryRelations()
+    {
+        final AuthorityDictionary dictionary = new AuthorityDictionary(true);
+        final AuthorityRelationMap inMemoryMap = new AuthorityRelationMap(dictionary);
+        final AuthorityRelationMap spilledMap = new AuthorityRelationMap(dictionary, "test", SMALL_BUDGET, 2);
+        try
+        {
+            this.addRelations(inMemoryMap);
+            this.addRelations(spilledMap);
+
+            Assert.assertEquals(inMemoryMap.size(), spilledMap.size());
+            Assert.assertEquals(this.toMap(inMemoryMap), this.toMap(spilledMap));
+            Assert.assertEquals(inMemoryMap.get("user42"), spilledMap.get("user42"));
+            Assert.assertFalse(spilledMap.containsKey("GROUP_g0"));
+        }
+        finally
+        {
+            spilledMap.release();
+        }
+    }
+
+    @Test
+    public void spilledMapOnlySupportsAdditions()
+    {
+        final AuthorityRelationMap map = new AuthorityRelationMap(new AuthorityDictionary(true), "test", SMALL_BUDGET, 1);
+        try
+        {
+            map.addRelation("userA", "GROUP_a");
+            map.removeRelation("userA", "GROUP_a");
+            Assert.fail("Removal should not be supported");
+        }
+        catch (final UnsupportedOperationException expected)
+        {
+            // expected
+        }
+        finally
+        {
+            map.release();
+        }
+    }
+
+    @Test
+    public void sizeCountsDistinctSources()
+    {
+        final AuthorityRelationMap map = new AuthorityRelationMap(new AuthorityDictionary(true), "test", SMALL_BUDGET, 2);
+        try
+        {
+            Assert.assertEquals(0, map.size());
+            Assert.assertTrue(map.isEmpty());
+
+            this.addRelations(map);
+            // sources are counted on addition, not by reading spilled relations
+            Assert.assertEquals(300, map.size());
+            Assert.assertFalse(map.isEmpty());
+        }
+        finally
+        {
+            map.release();
+        }
+    }
+
+    @Test
+    public void groupIteratorInAscendingSourceOrder()
+    {
+        for (final boolean spilled : new boolean[] { false, true })
+        {
+            final AuthorityDictionary dictionary = new AuthorityDictionary(true);
+            final AuthorityRelationMap map = spilled ? new AuthorityRelationMap(dictionary, "test", SMALL_BUDGET, 2)
+                    : new AuthorityRelationMap(dictionary);
+            try
+            {
+                // identifiers are assigned in ascending order while relations are added in descending order
+                for (int idx = 0; idx < 300; idx++)
+                {
+                    dictionary.getOrAssignId("user" + idx);
+                }
+                this.addRelations(map);
+
+                final Iterator<RelationGroup> groupIterator = map.groupIterator();
+                int lastSourceId = -1;
+                int groups = 0;
+                while (groupIterator.hasNext())
+                {
+                    final RelationGroup group = groupIterator.next();
+                    Assert.assertTrue(group.getSourceId() > lastSourceId);
+                    Assert.assertEquals(dictionary.getName(group.getSourceId()), group.getSource());
+                    Assert.assertEquals(this.expectedParents(group.getSourceId()), group.getTargets());
+                    lastSourceId = group.getSourceId();
+                    groups++;
+                }
+                Assert.assertEquals(300, groups);
+            }
+            finally
+            {
+                map.release();
+            }
+        }
+    }
+
+    @Test
+    public void invert()
+    {
+        for (final boolean spilled : new boolean[] { false, true })
+        {
+            final AuthorityDictionary dictionary = new AuthorityDictionary(true);
+            final AuthorityRelationMap map = spilled ? new AuthorityRelationMap(dictionary, "test", SMALL_BUDGET, 2)
+                    : new AuthorityRelationMap(dictionary);
+            try
+            {
+                this.addRelations(map);
+                final AuthorityRelationMap inverted = map.invert();
+
+                Assert.assertEquals(5, inverted.size());
+                final Map<String, Set<String>> expected = new HashMap<>();
+                for (final Map.Entry<String, Set<String>> entry : this.toMap(map).entrySet())
+                {
+                    for (final String parent : entry.getValue())
+                    {
+                        expected.computeIfAbsent(parent, x -> new HashSet<>()).add(entry.getKey());
+                    }
+                }
+                Assert.assertEquals(expected, this.toMap(inverted));
+            }
+            finally
+            {
+                map.release();
+            }
+        }
+    }
+
+    @Test
+    public void releaseClosesDerivedMaps()
+    {
+        final AuthorityRelationMap map = new AuthorityRelationMap(new AuthorityDictionary(true), "test", SMALL_BUDGET, 1);
+        this.addRelations(map);
+        final AuthorityRelationMap inverted = map.invert();
+
+        map.release();
+
+        try
+        {
+            inverted.groupIterator();
+            Assert.fail("Released map should not be usable");
+        }
+        catch (final IllegalStateException expected)
+        {
+            // expected
+        }
+    }
+
+    protected void addRelations(final AuthorityRelationMap map)
+    {
+        for (int idx = 299; idx >= 0; idx--)
+        {
+            for (int groupIdx = 0; groupIdx < 5; groupIdx++)
+            {
+                if ((idx + groupIdx) % 3 == 0 || groupIdx == 4)
+                {
+                    map.addRelation("user" + idx, "GROUP_g" + groupIdx);
+                }
+            }
+        }
+    }
+
+    protected Set<String> expectedParents(final int userIdx)
+    {
+        final Set<String> parents = new HashSet<>();
+        for (int groupIdx = 0; groupIdx < 5; groupIdx++)
+        {
+            if ((userIdx + groupIdx) % 3 == 0 || groupIdx == 4)
+            {
+                parents.add("GROUP_g" + groupIdx);
+            }
+        }
+        return parents;
+    }
+
+    protected Map<String, Set<String>> toMap(final AuthorityRelationMap map)
+    {
+        final Map<String, Set<String>> result = new HashMap<>();
+        final Iterator<RelationGroup> groupIterator = map.groupIterator();
+        while (groupIterator.hasNext())
+        {
+            final RelationGroup group = groupIterator.next();
+            Assert.assertNull(result.put(group.getSource(), new HashSet<>(group.getTargets())));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class SpillingLongSetTests
+{
+
+    // minimum capacity of a stripe - 64 values - with a single stripe
+    private static final long SMALL_BUDGET = 1024;
+
+    @Test
+    public void addAndContainsWithinBudget()
+    {
+        try (final SpillingLongSet set = new SpillingLongSet("test", 1024 * 1024, 1))
+        {
+            Assert.assertTrue(set.isEmpty());
+
+            set.add(42);
+            set.add(-42);
+            set.add(42);
+
+            Assert.assertFalse(set.isEmpty());
+            Assert.assertTrue(set.contains(42));
+            Assert.assertTrue(set.contains(-42));
+            Assert.assertFalse(set.contains(43));
+            Assert.assertTrue(this.runFiles(set).isEmpty());
+            Assert.assertEquals(Arrays.asList(Long.valueOf(-42), Long.valueOf(42)), this.toList(set.iterator()));
+        }
+    }
+
+    @Test
+    public void addContainsAndIterateAcrossSpillThreshold()
+    {
+        final TreeSet<Long> expected = new TreeSet<>();
+        final Random random = new Random(42);
+        try (final SpillingLongSet set = new SpillingLongSet("test", SMALL_BUDGET, 2))
+        {
+            for (int idx = 0; idx < 1000; idx++)
+            {
+                final long value = random.nextLong();
+                set.add(value);
+                expected.add(Long.valueOf(value));
+            }
+            // duplicates across spilled runs
+            for (final Long value : new ArrayList<>(expected).subList(0, 100))
+            {
+                set.add(value.longValue());
+            }
+
+            Assert.assertFalse(this.runFiles(set).isEmpty());
+            for (final Long value : expected)
+            {
+                Assert.assertTrue(set.contains(value.longValue()));
+            }
+            Assert.assertFalse(set.contains(random.nextLong()));
+            Assert.assertEquals(new ArrayList<>(expected), this.toList(set.iterator()));
+        }
+    }
+
+    @Test
+    public void zeroValue()
+    {
+        try (final SpillingLongSet set = new SpillingLongSet("test", SMALL_BUDGET, 1))
+        {
+            Assert.assertFalse(set.contains(0));
+            set.add(0);
+            Assert.assertFalse(set.isEmpty());
+            Assert.assertTrue(set.contains(0));
+
+            for (long value = 1; value <= 200; value++)
+            {
+                set.add(value);
+                set.add(-value);
+            }
+            Assert.assertFalse(this.runFiles(set).isEmpty());
+            Assert.assertTrue(set.contains(0));
+
+            final List<Long> values = this.toList(set.iterator(-1, 1));
+            Assert.assertEquals(Arrays.asList(Long.valueOf(-1), Long.valueOf(0), Long.valueOf(1)), values);
+        }
+    }
+
+    @Test
+    public void rangeIterationAfterSeal()
+    {
+        try (final SpillingLongSet set = new SpillingLongSet("test", SMALL_BUDGET, 1))
+        {
+            for (long value = 1; value <= 500; value++)
+            {
+                set.add(value * 10);
+            }
+
+            Assert.assertEquals(500, this.toList(set.iterator()).size());
+            // repeated reads use the runs sealed by the first read
+            Assert.assertEquals(Arrays.asList(Long.valueOf(1000), Long.valueOf(1010), Long.valueOf(1020)),
+                    this.toList(set.iterator(995, 1020)));
+            Assert.assertEquals(Arrays.asList(Long.valueOf(5000)), this.toList(set.iterator(4991, Long.MAX_VALUE)));
+            Assert.assertTrue(this.toList(set.iterator(1, 9)).isEmpty());
+            Assert.assertTrue(set.contains(2500));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addAfterReadRejected()
+    {
+        try (final SpillingLongSet set = new SpillingLongSet("test", SMALL_BUDGET, 1))
+        {
+            set.add(1);
+            set.iterator();
+            set.add(2);
+        }
+    }
+
+    @Test
+    public void closeDeletesSpilledRuns()
+    {
+        final SpillingLongSet set = new SpillingLongSet("test", SMALL_BUDGET, 1);
+        for (long value = 1; value <= 500; value++)
+        {
+            set.add(value);
+        }
+        final List<File> runFiles = this.runFiles(set);
+        Assert.assertFalse(runFiles.isEmpty());
+
+        set.close();
+        set.close();
+
+        for (final File runFile : runFiles)
+        {
+            Assert.assertFalse(runFile.exists());
+        }
+        try
+        {
+            set.contains(1);
+            Assert.fail("Closed set should not be usable");
+        }
+        catch (final IllegalStateException expected)
+        {
+            // expected
+        }
+    }
+
+    protected List<File> runFiles(final SpillingLongSet set)
+    {
+        final List<File> runFiles = new ArrayList<>();
+        for (final SpillingLongSet.Stripe stripe : set.stripes)
+        {
+            runFiles.addAll(stripe.runFiles);
+        }
+        return runFiles;
+    }
+
+    protected List<Long> toList(final Iterator<Long> iterator)
+    {
+        final List<Long> values = new ArrayList<>();
+        iterator.forEachRemaining(values::add);
+        return values;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import org.alfresco.repo.tenant.TenantUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class StaggeredCronTriggerBeanTests
+{
+
+    private static final int TENANTS = 200;
+
+    @Test
+    public void fixedMinuteCarriesIntoFixedHour()
+    {
+        boolean carried = false;
+        for (int idx = 0; idx < TENANTS; idx++)
+        {
+            final String tenantDomain = "tenant" + idx + ".example.com";
+            final String[] fields = StaggeredCronTriggerBean.staggerCronExpression("0 55 2 * * ?", tenantDomain, 1800).split(" ");
+
+            final int time = Integer.parseInt(fields[2]) * 3600 + Integer.parseInt(fields[1]) * 60 + Integer.parseInt(fields[0]);
+            Assert.assertEquals(2 * 3600 + 55 * 60 + offset(tenantDomain, 1800), time);
+            Assert.assertEquals("* * ?", String.join(" ", fields[3], fields[4], fields[5]));
+            carried = carried || "3".equals(fields[2]);
+        }
+        Assert.assertTrue(carried);
+    }
+
+    @Test
+    public void fixedMinuteInLastHourOfDayStaysWithinHour()
+    {
+        for (int idx = 0; idx < TENANTS; idx++)
+        {
+            final String tenantDomain = "tenant" + idx + ".example.com";
+            final String[] fields = StaggeredCronTriggerBean.staggerCronExpression("0 55 23 * * ?", tenantDomain, 1800).split(" ");
+
+            Assert.assertEquals("23", fields[2]);
+            Assert.assertEquals(55 * 60 + offset(tenantDomain, 300), Integer.parseInt(fields[1]) * 60 + Integer.parseInt(fields[0]));
+        }
+    }
+
+    @Test
+    public void fixedMinuteWithHourRangeStaysWithinHour()
+    {
+        for (int idx = 0; idx < TENANTS; idx++)
+        {
+            final String tenantDomain = "tenant" + idx + ".example.com";
+            final String[] fields = StaggeredCronTriggerBean.staggerCronExpression("30 50 8-17 * * ?", tenantDomain, 1800).split(" ");
+
+            Assert.assertEquals("8-17", fields[2]);
+            Assert.assertEquals(50 * 60 + 30 + offset(tenantDomain, 570), Integer.parseInt(fields[1]) * 60 + Integer.parseInt(fields[0]));
+        }
+    }
+
+    @Test
+    public void incrementIsShiftedWithinInterval()
+    {
+        for (int idx = 0; idx < TENANTS; idx++)
+        {
+            final String tenantDomain = "tenant" + idx + ".example.com";
+            final String[] fields = StaggeredCronTriggerBean.staggerCronExpression("0 */15 * * * ?", tenantDomain, 3600).split(" ");
+            final String[] incrementParts = fields[1].split("/");
+
+            Assert.assertEquals("15", incrementParts[1]);
+            Assert.assertEquals(offset(tenantDomain, 900), Integer.parseInt(incrementParts[0]) * 60 + Integer.parseInt(fields[0]));
+        }
+    }
+
+    @Test
+    public void incrementKeepsLastFiringWithinHour()
+    {
+        for (int idx = 0; idx < TENANTS; idx++)
+        {
+            final String tenantDomain = "tenant" + idx + ".example.com";
+
+            // fires at 0, 25 and 50 - a shift of more than 10 minutes would drop the last firing
+            String[] fields = StaggeredCronTriggerBean.staggerCronExpression("0 0/25 * * * ?", tenantDomain, 3600).split(" ");
+            String[] incrementParts = fields[1].split("/");
+            Assert.assertEquals("25", incrementParts[1]);
+            Assert.assertEquals(offset(tenantDomain, 600), Integer.parseInt(incrementParts[0]) * 60 + Integer.parseInt(fields[0]));
+
+            // only fires at 50 - start must not wrap modulo the increment
+            fields = StaggeredCronTriggerBean.staggerCronExpression("0 50/15 * * * ?", tenantDomain, 3600).split(" ");
+            incrementParts = fields[1].split("/");
+            Assert.assertEquals("15", incrementParts[1]);
+            Assert.assertEquals(50 * 60 + offset(tenantDomain, 600),
+                    Integer.parseInt(incrementParts[0]) * 60 + Integer.parseInt(fields[0]));
+        }
+    }
+
+    @Test
+    public void wildcardMinuteOnlyShiftsSeconds()
+    {
+        final String tenantDomain = "tenant.example.com";
+        final String staggered = StaggeredCronTriggerBean.staggerCronExpression("10 * * * * ?", tenantDomain, 1800);
+        Assert.assertEquals(((10 + offset(tenantDomain, 1800)) % 60) + " * * * * ?", staggered);
+    }
+
+    @Test
+    public void unsupportedExpressionsAreNotModified()
+    {
+        Assert.assertEquals("0/30 * * * * ?", StaggeredCronTriggerBean.staggerCronExpression("0/30 * * * * ?", "tenant.example.com", 1800));
+        Assert.assertEquals("0 0,30 * * * ?", StaggeredCronTriggerBean.staggerCronExpression("0 0,30 * * * ?", "tenant.example.com", 1800));
+        Assert.assertEquals("0 0 * * * ?", StaggeredCronTriggerBean.staggerCronExpression("0 0 * * * ?", "tenant.example.com", 0));
+    }
+
+    @Test
+    public void defaultTenantIsUsedWithoutTenantDomain()
+    {
+        final String expected = StaggeredCronTriggerBean.staggerCronExpression("0 0 2 * * ?", TenantUtil.DEFAULT_TENANT, 1800);
+        Assert.assertEquals(expected, StaggeredCronTriggerBean.staggerCronExpression("0 0 2 * * ?", null, 1800));
+        Assert.assertEquals(expected, StaggeredCronTriggerBean.staggerCronExpression("0 0 2 * * ?", "", 1800));
+
+        final int offset = offset(TenantUtil.DEFAULT_TENANT, 1800);
+        Assert.assertEquals((offset % 60) + " " + (offset / 60) + " 2 * * ?", expected);
+    }
+
+    private static int offset(final String tenantKey, final int window)
+    {
+        return (int) Math.floorMod(SpillingLongSet.hash(tenantKey), (long) window);
+    }
+}
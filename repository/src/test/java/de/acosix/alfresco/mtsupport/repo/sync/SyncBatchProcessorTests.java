@@ -0,0 +1,461 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorkerAdaptor;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.util.Pair;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class SyncBatchProcessorTests
+{
+
+    protected ExecutorService executor;
+
+    @Before
+    public void before()
+    {
+        this.executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void after()
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void checkpointOnlyCoversContiguousBatches()
+    {
+        final SyncBatchProcessor<String> processor = this.newProcessor(Arrays.asList("a", "b", "c", "d"), this.executor, 1, 1);
+        final List<Pair<String, Integer>> checkpoints = new ArrayList<>();
+        processor.setCheckpointListener((entryId, entries) -> checkpoints.add(new Pair<>(entryId, entries)));
+
+        processor.onBatchCompleted(2, "c", 1);
+        processor.onBatchCompleted(1, "b", 1);
+        Assert.assertEquals(Collections.emptyList(), checkpoints);
+
+        processor.onBatchCompleted(0, "a", 1);
+        Assert.assertEquals(Collections.singletonList(new Pair<>("c", Integer.valueOf(3))), checkpoints);
+
+        processor.onBatchCompleted(3, "d", 1);
+        Assert.assertEquals(Arrays.asList(new Pair<>("c", Integer.valueOf(3)), new Pair<>("d", Integer.valueOf(4))), checkpoints);
+    }
+
+    @Test
+    public void checkpointWaitsForBatchCompletingLast() throws Exception
+    {
+        final CountDownLatch laterBatchesCompleted = new CountDownLatch(2);
+        final ThreadLocal<String> currentEntry = new ThreadLocal<>();
+        final BatchProcessWorkerAdaptor<String> worker = new BatchProcessWorkerAdaptor<String>()
+        {
+
+            @Override
+            public void process(final String entry) throws Throwable
+            {
+                currentEntry.set(entry);
+                if ("a".equals(entry))
+                {
+                    Assert.assertTrue("later batches did not complete", laterBatchesCompleted.await(10, TimeUnit.SECONDS));
+                }
+            }
+
+            @Override
+            public void afterProcess()
+            {
+                // called after the batch has been reported as completed
+                if (!"a".equals(currentEntry.get()))
+                {
+                    laterBatchesCompleted.countDown();
+                }
+                currentEntry.remove();
+            }
+        };
+
+        final SyncBatchProcessor<String> processor = this.newProcessor(Arrays.asList("a", "b", "c"), this.executor, 3, 1);
+        final List<Pair<String, Integer>> checkpoints = Collections.synchronizedList(new ArrayList<>());
+        processor.setCheckpointListener((entryId, entries) -> checkpoints.add(new Pair<>(entryId, entries)));
+
+        Assert.assertEquals(3, processor.process(worker, true));
+        Assert.assertEquals(Collections.singletonList(new Pair<>("c", Integer.valueOf(3))), checkpoints);
+        Assert.assertEquals(0, processor.getTotalErrors());
+    }
+
+    @Test
+    public void concurrentBatchesLimited() throws Exception
+    {
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final BatchProcessWorkerAdaptor<String> worker = new BatchProcessWorkerAdaptor<String>()
+        {
+
+            @Override
+            public void process(final String entry) throws Throwable
+            {
+                final int nowRunning = running.incrementAndGet();
+                maxRunning.accumulateAndGet(nowRunning, Math::max);
+                Thread.sleep(20);
+                running.decrementAndGet();
+            }
+        };
+
+        final List<String> entries = new ArrayList<>();
+        for (int idx = 0; idx < 20; idx++)
+        {
+            entries.add("entry" + idx);
+        }
+
+        final SyncBatchProcessor<String> processor = this.newProcessor(entries, this.executor, 2, 1);
+        Assert.assertEquals(20, processor.process(worker, true));
+        Assert.assertEquals(20, processor.getSuccessfullyProcessedEntriesLong());
+        Assert.assertTrue("more batches than allowed ran concurrently", maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void deadlineStopsProcessing()
+    {
+        final List<String> processed = new ArrayList<>();
+        final SyncBatchProcessor<String> processor = this.newProcessor(Arrays.asList("a", "b", "c", "d", "e"), new CallerRunsExecutor(),
+                1, 1);
+        final BatchProcessWorkerAdaptor<String> worker = new BatchProcessWorkerAdaptor<String>()
+        {
+
+            @Override
+            public void process(final String entry) throws Throwable
+            {
+                processed.add(entry);
+                if ("b".equals(entry))
+                {
+                    // time budget is exhausted while the second batch is processed
+                    processor.setDeadline(1);
+                }
+            }
+        };
+
+        final List<Pair<String, Integer>> checkpoints = new ArrayList<>();
+        processor.setCheckpointListener((entryId, entries) -> checkpoints.add(new Pair<>(entryId, entries)));
+
+        Assert.assertEquals(2, processor.process(worker, true));
+        Assert.assertTrue(processor.isDeadlineReached());
+        Assert.assertEquals(Arrays.asList("a", "b"), processed);
+        Assert.assertEquals(new Pair<>("b", Integer.valueOf(2)), checkpoints.get(checkpoints.size() - 1));
+    }
+
+    @Test
+    public void expiredDeadlineStartsNoBatch()
+    {
+        final AtomicInteger processed = new AtomicInteger(0);
+        final SyncBatchProcessor<String> processor = this.newProcessor(Arrays.asList("a", "b"), this.executor, 2, 1);
+        processor.setDeadline(System.currentTimeMillis() - 1000);
+
+        Assert.assertEquals(0, processor.process(new BatchProcessWorkerAdaptor<String>()
+        {
+
+            @Override
+            public void process(final String entry) throws Throwable
+            {
+                processed.incrementAndGet();
+            }
+        }, true));
+        Assert.assertTrue(processor.isDeadlineReached());
+        Assert.assertEquals(0, processed.get());
+    }
+
+    @Test
+    public void failingEntryExcludedFromCommittedBatch()
+    {
+        final SimulatedTransactionHelper txnHelper = new SimulatedTransactionHelper();
+        final StagingWorker worker = new StagingWorker(txnHelper, "c", null);
+        final SyncBatchProcessor<String> processor = new SyncBatchProcessor<>("test", txnHelper, Arrays.asList("a", "b", "c", "d", "e"),
+                new CallerRunsExecutor(), 1, 5, null, 1000);
+        final List<String> failedEntries = new ArrayList<>();
+        processor.setFailedEntryListener((entryId, error) -> failedEntries.add(entryId));
+
+        Assert.assertEquals(5, processor.process(worker, true));
+        Assert.assertEquals(Collections.singletonList("c"), failedEntries);
+        Assert.assertEquals(Arrays.asList("a", "b", "d", "e"), txnHelper.committedEntries);
+        // state staged by the failing entry and by the rolled back first attempt of the good entries is discarded
+        Assert.assertEquals(Arrays.asList("a", "b", "d", "e"), worker.appliedState);
+        // the failing entry does not need to be isolated by splitting the batch
+        Assert.assertEquals(2, txnHelper.transactions);
+        Assert.assertEquals(4, processor.getSuccessfullyProcessedEntriesLong());
+    }
+
+    @Test
+    public void entryFailingOnCommitIsolatedBySplitting()
+    {
+        final SimulatedTransactionHelper txnHelper = new SimulatedTransactionHelper();
+        final StagingWorker worker = new StagingWorker(txnHelper, null, "c");
+        final SyncBatchProcessor<String> processor = new SyncBatchProcessor<>("test", txnHelper, Arrays.asList("a", "b", "c", "d", "e"),
+                new CallerRunsExecutor(), 1, 5, null, 1000);
+        final List<String> failedEntries = new ArrayList<>();
+        processor.setFailedEntryListener((entryId, error) -> failedEntries.add(entryId));
+
+        Assert.assertEquals(5, processor.process(worker, true));
+        Assert.assertEquals(Collections.singletonList("c"), failedEntries);
+        Assert.assertEquals(Arrays.asList("a", "b", "d", "e"), txnHelper.committedEntries);
+        Assert.assertEquals(Arrays.asList("a", "b", "d", "e"), worker.appliedState);
+        Assert.assertEquals(1, processor.getTotalErrors());
+    }
+
+    @Test
+    public void failingBatchPreparationCountsEntriesAsFailed()
+    {
+        final AtomicInteger preparations = new AtomicInteger(0);
+        final AtomicInteger processed = new AtomicInteger(0);
+        final BatchProcessWorkerAdaptor<String> worker = new BatchProcessWorkerAdaptor<String>()
+        {
+
+            @Override
+            public void beforeProcess() throws Throwable
+            {
+                if (preparations.incrementAndGet() == 1)
+                {
+                    throw new IllegalStateException("simulated preparation failure");
+                }
+            }
+
+            @Override
+            public void process(final String entry) throws Throwable
+            {
+                processed.incrementAndGet();
+            }
+        };
+
+        final SyncBatchProcessor<String> processor = this.newProcessor(Arrays.asList("a", "b", "c", "d"), new CallerRunsExecutor(), 1, 2);
+        final List<String> failedEntries = new ArrayList<>();
+        processor.setFailedEntryListener((entryId, error) -> failedEntries.add(entryId));
+        final List<Pair<String, Integer>> checkpoints = new ArrayList<>();
+        processor.setCheckpointListener((entryId, entries) -> checkpoints.add(new Pair<>(entryId, entries)));
+
+        Assert.assertEquals(4, processor.process(worker, true));
+        Assert.assertEquals(Arrays.asList("a", "b"), failedEntries);
+        Assert.assertEquals(2, processor.getTotalErrors());
+        Assert.assertEquals(2, processor.getSuccessfullyProcessedEntriesLong());
+        Assert.assertEquals(2, processed.get());
+        // the checkpoint advances past the batch that could not be prepared
+        Assert.assertEquals(Arrays.asList(new Pair<>("b", Integer.valueOf(2)), new Pair<>("d", Integer.valueOf(4))), checkpoints);
+    }
+
+    protected SyncBatchProcessor<String> newProcessor(final List<String> entries, final ExecutorService executor,
+            final int maxConcurrentBatches, final int batchSize)
+    {
+        return new SyncBatchProcessor<>("test", new NonTransactionalHelper(), entries, executor, maxConcurrentBatches, batchSize, null,
+                1000);
+    }
+
+    /**
+     * Stages its processed entries as in-memory state and fails for specific entries, either while processing them or on commit.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected static class StagingWorker extends BatchProcessWorkerAdaptor<String>
+    {
+
+        protected final SimulatedTransactionHelper transactionHelper;
+
+        protected final String failingEntry;
+
+        protected final String failingOnCommitEntry;
+
+        protected final List<String> appliedState = new ArrayList<>();
+
+        protected StagingWorker(final SimulatedTransactionHelper transactionHelper, final String failingEntry,
+                final String failingOnCommitEntry)
+        {
+            this.transactionHelper = transactionHelper;
+            this.failingEntry = failingEntry;
+            this.failingOnCommitEntry = failingOnCommitEntry;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void process(final String entry) throws Throwable
+        {
+            SyncBatchProcessor.applyOnCommit(() -> this.appliedState.add(entry));
+            if (entry.equals(this.failingEntry))
+            {
+                throw new IllegalStateException("Entry " + entry + " is broken");
+            }
+            if (entry.equals(this.failingOnCommitEntry))
+            {
+                this.transactionHelper.failOnCommit = true;
+            }
+            this.transactionHelper.processedEntries.add(entry);
+        }
+    }
+
+    /**
+     * Simulates transactions by recording the entries processed in a transaction as committed unless the callback fails or a failure on
+     * commit has been requested.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected static class SimulatedTransactionHelper extends RetryingTransactionHelper
+    {
+
+        protected final List<String> committedEntries = new ArrayList<>();
+
+        protected List<String> processedEntries;
+
+        protected boolean failOnCommit;
+
+        protected int transactions = 0;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public <R> R doInTransaction(final RetryingTransactionCallback<R> cb, final boolean readOnly, final boolean requiresNew)
+        {
+            this.transactions++;
+            this.processedEntries = new ArrayList<>();
+            this.failOnCommit = false;
+            try
+            {
+                final R result = cb.execute();
+                if (this.failOnCommit)
+                {
+                    throw new IllegalStateException("Constraint violated on commit");
+                }
+                this.committedEntries.addAll(this.processedEntries);
+                return result;
+            }
+            catch (final RuntimeException | Error e)
+            {
+                throw e;
+            }
+            catch (final Throwable t)
+            {
+                throw new RuntimeException(t);
+            }
+        }
+    }
+
+    /**
+     * Runs callbacks without any actual transaction or retries.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected static class NonTransactionalHelper extends RetryingTransactionHelper
+    {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public <R> R doInTransaction(final RetryingTransactionCallback<R> cb, final boolean readOnly, final boolean requiresNew)
+        {
+            try
+            {
+                return cb.execute();
+            }
+            catch (final RuntimeException | Error e)
+            {
+                throw e;
+            }
+            catch (final Throwable t)
+            {
+                throw new RuntimeException(t);
+            }
+        }
+    }
+
+    /**
+     * Runs all tasks in the submitting thread to make the order of batches deterministic.
+     *
+     * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+     */
+    protected static class CallerRunsExecutor extends AbstractExecutorService
+    {
+
+        private volatile boolean shutdown = false;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void execute(final Runnable command)
+        {
+            command.run();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void shutdown()
+        {
+            this.shutdown = true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            this.shutdown = true;
+            return Collections.emptyList();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isShutdown()
+        {
+            return this.shutdown;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isTerminated()
+        {
+            return this.shutdown;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit)
+        {
+            return true;
+        }
+    }
+}
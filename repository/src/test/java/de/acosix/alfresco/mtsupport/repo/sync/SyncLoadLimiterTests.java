@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Acosix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.acosix.alfresco.mtsupport.repo.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Axel Faust, <a href="http://acosix.de">Acosix GmbH</a>
+ */
+public class SyncLoadLimiterTests
+{
+
+    protected SyncLoadLimiter limiter;
+
+    @Before
+    public void before()
+    {
+        this.limiter = new SyncLoadLimiter();
+    }
+
+    @After
+    public void after()
+    {
+        this.limiter.destroy();
+    }
+
+    @Test
+    public void unlimitedSyncRunsInCallingThread()
+    {
+        this.limiter.afterPropertiesSet();
+
+        final List<Thread> threads = new ArrayList<>();
+        Assert.assertTrue(this.limiter.runLimited("tenanta", () -> threads.add(Thread.currentThread())));
+        Assert.assertEquals(Collections.singletonList(Thread.currentThread()), threads);
+    }
+
+    @Test
+    public void limitedSyncsDoNotBlockCaller() throws Exception
+    {
+        this.limiter.setMaxConcurrentSyncs(1);
+        this.limiter.afterPropertiesSet();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(2);
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final List<String> runTenants = Collections.synchronizedList(new ArrayList<>());
+
+        for (final String tenantDomain : Arrays.asList("tenanta", "tenantb"))
+        {
+            // would block until released if the synchronisation ran in the calling thread
+            Assert.assertTrue(this.limiter.runLimited(tenantDomain, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try
+                {
+                    Assert.assertTrue(release.await(10, TimeUnit.SECONDS));
+                }
+                catch (final InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                runTenants.add(tenantDomain);
+                running.decrementAndGet();
+                completed.countDown();
+            }));
+        }
+
+        // trigger of a tenant with a pending synchronisation is skipped
+        Assert.assertFalse(this.limiter.runLimited("tenantb", () -> runTenants.add("duplicate")));
+
+        release.countDown();
+        Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("tenanta", "tenantb"), runTenants);
+        Assert.assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void syncNotStartedWithinMaxDelaySkipped() throws Exception
+    {
+        this.limiter.setMaxConcurrentSyncs(1);
+        this.limiter.setMaxDelay(50);
+        this.limiter.afterPropertiesSet();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> runTenants = Collections.synchronizedList(new ArrayList<>());
+        Assert.assertTrue(this.limiter.runLimited("tenanta", () -> {
+            try
+            {
+                Assert.assertTrue(release.await(10, TimeUnit.SECONDS));
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            runTenants.add("tenanta");
+        }));
+        Assert.assertTrue(this.limiter.runLimited("tenantb", () -> runTenants.add("tenantb")));
+
+        Thread.sleep(100);
+        release.countDown();
+
+        // a later trigger of the skipped tenant is accepted again once the skipped synchronisation has been discarded
+        final CountDownLatch completed = new CountDownLatch(1);
+        final long waitEnd = System.currentTimeMillis() + 10000;
+        boolean scheduled = false;
+        while (!scheduled && System.currentTimeMillis() < waitEnd)
+        {
+            scheduled = this.limiter.runLimited("tenantb", completed::countDown);
+            if (!scheduled)
+            {
+                Thread.sleep(10);
+            }
+        }
+        Assert.assertTrue(scheduled);
+        Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Collections.singletonList("tenanta"), runTenants);
+    }
+}